@@ -0,0 +1,334 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2013 The Processing Foundation
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU General Public License version 2
+  as published by the Free Software Foundation.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program; if not, write to the Free Software Foundation,
+  Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package processing.mode.java;
+
+import java.io.File;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import processing.app.Base;
+import processing.app.Preferences;
+import processing.app.elements.sketch.Sketch;
+import processing.mode.java.preproc.PreprocessorResult;
+
+
+/**
+ * Keeps the build folders of a sketch from one Run to the next, along with
+ * what was last put in them, so that only the parts that changed have to
+ * be done over. If the tabs haven't changed, the preprocessor isn't run
+ * again, and only the .java files that are different from the last good
+ * build (plus the ones that mention them) are handed to the compiler,
+ * which finds everything else as .class files in the bin folder.
+ * <P>
+ * Only used for Run and Present. Exports always build from scratch.
+ */
+public class BuildCache {
+  /** One for each sketch folder that has been run. */
+  static HashMap<File, BuildCache> caches = new HashMap<File, BuildCache>();
+
+  File srcFolder;
+  File binFolder;
+
+  /** Preferences that change what the preprocessor writes. */
+  static final String[] PREPROC_PREFS = {
+    "editor.tabs.size",
+    "preproc.substitute_floats",
+    "preproc.substitute_font",
+    "preproc.substitute_image",
+    "preproc.substitute_unicode",
+    "export.application.fullscreen",
+    "export.application.stop",
+    "run.present.bgcolor",
+    "run.present.stop.color"
+  };
+
+  // the last time the preprocessor ran
+  String program;
+  String[] codeFolderPackages;
+  String settings;
+  String preprocessed;
+  PreprocessorResult result;
+  boolean foundMain;
+
+  // the last successful compile
+  String classPath;
+  /** Contents of each source file, by its path inside srcFolder. */
+  HashMap<String, String> compiled = new HashMap<String, String>();
+
+
+  /**
+   * The cache for this sketch, with new build folders if it doesn't have
+   * them yet (or if they've been deleted in the meantime).
+   */
+  static synchronized BuildCache get(Sketch sketch) {
+    File key = sketch.getFolder().getAbsoluteFile();
+    BuildCache cache = caches.get(key);
+    if (cache == null ||
+        !cache.srcFolder.isDirectory() || !cache.binFolder.isDirectory()) {
+      cache = new BuildCache();
+      cache.srcFolder = sketch.makeTempFolder();
+      cache.binFolder = sketch.makeTempFolder();
+      if (cache.srcFolder == null || cache.binFolder == null) {
+        return null;
+      }
+      caches.put(key, cache);
+    }
+    return cache;
+  }
+
+
+  /**
+   * Everything besides the code itself that goes into what the preprocessor
+   * writes: the name of the class, and a handful of preferences.
+   */
+  static String settings(String className) {
+    StringBuilder sb = new StringBuilder(className);
+    for (String key : PREPROC_PREFS) {
+      sb.append('\n').append(key).append('=').append(Preferences.get(key));
+    }
+    return sb.toString();
+  }
+
+
+  /**
+   * Returns the output of the last run of the preprocessor, if it was for
+   * exactly the same code and settings, or null if it has to run again.
+   */
+  String preprocessed(String program, String[] codeFolderPackages,
+                      String settings) {
+    if (program.equals(this.program) &&
+        Arrays.equals(codeFolderPackages, this.codeFolderPackages) &&
+        settings.equals(this.settings)) {
+      return preprocessed;
+    }
+    return null;
+  }
+
+
+  void preprocessed(String program, String[] codeFolderPackages,
+                    String settings, String preprocessed,
+                    PreprocessorResult result, boolean foundMain) {
+    this.program = program;
+    this.codeFolderPackages = codeFolderPackages;
+    this.settings = settings;
+    this.preprocessed = preprocessed;
+    this.result = result;
+    this.foundMain = foundMain;
+  }
+
+
+  /**
+   * Figure out which of the sources (paths relative to srcFolder) need to
+   * be compiled: the ones that changed since the last good build, and the
+   * ones that mention a class from those by name (they might be using a
+   * method that's gone), and then the ones that mention a class from
+   * those, and so on until nothing else is added. Every top-level class in
+   * a file counts, not just the one the file is named after. If files were
+   * added or removed, or the class path is different, start over with an
+   * empty bin folder and compile all. Old class files for the sources
+   * being compiled are removed first, so that classes that no longer exist
+   * don't stick around.
+   */
+  String[] changed(String[] sources, String classPath) {
+    HashMap<String, String> contents = new HashMap<String, String>();
+    for (String path : sources) {
+      contents.put(path, load(path));
+    }
+    if (!classPath.equals(this.classPath) ||
+        !contents.keySet().equals(compiled.keySet())) {
+      Base.removeDescendants(binFolder);
+      compiled.clear();
+      return sources;
+    }
+
+    ArrayList<String> changed = new ArrayList<String>();
+    ArrayList<Pattern> names = new ArrayList<Pattern>();
+    for (String path : sources) {
+      String code = contents.get(path);
+      if (code == null || !code.equals(compiled.get(path))) {
+        changed.add(path);
+        // classes that were taken out count too, whoever used them has to
+        // be compiled to find out
+        addNames(names, path, code);
+        addNames(names, path, compiled.get(path));
+      }
+    }
+    if (changed.isEmpty()) {
+      return new String[0];
+    }
+    // anything that mentions one of those might need compiling as well,
+    // and then anything that mentions one of its classes, and so on
+    boolean added;
+    do {
+      added = false;
+      for (String path : sources) {
+        if (!changed.contains(path)) {
+          String code = contents.get(path);
+          for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).matcher(code).find()) {
+              changed.add(path);
+              addNames(names, path, code);
+              added = true;
+              break;
+            }
+          }
+        }
+      }
+    } while (added);
+
+    for (String path : changed) {
+      removeClasses(path, contents.get(path));
+      removeClasses(path, compiled.get(path));
+    }
+    return changed.toArray(new String[changed.size()]);
+  }
+
+
+  /** Add a pattern for each top-level class in this source file. */
+  static void addNames(List<Pattern> names, String path, String code) {
+    for (String name : topLevelClasses(path, code)) {
+      names.add(Pattern.compile("\\b" + Pattern.quote(name) + "\\b"));
+    }
+  }
+
+
+  /** Remember what was compiled, after it all went through successfully. */
+  void compiled(String[] sources, String classPath) {
+    for (String path : sources) {
+      compiled.put(path, load(path));
+    }
+    this.classPath = classPath;
+  }
+
+
+  /**
+   * Something went wrong with the compile, so the bin folder might have a
+   * mix of old and new classes. Build everything next time.
+   */
+  void forget() {
+    compiled.clear();
+    classPath = null;
+  }
+
+
+  /** Delete .java files in the src folder that aren't in the list. */
+  void removeOtherSources(List<File> keep) {
+    for (String path : Base.listFiles(srcFolder, false, ".java")) {
+      File file = new File(path);
+      if (!keep.contains(file.getAbsoluteFile())) {
+        file.delete();
+      }
+    }
+  }
+
+
+  String load(String path) {
+    try {
+      return Base.loadFile(new File(srcFolder, path));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+
+  /** Name of the class in a .java file, without its package. */
+  static String className(String path) {
+    String name = new File(path).getName();
+    return name.substring(0, name.length() - ".java".length());
+  }
+
+
+  static final Pattern DECLARATION =
+    Pattern.compile("\\b(?:class|interface|enum)\\s+([A-Za-z_$][\\w$]*)");
+
+
+  /**
+   * Names of the classes, interfaces and enums declared at the top level
+   * of a source file (outside of any braces), plus the one it's named
+   * after. Comments, strings and chars are skipped, so that braces in
+   * them don't throw off the count.
+   */
+  static List<String> topLevelClasses(String path, String code) {
+    ArrayList<String> found = new ArrayList<String>();
+    found.add(className(path));
+    if (code == null) {
+      return found;
+    }
+    StringBuilder outside = new StringBuilder();
+    int depth = 0;
+    int length = code.length();
+    for (int i = 0; i < length; i++) {
+      char c = code.charAt(i);
+      if (c == '/' && i + 1 < length && code.charAt(i + 1) == '/') {
+        while (i < length && code.charAt(i) != '\n') i++;
+        c = ' ';
+      } else if (c == '/' && i + 1 < length && code.charAt(i + 1) == '*') {
+        int end = code.indexOf("*/", i + 2);
+        i = (end == -1) ? length : end + 1;
+        c = ' ';
+      } else if (c == '"' || c == '\'') {
+        char quote = c;
+        for (i++; i < length && code.charAt(i) != quote; i++) {
+          if (code.charAt(i) == '\\') i++;
+        }
+        c = ' ';
+      } else if (c == '{') {
+        if (depth++ == 0) outside.append(' ');
+        continue;
+      } else if (c == '}') {
+        if (--depth == 0) outside.append(' ');
+        continue;
+      }
+      if (depth == 0) {
+        outside.append(c);
+      }
+    }
+    Matcher m = DECLARATION.matcher(outside);
+    while (m.find()) {
+      if (!found.contains(m.group(1))) {
+        found.add(m.group(1));
+      }
+    }
+    return found;
+  }
+
+
+  /**
+   * Remove Name.class and Name$Inner.class for each top-level class in
+   * this version of the source file.
+   */
+  void removeClasses(String path, String code) {
+    File folder = new File(binFolder, path).getParentFile();
+    String[] list = folder.list();
+    if (list != null) {
+      for (String name : topLevelClasses(path, code)) {
+        for (String filename : list) {
+          if (filename.equals(name + ".class") ||
+              (filename.startsWith(name + "$") && filename.endsWith(".class"))) {
+            new File(folder, filename).delete();
+          }
+        }
+      }
+    }
+  }
+}
@@ -95,6 +95,22 @@ public class Compiler {
 //    }
     String[] sourceFiles = Base.listFiles(build.getSrcFolder(), false, ".java");
 
+    // When running from the editor, only compile what changed since last time
+    BuildCache cache = build.getCache();
+    String[] cacheSources = null;
+    if (cache != null) {
+      String[] relative = Base.listFiles(build.getSrcFolder(), true, ".java");
+      cacheSources = cache.changed(relative, build.getClassPath());
+      if (cacheSources.length == 0) {
+        return true;  // nothing to do, the classes are all up to date
+      }
+      sourceFiles = new String[cacheSources.length];
+      for (int i = 0; i < cacheSources.length; i++) {
+        sourceFiles[i] =
+          new File(build.getSrcFolder(), cacheSources[i]).getAbsolutePath();
+      }
+    }
+
 //    String[] command = new String[baseCommand.length + sourceFiles.length];
 //    System.arraycopy(baseCommand, 0, command, 0, baseCommand.length);
 //    // append each of the files to the command string
@@ -132,17 +148,14 @@ public class Compiler {
       // so that it can grab the compiler JAR files from it.
       ClassLoader loader = build.mode.getClassLoader();
       try {
-        Class batchClass = 
-          Class.forName("org.eclipse.jdt.core.compiler.batch.BatchCompiler", false, loader);
-        Class progressClass = 
-          Class.forName("org.eclipse.jdt.core.compiler.CompilationProgress", false, loader);
-        Class[] compileArgs = 
-          new Class[] { String[].class, PrintWriter.class, PrintWriter.class, progressClass };
-        Method compileMethod = batchClass.getMethod("compile", compileArgs);
+        Method compileMethod = getCompileMethod(loader);
         success = (Boolean) 
           compileMethod.invoke(null, new Object[] { command, outWriter, writer, null });
       } catch (Exception e) {
         e.printStackTrace();
+        if (cache != null) {
+          cache.forget();
+        }
         throw new SketchException("Unknown error inside the compiler.");
       }
       
@@ -390,6 +403,13 @@ public class Compiler {
       e.printStackTrace();
       success = false;
     }
+    if (cache != null) {
+      if (success && exception == null) {
+        cache.compiled(cacheSources, build.getClassPath());
+      } else {
+        cache.forget();
+      }
+    }
     // In case there was something else.
     if (exception != null) throw exception;
 
@@ -397,6 +417,72 @@ public class Compiler {
   }
 
 
+  static ClassLoader compileLoader;
+  static Method compileMethod;
+
+  /**
+   * BatchCompiler.compile() from ECJ, loaded through the mode's class loader
+   * the first time it's needed, then kept for later builds.
+   */
+  static synchronized Method getCompileMethod(ClassLoader loader) throws Exception {
+    if (compileMethod == null || compileLoader != loader) {
+      Class<?> batchClass =
+        Class.forName("org.eclipse.jdt.core.compiler.batch.BatchCompiler", false, loader);
+      Class<?> progressClass =
+        Class.forName("org.eclipse.jdt.core.compiler.CompilationProgress", false, loader);
+      Class<?>[] compileArgs =
+        new Class[] { String[].class, PrintWriter.class, PrintWriter.class, progressClass };
+      compileMethod = batchClass.getMethod("compile", compileArgs);
+      compileLoader = loader;
+    }
+    return compileMethod;
+  }
+
+
+  static boolean warmedUp;
+
+  /**
+   * Compile a tiny class against core.jar on a background thread, so that
+   * the compiler's classes are loaded and the VM has had a go at them (and
+   * the JDK classes have been read) before the first Run, which is
+   * otherwise a good deal slower than the ones after it.
+   */
+  static public synchronized void warmUp(final JavaMode mode) {
+    if (warmedUp) return;
+    warmedUp = true;
+
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          File folder = Base.createTempFolder("warmup", "compile", null);
+          File source = new File(folder, "WarmUp.java");
+          Base.saveFile("public class WarmUp extends processing.core.PApplet {\n" +
+                        "  public void draw() { ellipse(mouseX, mouseY, 20, 20); }\n" +
+                        "}\n", source);
+          String classPath = folder.getAbsolutePath() +
+            mode.getCoreLibrary().getClassPath();
+          String[] command = new String[] {
+            "-source", "1.6", "-target", "1.6", "-nowarn",
+            "-classpath", classPath,
+            "-d", folder.getAbsolutePath(),
+            source.getAbsolutePath()
+          };
+          PrintWriter quiet = new PrintWriter(new StringWriter());
+          getCompileMethod(mode.getClassLoader()).invoke(null, new Object[] {
+            command, quiet, quiet, null
+          });
+          Base.removeDir(folder);
+        } catch (Exception e) {
+          // not a problem, the first build will just take a little longer
+        }
+      }
+    }, "Compiler warm-up");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+
   /**
    * Fire up 'ole javac based on <a href="http://java.sun.com/j2se/1.5.0/docs/tooldocs/solaris/javac.html#proginterface">this interface</a>.
    *
@@ -65,6 +65,9 @@ public class JavaBuild {
   /** List of library folders, as figured out during preprocessing. */
   private ArrayList<Library> importedLibraries;
 
+  /** Folders and results kept from the last Run, or null for exports. */
+  protected BuildCache cache;
+
 
   public JavaBuild(Sketch sketch) {
     this.sketch = sketch;
@@ -123,7 +126,11 @@ public class JavaBuild {
    * @throws RunnerException
    */
   public String build(boolean sizeWarning) throws SketchException {
-    return build(sketch.makeTempFolder(), sketch.makeTempFolder(), sizeWarning);
+    cache = BuildCache.get(sketch);
+    if (cache == null) {
+      return build(sketch.makeTempFolder(), sketch.makeTempFolder(), sizeWarning);
+    }
+    return build(cache.srcFolder, cache.binFolder, sizeWarning);
   }
 
 
@@ -262,17 +269,43 @@ public class JavaBuild {
 //    }
 
     PreprocessorResult result;
+    // the .java files for this build, anything else left over is removed
+    ArrayList<File> written = new ArrayList<File>();
     try {
       File outputFolder = (packageName == null) ?
         srcFolder : new File(srcFolder, packageName.replace('.', '/'));
       outputFolder.mkdirs();
 //      Base.openFolder(outputFolder);
       final File java = new File(outputFolder, sketch.getName() + ".java");
-      final PrintWriter stream = new PrintWriter(new FileWriter(java));
-      try {
-        result = preprocessor.write(stream, bigCode.toString(), codeFolderPackages);
-      } finally {
-        stream.close();
+      written.add(java);
+      String program = bigCode.toString();
+      String settings = BuildCache.settings((packageName == null) ?
+        sketch.getName() : packageName + "." + sketch.getName());
+      String preprocessed = (cache == null) ? null :
+        cache.preprocessed(program, codeFolderPackages, settings);
+      if (preprocessed != null) {
+        // same code as last time, no need to parse it all over again
+        // (and the file from then is still in the build folder)
+        result = cache.result;
+        foundMain = cache.foundMain;
+        if (!java.exists()) {
+          writePreprocessed(preprocessed, java);
+        }
+      } else {
+        StringWriter writer = new StringWriter();
+        final PrintWriter stream = new PrintWriter(writer);
+        try {
+          result = preprocessor.write(stream, program, codeFolderPackages);
+        } finally {
+          stream.close();
+        }
+        preprocessed = writer.toString();
+        foundMain = preprocessor.hasMethod("main");
+        writePreprocessed(preprocessed, java);
+        if (cache != null) {
+          cache.preprocessed(program, codeFolderPackages, settings,
+                             preprocessed, result, foundMain);
+        }
       }
     } catch (FileNotFoundException fnfe) {
       fnfe.printStackTrace();
@@ -490,6 +523,7 @@ public class JavaBuild {
 
           if (packageMatch == null && packageName == null) {
             sc.copyTo(new File(srcFolder, filename));
+            written.add(new File(srcFolder, filename));
 
           } else {
             if (packageMatch == null) {
@@ -501,6 +535,7 @@ public class JavaBuild {
             File packageFolder = new File(srcFolder, packageMatch[0].replace('.', '/'));
             packageFolder.mkdirs();
             Base.saveFile(javaCode, new File(packageFolder, filename));
+            written.add(new File(packageFolder, filename));
           }
 
         } catch (IOException e) {
@@ -514,10 +549,27 @@ public class JavaBuild {
         sc.addPreprocOffset(result.headerOffset);
       }
     }
-    foundMain = preprocessor.hasMethod("main");
+    if (cache != null) {
+      // tabs that have been removed or renamed since the last Run
+      cache.removeOtherSources(written);
+    }
     return result.className;
   }
 
+  /**
+   * Write the preprocessed code in the default encoding, which is what the
+   * compiler will read it with.
+   */
+  protected void writePreprocessed(String code, File java) throws IOException {
+    final PrintWriter stream = new PrintWriter(new FileWriter(java));
+    try {
+      stream.print(code);
+    } finally {
+      stream.close();
+    }
+  }
+
+
   /**
    * Returns true if this package isn't part of a library (it's a system import
    * or something like that). Don't bother complaining about java.* or javax.*
@@ -577,6 +629,12 @@ public class JavaBuild {
   }
 
 
+  /** The cache kept between runs, or null if this is a full build. */
+  public BuildCache getCache() {
+    return cache;
+  }
+
+
   /**
    * Absolute path to the sketch folder. Used to set the working directry of
    * the sketch when running, i.e. so that saveFrame() goes to the right
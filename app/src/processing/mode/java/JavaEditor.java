@@ -33,6 +33,9 @@ public class JavaEditor extends Editor {
     listener = new PdeKeyListener(this, textarea);
 
     jmode = (JavaMode) mode;
+
+    // get the compiler ready in the background, for a quicker first Run
+    Compiler.warmUp(jmode);
   }
 
 
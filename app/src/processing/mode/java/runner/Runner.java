@@ -81,6 +81,9 @@ public class Runner implements MessageConsumer {
   protected Editor editor;
   protected JavaBuild build;
   protected Process process;
+
+  // VM started ahead of time by RunnerPool, if one was ready for this Run
+  protected RunnerPool.Pooled pooled;
   
 
   public Runner(JavaBuild build, RunnerListener listener) throws SketchException {
@@ -127,6 +130,19 @@ public class Runner implements MessageConsumer {
   public boolean launchVirtualMachine(boolean presenting) {
     String[] vmParams = getMachineParams();
     String[] sketchParams = getSketchParams(presenting);
+
+    String[] poolCommand = null;
+    if (Preferences.getBoolean("run.options.warm")) {
+      String[] classPaths = splitClassPath();
+      poolCommand = getPoolCommand(vmParams, classPaths[1]);
+      if (poolCommand != null) {
+        pooled = RunnerPool.take(poolCommand);
+      }
+      if (pooled != null) {
+        pooled.setSketch(classPaths[0], sketchParams);
+      }
+    }
+
     int port = 8000 + (int) (Math.random() * 1000);
     String portStr = String.valueOf(port);
 
@@ -197,7 +213,13 @@ public class Runner implements MessageConsumer {
     commandArgs = PApplet.concat(commandArgs, sketchParams);
 //  PApplet.println(commandArgs);
 //  commandArg.setValue(commandArgs);
-    launchJava(commandArgs);
+    if (pooled != null) {
+      // Already running, and will be told what to run in generateTrace()
+      process = pooled.getProcess();
+      portStr = pooled.getPort();
+    } else {
+      launchJava(commandArgs);
+    }
     
     AttachingConnector connector = (AttachingConnector) 
       findConnector("com.sun.jdi.SocketAttach");
@@ -211,6 +233,12 @@ public class Runner implements MessageConsumer {
     Connector.Argument portArg =
       (Connector.Argument)arguments.get("port");
     portArg.setValue(portStr);
+    if (pooled != null) {
+      // the waiting VM only listens on the loopback address
+      Connector.Argument hostArg =
+        (Connector.Argument)arguments.get("hostname");
+      hostArg.setValue(RunnerPool.LOOPBACK);
+    }
     
 //    Connector.Argument timeoutArg =
 //      (Connector.Argument)arguments.get("timeout");
@@ -231,6 +259,10 @@ public class Runner implements MessageConsumer {
           vm = connector.attach(arguments);
 //          vm = connector.attach(arguments);
           if (vm != null) {
+            if (poolCommand != null) {
+              // get another one going for the next Run
+              RunnerPool.prepare(poolCommand);
+            }
 //            generateTrace();
 //            available = true;
             return true;
@@ -325,6 +357,66 @@ public class Runner implements MessageConsumer {
   }
 
 
+  /**
+   * Split the class path into the parts that are this sketch's own (the bin
+   * folder and the contents of the code folder) and everything else (core,
+   * libraries, and so on). The first part is loaded by WarmStart at Run,
+   * the second is on the command line of the VM it runs in.
+   */
+  protected String[] splitClassPath() {
+    String binPath = build.getBinFolder().getAbsolutePath();
+    // the code folder entries come from Base.contentsToClassPath()
+    File codeFolder = new File(build.getSketchPath(), "code");
+    String codePath;
+    try {
+      codePath = codeFolder.getCanonicalPath() + File.separator;
+    } catch (IOException e) {
+      codePath = codeFolder.getAbsolutePath() + File.separator;
+    }
+    StringBuilder sketchPath = new StringBuilder();
+    StringBuilder basePath = new StringBuilder();
+    for (String entry : PApplet.split(build.getClassPath(), File.pathSeparatorChar)) {
+      if (entry.length() != 0) {
+        boolean own = entry.equals(binPath) || entry.startsWith(codePath);
+        StringBuilder sb = own ? sketchPath : basePath;
+        if (sb.length() != 0) {
+          sb.append(File.pathSeparatorChar);
+        }
+        sb.append(entry);
+      }
+    }
+    return new String[] { sketchPath.toString(), basePath.toString() };
+  }
+
+
+  /**
+   * Command line for a VM from RunnerPool: the same as for the sketch, but
+   * with only the shared part of the class path, plus the folder with
+   * WarmStart, which is the main class. The debugger agent is added by
+   * RunnerPool, which picks the port. Returns null if WarmStart can't be
+   * set up, in which case the sketch is launched the regular way.
+   */
+  protected String[] getPoolCommand(String[] vmParams, String basePath) {
+    File warmFolder = RunnerPool.getClassFolder();
+    if (warmFolder == null) {
+      return null;
+    }
+    if (basePath.length() != 0) {
+      basePath += File.pathSeparator;
+    }
+    basePath += warmFolder.getAbsolutePath();
+
+    String[] command = new String[vmParams.length + 2];
+    command[0] = Base.getJavaPath();
+    for (int i = 0; i < vmParams.length; i++) {
+      boolean classPath = (i > 0) && vmParams[i-1].equals("-cp");
+      command[i + 1] = classPath ? basePath : vmParams[i];
+    }
+    command[command.length - 1] = WarmStart.class.getName();
+    return command;
+  }
+
+
   protected String[] getSketchParams(boolean presenting) {
     ArrayList<String> params = new ArrayList<String>();
 
@@ -702,17 +794,30 @@ public class Runner implements MessageConsumer {
     eventThread.start();
 
     
-    errThread = 
-      new MessageSiphon(process.getErrorStream(), this).getThread();
+    // a waiting VM's output has been read all along, so take it from there
+    InputStream stderr = (pooled != null) ?
+      pooled.getErrorStream() : process.getErrorStream();
+    InputStream stdout = (pooled != null) ?
+      pooled.getInputStream() : process.getInputStream();
+    errThread = new MessageSiphon(stderr, this).getThread();
 
     outThread = new StreamRedirectThread("JVM stdout Reader",
-                                         process.getInputStream(),
-                                         System.out);
+                                         stdout, System.out);
     errThread.start();
     outThread.start();
 
     vm.resume();
 
+    if (pooled != null) {
+      // now that exceptions will be caught, start the sketch
+      try {
+        pooled.start();
+      } catch (IOException e) {
+        e.printStackTrace();
+        listener.statusError("Could not run the sketch.");
+      }
+    }
+
     // Shutdown begins when event thread terminates
     try {
       if (eventThread != null) eventThread.join();  // is this the problem?
@@ -0,0 +1,351 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2013 The Processing Foundation
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU General Public License version 2
+  as published by the Free Software Foundation.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program; if not, write to the Free Software Foundation,
+  Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package processing.mode.java.runner;
+
+import java.io.*;
+import java.util.*;
+
+import processing.app.Base;
+import processing.core.PApplet;
+
+
+/**
+ * Keeps a VM started ahead of time for the next Run, so that it doesn't
+ * have to wait for Java to start up. Each one is launched with the same
+ * command line that the sketch would get (memory settings, libraries, and
+ * so on), minus the sketch's own classes, and runs WarmStart, which loads
+ * core and waits to be told which sketch to run. That's done after the
+ * debugger has attached, so exceptions are found the same way as always.
+ * WarmStart is part of the PDE, so it's copied to a folder of its own that
+ * goes on the end of the class path (see getClassFolder()).
+ * <P>
+ * A VM is only used once. After it's taken, another is started so that it's
+ * ready for the Run after that. If anything on the command line changes
+ * (say, a library is added, or the memory setting in Preferences), the
+ * waiting VM doesn't match, and the sketch is started the regular way.
+ */
+public class RunnerPool {
+  /** Most VMs that are left waiting, the oldest are shut down first. */
+  static final int MAX_WAITING = 2;
+
+  /** Address the waiting VMs listen on for the debugger. */
+  static public final String LOOPBACK = "127.0.0.1";
+
+  /** Waiting VMs, by their command line. The first is the oldest. */
+  static LinkedHashMap<List<String>, Pooled> waiting =
+    new LinkedHashMap<List<String>, Pooled>();
+
+  /** Folder with a copy of WarmStart.class, or null if not written yet. */
+  static File classFolder;
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+        clear();
+        synchronized (RunnerPool.class) {
+          if (classFolder != null) {
+            Base.removeDir(classFolder);
+          }
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Folder to add to the class path of the waiting VMs so that they can
+   * find WarmStart. It's inside pde.jar, but putting all of pde.jar on the
+   * class path would let sketches and libraries see the PDE's classes, so
+   * only WarmStart itself is copied out (it doesn't use anything else from
+   * the PDE). Returns null if it couldn't be written.
+   */
+  static public synchronized File getClassFolder() {
+    if (classFolder == null) {
+      String name = WarmStart.class.getName().replace('.', '/') + ".class";
+      InputStream input = WarmStart.class.getClassLoader().getResourceAsStream(name);
+      if (input == null) {
+        return null;
+      }
+      try {
+        File folder = Base.createTempFolder("warm", "start", null);
+        boolean saved = PApplet.saveStream(new File(folder, name), input);
+        input.close();
+        if (!saved) {
+          Base.removeDir(folder);
+          return null;
+        }
+        classFolder = folder;
+      } catch (IOException e) {
+        e.printStackTrace();
+        return null;
+      }
+    }
+    return classFolder;
+  }
+
+
+  /** A running VM that hasn't been given a sketch yet. */
+  static public class Pooled {
+    Process process;
+    String port;
+    String classPath;
+    String[] args;
+    Drain output, error;
+
+    Pooled(Process process, String port) {
+      this.process = process;
+      this.port = port;
+      output = new Drain(process.getInputStream(), "RunnerPool stdout");
+      error = new Drain(process.getErrorStream(), "RunnerPool stderr");
+    }
+
+    public Process getProcess() {
+      return process;
+    }
+
+    /**
+     * Use this instead of the process's own stdout, which is being read
+     * while the VM waits. Starts with anything written before it was taken.
+     */
+    public InputStream getInputStream() {
+      return output;
+    }
+
+    /** Use this instead of the process's own stderr, see getInputStream(). */
+    public InputStream getErrorStream() {
+      return error;
+    }
+
+    /** Port the debugger should attach to. */
+    public String getPort() {
+      return port;
+    }
+
+    boolean isRunning() {
+      try {
+        process.exitValue();
+        return false;
+      } catch (IllegalThreadStateException e) {
+        return true;
+      }
+    }
+
+    /**
+     * What to run once the debugger is ready. The class path has the
+     * sketch's own classes (the bin and code folders), args[0] is the class
+     * with main(), and the rest are passed along to it.
+     */
+    public void setSketch(String classPath, String[] args) {
+      this.classPath = classPath;
+      this.args = args;
+    }
+
+    /** Start the sketch given to setSketch(). */
+    public void start() throws IOException {
+      Writer writer =
+        new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+      writer.write(classPath + "\n");
+      for (String arg : args) {
+        writer.write(arg + "\n");
+      }
+      writer.write("\n");
+      writer.flush();
+    }
+  }
+
+
+  /**
+   * Returns a VM that was started with exactly this command line (java, its
+   * options, and the WarmStart class, without the debugger agent), or null
+   * if there isn't one ready.
+   */
+  static public synchronized Pooled take(String[] command) {
+    Pooled pooled = waiting.remove(Arrays.asList(command));
+    if (pooled != null && !pooled.isRunning()) {
+      return null;  // failed to start, or went away
+    }
+    if (pooled != null) {
+      pooled.output.take();
+      pooled.error.take();
+    }
+    return pooled;
+  }
+
+
+  /**
+   * Start a VM with this command line in the background, for the next Run.
+   * Does nothing if one is already waiting.
+   */
+  static public void prepare(final String[] command) {
+    synchronized (RunnerPool.class) {
+      Pooled pooled = waiting.get(Arrays.asList(command));
+      if (pooled != null && pooled.isRunning()) {
+        return;
+      }
+    }
+    new Thread(new Runnable() {
+      public void run() {
+        String port = String.valueOf(8000 + (int) (Math.random() * 1000));
+        // This VM listens for the debugger the whole time it's waiting, so
+        // only take connections from this machine. (Without a host, Java 7
+        // and 8 listen on every interface.)
+        String jdwpArg = "-agentlib:jdwp=transport=dt_socket,address=" +
+          LOOPBACK + ":" + port + ",server=y,suspend=n";
+        String[] args = new String[command.length + 1];
+        args[0] = command[0];
+        args[1] = jdwpArg;
+        System.arraycopy(command, 1, args, 2, command.length - 1);
+
+        Process process;
+        try {
+          process = Runtime.getRuntime().exec(args);
+        } catch (IOException e) {
+          return;  // the regular launch will report what's wrong
+        }
+        Pooled pooled = new Pooled(process, port);
+        List<String> key = Arrays.asList(command);
+        synchronized (RunnerPool.class) {
+          Pooled old = waiting.remove(key);
+          if (old != null) {
+            old.process.destroy();
+          }
+          waiting.put(key, pooled);
+          while (waiting.size() > MAX_WAITING) {
+            Iterator<Pooled> it = waiting.values().iterator();
+            it.next().process.destroy();
+            it.remove();
+          }
+        }
+      }
+    }, "RunnerPool").start();
+  }
+
+
+  /**
+   * Reads one of a waiting VM's output streams on a thread of its own, so
+   * that a library's static initializer or a warning from Java can't fill
+   * the pipe and stall the VM before there's a console to show it. Until the
+   * VM is taken, the first LIMIT bytes are kept and the rest are dropped.
+   * After that, reading from this gets what was kept, then everything else
+   * as it arrives, and the reader thread waits whenever the buffer is full.
+   */
+  static class Drain extends InputStream implements Runnable {
+    static final int LIMIT = 64 * 1024;
+
+    InputStream input;
+    byte[] buffer = new byte[LIMIT];
+    int start, length;  // bytes waiting to be read, wrapping around
+    boolean taken;
+    boolean closed;
+
+    Drain(InputStream input, String name) {
+      this.input = input;
+      Thread thread = new Thread(this, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    public void run() {
+      byte[] chunk = new byte[2048];
+      try {
+        int count;
+        while ((count = input.read(chunk)) != -1) {
+          add(chunk, count);
+        }
+      } catch (IOException e) {
+        // the VM went away
+      } catch (InterruptedException e) {
+        // not used, but stop if it happens
+      }
+      synchronized (this) {
+        closed = true;
+        notifyAll();
+      }
+    }
+
+    synchronized void add(byte[] chunk, int count) throws InterruptedException {
+      int offset = 0;
+      while (offset < count) {
+        while (taken && length == buffer.length) {
+          wait();
+        }
+        if (length == buffer.length) {
+          return;  // nobody to read it yet, drop the rest
+        }
+        int end = (start + length) % buffer.length;
+        int room = Math.min(buffer.length - length, buffer.length - end);
+        int amount = Math.min(room, count - offset);
+        System.arraycopy(chunk, offset, buffer, end, amount);
+        length += amount;
+        offset += amount;
+        notifyAll();
+      }
+    }
+
+    synchronized void take() {
+      taken = true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return (read(one, 0, 1) == -1) ? -1 : (one[0] & 0xff);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (length == 0 && !closed) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+      if (length == 0) {
+        return -1;
+      }
+      int amount = Math.min(len, Math.min(length, buffer.length - start));
+      System.arraycopy(buffer, start, b, off, amount);
+      start = (start + amount) % buffer.length;
+      length -= amount;
+      notifyAll();
+      return amount;
+    }
+
+    @Override
+    public synchronized int available() {
+      return length;
+    }
+  }
+
+
+  /** Shut down all the waiting VMs. */
+  static public synchronized void clear() {
+    for (Pooled pooled : waiting.values()) {
+      pooled.process.destroy();
+    }
+    waiting.clear();
+  }
+}
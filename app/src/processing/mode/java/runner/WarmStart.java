@@ -0,0 +1,128 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2013 The Processing Foundation
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU General Public License version 2
+  as published by the Free Software Foundation.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program; if not, write to the Free Software Foundation,
+  Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package processing.mode.java.runner;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+
+
+/**
+ * Runs inside a VM from RunnerPool (not inside the PDE). Loads the parts of
+ * core that every sketch uses, then waits for a line on stdin with the class
+ * path of the sketch, one line for each argument (the first is the class
+ * with main), and an empty line. The sketch is loaded with its own class
+ * loader on top of the one with core and the libraries, and its main()
+ * is called just as if it had been named on the command line. If the PDE
+ * goes away before then, stdin closes and this quits.
+ */
+public class WarmStart {
+  static final String[] PRELOAD = {
+    "processing.core.PApplet",
+    "processing.core.PGraphics",
+    "processing.core.PGraphicsJava2D",
+    "processing.core.PImage",
+    "processing.core.PFont",
+    "processing.core.PShape",
+    "processing.core.PShapeSVG",
+    "processing.core.PVector",
+    "processing.core.PMatrix2D",
+    "processing.core.PMatrix3D",
+    "processing.event.MouseEvent",
+    "processing.event.KeyEvent",
+    "javax.swing.JFrame",
+    "java.awt.image.BufferedImage"
+  };
+
+
+  static public void main(String[] args) throws Exception {
+    warmUp();
+
+    BufferedReader reader =
+      new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    String classPath = reader.readLine();
+    if (classPath == null) {
+      System.exit(0);
+    }
+    ArrayList<String> list = new ArrayList<String>();
+    String line;
+    while ((line = reader.readLine()) != null && line.length() != 0) {
+      list.add(line);
+    }
+    if (list.isEmpty()) {
+      System.exit(0);
+    }
+
+    ArrayList<URL> urls = new ArrayList<URL>();
+    for (String entry : PApplet.split(classPath, File.pathSeparatorChar)) {
+      if (entry.length() != 0) {
+        urls.add(new File(entry).toURI().toURL());
+      }
+    }
+    ClassLoader loader =
+      new URLClassLoader(urls.toArray(new URL[urls.size()]),
+                         WarmStart.class.getClassLoader());
+    // PApplet.runSketch() and the renderers look up classes this way
+    Thread.currentThread().setContextClassLoader(loader);
+
+    Class<?> mainClass = loader.loadClass(list.get(0));
+    Method main = mainClass.getMethod("main", String[].class);
+    String[] sketchArgs = list.subList(1, list.size()).toArray(new String[0]);
+    // not caught, so that the debugger sees an exception from main()
+    // as uncaught, the same as when the sketch is launched directly
+    main.invoke(null, (Object) sketchArgs);
+  }
+
+
+  static void warmUp() {
+    // these have to be set before AWT starts, same as in runSketch()
+    if (PApplet.platform == PConstants.MACOSX) {
+      System.setProperty("apple.awt.graphics.UseQuartz",
+                         String.valueOf(PApplet.useQuartz));
+    }
+    System.setProperty("sun.awt.noerasebackground", "true");
+
+    for (String name : PRELOAD) {
+      try {
+        Class.forName(name);
+      } catch (Throwable t) {
+        // not there, or can't be loaded yet; the sketch will find out
+      }
+    }
+    // On OS X, starting AWT puts an icon in the dock, so leave it for later
+    if (PApplet.platform != PConstants.MACOSX) {
+      try {
+        Toolkit.getDefaultToolkit();
+        GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+      } catch (Throwable t) {
+        // headless, or no display; the sketch will report it
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package processing.opengl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+// In the same package as PolygonTessellator, which isn't public
+public class PolygonTessellatorTests {
+
+  /** Stands in for GLU, and counts the polygons handed over to it. */
+  static class Fallback implements PGL.Tessellator {
+    int polygons;
+
+    public void beginPolygon() { }
+    public void endPolygon() { polygons++; }
+    public void setWindingRule(int rule) { }
+    public void beginContour() { }
+    public void endContour() { }
+    public void addVertex(double[] v) { }
+  }
+
+
+  static class Triangles implements PolygonTessellator.TriangleCallback {
+    int count;
+
+    public void triangles(double[][] vertices, int vertexCount,
+                          int[] indices, int indexCount) {
+      count += indexCount / 3;
+    }
+  }
+
+
+  static void contour(PolygonTessellator tess, double... xy) {
+    tess.beginContour();
+    for (int i = 0; i < xy.length; i += 2) {
+      tess.addVertex(new double[] { xy[i], xy[i + 1], 0 });
+    }
+    tess.endContour();
+  }
+
+
+  static void rectangle(PolygonTessellator tess,
+                        double x0, double y0, double x1, double y1) {
+    contour(tess, x0, y0, x1, y0, x1, y1, x0, y1);
+  }
+
+
+  @Test
+  public void overlappingRectanglesOnTheGrid() {
+    Fallback fallback = new Fallback();
+    Triangles triangles = new Triangles();
+    PolygonTessellator tess = new PolygonTessellator(triangles, fallback);
+    tess.beginPolygon();
+    rectangle(tess, 0, 0, 8, 8);
+    rectangle(tess, 4, 4, 12, 12);
+    // A square far away, made of 240 edges a quarter long, so that the
+    // cells of the grid used to find crossings are exactly 1 across, and
+    // the vertical edges of the rectangles lie on the lines between them.
+    double[] xy = new double[480];
+    int k = 0;
+    for (int i = 0; i < 60; i++) { xy[k++] = 100 + i * 0.25; xy[k++] = 100; }
+    for (int i = 0; i < 60; i++) { xy[k++] = 115; xy[k++] = 100 + i * 0.25; }
+    for (int i = 0; i < 60; i++) { xy[k++] = 115 - i * 0.25; xy[k++] = 115; }
+    for (int i = 0; i < 60; i++) { xy[k++] = 100; xy[k++] = 115 - i * 0.25; }
+    contour(tess, xy);
+    tess.endPolygon();
+    assertEquals(1, fallback.polygons);
+    assertEquals(0, triangles.count);
+  }
+
+
+  @Test
+  public void separateRectangles() {
+    Fallback fallback = new Fallback();
+    Triangles triangles = new Triangles();
+    PolygonTessellator tess = new PolygonTessellator(triangles, fallback);
+    tess.beginPolygon();
+    rectangle(tess, 0, 0, 10, 10);
+    rectangle(tess, 20, 0, 30, 10);
+    tess.endPolygon();
+    assertEquals(0, fallback.polygons);
+    assertEquals(4, triangles.count);
+  }
+}
@@ -0,0 +1,137 @@
+package test.processing.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import processing.data.Table;
+import processing.data.TableReader;
+import processing.data.TableRow;
+
+public class TableTests {
+
+  static Table load(String csv, String options) throws IOException {
+    return new Table(new ByteArrayInputStream(csv.getBytes("UTF-8")), options);
+  }
+
+  // "city" repeats enough to be inferred as a category, and the short
+  // rows leave it missing
+  static final String RAGGED =
+    "id,city\n" +
+    "1,Boston\n" +
+    "2,Boston\n" +
+    "3\n" +
+    "4,Paris\n" +
+    "5,Boston\n" +
+    "6\n" +
+    "7,Paris\n" +
+    "8,Boston\n";
+
+  @Test
+  public void raggedRowsAreMissingCategories() throws IOException {
+    Table table = load(RAGGED, "csv,header,infer");
+    assertEquals(Table.INT, table.getColumnType("id"));
+    assertEquals(Table.CATEGORY, table.getColumnType("city"));
+    assertEquals(8, table.getRowCount());
+    assertEquals("Boston", table.getString(0, "city"));
+    assertNull(table.getString(2, "city"));
+    assertEquals(-1, table.getInt(2, "city"));
+    assertNull(table.getString(5, "city"));
+    assertEquals("Paris", table.getString(6, "city"));
+  }
+
+  @Test
+  public void groupByMissingCategory() throws IOException {
+    Table table = load(RAGGED, "csv,header,infer");
+    Table groups = table.groupBy("city", "count", "sum(id)");
+    assertEquals(3, groups.getRowCount());
+    // groups come out in the order they first appear
+    assertEquals("Boston", groups.getString(0, "city"));
+    assertEquals(4, groups.getInt(0, "count"));
+    assertEquals(16, groups.getLong(0, "sum(id)"));
+    assertNull(groups.getString(1, "city"));
+    assertEquals(2, groups.getInt(1, "count"));
+    assertEquals(9, groups.getLong(1, "sum(id)"));
+    assertEquals("Paris", groups.getString(2, "city"));
+    assertEquals(2, groups.getInt(2, "count"));
+  }
+
+  @Test
+  public void groupByMissingCategoryWithSecondKey() throws IOException {
+    Table table = load(RAGGED, "csv,header,infer");
+    Table groups = table.groupBy(new String[] { "id", "city" }, "count");
+    assertEquals(8, groups.getRowCount());
+    assertNull(groups.getString(2, "city"));
+  }
+
+  @Test
+  public void inferLongFor19Digits() throws IOException {
+    Table table = load("n\n" +
+                       "1\n" +
+                       "9223372036854775807\n" +
+                       "-9223372036854775808\n" +
+                       "1234567890123456789\n", "csv,header,infer");
+    assertEquals(Table.LONG, table.getColumnType("n"));
+    assertEquals(Long.MAX_VALUE, table.getLong(1, "n"));
+    assertEquals(Long.MIN_VALUE, table.getLong(2, "n"));
+    assertEquals(1234567890123456789L, table.getLong(3, "n"));
+  }
+
+  @Test
+  public void inferDoubleWhenTooLargeForLong() throws IOException {
+    Table table = load("n\n" +
+                       "9223372036854775808\n" +
+                       "-9223372036854775808.5\n", "csv,header,infer");
+    assertEquals(Table.DOUBLE, table.getColumnType("n"));
+    assertEquals(9223372036854775808d, table.getDouble(0, "n"), 0);
+    assertEquals(-9223372036854775808.5, table.getDouble(1, "n"), 0);
+  }
+
+  @Test
+  public void readerTakesLoadTableOptions() throws IOException {
+    String csv =
+      "name,note\n" +
+      "a,\"one\ntwo\"\n" +
+      "b,three\n";
+    TableReader reader =
+      new TableReader(new ByteArrayInputStream(csv.getBytes("UTF-8")),
+                      "header,newlines,parallel,infer,infer=100");
+    TableRow row = reader.next();
+    assertEquals("a", row.getString("name"));
+    assertEquals("one\ntwo", row.getString("note"));
+    row = reader.next();
+    assertEquals("b", row.getString("name"));
+    assertEquals("three", row.getString("note"));
+    assertFalse(reader.hasNext());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void readerRejectsBinaryTables() throws IOException {
+    new TableReader(new ByteArrayInputStream(new byte[0]), "bin");
+  }
+
+  @Test
+  public void indexedCategoryColumnTakesNewRows() {
+    Table table = new Table();
+    table.addColumn("c", Table.CATEGORY);
+    table.createIndex("c");
+    table.addRow();  // threw before anything was in the dictionary
+    table.setRow(0, new Object[] { "x" });
+    table.addRow();
+    table.setRow(1, new Object[] { null });
+    table.addRow();
+    table.setRow(2, new Object[] { "y" });
+    assertEquals(0, table.findRowIndex("x", "c"));
+    assertEquals(1, table.findRowIndex(null, "c"));
+    assertEquals(2, table.matchRowIndex("y", "c"));
+    table.removeRow(0);
+    assertEquals(-1, table.findRowIndex("x", "c"));
+    assertEquals(0, table.findRowIndex(null, "c"));
+    assertEquals(1, table.findRowIndex("y", "c"));
+  }
+}
@@ -0,0 +1,357 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import processing.data.*;
+
+
+/**
+ * Loads images, shapes, tables, JSON, and XML on a fixed number of
+ * background threads, using the same loadXxxx() functions of the sketch
+ * that would be used on the animation thread.
+ * <P>
+ * Each request returns a Future, which can be checked with isDone(), waited
+ * on with get(), or cancelled if the file isn't needed anymore (say, a map
+ * tile that has scrolled out of view). A Callback can also be passed, which
+ * is called on the loader thread once the file has loaded, with null if it
+ * could not be loaded. Callbacks aren't called for requests that were
+ * cancelled.
+ * <P>
+ * Waiting requests with a higher priority are loaded first, otherwise
+ * they're loaded in the order they were made. Asking for something that's
+ * already waiting or loading doesn't load it a second time. The same Future
+ * is returned (so cancelling it cancels it for everyone that asked), and
+ * its priority is raised if the new request's priority is higher.
+ * <PRE>
+ * AssetLoader loader = new AssetLoader(this, 4);
+ * Future&lt;PImage&gt; tile = loader.image("tiles/12/654/1583.png");
+ * ...
+ * if (tile.isDone()) image(tile.get(), x, y);
+ * </PRE>
+ * The threads are shut down when the sketch exits, or with dispose().
+ */
+public class AssetLoader {
+  PApplet parent;
+  ThreadPoolExecutor pool;
+
+  /** Requests that are waiting or loading, by their kind and path. */
+  ConcurrentHashMap<String, Request<?>> pending =
+    new ConcurrentHashMap<String, Request<?>>();
+
+  /** Keeps requests with the same priority in the order they were made. */
+  AtomicLong order = new AtomicLong();
+
+
+  /** Called on a loader thread, with null if the file couldn't be loaded. */
+  public interface Callback<T> {
+    public void loaded(String path, T asset);
+  }
+
+
+  /**
+   * @param parent the sketch, used to find and load the files
+   * @param threads the number of files that can be loaded at once
+   */
+  public AssetLoader(PApplet parent, int threads) {
+    this.parent = parent;
+    threads = Math.max(1, threads);
+    pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                  new PriorityBlockingQueue<Runnable>(),
+                                  new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Processing AssetLoader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    parent.registerMethod("dispose", this);
+  }
+
+
+  /** Stop loading, anything that's still waiting is dropped. */
+  public void dispose() {
+    // (not unregistered here, since this is called while the sketch is
+    // going through its list of dispose methods, and calling twice is ok)
+    pool.shutdownNow();
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  public Future<PImage> image(String path) {
+    return image(path, null, 0, null);
+  }
+
+
+  public Future<PImage> image(String path, int priority,
+                              Callback<PImage> callback) {
+    return image(path, null, priority, callback);
+  }
+
+
+  /**
+   * @param extension the type of image, if the path doesn't end with it
+   */
+  public Future<PImage> image(final String path, final String extension,
+                              int priority, Callback<PImage> callback) {
+    return request("image:" + extension + ":" + path, path, priority, callback,
+                   new Callable<PImage>() {
+      public PImage call() {
+        return parent.loadImage(path, extension);
+      }
+    });
+  }
+
+
+  public Future<PShape> shape(String path) {
+    return shape(path, 0, null);
+  }
+
+
+  public Future<PShape> shape(final String path, int priority,
+                              Callback<PShape> callback) {
+    return request("shape:" + path, path, priority, callback,
+                   new Callable<PShape>() {
+      public PShape call() {
+        return parent.loadShape(path);
+      }
+    });
+  }
+
+
+  public Future<Table> table(String path) {
+    return table(path, null, 0, null);
+  }
+
+
+  /**
+   * @param options the same options as for loadTable()
+   */
+  public Future<Table> table(final String path, final String options,
+                             int priority, Callback<Table> callback) {
+    return request("table:" + options + ":" + path, path, priority, callback,
+                   new Callable<Table>() {
+      public Table call() {
+        return parent.loadTable(path, options);
+      }
+    });
+  }
+
+
+  public Future<JSONObject> jsonObject(String path) {
+    return jsonObject(path, 0, null);
+  }
+
+
+  public Future<JSONObject> jsonObject(final String path, int priority,
+                                       Callback<JSONObject> callback) {
+    return request("jsonObject:" + path, path, priority, callback,
+                   new Callable<JSONObject>() {
+      public JSONObject call() {
+        return parent.loadJSONObject(path);
+      }
+    });
+  }
+
+
+  public Future<JSONArray> jsonArray(String path) {
+    return jsonArray(path, 0, null);
+  }
+
+
+  public Future<JSONArray> jsonArray(final String path, int priority,
+                                     Callback<JSONArray> callback) {
+    return request("jsonArray:" + path, path, priority, callback,
+                   new Callable<JSONArray>() {
+      public JSONArray call() {
+        return parent.loadJSONArray(path);
+      }
+    });
+  }
+
+
+  public Future<XML> xml(String path) {
+    return xml(path, 0, null);
+  }
+
+
+  public Future<XML> xml(final String path, int priority,
+                         Callback<XML> callback) {
+    return request("xml:" + path, path, priority, callback,
+                   new Callable<XML>() {
+      public XML call() {
+        return parent.loadXML(path);
+      }
+    });
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Queue up a load, or join the one that's already waiting or loading
+   * with the same key. A null key always makes a new request.
+   */
+  <T> Future<T> request(String key, String path, int priority,
+                        Callback<T> callback, Callable<T> load) {
+    Request<T> fresh = new Request<T>(key, path, priority, load);
+    if (key != null) {
+      while (true) {
+        Request<?> found = pending.putIfAbsent(key, fresh);
+        if (found == null) {
+          break;
+        }
+        if (found.isCancelled()) {
+          pending.remove(key, found);  // gone, so start over
+          continue;
+        }
+        // the key includes the kind of asset, so it's the same type
+        @SuppressWarnings("unchecked")
+        Request<T> same = (Request<T>) found;
+        same.listen(callback);
+        same.raise(priority);
+        return same;
+      }
+    }
+    fresh.listen(callback);
+    try {
+      pool.execute(fresh);
+    } catch (RejectedExecutionException e) {
+      if (key != null) {
+        pending.remove(key, fresh);
+      }
+      throw e;
+    }
+    return fresh;
+  }
+
+
+  class Request<T> extends FutureTask<T> implements Comparable<Request<?>> {
+    String key;
+    String path;
+    // only changed while the request is out of the queue
+    int priority;
+    long index;
+
+    ArrayList<Callback<T>> callbacks = new ArrayList<Callback<T>>();
+    boolean finished;
+    T asset;
+
+
+    Request(String key, String path, int priority, Callable<T> load) {
+      super(load);
+      this.key = key;
+      this.path = path;
+      this.priority = priority;
+      index = order.getAndIncrement();
+    }
+
+
+    /** Move ahead in the queue, if still waiting and now more important. */
+    void raise(int newPriority) {
+      if (newPriority > priority && pool.remove(this)) {
+        priority = newPriority;
+        index = order.getAndIncrement();
+        pool.execute(this);
+      }
+    }
+
+
+    void listen(Callback<T> callback) {
+      if (callback == null) return;
+      synchronized (this) {
+        if (!finished) {
+          callbacks.add(callback);
+          return;
+        }
+      }
+      // already done, so call it right away
+      if (!isCancelled()) {
+        callback.loaded(path, asset);
+      }
+    }
+
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        pool.remove(this);  // don't leave it taking up room in the queue
+      }
+      return cancelled;
+    }
+
+
+    @Override
+    protected void done() {
+      if (key != null) {
+        pending.remove(key, this);
+      }
+      T loaded = isCancelled() ? null : result();
+      ArrayList<Callback<T>> waiting;
+      synchronized (this) {
+        asset = loaded;
+        finished = true;
+        // nothing else adds to the list once finished is set, so take it
+        waiting = callbacks;
+        callbacks = null;
+      }
+      if (!isCancelled()) {
+        for (Callback<T> callback : waiting) {
+          try {
+            callback.loaded(path, asset);
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }
+
+
+    /** The loaded asset, or null (after printing why) if it failed. */
+    T result() {
+      try {
+        return get();
+      } catch (ExecutionException e) {
+        System.err.println("Could not load " + path);
+        e.getCause().printStackTrace();
+      } catch (InterruptedException e) {
+        // interrupted while shutting down
+      }
+      return null;
+    }
+
+
+    public int compareTo(Request<?> other) {
+      if (priority != other.priority) {
+        return (priority > other.priority) ? -1 : 1;
+      }
+      return (index < other.index) ? -1 : ((index > other.index) ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+
+/**
+ * Writes the images for saveFrame() on a few background threads, so that
+ * the animation thread only has to copy the pixels before it moves on to
+ * the next frame. The copies go into arrays that are reused once a frame
+ * has been written. When the threads fall behind, saveFrame() waits for
+ * one of them to finish, rather than piling up frames until memory runs
+ * out. Used by PApplet.saveFrameThreads(), internal use only.
+ */
+class FrameSaver {
+  ExecutorService pool;
+
+  /** One permit for each frame that can be waiting or in progress. */
+  Semaphore slots;
+
+  /** Pixel arrays from frames that have already been written. */
+  ArrayList<int[]> spare = new ArrayList<int[]>();
+
+
+  FrameSaver(int threads) {
+    slots = new Semaphore(threads * 2);
+    pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Processing saveFrame");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+
+  /**
+   * Copy the pixels of g and queue them to be written to path (which
+   * already has the frame number in it). Returns once the copy is made,
+   * or waits first if the queue is full.
+   */
+  void save(PGraphics g, final String path) {
+    g.loadPixels();
+    int count = g.width * g.height;
+    if (g.pixels == null || g.pixels.length != count) {
+      g.save(path);  // pixels[] isn't one per pixel (retina), do it here
+      return;
+    }
+    slots.acquireUninterruptibly();
+
+    final PImage frame = new PImage();
+    frame.width = g.width;
+    frame.height = g.height;
+    frame.format = g.format;
+    frame.pixels = take(count);
+    System.arraycopy(g.pixels, 0, frame.pixels, 0, count);
+
+    Runnable task = new Runnable() {
+      public void run() {
+        try {
+          frame.save(path);
+        } catch (Exception e) {
+          e.printStackTrace();
+        } finally {
+          give(frame.pixels);
+          slots.release();
+        }
+      }
+    };
+    try {
+      pool.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.run();  // already finished (the sketch is exiting), write it here
+    }
+  }
+
+
+  /** Wait until every frame in the queue is written, then stop the threads. */
+  void finish() {
+    pool.shutdown();
+    try {
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      // the remaining frames will be written by the (daemon) threads
+      // for as long as the VM is still running
+    }
+  }
+
+
+  int[] take(int count) {
+    synchronized (spare) {
+      for (int i = spare.size() - 1; i >= 0; --i) {
+        if (spare.get(i).length == count) {
+          return spare.remove(i);
+        }
+      }
+      spare.clear();  // the size has changed, so these won't be used again
+    }
+    return new int[count];
+  }
+
+
+  void give(int[] pixels) {
+    synchronized (spare) {
+      spare.add(pixels);
+    }
+  }
+}
@@ -4015,6 +4015,12 @@ public class PApplet extends Applet
     if (thread != null) {
       thread = null;
 
+      // finish writing any frames from saveFrame()
+      if (frameSaver != null) {
+        frameSaver.finish();
+        frameSaver = null;
+      }
+
       // shut down renderer
       if (g != null) {
         g.dispose();
@@ -4112,7 +4118,7 @@ public class PApplet extends Applet
    */
   public void saveFrame() {
     try {
-      g.save(savePath("screen-" + nf(frameCount, 4) + ".tif"));
+      saveFrameImpl(savePath("screen-" + nf(frameCount, 4) + ".tif"));
     } catch (SecurityException se) {
       System.err.println("Can't use saveFrame() when running in a browser, " +
                          "unless using a signed applet.");
@@ -4154,7 +4160,7 @@ public class PApplet extends Applet
    */
   public void saveFrame(String filename) {
     try {
-      g.save(savePath(insertFrame(filename)));
+      saveFrameImpl(savePath(insertFrame(filename)));
     } catch (SecurityException se) {
       System.err.println("Can't use saveFrame() when running in a browser, " +
                          "unless using a signed applet.");
@@ -4162,6 +4168,43 @@ public class PApplet extends Applet
   }
 
 
+  /** Writes the images for saveFrame() when saveFrameThreads() is used. */
+  FrameSaver frameSaver;
+
+
+  /**
+   * Have saveFrame() write its images on a pool of background threads.
+   * Each call copies the pixels and returns right away, so that a long
+   * image sequence is rendered about as fast as draw() can run, instead
+   * of waiting for every TIFF, PNG, or JPEG to be encoded. If the threads
+   * fall behind, saveFrame() waits for one of them to finish. Any frames
+   * that are still waiting are written before the sketch exits. Use 0 to
+   * go back to saving each frame before saveFrame() returns.
+   *
+   * @param count number of threads for encoding frames
+   * @see PApplet#saveFrame(String)
+   */
+  public void saveFrameThreads(int count) {
+    if (frameSaver != null) {
+      frameSaver.finish();
+      frameSaver = null;
+    }
+    if (count > 0) {
+      frameSaver = new FrameSaver(count);
+    }
+  }
+
+
+  protected void saveFrameImpl(String path) {
+    FrameSaver saver = frameSaver;  // dispose() may clear it from another thread
+    if (saver != null) {
+      saver.save(g, path);
+    } else {
+      g.save(path);
+    }
+  }
+
+
   /**
    * Check a string for #### signs to see if the frame number should be
    * inserted. Used for functions like saveFrame() and beginRecord() to
@@ -5806,10 +5849,23 @@ public class PApplet extends Applet
    * @see PApplet#loadImage(String, String)
    */
   public PImage requestImage(String filename, String extension) {
-    PImage vessel = createImage(0, 0, ARGB);
-    AsyncImageLoader ail =
-      new AsyncImageLoader(filename, extension, vessel);
-    ail.start();
+    final PImage vessel = createImage(0, 0, ARGB);
+    // no key, so each request fills its own vessel, even for the same file
+    requestLoader().request(null, filename, 0, new AssetLoader.Callback<PImage>() {
+      public void loaded(String path, PImage actual) {
+        // An error message should have already printed
+        if (actual == null) {
+          vessel.width = -1;
+          vessel.height = -1;
+
+        } else {
+          vessel.width = actual.width;
+          vessel.height = actual.height;
+          vessel.format = actual.format;
+          vessel.pixels = actual.pixels;
+        }
+      }
+    }, new ImageLoad(filename, extension));
     return vessel;
   }
 
@@ -5833,45 +5889,34 @@ public class PApplet extends Applet
    * (however no accessor has been added since it's esoteric) if you really
    * want to have control over the value used. For instance, when loading local
    * files, it might be better to only have a single thread (or two) loading
-   * images so that you're disk isn't simply jumping around.
+   * images so that you're disk isn't simply jumping around. It has to be set
+   * before the first call to requestImage().
    */
   public int requestImageMax = 4;
-  volatile int requestImageCount;
 
-  class AsyncImageLoader extends Thread {
+  /** Loads the images for requestImage(), with requestImageMax threads. */
+  AssetLoader requestLoader;
+
+
+  synchronized AssetLoader requestLoader() {
+    if (requestLoader == null) {
+      requestLoader = new AssetLoader(this, requestImageMax);
+    }
+    return requestLoader;
+  }
+
+
+  class ImageLoad implements java.util.concurrent.Callable<PImage> {
     String filename;
     String extension;
-    PImage vessel;
 
-    public AsyncImageLoader(String filename, String extension, PImage vessel) {
+    ImageLoad(String filename, String extension) {
       this.filename = filename;
       this.extension = extension;
-      this.vessel = vessel;
     }
 
-    @Override
-    public void run() {
-      while (requestImageCount == requestImageMax) {
-        try {
-          Thread.sleep(10);
-        } catch (InterruptedException e) { }
-      }
-      requestImageCount++;
-
-      PImage actual = loadImage(filename, extension);
-
-      // An error message should have already printed
-      if (actual == null) {
-        vessel.width = -1;
-        vessel.height = -1;
-
-      } else {
-        vessel.width = actual.width;
-        vessel.height = actual.height;
-        vessel.format = actual.format;
-        vessel.pixels = actual.pixels;
-      }
-      requestImageCount--;
+    public PImage call() {
+      return loadImage(filename, extension);
     }
   }
 
@@ -6354,6 +6399,14 @@ public class PApplet extends Applet
    * (in terms of speed and memory usage) for loading and parsing tables. The
    * dictionary file can only be tab separated values (.tsv) and its extension
    * will be ignored. This option was added in Processing 2.0.2.
+   *
+   * For very large CSV or TSV files, the "parallel" option will split the
+   * file into blocks and parse them on all available processor cores.
+   * Tables saved with the .tbl extension use a columnar format that is
+   * memory-mapped when loaded, so only the columns that are used are read.
+   * The "infer" option picks a data type for each column by looking at the
+   * first rows of the file, then parses the numbers directly into typed
+   * columns, which uses far less memory for large numeric tables.
    */
   public Table loadTable(String filename, String options) {
     try {
@@ -6366,6 +6419,16 @@ public class PApplet extends Applet
           dictionary = loadTable(opt.substring(opt.indexOf('=') + 1), "tsv");
           return dictionary.typedParse(createInput(filename), optionStr);
         }
+        if (opt.equals("tbl")) {
+          // map local files in place, rather than reading them into memory
+          File file = new File(dataPath(filename));
+          if (!file.exists()) {
+            file = sketchFile(filename);
+          }
+          if (file.exists() && !file.getName().endsWith(".gz")) {
+            return new MappedTable(file);
+          }
+        }
       }
       return new Table(createInput(filename), optionStr);
 
@@ -6376,6 +6439,40 @@ public class PApplet extends Applet
   }
 
 
+  /**
+   * Read the rows of a CSV or TSV file one at a time, instead of loading the
+   * entire file into memory with loadTable(). Options may contain "header",
+   * "tsv", or "csv". The same TableRow object is reused for each row, so
+   * copy out anything that's needed after moving to the next one.
+   *
+   * @nowebref
+   * @param filename name of a file in the data folder or a URL.
+   * @see PApplet#loadTable(String)
+   */
+  public TableReader loadTableRows(String filename) {
+    return loadTableRows(filename, null);
+  }
+
+
+  public TableReader loadTableRows(String filename, String options) {
+    try {
+      InputStream input = createInput(filename);
+      if (input == null) {
+        System.err.println("The file \"" + filename + "\" " +
+                           "is missing or inaccessible, make sure " +
+                           "the URL is valid or that the file has been " +
+                           "added to your sketch and is readable.");
+        return null;
+      }
+      return new TableReader(input, Table.extensionOptions(true, filename, options));
+
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+
   /**
    * @webref output:files
    * @param table the Table object to save to a file
@@ -7313,13 +7410,11 @@ public class PApplet extends Applet
    */
   static public byte[] loadBytes(InputStream input) {
     try {
-      BufferedInputStream bis = new BufferedInputStream(input);
       ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-      int c = bis.read();
-      while (c != -1) {
-        out.write(c);
-        c = bis.read();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = input.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
       }
       return out.toByteArray();
 
@@ -229,6 +229,13 @@ public interface PConstants {
   static final int DILATE    = 18;
 
 
+  // resampling filters for PImage.resize(), along with BOX
+
+  static final int BILINEAR  = 19;
+  static final int BICUBIC   = 22;  // 20 and 21 are POLYGON and PATH
+  static final int LANCZOS   = 23;
+
+
   // blend mode keyword definitions
   // @see processing.core.PImage#blendColor(int,int,int)
 
@@ -493,7 +500,10 @@ public interface PConstants {
   static final int ENABLE_RETINA_PIXELS       =  10;
   static final int DISABLE_RETINA_PIXELS      = -10;
 
-  static final int HINT_COUNT                 = 11;
+  static final int ENABLE_DIRECT_PIXELS       =  11;
+  static final int DISABLE_DIRECT_PIXELS      = -11;
+
+  static final int HINT_COUNT                 = 12;
 
   // error messages
 
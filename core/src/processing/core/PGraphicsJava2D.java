@@ -455,6 +455,11 @@ public class PGraphicsJava2D extends PGraphics {
     } else if (which == DISABLE_STROKE_PURE) {
       g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
                           RenderingHints.VALUE_STROKE_DEFAULT);
+
+    } else if (which == DISABLE_DIRECT_PIXELS) {
+      // pixels[] may still be the image's own array, so let go of it,
+      // and loadPixels() will make a separate copy again
+      pixels = null;
     }
   }
 
@@ -2356,8 +2361,53 @@ public class PGraphicsJava2D extends PGraphics {
   }
 
 
+  /**
+   * With hint(ENABLE_DIRECT_PIXELS), pixels[] is the int array that the
+   * image itself is stored in, so that loadPixels() and updatePixels() don't
+   * have to copy anything. Java2D can't keep a copy of the image in video
+   * memory once its array has been handed out, so drawing the image to the
+   * screen may get slower, which is why this is off by default. Returns
+   * null when the hint is off, or if the image isn't laid out as one int
+   * per pixel with rows right next to one another.
+   */
+  protected int[] getDirectPixels() {
+    if (!hints[ENABLE_DIRECT_PIXELS]) {
+      return null;
+    }
+    if (primarySurface && !useOffscreen && image instanceof VolatileImage) {
+      return null;  // the raster is only a snapshot
+    }
+    WritableRaster raster = getRaster();
+    DataBuffer buffer = raster.getDataBuffer();
+    SampleModel model = raster.getSampleModel();
+    if (buffer instanceof DataBufferInt &&
+        buffer.getNumBanks() == 1 && buffer.getOffset() == 0 &&
+        model instanceof SinglePixelPackedSampleModel &&
+        ((SinglePixelPackedSampleModel) model).getScanlineStride() == width &&
+        raster.getWidth() == width && raster.getHeight() == height &&
+        raster.getSampleModelTranslateX() == 0 &&
+        raster.getSampleModelTranslateY() == 0) {
+      return ((DataBufferInt) buffer).getData();
+    }
+    return null;
+  }
+
+
   @Override
   public void loadPixels() {
+    int[] direct = getDirectPixels();
+    if (direct != null) {
+      pixels = direct;
+      if (getRaster().getNumBands() == 3) {
+        // no copy, but the high bits still need setting in place
+        // https://github.com/processing/processing/issues/2030
+        for (int i = 0; i < pixels.length; i++) {
+          pixels[i] |= 0xff000000;
+        }
+      }
+      return;
+    }
+
     if ((pixels == null) || (pixels.length != width * height)) {
       pixels = new int[width * height];
     }
@@ -2400,14 +2450,25 @@ public class PGraphicsJava2D extends PGraphics {
    */
   @Override
   public void updatePixels(int x, int y, int c, int d) {
-    //if ((x == 0) && (y == 0) && (c == width) && (d == height)) {
-    if ((x != 0) || (y != 0) || (c != width) || (d != height)) {
-      // Show a warning message, but continue anyway.
-      showVariationWarning("updatePixels(x, y, w, h)");
-    }
-//    updatePixels();
-    if (pixels != null) {
-      getRaster().setDataElements(0, 0, width, height, pixels);
+    // nothing to copy when pixels[] is the image's own array
+    if (pixels != null && pixels != getDirectPixels()) {
+      int x1 = Math.max(0, x);
+      int y1 = Math.max(0, y);
+      int x2 = Math.min(width, x + c);
+      int y2 = Math.min(height, y + d);
+      WritableRaster raster = getRaster();
+      if ((x1 == 0) && (y1 == 0) && (x2 == width) && (y2 == height)) {
+        raster.setDataElements(0, 0, width, height, pixels);
+
+      } else if ((x1 < x2) && (y1 < y2)) {
+        // only the rows (and the part of each) that were changed
+        int wide = x2 - x1;
+        int[] line = new int[wide];
+        for (int row = y1; row < y2; row++) {
+          System.arraycopy(pixels, row*width + x1, line, 0, wide);
+          raster.setDataElements(x1, row, wide, 1, line);
+        }
+      }
     }
     modified = true;
   }
@@ -27,6 +27,7 @@ package processing.core;
 import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import javax.imageio.*;
@@ -144,13 +145,6 @@ public class PImage implements PConstants, Cloneable {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
-  // private fields
-  private int fracU, ifU, fracV, ifV, u1, u2, v1, v2, sX, sY, iw, iw1, ih1;
-  private int ul, ll, ur, lr, cUL, cLL, cUR, cLR;
-  private int srcXOffset, srcYOffset;
-  private int r, g, b, a;
-  private int[] srcBuffer;
-
   // fixed point precision is limited to 15 bits!!
   static final int PRECISIONB = 15;
   static final int PRECISIONF = 1 << PRECISIONB;
@@ -162,7 +156,13 @@ public class PImage implements PConstants, Cloneable {
   private int blurRadius;
   private int blurKernelSize;
   private int[] blurKernel;
-  private int[][] blurMult;
+
+  /** Kernels at least this large keep running sums instead of adding every tap. */
+  static final int BLUR_SLIDING_RADIUS = 3;
+
+  // scratch space for filter(), reused by each thread that calls it
+  static private ThreadLocal<int[]> filterImage = new ThreadLocal<int[]>();
+  static private ThreadLocal<long[]> filterLines = new ThreadLocal<long[]>();
 
   // colour component bitmasks (moved from PConstants in 2.0b7)
   public static final int ALPHA_MASK = 0xff000000;
@@ -601,6 +601,19 @@ public class PImage implements PConstants, Cloneable {
    * @see PImage#get(int, int, int, int)
    */
   public void resize(int w, int h) {  // ignore
+    resize(w, h, BILINEAR);
+  }
+
+
+  /**
+   * Resize the image using a particular filter. BOX averages the pixels
+   * that land in each new pixel (and repeats them when enlarging), which is
+   * the fastest. BILINEAR is the default. BICUBIC and LANCZOS are sharper,
+   * but take a little longer.
+   *
+   * @param filter BOX, BILINEAR, BICUBIC, or LANCZOS
+   */
+  public void resize(int w, int h, int filter) {  // ignore
     if (w <= 0 && h <= 0) {
       throw new IllegalArgumentException("width or height must be > 0 for resize");
     }
@@ -612,97 +625,20 @@ public class PImage implements PConstants, Cloneable {
       float diff = (float) w / (float) width;
       h = (int) (height * diff);
     }
+    w = Math.max(1, w);
+    h = Math.max(1, h);
 
-    BufferedImage img = shrinkImage((BufferedImage) getNative(), w, h);
-//    BufferedImage img = null;
-//    if (w < width && h < height) {
-//      img = shrinkImage((BufferedImage) getNative(), w, h);
-//    } else {
-//      img = resampleImage((BufferedImage) getNative(), w, h);
-//    }
-
-    PImage temp = new PImage(img);
-    this.width = temp.width;
-    this.height = temp.height;
-
-    // Get the resized pixel array
-    this.pixels = temp.pixels;
+    loadPixels();
+    Resampler resampler = new Resampler(format, filter);
+    this.pixels = resampler.resize(pixels, width, height, w, h);
+    this.width = w;
+    this.height = h;
 
     // Mark the pixels array as altered
     updatePixels();
   }
 
 
-  // Adapted from getFasterScaledInstance() method from page 111 of
-  // "Filthy Rich Clients" by Chet Haase and Romain Guy
-  // Additional modifications and simplifications have been added,
-  // plus a fix to deal with an infinite loop if images are expanded.
-  // http://code.google.com/p/processing/issues/detail?id=1463
-  static private BufferedImage shrinkImage(BufferedImage img,
-                                           int targetWidth, int targetHeight) {
-    int type = (img.getTransparency() == Transparency.OPAQUE) ?
-      BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
-    BufferedImage outgoing = img;
-    BufferedImage scratchImage = null;
-    Graphics2D g2 = null;
-    int prevW = outgoing.getWidth();
-    int prevH = outgoing.getHeight();
-    boolean isTranslucent = img.getTransparency() != Transparency.OPAQUE;
-
-    // Use multi-step technique: start with original size, then scale down in
-    // multiple passes with drawImage() until the target size is reached
-    int w = img.getWidth();
-    int h = img.getHeight();
-
-    do {
-      if (w > targetWidth) {
-        w /= 2;
-        // if this is the last step, do the exact size
-        if (w < targetWidth) {
-          w = targetWidth;
-        }
-      } else if (targetWidth >= w) {
-        w = targetWidth;
-      }
-      if (h > targetHeight) {
-        h /= 2;
-        if (h < targetHeight) {
-          h = targetHeight;
-        }
-      } else if (targetHeight >= h) {
-        h = targetHeight;
-      }
-      if (scratchImage == null || isTranslucent) {
-        // Use a single scratch buffer for all iterations and then copy
-        // to the final, correctly-sized image before returning
-        scratchImage = new BufferedImage(w, h, type);
-        g2 = scratchImage.createGraphics();
-      }
-      g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-      g2.drawImage(outgoing, 0, 0, w, h, 0, 0, prevW, prevH, null);
-      prevW = w;
-      prevH = h;
-      outgoing = scratchImage;
-    } while (w != targetWidth || h != targetHeight);
-
-    if (g2 != null) {
-      g2.dispose();
-    }
-
-    // If we used a scratch buffer that is larger than our target size,
-    // create an image of the right size and copy the results into it
-    if (targetWidth != outgoing.getWidth() ||
-        targetHeight != outgoing.getHeight()) {
-      scratchImage = new BufferedImage(targetWidth, targetHeight, type);
-      g2 = scratchImage.createGraphics();
-      g2.drawImage(outgoing, 0, 0, null);
-      g2.dispose();
-      outgoing = scratchImage;
-    }
-    return outgoing;
-  }
-
 
   //////////////////////////////////////////////////////////////
 
@@ -1061,33 +997,45 @@ public class PImage implements PConstants, Cloneable {
       case GRAY:
         if (format == ALPHA) {
           // for an alpha image, convert it to an opaque grayscale
-          for (int i = 0; i < pixels.length; i++) {
-            int col = 255 - pixels[i];
-            pixels[i] = 0xff000000 | (col << 16) | (col << 8) | col;
-          }
+          filterPixels(new Parallel.Band() {
+            public void run(int start, int stop) {
+              for (int i = start; i < stop; i++) {
+                int col = 255 - pixels[i];
+                pixels[i] = 0xff000000 | (col << 16) | (col << 8) | col;
+              }
+            }
+          });
           format = RGB;
 
         } else {
           // Converts RGB image data into grayscale using
           // weighted RGB components, and keeps alpha channel intact.
           // [toxi 040115]
-          for (int i = 0; i < pixels.length; i++) {
-            int col = pixels[i];
-            // luminance = 0.3*red + 0.59*green + 0.11*blue
-            // 0.30 * 256 =  77
-            // 0.59 * 256 = 151
-            // 0.11 * 256 =  28
-            int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
-            pixels[i] = (col & ALPHA_MASK) | lum<<16 | lum<<8 | lum;
-          }
+          filterPixels(new Parallel.Band() {
+            public void run(int start, int stop) {
+              for (int i = start; i < stop; i++) {
+                int col = pixels[i];
+                // luminance = 0.3*red + 0.59*green + 0.11*blue
+                // 0.30 * 256 =  77
+                // 0.59 * 256 = 151
+                // 0.11 * 256 =  28
+                int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
+                pixels[i] = (col & ALPHA_MASK) | lum<<16 | lum<<8 | lum;
+              }
+            }
+          });
         }
         break;
 
       case INVERT:
-        for (int i = 0; i < pixels.length; i++) {
-          //pixels[i] = 0xff000000 |
-          pixels[i] ^= 0xffffff;
-        }
+        filterPixels(new Parallel.Band() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              //pixels[i] = 0xff000000 |
+              pixels[i] ^= 0xffffff;
+            }
+          }
+        });
         break;
 
       case POSTERIZE:
@@ -1095,9 +1043,13 @@ public class PImage implements PConstants, Cloneable {
         "instead of filter(POSTERIZE)");
 
       case OPAQUE:
-        for (int i = 0; i < pixels.length; i++) {
-          pixels[i] |= 0xff000000;
-        }
+        filterPixels(new Parallel.Band() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              pixels[i] |= 0xff000000;
+            }
+          }
+        });
         format = RGB;
         break;
 
@@ -1202,30 +1154,37 @@ public class PImage implements PConstants, Cloneable {
           throw new RuntimeException("Levels must be between 2 and 255 for " +
                                      "filter(POSTERIZE, levels)");
         }
-        int levels1 = levels - 1;
-        for (int i = 0; i < pixels.length; i++) {
-          int rlevel = (pixels[i] >> 16) & 0xff;
-          int glevel = (pixels[i] >> 8) & 0xff;
-          int blevel = pixels[i] & 0xff;
-          rlevel = (((rlevel * levels) >> 8) * 255) / levels1;
-          glevel = (((glevel * levels) >> 8) * 255) / levels1;
-          blevel = (((blevel * levels) >> 8) * 255) / levels1;
-          pixels[i] = ((0xff000000 & pixels[i]) |
-                       (rlevel << 16) |
-                       (glevel << 8) |
-                       blevel);
+        // the same lookup works for each channel
+        final int[] level = new int[256];
+        for (int i = 0; i < 256; i++) {
+          level[i] = (((i * levels) >> 8) * 255) / (levels - 1);
         }
+        filterPixels(new Parallel.Band() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              int c = pixels[i];
+              pixels[i] = ((0xff000000 & c) |
+                           (level[(c >> 16) & 0xff] << 16) |
+                           (level[(c >> 8) & 0xff] << 8) |
+                           level[c & 0xff]);
+            }
+          }
+        });
         break;
 
       case THRESHOLD:  // greater than or equal to the threshold
-        int thresh = (int) (param * 255);
-        for (int i = 0; i < pixels.length; i++) {
-          int max = Math.max((pixels[i] & RED_MASK) >> 16,
-                             Math.max((pixels[i] & GREEN_MASK) >> 8,
-                                      (pixels[i] & BLUE_MASK)));
-          pixels[i] = (pixels[i] & ALPHA_MASK) |
-            ((max < thresh) ? 0x000000 : 0xffffff);
-        }
+        final int thresh = (int) (param * 255);
+        filterPixels(new Parallel.Band() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              int max = Math.max((pixels[i] & RED_MASK) >> 16,
+                                 Math.max((pixels[i] & GREEN_MASK) >> 8,
+                                          (pixels[i] & BLUE_MASK)));
+              pixels[i] = (pixels[i] & ALPHA_MASK) |
+                ((max < thresh) ? 0x000000 : 0xffffff);
+            }
+          }
+        });
         break;
 
         // [toxi20050728] added new filters
@@ -1240,6 +1199,37 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Run a filter that changes each pixel on its own, over bands of the
+   * pixels array in parallel when the image is large enough.
+   */
+  protected void filterPixels(Parallel.Band band) {
+    Parallel.run(pixels.length, pixels.length, band);
+  }
+
+
+  /** Scratch image for the calling thread, at least length pixels. */
+  static int[] filterImage(int length) {
+    int[] image = filterImage.get();
+    if (image == null || image.length < length) {
+      image = new int[length];
+      filterImage.set(image);
+    }
+    return image;
+  }
+
+
+  /** Scratch space for a single band (on whichever thread runs it). */
+  static long[] filterLines(int length) {
+    long[] lines = filterLines.get();
+    if (lines == null || lines.length < length) {
+      lines = new long[length];
+      filterLines.set(lines);
+    }
+    return lines;
+  }
+
+
   /**
    * Optimized code for building the blur kernel.
    * further optimized blur code (approx. 15% for radius=20)
@@ -1254,255 +1244,269 @@ public class PImage implements PConstants, Cloneable {
       blurRadius = radius;
       blurKernelSize = 1 + blurRadius<<1;
       blurKernel = new int[blurKernelSize];
-      blurMult = new int[blurKernelSize][256];
-
-      int bk,bki;
-      int[] bm,bmi;
-
-      for (int i = 1, radiusi = radius - 1; i < radius; i++) {
-        blurKernel[radius+i] = blurKernel[radiusi] = bki = radiusi * radiusi;
-        bm=blurMult[radius+i];
-        bmi=blurMult[radiusi--];
-        for (int j = 0; j < 256; j++)
-          bm[j] = bmi[j] = bki*j;
+      // weight is (radius - distance) squared, zero at either end
+      for (int i = 0; i < blurKernelSize; i++) {
+        int d = radius - Math.abs(i - radius);
+        blurKernel[i] = d * d;
       }
-      bk = blurKernel[radius] = radius * radius;
-      bm = blurMult[radius];
-      for (int j = 0; j < 256; j++)
-        bm[j] = bk*j;
     }
   }
 
 
   protected void blurAlpha(float r) {
-    int sum, cb;
-    int read, ri, ym, ymi, bk0;
-    int b2[] = new int[pixels.length];
-    int yi = 0;
+    blur(r, new int[] { 0 }, 0);
+  }
 
-    buildBlurKernel(r);
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        //cb = cg = cr = sum = 0;
-        cb = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= width)
-            break;
-          int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
-        }
-        ri = yi + x;
-        b2[ri] = cb / sum;
-      }
-      yi += width;
-    }
+  protected void blurRGB(float r) {
+    blur(r, new int[] { 16, 8, 0 }, 0xff000000);
+  }
 
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        //cb = cg = cr = sum = 0;
-        cb = sum = 0;
-        if (ym<0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= height)
-            break;
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= height)
-            break;
-          int[] bm=blurMult[i];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += width;
-        }
-        pixels[x+yi] = (cb/sum);
-      }
-      yi += width;
-      ymi += width;
-      ym++;
-    }
+  protected void blurARGB(float r) {
+    blur(r, new int[] { 24, 16, 8, 0 }, 0);
   }
 
 
-  protected void blurRGB(float r) {
-    int sum, cr, cg, cb; //, k;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
-    int r2[] = new int[pixels.length];
-    int g2[] = new int[pixels.length];
-    int b2[] = new int[pixels.length];
-    int yi = 0;
+  /**
+   * Blur each channel (given by its bit shift) across the rows into a
+   * scratch image, then down the columns back into pixels[], both in
+   * bands of rows that run in parallel.
+   * <P>
+   * Small kernels add up every tap. Larger ones take the same time no
+   * matter the radius: the weight of a tap is (radius - distance)^2, a
+   * quadratic in its position i, so each side of the kernel only needs
+   * running sums of v, v*i and v*i*i, which change by one sample at each
+   * end as the kernel slides along. Both give exactly the same result.
+   * Near the edges, only the taps inside the image are used (and counted
+   * in the total weight).
+   */
+  private void blur(float r, final int[] shifts, final int opaque) {
+    if (width == 0 || height == 0) return;
 
     buildBlurKernel(r);
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        cb = cg = cr = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
+    final int radius = blurRadius;
+    final boolean sliding = radius >= BLUR_SLIDING_RADIUS;
+    final int[] temp = filterImage(width * height);
+    final double[] scaleX = blurScale(width, radius);
+    final double[] scaleY = blurScale(height, radius);
+    long work = (long) width * height * shifts.length *
+      (sliding ? 8 : radius);
+
+    Parallel.run(height, work, new Parallel.Band() {
+      public void run(int start, int stop) {
+        for (int y = start; y < stop; y++) {
+          int offset = y * width;
+          Arrays.fill(temp, offset, offset + width, 0);
+          for (int shift : shifts) {
+            if (sliding) {
+              blurRow(pixels, temp, offset, shift, radius, scaleX);
+            } else {
+              blurRowTaps(pixels, temp, offset, shift, radius, scaleX);
+            }
+          }
         }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= width)
-            break;
-          int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          cr += bm[(c & RED_MASK) >> 16];
-          cg += bm[(c & GREEN_MASK) >> 8];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
+      }
+    });
+
+    Parallel.run(height, work, new Parallel.Band() {
+      public void run(int start, int stop) {
+        Arrays.fill(pixels, start * width, stop * width, opaque);
+        for (int shift : shifts) {
+          if (sliding) {
+            blurColumns(temp, pixels, start, stop, shift, radius, scaleY);
+          } else {
+            blurColumnsTaps(temp, pixels, start, stop, shift, radius, scaleY);
+          }
         }
-        ri = yi + x;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
       }
-      yi += width;
+    });
+  }
+
+
+  /**
+   * One over the total weight of the kernel at each position along a row
+   * (or column) of length count, leaving out taps past either end.
+   */
+  static private double[] blurScale(int count, int radius) {
+    // running total of the weights from the center out to a distance
+    long[] side = new long[radius + 1];
+    long total = 0;
+    for (int d = 0; d <= radius; d++) {
+      total += (long) (radius - d) * (radius - d);
+      side[d] = total;
+    }
+    double[] scale = new double[count];
+    for (int i = 0; i < count; i++) {
+      long weight = side[Math.min(radius, i)] +
+        side[Math.min(radius, count - 1 - i)] - (long) radius * radius;
+      scale[i] = 1.0 / weight;
     }
+    return scale;
+  }
 
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        cb = cg = cr = sum = 0;
-        if (ym<0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= height)
-            break;
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= height)
-            break;
-          int[] bm=blurMult[i];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += width;
-        }
-        pixels[x+yi] = 0xff000000 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
+  /**
+   * Weighted sum divided by the total weight, rounded down. The total is
+   * never more than about 2^24, so multiplying by its reciprocal comes out
+   * the same as integer division; the tiny amount added keeps a quotient
+   * that's a whole number from landing just below it.
+   */
+  static private int blurValue(long sum, double scale) {
+    return (int) (sum * scale + 1e-9);
+  }
+
+
+  /** Blur one channel of one row by adding up every tap. */
+  private void blurRowTaps(int[] in, int[] out, int offset, int shift,
+                           int radius, double[] scale) {
+    int[] kernel = blurKernel;
+    for (int x = 0; x < width; x++) {
+      int lo = Math.max(0, x - radius);
+      int hi = Math.min(width - 1, x + radius);
+      int sum = 0;
+      for (int j = lo, k = lo - x + radius; j <= hi; j++, k++) {
+        sum += kernel[k] * ((in[offset + j] >>> shift) & 0xff);
       }
-      yi += width;
-      ymi += width;
-      ym++;
+      out[offset + x] |= blurValue(sum, scale[x]) << shift;
     }
   }
 
 
-  protected void blurARGB(float r) {
-    int sum, cr, cg, cb, ca;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
-    int wh = pixels.length;
-    int r2[] = new int[wh];
-    int g2[] = new int[wh];
-    int b2[] = new int[wh];
-    int a2[] = new int[wh];
-    int yi = 0;
+  /**
+   * Blur one channel of one row with running sums. For position x, the
+   * left side covers x-radius..x with weight (radius - x + i)^2, the right
+   * side covers x+1..x+radius with weight (radius + x - i)^2.
+   */
+  private void blurRow(int[] in, int[] out, int offset, int shift,
+                       int radius, double[] scale) {
+    int n = width;
+    long l0 = (in[offset] >>> shift) & 0xff, l1 = 0, l2 = 0;
+    long r0 = 0, r1 = 0, r2 = 0;
+    for (int i = 1; i <= radius && i < n; i++) {
+      long v = (in[offset + i] >>> shift) & 0xff;
+      r0 += v;
+      r1 += v * i;
+      r2 += v * i * i;
+    }
+    for (int x = 0; x < n; x++) {
+      long a = radius - x;
+      long b = radius + x;
+      long sum = a*a*l0 + 2*a*l1 + l2 + b*b*r0 - 2*b*r1 + r2;
+      out[offset + x] |= blurValue(sum, scale[x]) << shift;
+
+      // slide along by one
+      int i = x + 1;
+      if (i < n) {  // moves from the right side to the left
+        long v = (in[offset + i] >>> shift) & 0xff;
+        long vi = v * i;
+        long vii = vi * i;
+        l0 += v;  l1 += vi;  l2 += vii;
+        r0 -= v;  r1 -= vi;  r2 -= vii;
+      }
+      i = x - radius;
+      if (i >= 0) {  // drops off the left
+        long v = (in[offset + i] >>> shift) & 0xff;
+        l0 -= v;  l1 -= v * i;  l2 -= v * i * i;
+      }
+      i = x + 1 + radius;
+      if (i < n) {  // comes in on the right
+        long v = (in[offset + i] >>> shift) & 0xff;
+        r0 += v;  r1 += v * i;  r2 += v * i * i;
+      }
+    }
+  }
 
-    buildBlurKernel(r);
 
-    for (int y = 0; y < height; y++) {
+  /**
+   * Blur one channel down the columns for rows start to stop, by adding up
+   * every tap. Only used for small kernels, so the few rows involved stay
+   * in the cache.
+   */
+  private void blurColumnsTaps(int[] in, int[] out, int start, int stop,
+                               int shift, int radius, double[] scale) {
+    int[] kernel = blurKernel;
+    for (int y = start; y < stop; y++) {
+      int lo = Math.max(0, y - radius);
+      int hi = Math.min(height - 1, y + radius);
+      int row = y * width;
+      double sc = scale[y];
       for (int x = 0; x < width; x++) {
-        cb = cg = cr = ca = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= width)
-            break;
-          int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          ca += bm[(c & ALPHA_MASK) >>> 24];
-          cr += bm[(c & RED_MASK) >> 16];
-          cg += bm[(c & GREEN_MASK) >> 8];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
+        int sum = 0;
+        for (int j = lo, k = lo - y + radius; j <= hi; j++, k++) {
+          sum += kernel[k] * ((in[j * width + x] >>> shift) & 0xff);
         }
-        ri = yi + x;
-        a2[ri] = ca / sum;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
+        out[row + x] |= blurValue(sum, sc) << shift;
       }
-      yi += width;
     }
+  }
 
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        cb = cg = cr = ca = sum = 0;
-        if (ym<0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= height)
-            break;
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
+  /**
+   * Blur one channel down the columns for rows start to stop, with the
+   * same running sums as blurRow() kept for every column of the band.
+   */
+  private void blurColumns(int[] in, int[] out, int start, int stop,
+                           int shift, int radius, double[] scale) {
+    int w = width;
+    int h = height;
+    long[] sums = filterLines(w * 6);
+    Arrays.fill(sums, 0, w * 6, 0);
+    int l0 = 0, l1 = w, l2 = w*2, r0 = w*3, r1 = w*4, r2 = w*5;
+
+    // kernel for the first row of the band
+    int lo = Math.max(0, start - radius);
+    int hi = Math.min(h - 1, start + radius);
+    for (int j = lo; j <= hi; j++) {
+      int side = (j <= start) ? l0 : r0;
+      int row = j * w;
+      for (int x = 0; x < w; x++) {
+        long v = (in[row + x] >>> shift) & 0xff;
+        sums[side + x] += v;
+        sums[side + w + x] += v * j;
+        sums[side + w*2 + x] += v * j * j;
+      }
+    }
+
+    for (int y = start; y < stop; y++) {
+      long a = radius - y;
+      long b = radius + y;
+      double sc = scale[y];
+      int row = y * w;
+      for (int x = 0; x < w; x++) {
+        long sum = a*a*sums[l0 + x] + 2*a*sums[l1 + x] + sums[l2 + x] +
+          b*b*sums[r0 + x] - 2*b*sums[r1 + x] + sums[r2 + x];
+        out[row + x] |= blurValue(sum, sc) << shift;
+      }
+      if (y + 1 == stop) break;
+
+      int j = y + 1;
+      if (j < h) {  // moves from the lower side to the upper
+        int moved = j * w;
+        for (int x = 0; x < w; x++) {
+          long v = (in[moved + x] >>> shift) & 0xff;
+          long vj = v * j;
+          long vjj = vj * j;
+          sums[l0 + x] += v;  sums[l1 + x] += vj;  sums[l2 + x] += vjj;
+          sums[r0 + x] -= v;  sums[r1 + x] -= vj;  sums[r2 + x] -= vjj;
+        }
+      }
+      j = y - radius;
+      if (j >= 0) {  // drops off the top
+        int gone = j * w;
+        for (int x = 0; x < w; x++) {
+          long v = (in[gone + x] >>> shift) & 0xff;
+          sums[l0 + x] -= v;  sums[l1 + x] -= v * j;  sums[l2 + x] -= v * j * j;
         }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= height)
-            break;
-          int[] bm=blurMult[i];
-          ca += bm[a2[read]];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += width;
+      }
+      j = y + 1 + radius;
+      if (j < h) {  // comes in at the bottom
+        int added = j * w;
+        for (int x = 0; x < w; x++) {
+          long v = (in[added + x] >>> shift) & 0xff;
+          sums[r0 + x] += v;  sums[r1 + x] += v * j;  sums[r2 + x] += v * j * j;
         }
-        pixels[x+yi] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
       }
-      yi += width;
-      ymi += width;
-      ym++;
     }
   }
 
@@ -1511,14 +1515,26 @@ public class PImage implements PConstants, Cloneable {
    * Generic dilate/erode filter using luminance values
    * as decision factor. [toxi 050728]
    */
-  protected void dilate(boolean isInverted) {
-    int currIdx=0;
+  protected void dilate(final boolean isInverted) {
+    final int maxIdx=pixels.length;
+    final int[] out=filterImage(maxIdx);
+    Parallel.run(height, maxIdx * 5L, new Parallel.Band() {
+      public void run(int start, int stop) {
+        dilateRows(isInverted, out, start*width, Math.min(stop*width, maxIdx));
+      }
+    });
+    System.arraycopy(out,0,pixels,0,maxIdx);
+  }
+
+
+  /** Dilate or erode the pixels from currIdx up to stopIdx (whole rows). */
+  private void dilateRows(boolean isInverted, int[] out,
+                          int currIdx, int stopIdx) {
     int maxIdx=pixels.length;
-    int[] out=new int[maxIdx];
 
     if (!isInverted) {
       // erosion (grow light areas)
-      while (currIdx<maxIdx) {
+      while (currIdx<stopIdx) {
         int currRowIdx=currIdx;
         int maxRowIdx=currIdx+width;
         while (currIdx<maxRowIdx) {
@@ -1575,7 +1591,7 @@ public class PImage implements PConstants, Cloneable {
       }
     } else {
       // dilate (grow dark areas)
-      while (currIdx<maxIdx) {
+      while (currIdx<stopIdx) {
         int currRowIdx=currIdx;
         int maxRowIdx=currIdx+width;
         while (currIdx<maxRowIdx) {
@@ -1631,7 +1647,6 @@ public class PImage implements PConstants, Cloneable {
         }
       }
     }
-    System.arraycopy(out,0,pixels,0,maxIdx);
   }
 
 
@@ -1961,12 +1976,17 @@ public class PImage implements PConstants, Cloneable {
    * Internal blitter/resizer/copier from toxi.
    * Uses bilinear filtering if smooth() has been enabled
    * 'mode' determines the blending mode used in the process.
+   * <P>
+   * Everything it needs is kept in local variables, so several threads can
+   * blend at once, and the rows of the destination are split into bands
+   * that run in parallel. Each row is first filtered from the source into
+   * a line buffer, then blended into the destination.
    */
-  private void blit_resize(PImage img,
+  private void blit_resize(final PImage img,
                            int srcX1, int srcY1, int srcX2, int srcY2,
-                           int[] destPixels, int screenW, int screenH,
+                           final int[] destPixels, final int screenW, int screenH,
                            int destX1, int destY1, int destX2, int destY2,
-                           int mode) {
+                           final int mode) {
     if (srcX1 < 0) srcX1 = 0;
     if (srcY1 < 0) srcY1 = 0;
     if (srcX2 > img.width) srcX2 = img.width;
@@ -1977,7 +1997,7 @@ public class PImage implements PConstants, Cloneable {
     int destW = destX2 - destX1;
     int destH = destY2 - destY1;
 
-    boolean smooth = true;  // may as well go with the smoothing these days
+    final boolean smooth = true;  // may as well go with the smoothing these days
 
     if (!smooth) {
       srcW++; srcH++;
@@ -1990,11 +2010,11 @@ public class PImage implements PConstants, Cloneable {
       return;
     }
 
-    int dx = (int) (srcW / (float) destW * PRECISIONF);
-    int dy = (int) (srcH / (float) destH * PRECISIONF);
+    final int dx = (int) (srcW / (float) destW * PRECISIONF);
+    final int dy = (int) (srcH / (float) destH * PRECISIONF);
 
-    srcXOffset = destX1 < 0 ? -destX1 * dx : srcX1 * PRECISIONF;
-    srcYOffset = destY1 < 0 ? -destY1 * dy : srcY1 * PRECISIONF;
+    final int srcXOffset = destX1 < 0 ? -destX1 * dx : srcX1 * PRECISIONF;
+    final int srcYOffset = destY1 < 0 ? -destY1 * dy : srcY1 * PRECISIONF;
 
     if (destX1 < 0) {
       destW += destX1;
@@ -2005,494 +2025,205 @@ public class PImage implements PConstants, Cloneable {
       destY1 = 0;
     }
 
-    destW = low(destW, screenW - destX1);
+    final int count = low(destW, screenW - destX1);
     destH = low(destH, screenH - destY1);
 
-    int destOffset = destY1 * screenW + destX1;
-    srcBuffer = img.pixels;
-
-    if (smooth) {
-      // use bilinear filtering
-      iw = img.width;
-      iw1 = img.width - 1;
-      ih1 = img.height - 1;
-
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            // davbol  - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
+    final int destOffset = destY1 * screenW + destX1;
+    final int[] srcBuffer = img.pixels;
+    final int iw = img.width;
+    final int ih = img.height;
+
+    Parallel.run(destH, (long) count * destH, new Parallel.Band() {
+      public void run(int start, int stop) {
+        int[] line = new int[count];
+        for (int y = start; y < stop; y++) {
+          int sy = srcYOffset + y * dy;
+          if (smooth) {
+            filter_bilinear(srcBuffer, iw, ih, srcXOffset, sy, dx, line, count);
+          } else {
+            filter_nearest(srcBuffer, iw, srcXOffset, sy, dx, line, count);
           }
-          destOffset += screenW;
-          srcYOffset += dy;
+          blend_line(mode, destPixels, destOffset + y * screenW, line, count);
         }
-        break;
-
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = filter_bilinear();
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
       }
+    });
+  }
 
-    } else {
-      // nearest neighbour scaling (++fast!)
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            // davbol - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x],
-                             srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
 
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+  /**
+   * Blend a line of source pixels into the destination, with the loop for
+   * each mode written out so that the mode is only checked once per line.
+   */
+  private static void blend_line(int mode, int[] dest, int offset,
+                                 int[] line, int count) {
+    switch (mode) {
+    case REPLACE:
+      System.arraycopy(line, 0, dest, offset, count);
+      break;
+
+    case BLEND:
+      for (int x = 0; x < count; x++) {
+        // davbol - renamed old blend_multiply to blend_blend
+        dest[offset + x] = blend_blend(dest[offset + x], line[x]);
+      }
+      break;
 
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x],
-                             srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case ADD:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_add_pin(dest[offset + x], line[x]);
+      }
+      break;
 
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case SUBTRACT:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_sub_pin(dest[offset + x], line[x]);
+      }
+      break;
 
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = srcBuffer[sY + (sX >> PRECISIONB)];
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case LIGHTEST:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_lightest(dest[offset + x], line[x]);
+      }
+      break;
 
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x],
-                               srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case DARKEST:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_darkest(dest[offset + x], line[x]);
+      }
+      break;
 
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x],
-                              srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case DIFFERENCE:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_difference(dest[offset + x], line[x]);
+      }
+      break;
 
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case EXCLUSION:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_exclusion(dest[offset + x], line[x]);
+      }
+      break;
 
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case MULTIPLY:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_multiply(dest[offset + x], line[x]);
+      }
+      break;
 
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case SCREEN:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_screen(dest[offset + x], line[x]);
+      }
+      break;
 
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case OVERLAY:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_overlay(dest[offset + x], line[x]);
+      }
+      break;
 
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case HARD_LIGHT:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_hard_light(dest[offset + x], line[x]);
+      }
+      break;
 
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case SOFT_LIGHT:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_soft_light(dest[offset + x], line[x]);
+      }
+      break;
 
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    // davbol - proposed 2007-01-09
+    case DODGE:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_dodge(dest[offset + x], line[x]);
+      }
+      break;
 
+    case BURN:
+      for (int x = 0; x < count; x++) {
+        dest[offset + x] = blend_burn(dest[offset + x], line[x]);
       }
+      break;
     }
   }
 
 
-  private void filter_new_scanline() {
-    sX = srcXOffset;
-    fracV = srcYOffset & PREC_MAXVAL;
-    ifV = PREC_MAXVAL - fracV;
-    v1 = (srcYOffset >> PRECISIONB) * iw;
-    v2 = low((srcYOffset >> PRECISIONB) + 1, ih1) * iw;
+  /** Nearest neighbour scaling (++fast!) for one line of the destination. */
+  private static void filter_nearest(int[] srcBuffer, int iw,
+                                     int sX, int srcYOffset, int dx,
+                                     int[] line, int count) {
+    int sY = (srcYOffset >> PRECISIONB) * iw;
+    for (int x = 0; x < count; x++) {
+      line[x] = srcBuffer[sY + (sX >> PRECISIONB)];
+      sX += dx;
+    }
   }
 
 
-  private int filter_bilinear() {
-    fracU = sX & PREC_MAXVAL;
-    ifU = PREC_MAXVAL - fracU;
-    ul = (ifU * ifV) >> PRECISIONB;
-    ll = (ifU * fracV) >> PRECISIONB;
-    ur = (fracU * ifV) >> PRECISIONB;
-    lr = (fracU * fracV) >> PRECISIONB;
-    u1 = (sX >> PRECISIONB);
-    u2 = low(u1 + 1, iw1);
-
-    // get color values of the 4 neighbouring texels
-    cUL = srcBuffer[v1 + u1];
-    cUR = srcBuffer[v1 + u2];
-    cLL = srcBuffer[v2 + u1];
-    cLR = srcBuffer[v2 + u2];
-
-    r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
-          ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
-         << PREC_RED_SHIFT) & RED_MASK;
-
-    g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
-          ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
-         >>> PRECISIONB) & GREEN_MASK;
-
-    b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
-         ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
-           >>> PRECISIONB;
-
-    a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
-          ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
-         << PREC_ALPHA_SHIFT) & ALPHA_MASK;
+  /** Bilinear filtering for one line of the destination. */
+  private static void filter_bilinear(int[] srcBuffer, int iw, int ih,
+                                      int sX, int srcYOffset, int dx,
+                                      int[] line, int count) {
+    int iw1 = iw - 1;
+    int ih1 = ih - 1;
+    int fracV = srcYOffset & PREC_MAXVAL;
+    int ifV = PREC_MAXVAL - fracV;
+    int v1 = (srcYOffset >> PRECISIONB) * iw;
+    int v2 = low((srcYOffset >> PRECISIONB) + 1, ih1) * iw;
+
+    if (fracV == 0 && dx == PRECISIONF && (sX & PREC_MAXVAL) == 0) {
+      // not scaled and lined up on whole pixels (the usual copy), so only
+      // the upper left texel has any weight; same result, a quarter the work
+      int ul = (PREC_MAXVAL * PREC_MAXVAL) >> PRECISIONB;
+      int u1 = v1 + (sX >> PRECISIONB);
+      for (int x = 0; x < count; x++) {
+        int c = srcBuffer[u1 + x];
+        line[x] =
+          (((ul*((c&ALPHA_MASK)>>>24)) << PREC_ALPHA_SHIFT) & ALPHA_MASK) |
+          (((ul*((c&RED_MASK)>>16)) << PREC_RED_SHIFT) & RED_MASK) |
+          (((ul*(c&GREEN_MASK)) >>> PRECISIONB) & GREEN_MASK) |
+          ((ul*(c&BLUE_MASK)) >>> PRECISIONB);
+      }
+      return;
+    }
 
-    return a | r | g | b;
+    for (int x = 0; x < count; x++) {
+      int fracU = sX & PREC_MAXVAL;
+      int ifU = PREC_MAXVAL - fracU;
+      int ul = (ifU * ifV) >> PRECISIONB;
+      int ll = (ifU * fracV) >> PRECISIONB;
+      int ur = (fracU * ifV) >> PRECISIONB;
+      int lr = (fracU * fracV) >> PRECISIONB;
+      int u1 = (sX >> PRECISIONB);
+      int u2 = low(u1 + 1, iw1);
+
+      // get color values of the 4 neighbouring texels
+      int cUL = srcBuffer[v1 + u1];
+      int cUR = srcBuffer[v1 + u2];
+      int cLL = srcBuffer[v2 + u1];
+      int cLR = srcBuffer[v2 + u2];
+
+      int r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
+                ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
+               << PREC_RED_SHIFT) & RED_MASK;
+
+      int g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
+                ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
+               >>> PRECISIONB) & GREEN_MASK;
+
+      int b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
+               ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
+                 >>> PRECISIONB;
+
+      int a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
+                ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
+               << PREC_ALPHA_SHIFT) & ALPHA_MASK;
+
+      line[x] = a | r | g | b;
+      sX += dx;
+    }
   }
 
 
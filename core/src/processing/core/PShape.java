@@ -1362,8 +1362,9 @@ public class PShape implements PConstants {
     copyImage(src, dest);
 
     if (src.style) {
+      float[] temp = new float[PGraphics.NZ + 1];
       for (int i = 0; i < src.vertexCount; i++) {
-        float[] vert = src.vertices[i];
+        float[] vert = src.vertexData(i, temp);
 
         dest.fill((int)(vert[PGraphics.A] * 255) << 24 |
                   (int)(vert[PGraphics.R] * 255) << 16 |
@@ -1388,8 +1389,9 @@ public class PShape implements PConstants {
                     vert[PGraphics.V]);
       }
     } else {
+      float[] temp = new float[PGraphics.NZ + 1];
       for (int i = 0; i < src.vertexCount; i++) {
-        float[] vert = src.vertices[i];
+        float[] vert = src.vertexData(i, temp);
         if (vert[Z] == 0) {
           dest.vertex(vert[X], vert[Y]);
         } else {
@@ -1402,6 +1404,17 @@ public class PShape implements PConstants {
   }
 
 
+  /**
+   * Position, color, normal, and texture coordinates for a vertex, laid out
+   * the same as in vertices[], at least up through NZ. Shapes that keep
+   * their vertices some other way (like the meshes of an OBJ file) fill in
+   * temp and return it.
+   */
+  protected float[] vertexData(int index, float[] temp) {
+    return vertices[index];
+  }
+
+
   // TODO unapproved
   static protected void copyPath(PShape src, PShape dest) {
     copyMatrix(src, dest);
@@ -2,6 +2,8 @@ package processing.core;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Hashtable;
 
@@ -15,15 +17,26 @@ import java.util.Hashtable;
  * http://code.google.com/p/saitoobjloader/
  * and OBJReader from Ahmet Kizilay
  * http://www.openprocessing.org/visuals/?visualID=191
- *
+ * <p>
+ * The faces are split into triangles and grouped by material, with one
+ * child shape for each material. The children keep the coordinates,
+ * normals, and texture coordinates of the file in flat float arrays, along
+ * with the indices into them for each corner of each triangle, rather than
+ * an object (or array) for every face and vertex. Large files are read
+ * in parallel, in chunks that are split on line boundaries.
  */
 public class PShapeOBJ extends PShape {
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Roughly how many bytes of the file are read as one chunk. */
+  static final int CHUNK_SIZE = 1 << 18;
+
 
   /**
    * Initializes a new OBJ Object with the given filename.
    */
   public PShapeOBJ(PApplet parent, String filename) {
-    this(parent, parent.createReader(filename), getBasePath(parent, filename));
+    this(parent, parent.loadBytes(filename), getBasePath(parent, filename));
   }
 
   public PShapeOBJ(PApplet parent, BufferedReader reader) {
@@ -31,289 +44,896 @@ public class PShapeOBJ extends PShape {
   }
 
   public PShapeOBJ(PApplet parent, BufferedReader reader, String basePath) {
-    ArrayList<OBJFace> faces = new ArrayList<OBJFace>();
+    this(parent, readBytes(reader), basePath);
+  }
+
+  public PShapeOBJ(PApplet parent, byte[] data, String basePath) {
     ArrayList<OBJMaterial> materials = new ArrayList<OBJMaterial>();
-    ArrayList<PVector> coords = new ArrayList<PVector>();
-    ArrayList<PVector> normals = new ArrayList<PVector>();
-    ArrayList<PVector> texcoords = new ArrayList<PVector>();
-    parseOBJ(parent, basePath, reader,
-             faces, materials, coords, normals, texcoords);
+    OBJData obj = (data == null) ? null :
+      parseOBJ(parent, basePath, data, materials);
+    if (materials.size() == 0) {
+      // No materials definition so far. Adding one default material.
+      materials.add(new OBJMaterial());
+    }
 
-    // The OBJ geometry is stored with each face in a separate child shape.
+    // The geometry is stored in one child shape for each material.
     parent = null;
     family = GROUP;
-    addChildren(faces, materials, coords, normals, texcoords);
+    if (obj != null) {
+      for (int m = 0; m < materials.size(); m++) {
+        int[] corners = obj.corners(m);
+        if (corners.length > 0) {
+          addChild(new OBJMesh(materials.get(m), obj, corners));
+        }
+      }
+    }
   }
 
 
-  protected PShapeOBJ(OBJFace face, OBJMaterial mtl,
-                      ArrayList<PVector> coords,
-                      ArrayList<PVector> normals,
-                      ArrayList<PVector> texcoords) {
-    family = GEOMETRY;
-    if (face.vertIdx.size() == 3) {
-      kind = TRIANGLES;
-    } else if (face.vertIdx.size() == 4) {
-      kind = QUADS;
-    } else {
-      kind = POLYGON;
+  static protected byte[] readBytes(BufferedReader reader) {
+    if (reader == null) return null;
+    StringBuilder sb = new StringBuilder();
+    char[] buffer = new char[8192];
+    try {
+      int count;
+      while ((count = reader.read(buffer)) != -1) {
+        sb.append(buffer, 0, count);
+      }
+      reader.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
     }
+    return sb.toString().getBytes(UTF8);
+  }
 
-    stroke = false;
-    fill = true;
 
-    // Setting material properties for the new face
-    fillColor = rgbaValue(mtl.kd);
-    ambientColor = rgbaValue(mtl.ka);
-    specularColor = rgbaValue(mtl.ks);
-    shininess = mtl.ns;
-    if (mtl.kdMap != null) {
-      // If current material is textured, then tinting the texture using the
-      // diffuse color.
-      tintColor = rgbaValue(mtl.kd, mtl.d);
+  /**
+   * Everything read from an OBJ file: the coordinates, normals, and texture
+   * coordinates (with V already flipped for Processing's Y axis), and for
+   * each material, the corners of its triangles as three indices each,
+   * into the coordinates, texture coordinates, and normals (-1 if unused).
+   */
+  static protected class OBJData {
+    float[] coords;
+    float[] normals;
+    float[] texcoords;
+    OBJChunk[] chunks;
+
+    int vertexCount() {
+      return coords.length / 3;
     }
 
-    vertexCount = face.vertIdx.size();
-    vertices = new float[vertexCount][12];
-    for (int j = 0; j < face.vertIdx.size(); j++){
-      int vertIdx, normIdx;
-      PVector vert, norms;
+    /** Corners of the triangles for material m, from all the chunks. */
+    int[] corners(int m) {
+      int total = 0;
+      for (OBJChunk chunk : chunks) {
+        if (chunk.faces[m] != null) total += chunk.faces[m].count;
+      }
+      int[] all = new int[total];
+      int offset = 0;
+      for (OBJChunk chunk : chunks) {
+        IndexList list = chunk.faces[m];
+        if (list != null) {
+          System.arraycopy(list.data, 0, all, offset, list.count);
+          offset += list.count;
+          chunk.faces[m] = null;  // done with it
+        }
+      }
+      return all;
+    }
+  }
 
-      vert = norms = null;
 
-      vertIdx = face.vertIdx.get(j).intValue() - 1;
-      vert = coords.get(vertIdx);
+  /** A growable array of ints, for the corners of the faces. */
+  static protected class IndexList {
+    int[] data = new int[96];
+    int count;
 
-      if (j < face.normIdx.size()) {
-        normIdx = face.normIdx.get(j).intValue() - 1;
-        if (-1 < normIdx) {
-          norms = normals.get(normIdx);
-        }
+    void add(int a, int b, int c) {
+      if (count + 3 > data.length) {
+        data = PApplet.expand(data, data.length << 1);
       }
+      data[count++] = a;
+      data[count++] = b;
+      data[count++] = c;
+    }
+  }
+
+
+  /** One piece of the file, from start up to (not including) stop. */
+  static protected class OBJChunk {
+    int start, stop;
+
+    // counted on the first pass
+    int coordCount, normalCount, texcoordCount;
+    String lastMaterial;
+    ArrayList<String> libraries = new ArrayList<String>();
 
-      vertices[j][X] = vert.x;
-      vertices[j][Y] = vert.y;
-      vertices[j][Z] = vert.z;
+    // worked out between passes
+    int coordOffset, normalOffset, texcoordOffset;
+    int material = -1;
+
+    // filled in on the second pass, by material
+    IndexList[] faces;
+    // Faces with more than three corners, each one as (count, 0, 0)
+    // followed by its corners. They're split into triangles once all of
+    // the coordinates have been read, since they can use any of them.
+    IndexList[] polygons;
+  }
 
-      vertices[j][PGraphics.R] = mtl.kd.x;
-      vertices[j][PGraphics.G] = mtl.kd.y;
-      vertices[j][PGraphics.B] = mtl.kd.z;
-      vertices[j][PGraphics.A] = 1;
 
-      if (norms != null) {
-        vertices[j][PGraphics.NX] = norms.x;
-        vertices[j][PGraphics.NY] = norms.y;
-        vertices[j][PGraphics.NZ] = norms.z;
+  /**
+   * Read the file in chunks, in parallel. The first pass only looks at the
+   * start of each line, to count the coordinates, normals, and texture
+   * coordinates in each chunk, and to find the libraries and the material
+   * in use at the end. With that, each chunk knows where its numbers go in
+   * the shared arrays, what the (possibly relative) indices of its faces
+   * refer to, and which material it starts with, so the second pass can
+   * read everything straight into place.
+   */
+  static protected OBJData parseOBJ(PApplet parent, String path, byte[] data,
+                                    ArrayList<OBJMaterial> materials) {
+    final OBJChunk[] chunks = splitChunks(data);
+    final byte[] bytes = data;
+
+    Parallel.run(chunks.length, data.length, new Parallel.Band() {
+      public void run(int start, int stop) {
+        for (int i = start; i < stop; i++) {
+          countChunk(bytes, chunks[i]);
+        }
       }
+    });
 
-      if (mtl != null && mtl.kdMap != null) {
-        // This face is textured.
-        int texIdx;
-        PVector tex = null;
+    // the material files, in the order they're mentioned
+    Hashtable<String, Integer> mtlTable = new Hashtable<String, Integer>();
+    for (OBJChunk chunk : chunks) {
+      for (String fn : chunk.libraries) {
+        if (fn.indexOf(File.separator) == -1 && !path.equals("")) {
+          // Relative file name, adding the base path.
+          fn = path + File.separator + fn;
+        }
+        BufferedReader mreader = parent.createReader(fn);
+        if (mreader != null) {
+          parseMTL(parent, path, mreader, materials, mtlTable);
+        }
+      }
+    }
+    final int materialCount = Math.max(1, materials.size());
 
-        if (j < face.texIdx.size()) {
-          texIdx = face.texIdx.get(j).intValue() - 1;
-          if (-1 < texIdx) {
-            tex = texcoords.get(texIdx);
-          }
+    final OBJData obj = new OBJData();
+    obj.chunks = chunks;
+    int coordCount = 0, normalCount = 0, texcoordCount = 0;
+    int material = -1;
+    for (OBJChunk chunk : chunks) {
+      chunk.coordOffset = coordCount;
+      chunk.normalOffset = normalCount;
+      chunk.texcoordOffset = texcoordCount;
+      chunk.material = material;
+      coordCount += chunk.coordCount;
+      normalCount += chunk.normalCount;
+      texcoordCount += chunk.texcoordCount;
+      if (chunk.lastMaterial != null) {
+        material = materialIndex(mtlTable, chunk.lastMaterial);
+      }
+    }
+    obj.coords = new float[coordCount * 3];
+    obj.normals = new float[normalCount * 3];
+    obj.texcoords = new float[texcoordCount * 2];
+    final Hashtable<String, Integer> table = mtlTable;
+
+    Parallel.run(chunks.length, data.length, new Parallel.Band() {
+      public void run(int start, int stop) {
+        for (int i = start; i < stop; i++) {
+          readChunk(bytes, chunks[i], obj, table, materialCount);
         }
+      }
+    });
 
-        image = mtl.kdMap;
-        if (tex != null) {
-          vertices[j][PGraphics.U] = tex.x;
-          vertices[j][PGraphics.V] = tex.y;
+    Parallel.run(chunks.length, data.length, new Parallel.Band() {
+      public void run(int start, int stop) {
+        Triangulator triangulator = new Triangulator();
+        for (int i = start; i < stop; i++) {
+          triangulator.triangulate(chunks[i], obj.coords);
         }
       }
+    });
+    return obj;
+  }
+
+
+  static int materialIndex(Hashtable<String, Integer> mtlTable, String name) {
+    Integer index = mtlTable.get(name);
+    return (index == null) ? -1 : index.intValue();
+  }
+
+
+  /** Split the file into chunks, each ending at the end of a line. */
+  static protected OBJChunk[] splitChunks(byte[] data) {
+    int count = Math.max(1, data.length / CHUNK_SIZE);
+    ArrayList<OBJChunk> chunks = new ArrayList<OBJChunk>();
+    int start = 0;
+    for (int i = 1; i <= count && start < data.length; i++) {
+      int stop = (i == count) ? data.length :
+        lineEnd(data, (int) ((long) data.length * i / count), data.length);
+      if (stop > start) {
+        OBJChunk chunk = new OBJChunk();
+        chunk.start = start;
+        chunk.stop = stop;
+        chunks.add(chunk);
+        start = stop;
+      }
+    }
+    if (chunks.size() == 0) {
+      OBJChunk chunk = new OBJChunk();
+      chunks.add(chunk);
     }
+    return chunks.toArray(new OBJChunk[chunks.size()]);
   }
 
 
-  protected void addChildren(ArrayList<OBJFace> faces,
-                             ArrayList<OBJMaterial> materials,
-                             ArrayList<PVector> coords,
-                             ArrayList<PVector> normals,
-                             ArrayList<PVector> texcoords) {
-    int mtlIdxCur = -1;
-    OBJMaterial mtl = null;
-    for (int i = 0; i < faces.size(); i++) {
-      OBJFace face = faces.get(i);
+  /**
+   * Position just past the newline that ends the statement around pos.
+   * A backslash at the end of a line carries a statement over to the next
+   * one, a fix for Rhino OBJ files from Carlos Tomas Marti.
+   */
+  static protected int lineEnd(byte[] data, int pos, int stop) {
+    while (pos < stop) {
+      byte c = data[pos++];
+      if (c == '\n') {
+        break;
+      }
+      if (c == '\\' && isContinuation(data, pos - 1, stop)) {
+        pos = nextLine(data, pos, stop);  // keep going on the next line
+      }
+    }
+    return pos;
+  }
 
-      // Getting current material.
-      if (mtlIdxCur != face.matIdx || face.matIdx == -1) {
-        // To make sure that at least we get the default material
-        mtlIdxCur = PApplet.max(0, face.matIdx);
-        mtl = materials.get(mtlIdxCur);
+
+  /**
+   * True if the backslash at pos is the last thing on its line (besides
+   * spaces), so that the statement carries on to the next line.
+   */
+  static boolean isContinuation(byte[] data, int pos, int stop) {
+    for (pos++; pos < stop && data[pos] != '\n'; pos++) {
+      if (!isSpace(data[pos])) return false;
+    }
+    return true;
+  }
+
+
+  /**
+   * Position just past the end of this line. Also used for comments, which
+   * don't carry on to the next line even if they end with a backslash.
+   */
+  static int nextLine(byte[] data, int pos, int stop) {
+    while (pos < stop && data[pos] != '\n') pos++;
+    return Math.min(pos + 1, stop);
+  }
+
+
+  static boolean isSpace(byte c) {
+    return c == ' ' || c == '\t' || c == '\r';
+  }
+
+
+  /**
+   * Skip spaces within a statement, including a backslash at the end of a
+   * line along with the newline, so that the statement carries on to the
+   * next one.
+   */
+  static int skipSpace(byte[] data, int pos, int stop) {
+    while (pos < stop) {
+      byte c = data[pos];
+      if (isSpace(c)) {
+        pos++;
+      } else if (c == '\\' && isContinuation(data, pos, stop)) {
+        pos = nextLine(data, pos, stop);
+      } else {
+        break;
       }
+    }
+    return pos;
+  }
 
-      // Creating child shape for current face.
-      PShape child = new PShapeOBJ(face, mtl, coords, normals, texcoords);
-      addChild(child);
+
+  static int tokenEnd(byte[] data, int pos, int stop) {
+    while (pos < stop) {
+      byte c = data[pos];
+      if (isSpace(c) || c == '\n' ||
+          (c == '\\' && isContinuation(data, pos, stop))) break;
+      pos++;
     }
+    return pos;
   }
 
 
-  static protected void parseOBJ(PApplet parent, String path,
-                                 BufferedReader reader,
-                                 ArrayList<OBJFace> faces,
-                                 ArrayList<OBJMaterial> materials,
-                                 ArrayList<PVector> coords,
-                                 ArrayList<PVector> normals,
-                                 ArrayList<PVector> texcoords) {
-    Hashtable<String, Integer> mtlTable  = new Hashtable<String, Integer>();
-    int mtlIdxCur = -1;
-    boolean readv, readvn, readvt;
-    try {
+  static boolean isKeyword(byte[] data, int start, int stop, String word) {
+    if (stop - start != word.length()) return false;
+    for (int i = 0; i < word.length(); i++) {
+      if (data[start + i] != word.charAt(i)) return false;
+    }
+    return true;
+  }
 
-      readv = readvn = readvt = false;
-      String line;
-      String gname = "object";
-      while ((line = reader.readLine()) != null) {
-       // Parse the line.
-        line = line.trim();
-        if (line.equals("") || line.indexOf('#') == 0) {
-          // Empty line of comment, ignore line
-          continue;
-        }
 
-        // The below patch/hack comes from Carlos Tomas Marti and is a
-        // fix for single backslashes in Rhino obj files
-
-        // BEGINNING OF RHINO OBJ FILES HACK
-        // Statements can be broken in multiple lines using '\' at the
-        // end of a line.
-        // In regular expressions, the backslash is also an escape
-        // character.
-        // The regular expression \\ matches a single backslash. This
-        // regular expression as a Java string, becomes "\\\\".
-        // That's right: 4 backslashes to match a single one.
-        while (line.contains("\\")) {
-          line = line.split("\\\\")[0];
-          final String s = reader.readLine();
-          if (s != null)
-            line += s;
+  /** The rest of the statement as a String (trimmed), or null if empty. */
+  static String readName(byte[] data, int pos, int stop) {
+    pos = skipSpace(data, pos, stop);
+    int end = tokenEnd(data, pos, stop);
+    return (end > pos) ? new String(data, pos, end - pos, UTF8) : null;
+  }
+
+
+  static protected void countChunk(byte[] data, OBJChunk chunk) {
+    int pos = chunk.start;
+    int stop = chunk.stop;
+    while (pos < stop) {
+      pos = skipSpace(data, pos, stop);
+      if (pos < stop && data[pos] == '#') {
+        pos = nextLine(data, pos, stop);
+        continue;
+      }
+      int end = tokenEnd(data, pos, stop);
+      if (end > pos) {
+        byte c = data[pos];
+        if (c == 'v') {
+          if (end - pos == 1) {
+            chunk.coordCount++;
+          } else if (end - pos == 2 && data[pos + 1] == 'n') {
+            chunk.normalCount++;
+          } else if (end - pos == 2 && data[pos + 1] == 't') {
+            chunk.texcoordCount++;
+          }
+        } else if (isKeyword(data, pos, end, "usemtl")) {
+          String name = readName(data, end, stop);
+          if (name != null) {
+            chunk.lastMaterial = name;
+          }
+        } else if (isKeyword(data, pos, end, "mtllib")) {
+          String name = readName(data, end, stop);
+          if (name != null) {
+            chunk.libraries.add(name);
+          }
         }
-        // END OF RHINO OBJ FILES HACK
+      }
+      pos = lineEnd(data, end, stop);
+    }
+  }
 
-        String[] parts = line.split("\\s+");
-        // if not a blank line, process the line.
-        if (parts.length > 0) {
-          if (parts[0].equals("v")) {
-            // vertex
-            PVector tempv = new PVector(Float.valueOf(parts[1]).floatValue(),
-                                        Float.valueOf(parts[2]).floatValue(),
-                                        Float.valueOf(parts[3]).floatValue());
-            coords.add(tempv);
-            readv = true;
-          } else if (parts[0].equals("vn")) {
-            // normal
-            PVector tempn = new PVector(Float.valueOf(parts[1]).floatValue(),
-                                        Float.valueOf(parts[2]).floatValue(),
-                                        Float.valueOf(parts[3]).floatValue());
-            normals.add(tempn);
-            readvn = true;
-          } else if (parts[0].equals("vt")) {
-            // uv, inverting v to take into account Processing's inverted Y axis
-            // with respect to OpenGL.
-            PVector tempv = new PVector(Float.valueOf(parts[1]).floatValue(),
-                                        1 - Float.valueOf(parts[2]).
-                                        floatValue());
-            texcoords.add(tempv);
-            readvt = true;
-          } else if (parts[0].equals("o")) {
-            // Object name is ignored, for now.
-          } else if (parts[0].equals("mtllib")) {
-            if (parts[1] != null) {
-              String fn = parts[1];
-              if (fn.indexOf(File.separator) == -1 && !path.equals("")) {
-                // Relative file name, adding the base path.
-                fn = path + File.separator + fn;
-              }
-              BufferedReader mreader = parent.createReader(fn);
-              if (mreader != null) {
-                parseMTL(parent, path, mreader, materials, mtlTable);
-              }
+
+  /**
+   * Second pass over a chunk, reading its numbers into the arrays of obj,
+   * and its triangles into faces. Faces with more corners go into
+   * polygons, for the Triangulator.
+   */
+  static protected void readChunk(byte[] data, OBJChunk chunk, OBJData obj,
+                                  Hashtable<String, Integer> mtlTable,
+                                  int materialCount) {
+    chunk.faces = new IndexList[materialCount];
+    chunk.polygons = new IndexList[materialCount];
+    float[] coords = obj.coords;
+    float[] normals = obj.normals;
+    float[] texcoords = obj.texcoords;
+    int coordCount = coords.length / 3;
+    int normalCount = normals.length / 3;
+    int texcoordCount = texcoords.length / 2;
+    int coord = chunk.coordOffset;
+    int normal = chunk.normalOffset;
+    int texcoord = chunk.texcoordOffset;
+    int material = chunk.material;
+    int[] face = new int[24];
+    float[] number = new float[3];
+
+    int pos = chunk.start;
+    int stop = chunk.stop;
+    while (pos < stop) {
+      pos = skipSpace(data, pos, stop);
+      if (pos < stop && data[pos] == '#') {
+        pos = nextLine(data, pos, stop);
+        continue;
+      }
+      int end = tokenEnd(data, pos, stop);
+      if (end > pos) {
+        byte c = data[pos];
+        if (c == 'v' && end - pos == 1) {
+          end = readFloats(data, end, stop, number, 3);
+          coords[coord*3 + 0] = number[0];
+          coords[coord*3 + 1] = number[1];
+          coords[coord*3 + 2] = number[2];
+          coord++;
+
+        } else if (c == 'v' && end - pos == 2 && data[pos + 1] == 'n') {
+          end = readFloats(data, end, stop, number, 3);
+          normals[normal*3 + 0] = number[0];
+          normals[normal*3 + 1] = number[1];
+          normals[normal*3 + 2] = number[2];
+          normal++;
+
+        } else if (c == 'v' && end - pos == 2 && data[pos + 1] == 't') {
+          // uv, inverting v to take into account Processing's inverted Y axis
+          // with respect to OpenGL.
+          end = readFloats(data, end, stop, number, 2);
+          texcoords[texcoord*2 + 0] = number[0];
+          texcoords[texcoord*2 + 1] = 1 - number[1];
+          texcoord++;
+
+        } else if (c == 'f' && end - pos == 1) {
+          // Getting vertex, texture, and normal indices for each corner.
+          int n = 0;
+          pos = end;
+          while (true) {
+            pos = skipSpace(data, pos, stop);
+            if (pos >= stop || data[pos] == '\n') break;
+            end = tokenEnd(data, pos, stop);
+            if (n*3 + 3 > face.length) {
+              face = PApplet.expand(face, face.length << 1);
             }
-          } else if (parts[0].equals("g")) {
-            gname = 1 < parts.length ? parts[1] : "";
-          } else if (parts[0].equals("usemtl")) {
-            // Getting index of current active material (will be applied on
-            // all subsequent faces).
-            if (parts[1] != null) {
-              String mtlname = parts[1];
-              if (mtlTable.containsKey(mtlname)) {
-                Integer tempInt = mtlTable.get(mtlname);
-                mtlIdxCur = tempInt.intValue();
+            // a/b/c, a//c, a/b, or just a
+            int field = 0;
+            int[] value = { 0, 0, 0 };
+            for (int i = pos; i < end && field < 3; i++) {
+              byte b = data[i];
+              if (b == '/') {
+                field++;
               } else {
-                mtlIdxCur = -1;
-              }
-            }
-          } else if (parts[0].equals("f")) {
-            // Face setting
-            OBJFace face = new OBJFace();
-            face.matIdx = mtlIdxCur;
-            face.name = gname;
-
-            for (int i = 1; i < parts.length; i++) {
-              String seg = parts[i];
-
-              if (seg.indexOf("/") > 0) {
-                String[] forder = seg.split("/");
-
-                if (forder.length > 2) {
-                  // Getting vertex and texture and normal indexes.
-                  if (forder[0].length() > 0 && readv) {
-                    face.vertIdx.add(Integer.valueOf(forder[0]));
-                  }
-
-                  if (forder[1].length() > 0 && readvt) {
-                    face.texIdx.add(Integer.valueOf(forder[1]));
-                  }
-
-                  if (forder[2].length() > 0 && readvn) {
-                    face.normIdx.add(Integer.valueOf(forder[2]));
-                  }
-                } else if (forder.length > 1) {
-                  // Getting vertex and texture/normal indexes.
-                  if (forder[0].length() > 0 && readv) {
-                    face.vertIdx.add(Integer.valueOf(forder[0]));
-                  }
-
-                  if (forder[1].length() > 0) {
-                    if (readvt) {
-                      face.texIdx.add(Integer.valueOf(forder[1]));
-                    } else  if (readvn) {
-                      face.normIdx.add(Integer.valueOf(forder[1]));
-                    }
-
-                  }
-
-                } else if (forder.length > 0) {
-                  // Getting vertex index only.
-                  if (forder[0].length() > 0 && readv) {
-                    face.vertIdx.add(Integer.valueOf(forder[0]));
-                  }
+                int sign = 1;
+                if (b == '-') {
+                  sign = -1;
+                  i++;
                 }
-              } else {
-                // Getting vertex index only.
-                if (seg.length() > 0 && readv) {
-                  face.vertIdx.add(Integer.valueOf(seg));
+                int v = 0;
+                while (i < end && data[i] >= '0' && data[i] <= '9') {
+                  v = v*10 + (data[i++] - '0');
                 }
+                value[field] = sign * v;
+                i--;
               }
             }
+            if (field == 1 && texcoordCount == 0) {
+              // only two numbers, and no texture coordinates in the
+              // file, so the second one has to be a normal
+              value[2] = value[1];
+              value[1] = 0;
+            }
+            face[n*3 + 0] = resolve(value[0], coord, coordCount);
+            face[n*3 + 1] = resolve(value[1], texcoord, texcoordCount);
+            face[n*3 + 2] = resolve(value[2], normal, normalCount);
+            n++;
+            pos = end;
+          }
+
+          boolean valid = n >= 3;
+          for (int i = 0; i < n; i++) {
+            if (face[i*3] == -1) valid = false;  // no position for a corner
+          }
+          if (valid) {
+            int m = Math.max(0, material);
+            IndexList[] lists = (n == 3) ? chunk.faces : chunk.polygons;
+            IndexList list = lists[m];
+            if (list == null) {
+              list = lists[m] = new IndexList();
+            }
+            if (n != 3) {
+              list.add(n, 0, 0);
+            }
+            for (int i = 0; i < n; i++) {
+              list.add(face[i*3], face[i*3 + 1], face[i*3 + 2]);
+            }
+          }
+
+        } else if (isKeyword(data, pos, end, "usemtl")) {
+          // Getting index of current active material (will be applied on
+          // all subsequent faces).
+          String name = readName(data, end, stop);
+          if (name != null) {
+            material = materialIndex(mtlTable, name);
+          }
+        }
+      }
+      pos = lineEnd(data, end, stop);
+    }
+  }
 
-            faces.add(face);
+
+  /**
+   * Splits faces with more than three corners into triangles. The corners
+   * are projected onto the plane the face mostly faces. Convex faces (most
+   * of them) become a fan around the first corner, and the others are cut
+   * into triangles by clipping ears, the same as POLYGON shapes are.
+   */
+  static protected class Triangulator {
+    float[] x = new float[16];
+    float[] y = new float[16];
+    int[] prev = new int[16];
+    int[] next = new int[16];
+
+
+    void triangulate(OBJChunk chunk, float[] coords) {
+      for (int m = 0; m < chunk.polygons.length; m++) {
+        IndexList list = chunk.polygons[m];
+        if (list != null) {
+          IndexList faces = chunk.faces[m];
+          if (faces == null) {
+            faces = chunk.faces[m] = new IndexList();
+          }
+          for (int i = 0; i < list.count; ) {
+            int n = list.data[i];
+            triangulate(list.data, i + 3, n, coords, faces);
+            i += 3 * (n + 1);
           }
+          chunk.polygons[m] = null;
         }
       }
+    }
+
+
+    /**
+     * Add triangles for a face of n corners, starting at offset in
+     * corners, to faces. Triangles go around the same way as the face.
+     */
+    void triangulate(int[] corners, int offset, int n,
+                     float[] coords, IndexList faces) {
+      if (x.length < n) {
+        x = new float[n << 1];
+        y = new float[n << 1];
+        prev = new int[n << 1];
+        next = new int[n << 1];
+      }
 
-      if (materials.size() == 0) {
-        // No materials definition so far. Adding one default material.
-        OBJMaterial defMtl = new OBJMaterial();
-        materials.add(defMtl);
+      // Newell's method for the normal of the face
+      float nx = 0, ny = 0, nz = 0;
+      for (int i = 0; i < n; i++) {
+        int a = corners[offset + i*3] * 3;
+        int b = corners[offset + ((i + 1) % n)*3] * 3;
+        nx += (coords[a+1] - coords[b+1]) * (coords[a+2] + coords[b+2]);
+        ny += (coords[a+2] - coords[b+2]) * (coords[a+0] + coords[b+0]);
+        nz += (coords[a+0] - coords[b+0]) * (coords[a+1] + coords[b+1]);
+      }
+      // leave out the axis it points along the most, and flip the other
+      // one if needed, so that the corners go counterclockwise
+      int u, v;
+      float sign;
+      if (Math.abs(nz) >= Math.abs(nx) && Math.abs(nz) >= Math.abs(ny)) {
+        u = 0; v = 1; sign = nz;
+      } else if (Math.abs(nx) >= Math.abs(ny)) {
+        u = 1; v = 2; sign = nx;
+      } else {
+        u = 2; v = 0; sign = ny;
+      }
+      for (int i = 0; i < n; i++) {
+        int a = corners[offset + i*3] * 3;
+        x[i] = coords[a + u];
+        y[i] = (sign < 0) ? -coords[a + v] : coords[a + v];
+        prev[i] = (i + n - 1) % n;
+        next[i] = (i + 1) % n;
       }
 
-    } catch (Exception e) {
-      e.printStackTrace();
+      boolean convex = true;
+      for (int i = 0; i < n && convex; i++) {
+        convex = cross(prev[i], i, next[i]) >= 0;
+      }
+      int first = 0;
+      if (!convex) {
+        int remaining = n;
+        int i = 0;
+        int misses = 0;
+        while (remaining > 3 && misses < remaining) {
+          int a = prev[i], c = next[i];
+          if (isEar(a, i, c)) {
+            add(corners, offset, a, i, c, faces);
+            next[a] = c;
+            prev[c] = a;
+            remaining--;
+            misses = 0;
+          } else {
+            misses++;
+          }
+          i = c;
+        }
+        first = i;  // anything left (a twisted face) becomes a fan
+      }
+      for (int i = next[first]; next[i] != first; i = next[i]) {
+        add(corners, offset, first, i, next[i], faces);
+      }
+    }
+
+
+    float cross(int a, int b, int c) {
+      return (x[b] - x[a]) * (y[c] - y[b]) - (y[b] - y[a]) * (x[c] - x[b]);
+    }
+
+
+    /** Convex at b, and none of the other corners left are inside. */
+    boolean isEar(int a, int b, int c) {
+      if (cross(a, b, c) <= 0) {
+        return false;
+      }
+      for (int p = next[c]; p != a; p = next[p]) {
+        if (cross(a, b, p) >= 0 && cross(b, c, p) >= 0 &&
+            cross(c, a, p) >= 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+
+    void add(int[] corners, int offset, int a, int b, int c,
+             IndexList faces) {
+      a = offset + a*3;
+      b = offset + b*3;
+      c = offset + c*3;
+      faces.add(corners[a], corners[a + 1], corners[a + 2]);
+      faces.add(corners[b], corners[b + 1], corners[b + 2]);
+      faces.add(corners[c], corners[c + 1], corners[c + 2]);
+    }
+  }
+
+
+  /**
+   * Index from a face: counting from 1, or back from the most recent when
+   * negative, or 0 if missing. Returns -1 if missing or out of range.
+   */
+  static int resolve(int value, int current, int count) {
+    int index = (value > 0) ? value - 1 : current + value;
+    return (value == 0 || index < 0 || index >= count) ? -1 : index;
+  }
+
+
+  /**
+   * Read up to count numbers from the rest of the statement into target,
+   * with 0 for any that are missing. Returns where it left off.
+   */
+  static int readFloats(byte[] data, int pos, int stop,
+                        float[] target, int count) {
+    for (int i = 0; i < count; i++) {
+      pos = skipSpace(data, pos, stop);
+      int end = tokenEnd(data, pos, stop);
+      target[i] = (end > pos) ? parseFloat(data, pos, end) : 0;
+      pos = end;
+    }
+    return pos;
+  }
+
+
+  static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+
+  /**
+   * Parse a number without making a String. Handles the usual decimal
+   * notation (with an exponent) directly when all its digits fit in a
+   * long and the power of ten is exact as a double, otherwise hands it
+   * to Float.parseFloat() like before.
+   */
+  static float parseFloat(byte[] data, int start, int end) {
+    int pos = start;
+    boolean negative = false;
+    if (data[pos] == '-' || data[pos] == '+') {
+      negative = data[pos] == '-';
+      pos++;
+    }
+    long digits = 0;
+    int digitCount = 0;
+    int scale = 0;
+    boolean any = false;
+    while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+      if (digitCount < 18) {
+        digits = digits*10 + (data[pos] - '0');
+        if (digits != 0) digitCount++;
+      } else {
+        scale++;
+      }
+      pos++;
+      any = true;
+    }
+    if (pos < end && data[pos] == '.') {
+      pos++;
+      while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+        if (digitCount < 18) {
+          digits = digits*10 + (data[pos] - '0');
+          if (digits != 0) digitCount++;
+          scale--;
+        }
+        pos++;
+        any = true;
+      }
+    }
+    if (any && pos < end && (data[pos] == 'e' || data[pos] == 'E')) {
+      pos++;
+      int sign = 1;
+      if (pos < end && (data[pos] == '-' || data[pos] == '+')) {
+        sign = (data[pos] == '-') ? -1 : 1;
+        pos++;
+      }
+      int exp = 0;
+      boolean expAny = false;
+      while (pos < end && data[pos] >= '0' && data[pos] <= '9' && exp < 10000) {
+        exp = exp*10 + (data[pos++] - '0');
+        expAny = true;
+      }
+      scale += sign * exp;
+      any = expAny;
+    }
+    if (any && pos == end && digits < (1L << 53) &&
+        scale >= -22 && scale <= 22) {
+      double value = (scale < 0) ?
+        digits / POWERS_OF_TEN[-scale] : digits * POWERS_OF_TEN[scale];
+      return (float) (negative ? -value : value);
+    }
+    try {
+      return Float.parseFloat(new String(data, start, end - start, UTF8));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+
+  /**
+   * The triangles for one material, with each of their vertices looked up
+   * from the shared arrays as needed, rather than stored in vertices[].
+   */
+  static protected class OBJMesh extends PShape {
+    float[] coords;
+    float[] normals;
+    float[] texcoords;
+    int[] corners;
+    OBJMaterial mtl;
+    boolean textured;
+    // whole vertex, for PGraphics.vertex(float[]), only used while drawing
+    float[] temp = new float[PGraphics.VERTEX_FIELD_COUNT];
+
+
+    protected OBJMesh(OBJMaterial mtl, OBJData obj, int[] corners) {
+      family = GEOMETRY;
+      kind = TRIANGLES;
+      setName(mtl.name);
+
+      stroke = false;
+      fill = true;
+
+      // Setting material properties for the new face
+      fillColor = rgbaValue(mtl.kd);
+      ambientColor = rgbaValue(mtl.ka);
+      specularColor = rgbaValue(mtl.ks);
+      shininess = mtl.ns;
+      if (mtl.kdMap != null) {
+        // If current material is textured, then tinting the texture using the
+        // diffuse color.
+        tintColor = rgbaValue(mtl.kd, mtl.d);
+        image = mtl.kdMap;
+        textured = true;
+      }
+
+      this.mtl = mtl;
+      this.coords = obj.coords;
+      this.normals = obj.normals;
+      this.texcoords = obj.texcoords;
+      this.corners = corners;
+      vertexCount = corners.length / 3;
+    }
+
+
+    @Override
+    protected float[] vertexData(int index, float[] vert) {
+      int v = corners[index*3] * 3;
+      vert[X] = coords[v];
+      vert[Y] = coords[v + 1];
+      vert[Z] = coords[v + 2];
+
+      vert[PGraphics.R] = mtl.kd.x;
+      vert[PGraphics.G] = mtl.kd.y;
+      vert[PGraphics.B] = mtl.kd.z;
+      vert[PGraphics.A] = 1;
+
+      int t = corners[index*3 + 1];
+      if (textured && t != -1) {
+        vert[PGraphics.U] = texcoords[t*2];
+        vert[PGraphics.V] = texcoords[t*2 + 1];
+      } else {
+        vert[PGraphics.U] = 0;
+        vert[PGraphics.V] = 0;
+      }
+
+      int n = corners[index*3 + 2];
+      if (n != -1) {
+        vert[PGraphics.NX] = normals[n*3];
+        vert[PGraphics.NY] = normals[n*3 + 1];
+        vert[PGraphics.NZ] = normals[n*3 + 2];
+      } else {
+        vert[PGraphics.NX] = 0;
+        vert[PGraphics.NY] = 0;
+        vert[PGraphics.NZ] = 0;
+      }
+      return vert;
+    }
+
+
+    @Override
+    protected void drawGeometry(PGraphics g) {
+      g.beginShape(kind);
+      for (int i = 0; i < vertexCount; i++) {
+        g.vertex(vertexData(i, temp));
+      }
+      g.endShape();
+    }
+
+
+    @Override
+    public PVector getVertex(int index, PVector vec) {
+      if (vec == null) {
+        vec = new PVector();
+      }
+      int v = corners[index*3] * 3;
+      vec.set(coords[v], coords[v + 1], coords[v + 2]);
+      return vec;
+    }
+
+
+    @Override
+    public float getVertexX(int index) {
+      return coords[corners[index*3] * 3];
+    }
+
+
+    @Override
+    public float getVertexY(int index) {
+      return coords[corners[index*3] * 3 + 1];
+    }
+
+
+    @Override
+    public float getVertexZ(int index) {
+      return coords[corners[index*3] * 3 + 2];
+    }
+
+
+    @Override
+    public PVector getNormal(int index, PVector vec) {
+      if (vec == null) {
+        vec = new PVector();
+      }
+      vec.set(getNormalX(index), getNormalY(index), getNormalZ(index));
+      return vec;
+    }
+
+
+    @Override
+    public float getNormalX(int index) {
+      int n = corners[index*3 + 2];
+      return (n == -1) ? 0 : normals[n*3];
+    }
+
+
+    @Override
+    public float getNormalY(int index) {
+      int n = corners[index*3 + 2];
+      return (n == -1) ? 0 : normals[n*3 + 1];
+    }
+
+
+    @Override
+    public float getNormalZ(int index) {
+      int n = corners[index*3 + 2];
+      return (n == -1) ? 0 : normals[n*3 + 2];
+    }
+
+
+    @Override
+    public float getTextureU(int index) {
+      int t = corners[index*3 + 1];
+      return (textured && t != -1) ? texcoords[t*2] : 0;
+    }
+
+
+    @Override
+    public float getTextureV(int index) {
+      int t = corners[index*3 + 1];
+      return (textured && t != -1) ? texcoords[t*2 + 1] : 0;
     }
   }
 
@@ -391,24 +1011,6 @@ public class PShapeOBJ extends PShape {
   }
 
 
-  // Stores a face from an OBJ file
-  static protected class OBJFace {
-    ArrayList<Integer> vertIdx;
-    ArrayList<Integer> texIdx;
-    ArrayList<Integer> normIdx;
-    int matIdx;
-    String name;
-
-    OBJFace() {
-      vertIdx = new ArrayList<Integer>();
-      texIdx = new ArrayList<Integer>();
-      normIdx = new ArrayList<Integer>();
-      matIdx = -1;
-      name = "";
-    }
-  }
-
-
   static protected String getBasePath(PApplet parent, String filename) {
     // Obtaining the path
     File file = new File(parent.dataPath(filename));
@@ -501,165 +501,111 @@ public class PShapeSVG extends PShape {
     if (pathData == null || PApplet.trim(pathData).length() == 0) {
       return;
     }
-    char[] pathDataChars = pathData.toCharArray();
-
-    StringBuffer pathBuffer = new StringBuffer();
-    boolean lastSeparate = false;
-
-    for (int i = 0; i < pathDataChars.length; i++) {
-      char c = pathDataChars[i];
-      boolean separate = false;
-
-      if (c == 'M' || c == 'm' ||
-          c == 'L' || c == 'l' ||
-          c == 'H' || c == 'h' ||
-          c == 'V' || c == 'v' ||
-          c == 'C' || c == 'c' ||  // beziers
-          c == 'S' || c == 's' ||
-          c == 'Q' || c == 'q' ||  // quadratic beziers
-          c == 'T' || c == 't' ||
-//          c == 'A' || c == 'a' ||  // elliptical arc
-          c == 'Z' || c == 'z' ||  // closepath
-          c == ',') {
-        separate = true;
-        if (i != 0) {
-          pathBuffer.append("|");
-        }
-      }
-      if (c == 'Z' || c == 'z') {
-        separate = false;
-      }
-      if (c == '-' && !lastSeparate) {
-        // allow for 'e' notation in numbers, e.g. 2.10e-9
-        // http://dev.processing.org/bugs/show_bug.cgi?id=1408
-        if (i == 0 || pathDataChars[i-1] != 'e') {
-          pathBuffer.append("|");
-        }
-      }
-      if (c != ',') {
-        pathBuffer.append(c); //"" + pathDataBuffer.charAt(i));
-      }
-      if (separate && c != ',' && c != '-') {
-        pathBuffer.append("|");
-      }
-      lastSeparate = separate;
-    }
-
-    // use whitespace constant to get rid of extra spaces and CR or LF
-    String[] pathTokens =
-      PApplet.splitTokens(pathBuffer.toString(), "|" + WHITESPACE);
-    vertices = new float[pathTokens.length][2];
-    vertexCodes = new int[pathTokens.length];
+    PathScanner scanner = new PathScanner(pathData);
+    // a rough guess, the arrays are made larger as needed
+    int guess = Math.max(8, scanner.data.length / 12);
+    vertices = new float[guess][];
+    vertexCodes = new int[guess];
 
     float cx = 0;
     float cy = 0;
-    int i = 0;
 
-    char implicitCommand = '\0';
-//    char prevCommand = '\0';
-    boolean prevCurve = false;
+    char command = '\0';
+    // the previous command, for the control points of S/s and T/t
+    char prevCommand = '\0';
     float ctrlX, ctrlY;
     // store values for closepath so that relative coords work properly
     float movetoX = 0;
     float movetoY = 0;
 
-    while (i < pathTokens.length) {
-      char c = pathTokens[i].charAt(0);
-      if (((c >= '0' && c <= '9') || (c == '-')) && implicitCommand != '\0') {
-        c = implicitCommand;
-        i--;
-      } else {
-        implicitCommand = c;
+    while (scanner.skip()) {
+      char c = scanner.data[scanner.pos];
+      if (!scanner.isNumberStart(c)) {
+        command = c;
+        scanner.pos++;
+      } else if (command == '\0' || command == 'Z' || command == 'z') {
+        throw new RuntimeException("shape command not handled: " + c);
       }
-      switch (c) {
+      // otherwise the same command again, with the next set of numbers
+      switch (command) {
 
       case 'M':  // M - move to (absolute)
-        cx = PApplet.parseFloat(pathTokens[i + 1]);
-        cy = PApplet.parseFloat(pathTokens[i + 2]);
+        cx = scanner.number();
+        cy = scanner.number();
         movetoX = cx;
         movetoY = cy;
         parsePathMoveto(cx, cy);
-        implicitCommand = 'L';
-        i += 3;
+        command = 'L';
         break;
 
       case 'm':  // m - move to (relative)
-        cx = cx + PApplet.parseFloat(pathTokens[i + 1]);
-        cy = cy + PApplet.parseFloat(pathTokens[i + 2]);
+        cx = cx + scanner.number();
+        cy = cy + scanner.number();
+        movetoX = cx;
+        movetoY = cy;
         parsePathMoveto(cx, cy);
-        implicitCommand = 'l';
-        i += 3;
+        command = 'l';
         break;
 
       case 'L':
-        cx = PApplet.parseFloat(pathTokens[i + 1]);
-        cy = PApplet.parseFloat(pathTokens[i + 2]);
+        cx = scanner.number();
+        cy = scanner.number();
         parsePathLineto(cx, cy);
-        i += 3;
         break;
 
       case 'l':
-        cx = cx + PApplet.parseFloat(pathTokens[i + 1]);
-        cy = cy + PApplet.parseFloat(pathTokens[i + 2]);
+        cx = cx + scanner.number();
+        cy = cy + scanner.number();
         parsePathLineto(cx, cy);
-        i += 3;
         break;
 
         // horizontal lineto absolute
       case 'H':
-        cx = PApplet.parseFloat(pathTokens[i + 1]);
+        cx = scanner.number();
         parsePathLineto(cx, cy);
-        i += 2;
         break;
 
         // horizontal lineto relative
       case 'h':
-        cx = cx + PApplet.parseFloat(pathTokens[i + 1]);
+        cx = cx + scanner.number();
         parsePathLineto(cx, cy);
-        i += 2;
         break;
 
       case 'V':
-        cy = PApplet.parseFloat(pathTokens[i + 1]);
+        cy = scanner.number();
         parsePathLineto(cx, cy);
-        i += 2;
         break;
 
       case 'v':
-        cy = cy + PApplet.parseFloat(pathTokens[i + 1]);
+        cy = cy + scanner.number();
         parsePathLineto(cx, cy);
-        i += 2;
         break;
 
         // C - curve to (absolute)
       case 'C': {
-        float ctrlX1 = PApplet.parseFloat(pathTokens[i + 1]);
-        float ctrlY1 = PApplet.parseFloat(pathTokens[i + 2]);
-        float ctrlX2 = PApplet.parseFloat(pathTokens[i + 3]);
-        float ctrlY2 = PApplet.parseFloat(pathTokens[i + 4]);
-        float endX = PApplet.parseFloat(pathTokens[i + 5]);
-        float endY = PApplet.parseFloat(pathTokens[i + 6]);
+        float ctrlX1 = scanner.number();
+        float ctrlY1 = scanner.number();
+        float ctrlX2 = scanner.number();
+        float ctrlY2 = scanner.number();
+        float endX = scanner.number();
+        float endY = scanner.number();
         parsePathCurveto(ctrlX1, ctrlY1, ctrlX2, ctrlY2, endX, endY);
         cx = endX;
         cy = endY;
-        i += 7;
-        prevCurve = true;
       }
       break;
 
         // c - curve to (relative)
       case 'c': {
-        float ctrlX1 = cx + PApplet.parseFloat(pathTokens[i + 1]);
-        float ctrlY1 = cy + PApplet.parseFloat(pathTokens[i + 2]);
-        float ctrlX2 = cx + PApplet.parseFloat(pathTokens[i + 3]);
-        float ctrlY2 = cy + PApplet.parseFloat(pathTokens[i + 4]);
-        float endX = cx + PApplet.parseFloat(pathTokens[i + 5]);
-        float endY = cy + PApplet.parseFloat(pathTokens[i + 6]);
+        float ctrlX1 = cx + scanner.number();
+        float ctrlY1 = cy + scanner.number();
+        float ctrlX2 = cx + scanner.number();
+        float ctrlY2 = cy + scanner.number();
+        float endX = cx + scanner.number();
+        float endY = cy + scanner.number();
         parsePathCurveto(ctrlX1, ctrlY1, ctrlX2, ctrlY2, endX, endY);
         cx = endX;
         cy = endY;
-        i += 7;
-        prevCurve = true;
       }
       break;
 
@@ -673,36 +619,12 @@ public class PShapeSVG extends PShape {
       // coordinates will follow. Multiple sets of coordinates may be specified
       // to draw a polybézier. At the end of the command, the new current point
       // becomes the final (x,y) coordinate pair used in the polybézier.
-      case 'S': {
+      case 'S':
+      case 's': {
         // (If there is no previous command or if the previous command was not
         // an C, c, S or s, assume the first control point is coincident with
         // the current point.)
-        if (!prevCurve) {
-          ctrlX = cx;
-          ctrlY = cy;
-        } else {
-          float ppx = vertices[vertexCount-2][X];
-          float ppy = vertices[vertexCount-2][Y];
-          float px = vertices[vertexCount-1][X];
-          float py = vertices[vertexCount-1][Y];
-          ctrlX = px + (px - ppx);
-          ctrlY = py + (py - ppy);
-        }
-        float ctrlX2 = PApplet.parseFloat(pathTokens[i + 1]);
-        float ctrlY2 = PApplet.parseFloat(pathTokens[i + 2]);
-        float endX = PApplet.parseFloat(pathTokens[i + 3]);
-        float endY = PApplet.parseFloat(pathTokens[i + 4]);
-        parsePathCurveto(ctrlX, ctrlY, ctrlX2, ctrlY2, endX, endY);
-        cx = endX;
-        cy = endY;
-        i += 5;
-        prevCurve = true;
-      }
-      break;
-
-        // s - curve to shorthand (relative)
-      case 's': {
-        if (!prevCurve) {
+        if ("CcSs".indexOf(prevCommand) == -1) {
           ctrlX = cx;
           ctrlY = cy;
         } else {
@@ -713,15 +635,15 @@ public class PShapeSVG extends PShape {
           ctrlX = px + (px - ppx);
           ctrlY = py + (py - ppy);
         }
-        float ctrlX2 = cx + PApplet.parseFloat(pathTokens[i + 1]);
-        float ctrlY2 = cy + PApplet.parseFloat(pathTokens[i + 2]);
-        float endX = cx + PApplet.parseFloat(pathTokens[i + 3]);
-        float endY = cy + PApplet.parseFloat(pathTokens[i + 4]);
+        float ox = (command == 's') ? cx : 0;
+        float oy = (command == 's') ? cy : 0;
+        float ctrlX2 = ox + scanner.number();
+        float ctrlY2 = oy + scanner.number();
+        float endX = ox + scanner.number();
+        float endY = oy + scanner.number();
         parsePathCurveto(ctrlX, ctrlY, ctrlX2, ctrlY2, endX, endY);
         cx = endX;
         cy = endY;
-        i += 5;
-        prevCurve = true;
       }
       break;
 
@@ -733,42 +655,37 @@ public class PShapeSVG extends PShape {
       // to draw a polybézier. At the end of the command, the new current point
       // becomes the final (x,y) coordinate pair used in the polybézier.
       case 'Q': {
-        ctrlX = PApplet.parseFloat(pathTokens[i + 1]);
-        ctrlY = PApplet.parseFloat(pathTokens[i + 2]);
-        float endX = PApplet.parseFloat(pathTokens[i + 3]);
-        float endY = PApplet.parseFloat(pathTokens[i + 4]);
-        //parsePathQuadto(cx, cy, ctrlX, ctrlY, endX, endY);
+        ctrlX = scanner.number();
+        ctrlY = scanner.number();
+        float endX = scanner.number();
+        float endY = scanner.number();
         parsePathQuadto(ctrlX, ctrlY, endX, endY);
         cx = endX;
         cy = endY;
-        i += 5;
-        prevCurve = true;
       }
       break;
 
       // q - quadratic curve to (relative)
       case 'q': {
-        ctrlX = cx + PApplet.parseFloat(pathTokens[i + 1]);
-        ctrlY = cy + PApplet.parseFloat(pathTokens[i + 2]);
-        float endX = cx + PApplet.parseFloat(pathTokens[i + 3]);
-        float endY = cy + PApplet.parseFloat(pathTokens[i + 4]);
-        //parsePathQuadto(cx, cy, ctrlX, ctrlY, endX, endY);
+        ctrlX = cx + scanner.number();
+        ctrlY = cy + scanner.number();
+        float endX = cx + scanner.number();
+        float endY = cy + scanner.number();
         parsePathQuadto(ctrlX, ctrlY, endX, endY);
         cx = endX;
         cy = endY;
-        i += 5;
-        prevCurve = true;
       }
       break;
 
       // T - quadratic curveto shorthand (absolute)
       // The control point is assumed to be the reflection of the control
       // point on the previous command relative to the current point.
-      case 'T': {
+      case 'T':
+      case 't': {
         // If there is no previous command or if the previous command was
         // not a Q, q, T or t, assume the control point is coincident
         // with the current point.
-        if (!prevCurve) {
+        if ("QqTt".indexOf(prevCommand) == -1) {
           ctrlX = cx;
           ctrlY = cy;
         } else {
@@ -779,40 +696,38 @@ public class PShapeSVG extends PShape {
           ctrlX = px + (px - ppx);
           ctrlY = py + (py - ppy);
         }
-        float endX = PApplet.parseFloat(pathTokens[i + 1]);
-        float endY = PApplet.parseFloat(pathTokens[i + 2]);
-        //parsePathQuadto(cx, cy, ctrlX, ctrlY, endX, endY);
+        float ox = (command == 't') ? cx : 0;
+        float oy = (command == 't') ? cy : 0;
+        float endX = ox + scanner.number();
+        float endY = oy + scanner.number();
         parsePathQuadto(ctrlX, ctrlY, endX, endY);
         cx = endX;
         cy = endY;
-        i += 3;
-        prevCurve = true;
       }
-        break;
+      break;
 
-        // t - quadratic curveto shorthand (relative)
-      case 't': {
-        if (!prevCurve) {
-          ctrlX = cx;
-          ctrlY = cy;
-        } else {
-          float ppx = vertices[vertexCount-2][X];
-          float ppy = vertices[vertexCount-2][Y];
-          float px = vertices[vertexCount-1][X];
-          float py = vertices[vertexCount-1][Y];
-          ctrlX = px + (px - ppx);
-          ctrlY = py + (py - ppy);
-        }
-        float endX = cx + PApplet.parseFloat(pathTokens[i + 1]);
-        float endY = cy + PApplet.parseFloat(pathTokens[i + 2]);
-        //parsePathQuadto(cx, cy, ctrlX, ctrlY, endX, endY);
-        parsePathQuadto(ctrlX, ctrlY, endX, endY);
+      // A - elliptical arc to (absolute)
+      // Draws an elliptical arc from the current point to (x, y). The size
+      // and orientation of the ellipse are defined by two radii (rx, ry)
+      // and an x-axis-rotation. The two flags pick which of the (up to)
+      // four arcs that fit is drawn: the large one or the small one, and
+      // the one that goes clockwise (sweep is 1) or counterclockwise.
+      case 'A':
+      case 'a': {
+        float rx = scanner.number();
+        float ry = scanner.number();
+        float angle = scanner.number();
+        boolean largeArc = scanner.flag();
+        boolean sweep = scanner.flag();
+        float ox = (command == 'a') ? cx : 0;
+        float oy = (command == 'a') ? cy : 0;
+        float endX = ox + scanner.number();
+        float endY = oy + scanner.number();
+        parsePathArcto(cx, cy, rx, ry, angle, largeArc, sweep, endX, endY);
         cx = endX;
         cy = endY;
-        i += 3;
-        prevCurve = true;
       }
-        break;
+      break;
 
       case 'Z':
       case 'z':
@@ -822,25 +737,147 @@ public class PShapeSVG extends PShape {
         cx = movetoX;
         cy = movetoY;
         close = true;
-        i++;
         break;
 
       default:
-        String parsed =
-          PApplet.join(PApplet.subset(pathTokens, 0, i), ",");
-        String unparsed =
-          PApplet.join(PApplet.subset(pathTokens, i), ",");
-        System.err.println("parsed: " + parsed);
-        System.err.println("unparsed: " + unparsed);
-        if (pathTokens[i].equals("a") || pathTokens[i].equals("A")) {
-          String msg = "Sorry, elliptical arc support for SVG files " +
-            "is not yet implemented (See issue 130 for updates)";
-          throw new RuntimeException(msg);
+        throw new RuntimeException("shape command not handled: " + command);
+      }
+      prevCommand = command;
+    }
+
+    if (vertices.length != vertexCount) {
+      // no extra (or empty) rows, other methods use vertices.length
+      float[][] temp = new float[vertexCount][];
+      System.arraycopy(vertices, 0, temp, 0, vertexCount);
+      vertices = temp;
+    }
+  }
+
+
+  /**
+   * Reads the commands and numbers of the 'd' attribute of a path straight
+   * from its chars, rather than splitting it up into Strings first.
+   */
+  static protected class PathScanner {
+    char[] data;
+    int pos;
+
+
+    PathScanner(String path) {
+      data = path.toCharArray();
+    }
+
+
+    /**
+     * Skip past whitespace and commas, returns false at the end.
+     */
+    boolean skip() {
+      while (pos < data.length) {
+        char c = data[pos];
+        if (c == ',' || c == ' ' || c == '\n' || c == '\r' ||
+            c == '\t' || c == '\f') {
+          pos++;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+
+    boolean isNumberStart(char c) {
+      return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+    }
+
+
+    boolean isDigit(int index) {
+      return index < data.length && data[index] >= '0' && data[index] <= '9';
+    }
+
+
+    /**
+     * Read the next number. A number ends as soon as the next char can't be
+     * part of it, so 10-5 is two numbers, and so is 0.5.5 (0.5 and .5).
+     */
+    float number() {
+      if (!skip() || !isNumberStart(data[pos])) {
+        throw new RuntimeException("Expected a number in the path data " +
+                                   "at position " + pos);
+      }
+      int start = pos;
+      if (data[pos] == '-' || data[pos] == '+') {
+        pos++;
+      }
+      // all the digits (up to what fits exactly in a float) as a whole number
+      int digits = 0;
+      int scale = 0;
+      boolean exact = true;
+      boolean any = false;
+      while (isDigit(pos)) {
+        int next = digits*10 + (data[pos++] - '0');
+        if (next < (1 << 24)) {
+          digits = next;
+        } else {
+          exact = false;
+        }
+        any = true;
+      }
+      if (pos < data.length && data[pos] == '.') {
+        pos++;
+        while (isDigit(pos)) {
+          int next = digits*10 + (data[pos++] - '0');
+          if (next < (1 << 24)) {
+            digits = next;
+            scale--;
+          } else if (next != digits*10) {
+            exact = false;  // (zeros at the end are fine to leave off)
+          }
+          any = true;
+        }
+      }
+      if (!any) {
+        throw new RuntimeException("Expected a number in the path data " +
+                                   "at position " + start);
+      }
+      int end = pos;
+      if (pos < data.length && (data[pos] == 'e' || data[pos] == 'E')) {
+        // 'e' notation in numbers, e.g. 2.10e-9
+        // http://dev.processing.org/bugs/show_bug.cgi?id=1408
+        int exp = pos + 1;
+        if (exp < data.length && (data[exp] == '-' || data[exp] == '+')) {
+          exp++;
+        }
+        if (isDigit(exp)) {
+          pos = exp;
+          while (isDigit(pos)) pos++;
+          end = pos;
+          exact = false;
+        } else {
+          pos++;  // an 'e' without an exponent (like "2e" at the end), skip it
         }
-        throw new RuntimeException("shape command not handled: " + pathTokens[i]);
       }
-//      prevCommand = c;
+      if (exact && scale >= -10) {
+        // both fit exactly in a float, so dividing rounds just once,
+        // and gives the same result as Float.parseFloat()
+        float value = digits / POWERS_OF_TEN[-scale];
+        return (data[start] == '-') ? -value : value;
+      }
+      return PApplet.parseFloat(new String(data, start, end - start));
+    }
+
+
+    /** A flag of an arc, which may not be separated from what follows. */
+    boolean flag() {
+      if (!skip() || (data[pos] != '0' && data[pos] != '1')) {
+        throw new RuntimeException("Expected a 0 or 1 for the flag of an arc");
+      }
+      return data[pos++] == '1';
     }
+
+
+    static final float[] POWERS_OF_TEN = {
+      1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
   }
 
 
@@ -856,13 +893,11 @@ public class PShapeSVG extends PShape {
   private void parsePathVertex(float x, float y) {
     if (vertexCount == vertices.length) {
       //vertices = (float[][]) PApplet.expand(vertices);
-      float[][] temp = new float[vertexCount << 1][2];
+      float[][] temp = new float[vertexCount << 1][];
       System.arraycopy(vertices, 0, temp, 0, vertexCount);
       vertices = temp;
     }
-    vertices[vertexCount][X] = x;
-    vertices[vertexCount][Y] = y;
-    vertexCount++;
+    vertices[vertexCount++] = new float[] { x, y };
   }
 
 
@@ -922,6 +957,100 @@ public class PShapeSVG extends PShape {
   }
 
 
+  /**
+   * Add an elliptical arc as cubic Bézier curves, one for each quarter
+   * turn (or part of one) of the ellipse. The arc is given by its end
+   * points the way SVG has it, so this first works out the center and
+   * the start and end angles, following the implementation notes in
+   * <a href="http://www.w3.org/TR/SVG/implnote.html#ArcImplementationNotes">the
+   * SVG specification</a>.
+   */
+  private void parsePathArcto(float x1, float y1, float rx, float ry,
+                              float angle, boolean largeArc, boolean sweep,
+                              float x2, float y2) {
+    if (x1 == x2 && y1 == y2) {
+      return;  // no arc at all
+    }
+    if (rx == 0 || ry == 0) {
+      parsePathLineto(x2, y2);  // a straight line, as the spec says
+      return;
+    }
+    double rx2 = Math.abs(rx);
+    double ry2 = Math.abs(ry);
+    double phi = Math.toRadians(angle % 360);
+    double cos = Math.cos(phi);
+    double sin = Math.sin(phi);
+
+    // the start point, in the coordinates of the (unrotated) ellipse
+    // centered on the midpoint between the ends
+    double dx = (x1 - x2) / 2.0;
+    double dy = (y1 - y2) / 2.0;
+    double x1p = cos*dx + sin*dy;
+    double y1p = -sin*dx + cos*dy;
+
+    // make the radii larger if they can't reach from one end to the other
+    double lambda = (x1p*x1p) / (rx2*rx2) + (y1p*y1p) / (ry2*ry2);
+    if (lambda > 1) {
+      rx2 *= Math.sqrt(lambda);
+      ry2 *= Math.sqrt(lambda);
+    }
+
+    // center, first relative to the midpoint, then where it really is
+    double num = rx2*rx2*ry2*ry2 - rx2*rx2*y1p*y1p - ry2*ry2*x1p*x1p;
+    double den = rx2*rx2*y1p*y1p + ry2*ry2*x1p*x1p;
+    double coef = Math.sqrt(Math.max(0, num / den));
+    if (largeArc == sweep) {
+      coef = -coef;
+    }
+    double cxp = coef * rx2 * y1p / ry2;
+    double cyp = -coef * ry2 * x1p / rx2;
+    double centerX = cos*cxp - sin*cyp + (x1 + x2) / 2.0;
+    double centerY = sin*cxp + cos*cyp + (y1 + y2) / 2.0;
+
+    double start = Math.atan2((y1p - cyp) / ry2, (x1p - cxp) / rx2);
+    double extent = Math.atan2((-y1p - cyp) / ry2, (-x1p - cxp) / rx2) - start;
+    if (sweep && extent < 0) {
+      extent += Math.PI * 2;
+    } else if (!sweep && extent > 0) {
+      extent -= Math.PI * 2;
+    }
+
+    int segments = (int) Math.ceil(Math.abs(extent) / (Math.PI / 2) - 1e-7);
+    double step = extent / segments;
+    // length of the control handles, for a curve that follows the ellipse
+    double handle = 4.0 / 3.0 * Math.tan(step / 4);
+
+    double a = start;
+    double ex = Math.cos(a), ey = Math.sin(a);
+    for (int i = 0; i < segments; i++) {
+      double b = (i == segments - 1) ? start + extent : a + step;
+      double fx = Math.cos(b), fy = Math.sin(b);
+
+      // control points, as offsets along the tangents from either end
+      double c1x = rx2 * (ex - handle*ey);
+      double c1y = ry2 * (ey + handle*ex);
+      double c2x = rx2 * (fx + handle*fy);
+      double c2y = ry2 * (fy - handle*fx);
+      float endX, endY;
+      if (i == segments - 1) {
+        endX = x2;  // land right on the end point
+        endY = y2;
+      } else {
+        endX = (float) (centerX + cos*rx2*fx - sin*ry2*fy);
+        endY = (float) (centerY + sin*rx2*fx + cos*ry2*fy);
+      }
+      parsePathCurveto((float) (centerX + cos*c1x - sin*c1y),
+                       (float) (centerY + sin*c1x + cos*c1y),
+                       (float) (centerX + cos*c2x - sin*c2y),
+                       (float) (centerY + sin*c2x + cos*c2y),
+                       endX, endY);
+      a = b;
+      ex = fx;
+      ey = fy;
+    }
+  }
+
+
   /**
    * Parse the specified SVG matrix into a PMatrix2D. Note that PMatrix2D
    * is rotated relative to the SVG definition, so parameters are rearranged
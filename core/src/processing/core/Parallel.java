@@ -0,0 +1,116 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Splits a loop over rows (or any other range) into bands that run at the
+ * same time on a ForkJoinPool shared by the whole sketch. Used by the image
+ * filters and other code that works its way through large pixel arrays.
+ * Small jobs just run on the calling thread.
+ * Advanced users only, not official API.
+ */
+public class Parallel {
+  /** Amount of work (roughly, pixels touched) that's worth splitting up. */
+  static public final int THRESHOLD = 1 << 16;
+
+  static ForkJoinPool pool;
+
+
+  /** The part of a loop from start (inclusive) to stop (exclusive). */
+  public interface Band {
+    public void run(int start, int stop);
+  }
+
+
+  /**
+   * The pool everything runs on, also used by the sorts in processing.data,
+   * created the first time it's needed.
+   */
+  static public synchronized ForkJoinPool pool() {
+    if (pool == null) {
+      pool = new ForkJoinPool();
+    }
+    return pool;
+  }
+
+
+  /**
+   * Run band over everything from 0 to count, in pieces on the pool if
+   * the total work is large enough to be worth it. Returns when all the
+   * pieces are done.
+   */
+  static public void run(int count, long work, Band band) {
+    int bands = bandCount(count, work);
+    if (bands == 1) {
+      band.run(0, count);
+    } else if (bands > 1) {
+      pool().invoke(new BandAction(band, count, bands, 0, bands));
+    }
+  }
+
+
+  /** How many pieces a loop of count items (and work overall) is split into. */
+  static public int bandCount(int count, long work) {
+    if (count <= 0) {
+      return 0;
+    }
+    if (work < THRESHOLD || count == 1) {
+      return 1;
+    }
+    long most = Math.min(count, work / (THRESHOLD / 4));
+    return (int) Math.max(1, Math.min(pool().getParallelism(), most));
+  }
+
+
+  static class BandAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    Band band;
+    int count, bands;
+    int lo, hi;
+
+    BandAction(Band band, int count, int bands, int lo, int hi) {
+      this.band = band;
+      this.count = count;
+      this.bands = bands;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo == 1) {
+        int start = (int) ((long) count * lo / bands);
+        int stop = (int) ((long) count * hi / bands);
+        band.run(start, stop);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new BandAction(band, count, bands, lo, mid),
+                  new BandAction(band, count, bands, mid, hi));
+      }
+    }
+  }
+}
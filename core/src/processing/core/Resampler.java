@@ -0,0 +1,280 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Scales pixels[] to a new size for PImage.resize(), without going through
+ * a BufferedImage. Works in two passes, first across each row, then down
+ * each column, with the weights for every output column (or row) worked
+ * out once ahead of time. When shrinking, the filter is stretched to cover
+ * all the source pixels that land in an output pixel, so that nothing is
+ * skipped over (and there's no aliasing). Colors are premultiplied by alpha
+ * along the way, so transparent pixels don't bleed dark fringes into their
+ * neighbors. Both passes work on bands of rows in parallel.
+ * Internal use only.
+ */
+class Resampler implements PConstants {
+  int filter;
+  int channels;
+  int format;
+
+
+  Resampler(int format, int filter) {
+    this.format = format;
+    this.filter = filter;
+    channels = (format == ALPHA) ? 1 : ((format == ARGB) ? 4 : 3);
+  }
+
+
+  /** How far the filter reaches (in pixels) from the center, at full size. */
+  static float support(int filter) {
+    switch (filter) {
+    case BOX: return 0.5f;
+    case BILINEAR: return 1;
+    case BICUBIC: return 2;
+    case LANCZOS: return 3;
+    }
+    throw new IllegalArgumentException("Use BOX, BILINEAR, BICUBIC, " +
+                                       "or LANCZOS with resize()");
+  }
+
+
+  /** Weight of a source pixel at distance x from the center. */
+  static double weight(int filter, double x) {
+    if (filter == BOX) {  // half open, so that there's no overlap
+      return (x >= -0.5 && x < 0.5) ? 1 : 0;
+    }
+    if (x < 0) x = -x;
+    switch (filter) {
+    case BILINEAR:
+      return (x < 1) ? 1 - x : 0;
+
+    case BICUBIC:  // Catmull-Rom (Keys, with a = -0.5)
+      if (x < 1) return (1.5*x - 2.5)*x*x + 1;
+      if (x < 2) return ((-0.5*x + 2.5)*x - 4)*x + 2;
+      return 0;
+
+    case LANCZOS:  // three lobes
+      if (x == 0) return 1;
+      if (x >= 3) return 0;
+      double px = Math.PI * x;
+      return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+    }
+    return 0;
+  }
+
+
+  /**
+   * The source pixels (first[i] up to first[i] + count) and their weights
+   * (starting at weights[i * count]) for each output pixel i, along a row
+   * or column that goes from srcLength to dstLength pixels.
+   */
+  static class Weights {
+    int count;
+    int[] first;
+    float[] weights;
+
+    Weights(int filter, int srcLength, int dstLength) {
+      double scale = (double) srcLength / dstLength;
+      double stretch = Math.max(1, scale);
+      double reach = support(filter) * stretch;
+      count = Math.min(srcLength, (int) Math.ceil(reach) * 2 + 1);
+      first = new int[dstLength];
+      weights = new float[dstLength * count];
+
+      double[] w = new double[count];
+      for (int i = 0; i < dstLength; i++) {
+        double center = (i + 0.5) * scale;
+        int lo = (int) Math.floor(center - reach);
+        lo = Math.max(0, Math.min(lo, srcLength - count));
+        double total = 0;
+        for (int k = 0; k < count; k++) {
+          w[k] = weight(filter, (lo + k + 0.5 - center) / stretch);
+          total += w[k];
+        }
+        first[i] = lo;
+        int offset = i * count;
+        if (total == 0) {  // fell between the taps, use the closest
+          int nearest = Math.min(srcLength - 1, (int) center) - lo;
+          weights[offset + Math.max(0, Math.min(count - 1, nearest))] = 1;
+        } else {
+          for (int k = 0; k < count; k++) {
+            weights[offset + k] = (float) (w[k] / total);
+          }
+        }
+      }
+    }
+  }
+
+
+  /** Returns a new pixels[] array with the resized image. */
+  int[] resize(final int[] src, final int srcWidth, final int srcHeight,
+               final int dstWidth, final int dstHeight) {
+    final Weights across = new Weights(filter, srcWidth, dstWidth);
+    final Weights down = new Weights(filter, srcHeight, dstHeight);
+    final int stride = dstWidth * channels;
+    // rows of the source, already scaled across, one float per channel
+    final float[] temp = new float[srcHeight * stride];
+    final int[] dst = new int[dstWidth * dstHeight];
+
+    Parallel.run(srcHeight, (long) srcHeight * dstWidth * across.count * channels,
+                 new Parallel.Band() {
+      public void run(int start, int stop) {
+        float[] line = new float[srcWidth * channels];
+        for (int y = start; y < stop; y++) {
+          unpack(src, y * srcWidth, srcWidth, line);
+          scaleRow(line, temp, y * stride, across);
+        }
+      }
+    });
+
+    Parallel.run(dstHeight, (long) dstHeight * stride * down.count,
+                 new Parallel.Band() {
+      public void run(int start, int stop) {
+        float[] sum = new float[stride];
+        for (int y = start; y < stop; y++) {
+          Arrays.fill(sum, 0);
+          int offset = y * down.count;
+          int row = down.first[y];
+          for (int k = 0; k < down.count; k++, row++) {
+            float w = down.weights[offset + k];
+            if (w != 0) {
+              int index = row * stride;
+              for (int i = 0; i < stride; i++) {
+                sum[i] += w * temp[index + i];
+              }
+            }
+          }
+          pack(sum, dst, y * dstWidth, dstWidth);
+        }
+      }
+    });
+    return dst;
+  }
+
+
+  /** Split a row of pixels into floats for each channel, premultiplied. */
+  void unpack(int[] src, int offset, int length, float[] line) {
+    if (channels == 1) {
+      for (int x = 0; x < length; x++) {
+        line[x] = src[offset + x] & 0xff;
+      }
+    } else if (channels == 3) {
+      for (int x = 0, i = 0; x < length; x++) {
+        int c = src[offset + x];
+        line[i++] = (c >> 16) & 0xff;
+        line[i++] = (c >> 8) & 0xff;
+        line[i++] = c & 0xff;
+      }
+    } else {
+      for (int x = 0, i = 0; x < length; x++) {
+        int c = src[offset + x];
+        float a = (c >>> 24);
+        float m = a / 255f;
+        line[i++] = a;
+        line[i++] = ((c >> 16) & 0xff) * m;
+        line[i++] = ((c >> 8) & 0xff) * m;
+        line[i++] = (c & 0xff) * m;
+      }
+    }
+  }
+
+
+  /** Scale one row across, all channels at once, into out[] at offset. */
+  void scaleRow(float[] line, float[] out, int offset, Weights across) {
+    int count = across.count;
+    int dstWidth = across.first.length;
+    float[] weights = across.weights;
+    for (int x = 0; x < dstWidth; x++) {
+      int w = x * count;
+      int i = across.first[x] * channels;
+      int o = offset + x * channels;
+      if (channels == 1) {
+        float s0 = 0;
+        for (int k = 0; k < count; k++) {
+          s0 += weights[w + k] * line[i++];
+        }
+        out[o] = s0;
+
+      } else if (channels == 3) {
+        float s0 = 0, s1 = 0, s2 = 0;
+        for (int k = 0; k < count; k++) {
+          float wk = weights[w + k];
+          s0 += wk * line[i++];
+          s1 += wk * line[i++];
+          s2 += wk * line[i++];
+        }
+        out[o] = s0;  out[o+1] = s1;  out[o+2] = s2;
+
+      } else {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int k = 0; k < count; k++) {
+          float wk = weights[w + k];
+          s0 += wk * line[i++];
+          s1 += wk * line[i++];
+          s2 += wk * line[i++];
+          s3 += wk * line[i++];
+        }
+        out[o] = s0;  out[o+1] = s1;  out[o+2] = s2;  out[o+3] = s3;
+      }
+    }
+  }
+
+
+  /**
+   * Round and clamp each channel (BICUBIC and LANCZOS overshoot a little
+   * near sharp edges), undo the premultiplied alpha, and put the pixels
+   * back together.
+   */
+  void pack(float[] sum, int[] dst, int offset, int length) {
+    if (channels == 1) {
+      for (int x = 0; x < length; x++) {
+        dst[offset + x] = clamp(sum[x]);
+      }
+    } else if (channels == 3) {
+      for (int x = 0, i = 0; x < length; x++, i += 3) {
+        dst[offset + x] = 0xff000000 |
+          clamp(sum[i]) << 16 | clamp(sum[i+1]) << 8 | clamp(sum[i+2]);
+      }
+    } else {
+      for (int x = 0, i = 0; x < length; x++, i += 4) {
+        int a = clamp(sum[i]);
+        if (a == 0) {
+          dst[offset + x] = 0;
+        } else {
+          float m = 255f / sum[i];
+          dst[offset + x] = a << 24 |
+            clamp(sum[i+1] * m) << 16 | clamp(sum[i+2] * m) << 8 | clamp(sum[i+3] * m);
+        }
+      }
+    }
+  }
+
+
+  static int clamp(float value) {
+    int v = (int) (value + 0.5f);
+    return (v < 0) ? 0 : ((v > 255) ? 255 : v);
+  }
+}
@@ -1,7 +1,6 @@
 package processing.data;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Iterator;
 
 import processing.core.PApplet;
@@ -23,7 +22,7 @@ public class FloatDict {
   protected float[] values;
 
   /** Internal implementation for faster lookups */
-  private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+  private KeyIndex indices = new KeyIndex();
 
 
   public FloatDict() {
@@ -68,6 +67,7 @@ public class FloatDict {
         count++;
       }
     }
+    indices.rebuild(keys, count);
   }
 
   /**
@@ -80,9 +80,7 @@ public class FloatDict {
     this.keys = keys;
     this.values = values;
     count = keys.length;
-    for (int i = 0; i < count; i++) {
-      indices.put(keys[i], i);
-    }
+    indices.rebuild(keys, count);
   }
 
   /**
@@ -102,7 +100,7 @@ public class FloatDict {
    */
   public void clear() {
     count = 0;
-    indices = new HashMap<String, Integer>();
+    indices.clear();
   }
 
 
@@ -469,19 +467,19 @@ public class FloatDict {
 
 
   public int index(String what) {
-    Integer found = indices.get(what);
-    return (found == null) ? -1 : found.intValue();
+    return indices.find(keys, what);
   }
 
 
   protected void create(String what, float much) {
     if (count == keys.length) {
-      keys = PApplet.expand(keys);
-      values = PApplet.expand(values);
+      int length = Math.max(10, count << 1);  // also when created with 0
+      keys = PApplet.expand(keys, length);
+      values = PApplet.expand(values, length);
     }
-    indices.put(what, new Integer(count));
     keys[count] = what;
     values[count] = much;
+    indices.add(keys, count);
     count++;
   }
 
@@ -505,12 +503,9 @@ public class FloatDict {
     }
     String key = keys[index];
     //System.out.println("index is " + which + " and " + keys[which]);
-    indices.remove(keys[index]);
-    for (int i = index; i < count-1; i++) {
-      keys[i] = keys[i+1];
-      values[i] = values[i+1];
-      indices.put(keys[i], i);
-    }
+    indices.remove(keys, index);
+    System.arraycopy(keys, index+1, keys, index, count - index - 1);
+    System.arraycopy(values, index+1, values, index, count - index - 1);
     count--;
     keys[count] = null;
     values[count] = 0;
@@ -519,15 +514,13 @@ public class FloatDict {
 
 
   public void swap(int a, int b) {
+    indices.swap(keys, a, b);
     String tkey = keys[a];
     float tvalue = values[a];
     keys[a] = keys[b];
     values[a] = values[b];
     keys[b] = tkey;
     values[b] = tvalue;
-
-    indices.put(keys[a], new Integer(a));
-    indices.put(keys[b], new Integer(b));
   }
 
 
@@ -650,36 +643,27 @@ public class FloatDict {
 //  }
 
 
-  protected void sortImpl(final boolean useKeys, final boolean reverse) {
-    Sort s = new Sort() {
-      @Override
-      public int size() {
-        return count;
-      }
-
-      @Override
-      public float compare(int a, int b) {
-        float diff = 0;
-        if (useKeys) {
-          diff = keys[a].compareToIgnoreCase(keys[b]);
-          if (diff == 0) {
-            return values[a] - values[b];
-          }
-        } else {  // sort values
-          diff = values[a] - values[b];
-          if (diff == 0) {
-            diff = keys[a].compareToIgnoreCase(keys[b]);
-          }
-        }
-        return reverse ? -diff : diff;
-      }
+  protected void sortImpl(boolean useKeys, boolean reverse) {
+    // Both sorts are stable, so sorting by the tie-breaker first
+    // and then by the main key gives the order for both.
+    int[] order = Sort.identity(count);
+    if (useKeys) {
+      Sort.sortOrder(order, count, values, reverse, false);
+      Sort.sortOrder(order, count, keys, true, reverse, false);
+    } else {
+      Sort.sortOrder(order, count, keys, true, reverse, false);
+      Sort.sortOrder(order, count, values, reverse, false);
+    }
 
-      @Override
-      public void swap(int a, int b) {
-        FloatDict.this.swap(a, b);
-      }
-    };
-    s.run();
+    String[] newKeys = new String[keys.length];
+    float[] newValues = new float[values.length];
+    for (int i = 0; i < count; i++) {
+      newKeys[i] = keys[order[i]];
+      newValues[i] = values[order[i]];
+    }
+    keys = newKeys;
+    values = newValues;
+    indices.rebuild(keys, count);
   }
 
 
@@ -707,9 +691,7 @@ public class FloatDict {
     FloatDict outgoing = new FloatDict(count);
     System.arraycopy(keys, 0, outgoing.keys, 0, count);
     System.arraycopy(values, 0, outgoing.values, 0, count);
-    for (int i = 0; i < count; i++) {
-      outgoing.indices.put(keys[i], i);
-    }
+    outgoing.indices = indices.copy();
     outgoing.count = count;
     return outgoing;
   }
@@ -1,7 +1,6 @@
 package processing.data;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Iterator;
 
 import processing.core.PApplet;
@@ -23,7 +22,7 @@ public class IntDict {
   protected int[] values;
 
   /** Internal implementation for faster lookups */
-  private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+  private KeyIndex indices = new KeyIndex();
 
 
 //  /**
@@ -88,10 +87,10 @@ public class IntDict {
       if (pieces.length == 2) {
         keys[count] = pieces[0];
         values[count] = PApplet.parseInt(pieces[1]);
-        indices.put(pieces[0], count);
         count++;
       }
     }
+    indices.rebuild(keys, count);
   }
 
   /**
@@ -104,9 +103,7 @@ public class IntDict {
     this.keys = keys;
     this.values = values;
     count = keys.length;
-    for (int i = 0; i < count; i++) {
-      indices.put(keys[i], i);
-    }
+    indices.rebuild(keys, count);
   }
 
   /**
@@ -128,7 +125,7 @@ public class IntDict {
    */
   public void clear() {
     count = 0;
-    indices = new HashMap<String, Integer>();
+    indices.clear();
   }
 
 
@@ -479,19 +476,19 @@ public class IntDict {
 
 
   public int index(String what) {
-    Integer found = indices.get(what);
-    return (found == null) ? -1 : found.intValue();
+    return indices.find(keys, what);
   }
 
 
   protected void create(String what, int much) {
     if (count == keys.length) {
-      keys = PApplet.expand(keys);
-      values = PApplet.expand(values);
+      int length = Math.max(10, count << 1);  // also when created with 0
+      keys = PApplet.expand(keys, length);
+      values = PApplet.expand(values, length);
     }
-    indices.put(what, new Integer(count));
     keys[count] = what;
     values[count] = much;
+    indices.add(keys, count);
     count++;
   }
 
@@ -514,12 +511,9 @@ public class IntDict {
     }
     //System.out.println("index is " + which + " and " + keys[which]);
     String key = keys[index];
-    indices.remove(keys[index]);
-    for (int i = index; i < count-1; i++) {
-      keys[i] = keys[i+1];
-      values[i] = values[i+1];
-      indices.put(keys[i], i);
-    }
+    indices.remove(keys, index);
+    System.arraycopy(keys, index+1, keys, index, count - index - 1);
+    System.arraycopy(values, index+1, values, index, count - index - 1);
     count--;
     keys[count] = null;
     values[count] = 0;
@@ -528,15 +522,13 @@ public class IntDict {
 
 
   public void swap(int a, int b) {
+    indices.swap(keys, a, b);
     String tkey = keys[a];
     int tvalue = values[a];
     keys[a] = keys[b];
     values[a] = values[b];
     keys[b] = tkey;
     values[b] = tvalue;
-
-    indices.put(keys[a], new Integer(a));
-    indices.put(keys[b], new Integer(b));
   }
 
 
@@ -589,36 +581,27 @@ public class IntDict {
   }
 
 
-  protected void sortImpl(final boolean useKeys, final boolean reverse) {
-    Sort s = new Sort() {
-      @Override
-      public int size() {
-        return count;
-      }
-
-      @Override
-      public float compare(int a, int b) {
-        int diff = 0;
-        if (useKeys) {
-          diff = keys[a].compareToIgnoreCase(keys[b]);
-          if (diff == 0) {
-            return values[a] - values[b];
-          }
-        } else {  // sort values
-          diff = values[a] - values[b];
-          if (diff == 0) {
-            diff = keys[a].compareToIgnoreCase(keys[b]);
-          }
-        }
-        return reverse ? -diff : diff;
-      }
+  protected void sortImpl(boolean useKeys, boolean reverse) {
+    // Both sorts are stable, so sorting by the tie-breaker first
+    // and then by the main key gives the order for both.
+    int[] order = Sort.identity(count);
+    if (useKeys) {
+      Sort.sortOrder(order, count, values, reverse, false);
+      Sort.sortOrder(order, count, keys, true, reverse, false);
+    } else {
+      Sort.sortOrder(order, count, keys, true, reverse, false);
+      Sort.sortOrder(order, count, values, reverse, false);
+    }
 
-      @Override
-      public void swap(int a, int b) {
-        IntDict.this.swap(a, b);
-      }
-    };
-    s.run();
+    String[] newKeys = new String[keys.length];
+    int[] newValues = new int[values.length];
+    for (int i = 0; i < count; i++) {
+      newKeys[i] = keys[order[i]];
+      newValues[i] = values[order[i]];
+    }
+    keys = newKeys;
+    values = newValues;
+    indices.rebuild(keys, count);
   }
 
 
@@ -646,9 +629,7 @@ public class IntDict {
     IntDict outgoing = new IntDict(count);
     System.arraycopy(keys, 0, outgoing.keys, 0, count);
     System.arraycopy(values, 0, outgoing.values, 0, count);
-    for (int i = 0; i < count; i++) {
-      outgoing.indices.put(keys[i], i);
-    }
+    outgoing.indices = indices.copy();
     outgoing.count = count;
     return outgoing;
   }
@@ -0,0 +1,152 @@
+package processing.data;
+
+
+/**
+ * Lookup from a String key to its position in the keys[] array of an
+ * IntDict, FloatDict, or StringDict. Uses open addressing (linear probing)
+ * in a plain int[] so that nothing is boxed: each slot holds the position
+ * of an entry plus one, 0 for a slot that's never been used, or -1 for a
+ * slot whose entry was removed (so that lookups keep probing past it).
+ * Internal use only.
+ */
+class KeyIndex {
+  static final int EMPTY = 0;
+  static final int REMOVED = -1;
+
+  int[] table = new int[16];
+  int used;  // slots that aren't EMPTY, including REMOVED ones
+
+
+  static int hash(String key) {
+    if (key == null) {
+      return 0;
+    }
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+
+  /** Returns the position of key in keys[], or -1 if it's not there. */
+  int find(String[] keys, String key) {
+    int mask = table.length - 1;
+    int slot = hash(key) & mask;
+    while (true) {
+      int entry = table[slot];
+      if (entry == EMPTY) {
+        return -1;
+      }
+      if (entry != REMOVED) {
+        String found = keys[entry - 1];
+        if (found == key || (found != null && found.equals(key))) {
+          return entry - 1;
+        }
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+
+  /** Add a key (that isn't already present) stored at keys[index]. */
+  void add(String[] keys, int index) {
+    if ((used + 1) * 2 > table.length) {
+      rebuild(keys, index);
+    }
+    int mask = table.length - 1;
+    int slot = hash(keys[index]) & mask;
+    while (table[slot] > 0) {
+      slot = (slot + 1) & mask;
+    }
+    if (table[slot] == EMPTY) {
+      used++;
+    }
+    table[slot] = index + 1;
+  }
+
+
+  /** Find the slot that points at keys[index]. */
+  private int slot(String[] keys, int index) {
+    int mask = table.length - 1;
+    int slot = hash(keys[index]) & mask;
+    while (table[slot] != index + 1) {
+      if (table[slot] == EMPTY) {
+        return -1;  // only when keys[] had duplicates to begin with
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+
+  /**
+   * Remove keys[index], before the entries after it in keys[] are shifted
+   * down by one to fill the gap.
+   */
+  void remove(String[] keys, int index) {
+    int slot = slot(keys, index);
+    if (slot != -1) {
+      table[slot] = REMOVED;
+    }
+    // one pass over the table to renumber the entries that are moving
+    int moved = index + 1;
+    for (int i = 0; i < table.length; i++) {
+      if (table[i] > moved) {
+        table[i]--;
+      }
+    }
+  }
+
+
+  /** Exchange the positions of keys[a] and keys[b], before they're swapped. */
+  void swap(String[] keys, int a, int b) {
+    int slotA = slot(keys, a);
+    int slotB = slot(keys, b);
+    if (slotA != -1) table[slotA] = b + 1;
+    if (slotB != -1) table[slotB] = a + 1;
+  }
+
+
+  void clear() {
+    table = new int[16];
+    used = 0;
+  }
+
+
+  /**
+   * Start over with the first count entries of keys[], dropping any REMOVED
+   * markers, and leaving the table no more than a quarter full so that it
+   * doesn't need to be rebuilt again right away. If a key shows up more
+   * than once, the last one wins.
+   */
+  void rebuild(String[] keys, int count) {
+    int length = 16;
+    while (length < (count + 1) * 4) {
+      length <<= 1;
+    }
+    table = new int[length];
+    used = 0;
+    int mask = length - 1;
+    for (int index = 0; index < count; index++) {
+      int slot = hash(keys[index]) & mask;
+      while (table[slot] != EMPTY) {
+        String found = keys[table[slot] - 1];
+        if (found == keys[index] ||
+            (found != null && found.equals(keys[index]))) {
+          break;  // duplicate, point it at the later entry
+        }
+        slot = (slot + 1) & mask;
+      }
+      if (table[slot] == EMPTY) {
+        used++;
+      }
+      table[slot] = index + 1;
+    }
+  }
+
+
+  KeyIndex copy() {
+    KeyIndex outgoing = new KeyIndex();
+    outgoing.table = table.clone();
+    outgoing.used = used;
+    return outgoing;
+  }
+}
@@ -0,0 +1,465 @@
+package processing.data;
+
+import java.io.*;
+import java.util.Iterator;
+
+import processing.core.PApplet;
+
+
+/**
+ * A simple class to use a long as a lookup for a long value. Works like
+ * IntIntDict, for when the keys or the totals are too large for an int
+ * (timestamps, file offsets, hashes, large counts). Entries are kept in the
+ * order they were added, until they're sorted.
+ *
+ * @nowebref
+ * @see IntDict
+ * @see IntIntDict
+ */
+public class LongDict {
+
+  /** Number of elements in the table */
+  protected int count;
+
+  protected long[] keys;
+  protected long[] values;
+
+  /** Internal implementation for faster lookups */
+  private LongKeyIndex indices = new LongKeyIndex();
+
+
+  public LongDict() {
+    count = 0;
+    keys = new long[10];
+    values = new long[10];
+  }
+
+
+  /**
+   * Create a new lookup with a specific size. This is more efficient than not
+   * specifying a size. Use it when you know the rough size of the thing you're creating.
+   */
+  public LongDict(int length) {
+    count = 0;
+    keys = new long[length];
+    values = new long[length];
+  }
+
+
+  public LongDict(long[] keys, long[] values) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("key and value arrays must be the same length");
+    }
+    this.keys = keys;
+    this.values = values;
+    count = keys.length;
+    indices.rebuild(keys, count);
+  }
+
+
+  /**
+   * Returns the number of key/value pairs
+   */
+  public int size() {
+    return count;
+  }
+
+
+  /**
+   * Remove all entries.
+   */
+  public void clear() {
+    count = 0;
+    indices.clear();
+  }
+
+
+  public long key(int index) {
+    return keys[index];
+  }
+
+
+  // Use this with 'for' loops
+  public Iterable<Long> keys() {
+    return new Iterable<Long>() {
+
+      @Override
+      public Iterator<Long> iterator() {
+        return keyIterator();
+      }
+    };
+  }
+
+
+  // Use this to iterate when you want to be able to remove elements along the way
+  public Iterator<Long> keyIterator() {
+    return new Iterator<Long>() {
+      int index = -1;
+
+      public void remove() {
+        removeIndex(index);
+      }
+
+      public Long next() {
+        return key(++index);
+      }
+
+      public boolean hasNext() {
+        return index+1 < size();
+      }
+    };
+  }
+
+
+  /**
+   * Return a copy of the internal keys array. This array can be modified.
+   */
+  public long[] keyArray() {
+    return keyArray(null);
+  }
+
+
+  public long[] keyArray(long[] outgoing) {
+    if (outgoing == null || outgoing.length != count) {
+      outgoing = new long[count];
+    }
+    System.arraycopy(keys, 0, outgoing, 0, count);
+    return outgoing;
+  }
+
+
+  public long value(int index) {
+    return values[index];
+  }
+
+
+  public Iterable<Long> values() {
+    return new Iterable<Long>() {
+
+      @Override
+      public Iterator<Long> iterator() {
+        return valueIterator();
+      }
+    };
+  }
+
+
+  public Iterator<Long> valueIterator() {
+    return new Iterator<Long>() {
+      int index = -1;
+
+      public void remove() {
+        removeIndex(index);
+      }
+
+      public Long next() {
+        return value(++index);
+      }
+
+      public boolean hasNext() {
+        return index+1 < size();
+      }
+    };
+  }
+
+
+  /**
+   * Create a new array and copy each of the values into it.
+   */
+  public long[] valueArray() {
+    return valueArray(null);
+  }
+
+
+  /**
+   * Fill an already-allocated array with the values (more efficient than
+   * creating a new array each time). If 'array' is null, or not the same
+   * size as the number of values, a new array will be allocated and returned.
+   */
+  public long[] valueArray(long[] array) {
+    if (array == null || array.length != size()) {
+      array = new long[count];
+    }
+    System.arraycopy(values, 0, array, 0, count);
+    return array;
+  }
+
+
+  /**
+   * Return a value for the specified key, or 0 if it's not present.
+   */
+  public long get(long key) {
+    int index = index(key);
+    if (index == -1) return 0;
+    return values[index];
+  }
+
+
+  /**
+   * Create a new key/value pair or change the value of one.
+   */
+  public void set(long key, long amount) {
+    int index = index(key);
+    if (index == -1) {
+      create(key, amount);
+    } else {
+      values[index] = amount;
+    }
+  }
+
+
+  public boolean hasKey(long key) {
+    return index(key) != -1;
+  }
+
+
+  /**
+   * Increase the value associated with a specific key by 1.
+   */
+  public void increment(long key) {
+    add(key, 1);
+  }
+
+
+  public void add(long key, long amount) {
+    int index = index(key);
+    if (index == -1) {
+      create(key, amount);
+    } else {
+      values[index] += amount;
+    }
+  }
+
+
+  public void sub(long key, long amount) {
+    add(key, -amount);
+  }
+
+
+  public void mult(long key, long amount) {
+    int index = index(key);
+    if (index != -1) {
+      values[index] *= amount;
+    }
+  }
+
+
+  public void div(long key, long amount) {
+    int index = index(key);
+    if (index != -1) {
+      values[index] /= amount;
+    }
+  }
+
+
+  private void checkMinMax(String functionName) {
+    if (count == 0) {
+      String msg =
+        String.format("Cannot use %s() on an empty %s.",
+                      functionName, getClass().getSimpleName());
+      throw new RuntimeException(msg);
+    }
+  }
+
+
+  // return the index of the minimum value
+  public int minIndex() {
+    checkMinMax("minIndex");
+    int index = 0;
+    long value = values[0];
+    for (int i = 1; i < count; i++) {
+      if (values[i] < value) {
+        index = i;
+        value = values[i];
+      }
+    }
+    return index;
+  }
+
+
+  // return the minimum value
+  public long minValue() {
+    checkMinMax("minValue");
+    return values[minIndex()];
+  }
+
+
+  // return the key for the minimum value
+  public long minKey() {
+    checkMinMax("minKey");
+    return keys[minIndex()];
+  }
+
+
+  // return the index of the max value
+  public int maxIndex() {
+    checkMinMax("maxIndex");
+    int index = 0;
+    long value = values[0];
+    for (int i = 1; i < count; i++) {
+      if (values[i] > value) {
+        index = i;
+        value = values[i];
+      }
+    }
+    return index;
+  }
+
+
+  // return the maximum value
+  public long maxValue() {
+    checkMinMax("maxValue");
+    return values[maxIndex()];
+  }
+
+
+  // return the key corresponding to the maximum value
+  public long maxKey() {
+    checkMinMax("maxKey");
+    return keys[maxIndex()];
+  }
+
+
+  public int index(long what) {
+    return indices.find(what);
+  }
+
+
+  protected void create(long what, long much) {
+    if (count == keys.length) {
+      int length = Math.max(10, count << 1);  // also when created with 0
+      keys = PApplet.expand(keys, length);
+      values = PApplet.expand(values, length);
+    }
+    keys[count] = what;
+    values[count] = much;
+    indices.add(what, count);
+    count++;
+  }
+
+
+  /**
+   * Remove a key/value pair, returns the index it was at, or -1 if the key
+   * wasn't present.
+   */
+  public int remove(long key) {
+    int index = index(key);
+    if (index != -1) {
+      removeIndex(index);
+    }
+    return index;
+  }
+
+
+  public long removeIndex(int index) {
+    if (index < 0 || index >= count) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    long key = keys[index];
+    indices.remove(key, index);
+    System.arraycopy(keys, index+1, keys, index, count - index - 1);
+    System.arraycopy(values, index+1, values, index, count - index - 1);
+    count--;
+    keys[count] = 0;
+    values[count] = 0;
+    return key;
+  }
+
+
+  public void swap(int a, int b) {
+    indices.swap(keys[a], a, keys[b], b);
+    long tkey = keys[a];
+    long tvalue = values[a];
+    keys[a] = keys[b];
+    values[a] = values[b];
+    keys[b] = tkey;
+    values[b] = tvalue;
+  }
+
+
+  /**
+   * Sort the keys from lowest to highest.
+   */
+  public void sortKeys() {
+    sortImpl(true, false);
+  }
+
+
+  public void sortKeysReverse() {
+    sortImpl(true, true);
+  }
+
+
+  /**
+   * Sort by values in ascending order, using the keys to break ties.
+   * The smallest value will be at [0].
+   */
+  public void sortValues() {
+    sortImpl(false, false);
+  }
+
+
+  /**
+   * Sort by values in descending order. The largest value will be at [0].
+   */
+  public void sortValuesReverse() {
+    sortImpl(false, true);
+  }
+
+
+  protected void sortImpl(boolean useKeys, boolean reverse) {
+    int[] order = Sort.identity(count);
+    if (!useKeys) {  // keys are unique, so only needed as a tie-breaker
+      Sort.sortOrder(order, count, keys, reverse, false);
+    }
+    Sort.sortOrder(order, count, useKeys ? keys : values, reverse, false);
+
+    long[] newKeys = new long[keys.length];
+    long[] newValues = new long[values.length];
+    for (int i = 0; i < count; i++) {
+      newKeys[i] = keys[order[i]];
+      newValues[i] = values[order[i]];
+    }
+    keys = newKeys;
+    values = newValues;
+    indices.rebuild(keys, count);
+  }
+
+
+  /** Returns a duplicate copy of this object. */
+  public LongDict copy() {
+    LongDict outgoing = new LongDict(count);
+    System.arraycopy(keys, 0, outgoing.keys, 0, count);
+    System.arraycopy(values, 0, outgoing.values, 0, count);
+    outgoing.indices = indices.copy();
+    outgoing.count = count;
+    return outgoing;
+  }
+
+
+  /**
+   * Write tab-delimited entries out to
+   * @param writer
+   */
+  public void write(PrintWriter writer) {
+    for (int i = 0; i < count; i++) {
+      writer.println(keys[i] + "\t" + values[i]);
+    }
+    writer.flush();
+  }
+
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(getClass().getSimpleName() + " size=" + size() + " { ");
+    for (int i = 0; i < size(); i++) {
+      if (i != 0) {
+        sb.append(", ");
+      }
+      sb.append(keys[i] + ": " + values[i]);
+    }
+    sb.append(" }");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,189 @@
+package processing.data;
+
+
+/**
+ * Lookup from a whole-number key to its position in the keys[] array of an
+ * IntIntDict or LongDict. Works like KeyIndex, except that each slot keeps
+ * its own copy of the key, so int and long keys can share the same code.
+ * Internal use only.
+ */
+class LongKeyIndex {
+  static final int EMPTY = 0;
+  static final int REMOVED = -1;
+
+  long[] slotKeys = new long[16];
+  int[] table = new int[16];  // position + 1, EMPTY, or REMOVED
+  int used;
+
+
+  static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+
+  /** Returns the position of key in keys[], or -1 if it's not there. */
+  int find(long key) {
+    int mask = table.length - 1;
+    int slot = hash(key) & mask;
+    while (true) {
+      int entry = table[slot];
+      if (entry == EMPTY) {
+        return -1;
+      }
+      if (entry != REMOVED && slotKeys[slot] == key) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+
+  /** Add a key (that isn't already present) stored at position index. */
+  void add(long key, int index) {
+    if ((used + 1) * 2 > table.length) {
+      grow(live());
+    }
+    int slot = slotFor(key);
+    if (table[slot] == EMPTY) {
+      used++;
+    }
+    slotKeys[slot] = key;
+    table[slot] = index + 1;
+  }
+
+
+  /** First slot that's empty or was removed, for a new key. */
+  private int slotFor(long key) {
+    int mask = table.length - 1;
+    int slot = hash(key) & mask;
+    while (table[slot] > 0) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+
+  private int slot(long key) {
+    int mask = table.length - 1;
+    int slot = hash(key) & mask;
+    while (true) {
+      int entry = table[slot];
+      if (entry == EMPTY) {
+        return -1;
+      }
+      if (entry != REMOVED && slotKeys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+
+  /**
+   * Remove the key at position index, before the entries after it are
+   * shifted down by one to fill the gap.
+   */
+  void remove(long key, int index) {
+    int slot = slot(key);
+    if (slot != -1) {
+      table[slot] = REMOVED;
+    }
+    int moved = index + 1;
+    for (int i = 0; i < table.length; i++) {
+      if (table[i] > moved) {
+        table[i]--;
+      }
+    }
+  }
+
+
+  /** The keys at positions a and b are being swapped. */
+  void swap(long keyA, int a, long keyB, int b) {
+    int slotA = slot(keyA);
+    int slotB = slot(keyB);
+    if (slotA != -1) table[slotA] = b + 1;
+    if (slotB != -1) table[slotB] = a + 1;
+  }
+
+
+  void clear() {
+    slotKeys = new long[16];
+    table = new int[16];
+    used = 0;
+  }
+
+
+  /**
+   * Rehash into a table that's no more than a quarter full with count + 1
+   * keys, dropping the REMOVED markers along the way.
+   */
+  private void grow(int count) {
+    long[] oldKeys = slotKeys;
+    int[] oldTable = table;
+    int length = 16;
+    while (length < (count + 1) * 4) {
+      length <<= 1;
+    }
+    slotKeys = new long[length];
+    table = new int[length];
+    used = 0;
+    for (int i = 0; i < oldTable.length; i++) {
+      if (oldTable[i] > 0) {
+        int slot = slotFor(oldKeys[i]);
+        slotKeys[slot] = oldKeys[i];
+        table[slot] = oldTable[i];
+        used++;
+      }
+    }
+  }
+
+
+  /** Number of keys actually present, not counting REMOVED slots. */
+  private int live() {
+    int count = 0;
+    for (int entry : table) {
+      if (entry > 0) count++;
+    }
+    return count;
+  }
+
+
+  /** Start over with the first count entries of keys[]. */
+  void rebuild(long[] keys, int count) {
+    clear();
+    grow(count);
+    for (int index = 0; index < count; index++) {
+      set(keys[index], index);
+    }
+  }
+
+
+  void rebuild(int[] keys, int count) {
+    clear();
+    grow(count);
+    for (int index = 0; index < count; index++) {
+      set(keys[index], index);
+    }
+  }
+
+
+  /** Point key at index, whether or not it's already there (last one wins). */
+  private void set(long key, int index) {
+    int slot = slot(key);
+    if (slot == -1) {
+      add(key, index);
+    } else {
+      table[slot] = index + 1;
+    }
+  }
+
+
+  LongKeyIndex copy() {
+    LongKeyIndex outgoing = new LongKeyIndex();
+    outgoing.slotKeys = slotKeys.clone();
+    outgoing.table = table.clone();
+    outgoing.used = used;
+    return outgoing;
+  }
+}
@@ -0,0 +1,516 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License version 2.1 as published by the Free Software Foundation.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package processing.data;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A Table that reads its data directly from a memory-mapped .tbl file
+ * (see Table#saveColumnar), rather than loading it all into memory. Opening
+ * the file only reads the footer with the column titles, types, and offsets.
+ * The data for a column is only mapped once it's used, and reading values
+ * with getInt(), getFloat(), getString(), getFloatColumn() and so on goes
+ * straight to the mapped file.
+ * <p>
+ * Anything that modifies a column (setting values, sorting, trim(), etc.)
+ * first loads that column into memory, and changing the number of rows or
+ * columns loads the entire table. After that, it behaves like any other
+ * Table and the file is no longer used.
+ *
+ * @nowebref
+ * @see processing.core.PApplet#loadTable(String)
+ */
+public class MappedTable extends Table {
+  /** Each column is mapped in pieces of this size (a multiple of 8). */
+  static final int SEGMENT_SHIFT = 30;
+  static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  RandomAccessFile file;
+  FileChannel channel;
+
+  long[] columnOffsets;
+  long[] columnLengths;
+  /** [column][segment], mapped on first use */
+  ByteBuffer[][] segments;
+
+
+  public MappedTable(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    channel = this.file.getChannel();
+    readFooter();
+  }
+
+
+  protected void readFooter() throws IOException {
+    long length = channel.size();
+    if (length < 20 || file.readInt() != COLUMNAR_MAGIC) {
+      throw new IOException("Not a columnar table file");
+    }
+    int version = file.readInt();
+    if (version != COLUMNAR_VERSION) {
+      throw new IOException("Unsupported columnar table version " + version);
+    }
+    file.seek(length - 12);
+    long footer = file.readLong();
+    if (file.readInt() != COLUMNAR_MAGIC) {
+      throw new IOException("Columnar table file is incomplete or damaged");
+    }
+    byte[] footerData = new byte[(int) (length - 12 - footer)];
+    file.seek(footer);
+    file.readFully(footerData);
+    DataInputStream input =
+      new DataInputStream(new ByteArrayInputStream(footerData));
+
+    rowCount = input.readInt();
+    int columnCount = input.readInt();
+    columns = new Object[columnCount];  // null until loaded
+    columnTypes = new int[columnCount];
+    columnCategories = new HashMapBlows[columnCount];
+    if (input.readBoolean()) {
+      columnTitles = new String[columnCount];
+      for (int col = 0; col < columnCount; col++) {
+        columnTitles[col] = readNullableUTF(input);
+      }
+    }
+    columnOffsets = new long[columnCount];
+    columnLengths = new long[columnCount];
+    segments = new ByteBuffer[columnCount][];
+    for (int col = 0; col < columnCount; col++) {
+      columnTypes[col] = input.readInt();
+      columnOffsets[col] = input.readLong();
+      columnLengths[col] = input.readLong();
+      segments[col] =
+        new ByteBuffer[(int) ((columnLengths[col] + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+    }
+    for (int col = 0; col < columnCount; col++) {
+      if (columnTypes[col] == CATEGORY) {
+        int count = input.readInt();
+        columnCategories[col] = new HashMapBlows();
+        for (int i = 0; i < count; i++) {
+          columnCategories[col].index(readNullableUTF(input));
+        }
+      }
+    }
+    missingString = readNullableUTF(input);
+    missingInt = input.readInt();
+    missingLong = input.readLong();
+    missingFloat = input.readFloat();
+    missingDouble = input.readDouble();
+    missingCategory = input.readInt();
+  }
+
+
+  static private String readNullableUTF(DataInputStream input) throws IOException {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+
+  /** Returns true if this column is only in the file, not in memory. */
+  protected boolean isMapped(int column) {
+    return columns[column] == null;
+  }
+
+
+  /** Get the mapped piece of this column that contains a position. */
+  protected ByteBuffer segment(int column, long position) {
+    int index = (int) (position >>> SEGMENT_SHIFT);
+    ByteBuffer seg = segments[column][index];
+    if (seg == null) {
+      long start = (long) index << SEGMENT_SHIFT;
+      long size = Math.min(SEGMENT_SIZE, columnLengths[column] - start);
+      try {
+        seg = channel.map(FileChannel.MapMode.READ_ONLY,
+                          columnOffsets[column] + start, size);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not map column " + column, e);
+      }
+      segments[column][index] = seg;
+    }
+    return seg;
+  }
+
+
+  protected int mappedInt(int row, int column) {
+    long position = 4L * row;
+    return segment(column, position).getInt((int) (position & SEGMENT_MASK));
+  }
+
+
+  protected long mappedLong(int row, int column) {
+    long position = 8L * row;
+    return segment(column, position).getLong((int) (position & SEGMENT_MASK));
+  }
+
+
+  protected float mappedFloat(int row, int column) {
+    long position = 4L * row;
+    return segment(column, position).getFloat((int) (position & SEGMENT_MASK));
+  }
+
+
+  protected double mappedDouble(int row, int column) {
+    long position = 8L * row;
+    return segment(column, position).getDouble((int) (position & SEGMENT_MASK));
+  }
+
+
+  protected String mappedString(int row, int column) {
+    long end = mappedLong(row, column);
+    if (end < 0) {
+      return null;
+    }
+    long start = 0;
+    if (row > 0) {
+      start = mappedLong(row - 1, column);
+      if (start < 0) {
+        start = -start - 1;
+      }
+    }
+    byte[] bytes = new byte[(int) (end - start)];
+    long position = 8L * rowCount + start;
+    int offset = 0;
+    while (offset < bytes.length) {
+      // the bytes may span more than one segment
+      ByteBuffer seg = segment(column, position).duplicate();
+      seg.position((int) (position & SEGMENT_MASK));
+      int count = Math.min(seg.remaining(), bytes.length - offset);
+      seg.get(bytes, offset, count);
+      offset += count;
+      position += count;
+    }
+    try {
+      return new String(bytes, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);  // not gonna happen
+    }
+  }
+
+
+  /** Read a column from the file into memory. */
+  protected void loadColumn(int column) {
+    if (column < 0 || column >= columns.length || !isMapped(column)) {
+      return;
+    }
+    switch (columnTypes[column]) {
+    case INT:
+    case CATEGORY:
+      int[] intData = new int[rowCount];
+      for (int row = 0; row < rowCount; row++) {
+        intData[row] = mappedInt(row, column);
+      }
+      columns[column] = intData;
+      break;
+    case LONG:
+      long[] longData = new long[rowCount];
+      for (int row = 0; row < rowCount; row++) {
+        longData[row] = mappedLong(row, column);
+      }
+      columns[column] = longData;
+      break;
+    case FLOAT:
+      float[] floatData = new float[rowCount];
+      for (int row = 0; row < rowCount; row++) {
+        floatData[row] = mappedFloat(row, column);
+      }
+      columns[column] = floatData;
+      break;
+    case DOUBLE:
+      double[] doubleData = new double[rowCount];
+      for (int row = 0; row < rowCount; row++) {
+        doubleData[row] = mappedDouble(row, column);
+      }
+      columns[column] = doubleData;
+      break;
+    case STRING:
+      String[] stringData = new String[rowCount];
+      for (int row = 0; row < rowCount; row++) {
+        stringData[row] = mappedString(row, column);
+      }
+      columns[column] = stringData;
+      break;
+    }
+    segments[column] = new ByteBuffer[0];
+  }
+
+
+  /**
+   * Read the entire table into memory and close the file. Called before any
+   * change that affects all columns, such as adding or removing rows.
+   */
+  public void load() {
+    if (channel != null) {
+      for (int col = 0; col < columns.length; col++) {
+        loadColumn(col);
+      }
+      try {
+        file.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      channel = null;
+      file = null;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  @Override
+  public int getInt(int row, int column) {
+    checkBounds(row, column);
+    if (isMapped(column) &&
+        (columnTypes[column] == INT || columnTypes[column] == CATEGORY)) {
+      return mappedInt(row, column);
+    }
+    return super.getInt(row, column);
+  }
+
+
+  @Override
+  public long getLong(int row, int column) {
+    checkBounds(row, column);
+    if (isMapped(column) && columnTypes[column] == LONG) {
+      return mappedLong(row, column);
+    }
+    return super.getLong(row, column);
+  }
+
+
+  @Override
+  public float getFloat(int row, int column) {
+    checkBounds(row, column);
+    if (isMapped(column) && columnTypes[column] == FLOAT) {
+      return mappedFloat(row, column);
+    }
+    return super.getFloat(row, column);
+  }
+
+
+  @Override
+  public double getDouble(int row, int column) {
+    checkBounds(row, column);
+    if (isMapped(column) && columnTypes[column] == DOUBLE) {
+      return mappedDouble(row, column);
+    }
+    return super.getDouble(row, column);
+  }
+
+
+  @Override
+  public String getString(int row, int column) {
+    checkBounds(row, column);
+    if (isMapped(column)) {
+      switch (columnTypes[column]) {
+      case STRING: return mappedString(row, column);
+      case INT: return String.valueOf(mappedInt(row, column));
+      case LONG: return String.valueOf(mappedLong(row, column));
+      case FLOAT: return String.valueOf(mappedFloat(row, column));
+      case DOUBLE: return String.valueOf(mappedDouble(row, column));
+      }
+    }
+    return super.getString(row, column);  // CATEGORY uses getInt()
+  }
+
+
+  @Override
+  public int[] getIntColumn(int col) {
+    if (isMapped(col) &&
+        (columnTypes[col] == INT || columnTypes[col] == CATEGORY)) {
+      int[] outgoing = new int[rowCount];
+      int offset = 0;
+      for (int i = 0; i < segments[col].length; i++) {
+        ByteBuffer seg = segment(col, (long) i << SEGMENT_SHIFT).duplicate();
+        seg.clear();
+        int count = seg.remaining() / 4;
+        seg.asIntBuffer().get(outgoing, offset, count);
+        offset += count;
+      }
+      return outgoing;
+    }
+    return super.getIntColumn(col);
+  }
+
+
+  @Override
+  public long[] getLongColumn(int col) {
+    if (isMapped(col) && columnTypes[col] == LONG) {
+      long[] outgoing = new long[rowCount];
+      int offset = 0;
+      for (int i = 0; i < segments[col].length; i++) {
+        ByteBuffer seg = segment(col, (long) i << SEGMENT_SHIFT).duplicate();
+        seg.clear();
+        int count = seg.remaining() / 8;
+        seg.asLongBuffer().get(outgoing, offset, count);
+        offset += count;
+      }
+      return outgoing;
+    }
+    return super.getLongColumn(col);
+  }
+
+
+  @Override
+  public float[] getFloatColumn(int col) {
+    if (isMapped(col) && columnTypes[col] == FLOAT) {
+      float[] outgoing = new float[rowCount];
+      int offset = 0;
+      for (int i = 0; i < segments[col].length; i++) {
+        ByteBuffer seg = segment(col, (long) i << SEGMENT_SHIFT).duplicate();
+        seg.clear();
+        int count = seg.remaining() / 4;
+        seg.asFloatBuffer().get(outgoing, offset, count);
+        offset += count;
+      }
+      return outgoing;
+    }
+    return super.getFloatColumn(col);
+  }
+
+
+  @Override
+  public double[] getDoubleColumn(int col) {
+    if (isMapped(col) && columnTypes[col] == DOUBLE) {
+      double[] outgoing = new double[rowCount];
+      int offset = 0;
+      for (int i = 0; i < segments[col].length; i++) {
+        ByteBuffer seg = segment(col, (long) i << SEGMENT_SHIFT).duplicate();
+        seg.clear();
+        int count = seg.remaining() / 8;
+        seg.asDoubleBuffer().get(outgoing, offset, count);
+        offset += count;
+      }
+      return outgoing;
+    }
+    return super.getDoubleColumn(col);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  // Everything else in Table works with the column arrays directly, so load
+  // the columns involved before handing off. Methods that work on a single
+  // column all call checkColumn() before touching it.
+
+
+  @Override
+  protected void checkColumn(int column) {
+    super.checkColumn(column);
+    loadColumn(column);
+  }
+
+
+  /** Used by the get methods, so check the bounds without loading. */
+  @Override
+  protected void checkBounds(int row, int column) {
+    checkRow(row);
+    super.checkColumn(column);
+  }
+
+
+  @Override
+  protected void ensureBounds(int row, int col) {
+    loadColumn(col);
+    super.ensureBounds(row, col);
+  }
+
+
+  @Override
+  protected void setRowCol(int row, int col, Object piece) {
+    loadColumn(col);
+    super.setRowCol(row, col, piece);
+  }
+
+
+  @Override
+  public void setColumnType(int column, int newType) {
+    loadColumn(column);
+    super.setColumnType(column, newType);
+  }
+
+
+  @Override
+  public void setColumnCount(int newCount) {
+    load();
+    super.setColumnCount(newCount);
+  }
+
+
+  @Override
+  public void setRowCount(int newCount) {
+    load();
+    super.setRowCount(newCount);
+  }
+
+
+  @Override
+  public void insertColumn(int index, String title, int type) {
+    load();
+    super.insertColumn(index, title, type);
+  }
+
+
+  @Override
+  public void removeColumn(int column) {
+    load();
+    super.removeColumn(column);
+  }
+
+
+  @Override
+  public void insertRow(int insert, Object[] columnData) {
+    load();
+    super.insertRow(insert, columnData);
+  }
+
+
+  @Override
+  public void removeRow(int row) {
+    load();
+    super.removeRow(row);
+  }
+
+
+  @Override
+  protected void sort(int[] columns, boolean[] reverse, boolean parallel) {
+    load();
+    super.sort(columns, reverse, parallel);
+  }
+
+
+  @Override
+  public void replace(String orig, String replacement, int col) {
+    loadColumn(col);
+    super.replace(orig, replacement, col);
+  }
+
+
+  @Override
+  public void trim(int column) {
+    loadColumn(column);
+    super.trim(column);
+  }
+}
@@ -1,11 +1,31 @@
 package processing.data;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import processing.core.Parallel;
+
 
 /**
  * Internal sorter used by several data classes.
  * Advanced users only, not official API.
+ * <p/>
+ * Subclasses implement size(), compare(), and swap(), and run() does a
+ * stable merge sort, so items that compare as equal stay in the order they
+ * started in. The static sortOrder() methods work on an array of indices
+ * (an "order") instead, using a column of keys: radix sort for int, long,
+ * float, and double keys, and merge sort for Strings. Because every path is
+ * stable, sorting an order by a second key and then by a first key gives a
+ * sort on the first key that uses the second to break ties.
  */
 public abstract class Sort implements Runnable {
+  // runs this short are insertion sorted before being merged
+  static final int RUN_LENGTH = 32;
+
+  // below this many items, the parallel versions just do the work in place
+  static final int PARALLEL_THRESHOLD = 1 << 16;
+
 
   public Sort() { }
 
@@ -13,34 +33,439 @@ public abstract class Sort implements Runnable {
   public void run() {
     int c = size();
     if (c > 1) {
-      sort(0, c - 1);
+      int[] order = identity(c);
+      sortOrder(order, c, false);
+      permute(order);
+    }
+  }
+
+
+  /**
+   * Stable sort of the indices in order[0, count), using compare() on the
+   * indices themselves (swap() is not called). With parallel set and enough
+   * items, the halves are sorted on separate cores.
+   */
+  public void sortOrder(int[] order, int count, boolean parallel) {
+    if (count > 1) {
+      int[] temp = new int[count];
+      if (parallel && count >= PARALLEL_THRESHOLD && pool().getParallelism() > 1) {
+        pool().invoke(new MergeAction(order, temp, 0, count));
+      } else {
+        mergeSort(order, temp, 0, count);
+      }
+    }
+  }
+
+
+  protected void mergeSort(int[] order, int[] temp, int lo, int hi) {
+    if (hi - lo <= RUN_LENGTH) {
+      insertionSort(order, lo, hi);
+    } else {
+      int mid = (lo + hi) >>> 1;
+      mergeSort(order, temp, lo, mid);
+      mergeSort(order, temp, mid, hi);
+      merge(order, temp, lo, mid, hi);
+    }
+  }
+
+
+  protected void insertionSort(int[] order, int lo, int hi) {
+    for (int i = lo + 1; i < hi; i++) {
+      int item = order[i];
+      int j = i - 1;
+      while (j >= lo && compare(order[j], item) > 0) {
+        order[j+1] = order[j];
+        j--;
+      }
+      order[j+1] = item;
     }
   }
 
 
-  protected void sort(int i, int j) {
-    int pivotIndex = (i+j)/2;
-    swap(pivotIndex, j);
-    int k = partition(i-1, j);
-    swap(k, j);
-    if ((k-i) > 1) sort(i, k-1);
-    if ((j-k) > 1) sort(k+1, j);
+  /** Merge order[lo, mid) and order[mid, hi), which are each sorted. */
+  protected void merge(int[] order, int[] temp, int lo, int mid, int hi) {
+    if (compare(order[mid-1], order[mid]) <= 0) {
+      return;  // already in order, so sorted input only costs one pass
+    }
+    System.arraycopy(order, lo, temp, lo, mid - lo);
+    int i = lo;
+    int j = mid;
+    int k = lo;
+    while (i < mid && j < hi) {
+      // only take from the right half when strictly less, to stay stable
+      if (compare(order[j], temp[i]) < 0) {
+        order[k++] = order[j++];
+      } else {
+        order[k++] = temp[i++];
+      }
+    }
+    while (i < mid) {
+      order[k++] = temp[i++];
+    }
   }
 
 
-  protected int partition(int left, int right) {
-    int pivot = right;
-    do {
-      while (compare(++left, pivot) < 0) ;
-      while ((right != 0) && (compare(--right, pivot) > 0)) ;
-      swap(left, right);
-    } while (left < right);
-    swap(left, right);
-    return left;
+  class MergeAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int[] order, temp;
+    int lo, hi;
+
+    MergeAction(int[] order, int[] temp, int lo, int hi) {
+      this.order = order;
+      this.temp = temp;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo < PARALLEL_THRESHOLD) {
+        mergeSort(order, temp, lo, hi);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new MergeAction(order, temp, lo, mid),
+                  new MergeAction(order, temp, mid, hi));
+        merge(order, temp, lo, mid, hi);
+      }
+    }
+  }
+
+
+  /**
+   * Rearrange the items with swap() so that the item at order[i] ends up
+   * at i. Uses one swap per item that moves. The contents of order are
+   * destroyed in the process.
+   */
+  public void permute(int[] order) {
+    for (int start = 0; start < order.length; start++) {
+      int i = start;
+      int from = order[i];
+      while (from != start) {
+        swap(i, from);
+        order[i] = i;  // mark as done
+        i = from;
+        from = order[i];
+      }
+      order[i] = i;
+    }
   }
 
 
   abstract public int size();
   abstract public float compare(int a, int b);
   abstract public void swap(int a, int b);
-}
\ No newline at end of file
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Returns {0, 1, 2, ... count-1}, the starting point for an order. */
+  static public int[] identity(int count) {
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    return order;
+  }
+
+
+  /**
+   * Stable sort of order[0, count) so that values[order[i]] is ascending
+   * (or descending if reverse is set).
+   */
+  static public void sortOrder(int[] order, int count, int[] values,
+                               boolean reverse, boolean parallel) {
+    // flip the sign bit so that the keys sort as unsigned,
+    // and the other bits too when sorting in reverse
+    int flip = reverse ? 0x7FFFFFFF : 0x80000000;
+    int[] keys = new int[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = values[order[i]] ^ flip;
+    }
+    radix(order, keys, count, parallel);
+  }
+
+
+  static public void sortOrder(int[] order, int count, long[] values,
+                               boolean reverse, boolean parallel) {
+    long flip = reverse ? Long.MAX_VALUE : Long.MIN_VALUE;
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = values[order[i]] ^ flip;
+    }
+    radix(order, keys, count, parallel);
+  }
+
+
+  /**
+   * NaN values (missing values in a Table) are placed after everything
+   * else, or before everything else when sorting in reverse.
+   */
+  static public void sortOrder(int[] order, int count, float[] values,
+                               boolean reverse, boolean parallel) {
+    int[] keys = new int[count];
+    for (int i = 0; i < count; i++) {
+      // negative numbers have all bits flipped, positive only the sign
+      int bits = Float.floatToIntBits(values[order[i]]);
+      int key = bits ^ ((bits >> 31) | 0x80000000);
+      keys[i] = reverse ? ~key : key;
+    }
+    radix(order, keys, count, parallel);
+  }
+
+
+  static public void sortOrder(int[] order, int count, double[] values,
+                               boolean reverse, boolean parallel) {
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      long bits = Double.doubleToLongBits(values[order[i]]);
+      long key = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+      keys[i] = reverse ? ~key : key;
+    }
+    radix(order, keys, count, parallel);
+  }
+
+
+  /**
+   * Null values are placed after everything else, or before everything else
+   * when sorting in reverse.
+   */
+  static public void sortOrder(int[] order, int count, final String[] values,
+                               final boolean ignoreCase, final boolean reverse,
+                               boolean parallel) {
+    new Sort() {
+      @Override
+      public int size() {
+        return values.length;
+      }
+
+      @Override
+      public float compare(int a, int b) {
+        String sa = values[a];
+        String sb = values[b];
+        int diff;
+        if (sa == null || sb == null) {
+          diff = (sa == null ? 1 : 0) - (sb == null ? 1 : 0);
+        } else {
+          diff = ignoreCase ? sa.compareToIgnoreCase(sb) : sa.compareTo(sb);
+        }
+        return reverse ? -diff : diff;
+      }
+
+      @Override
+      public void swap(int a, int b) {
+        String temp = values[a];
+        values[a] = values[b];
+        values[b] = temp;
+      }
+    }.sortOrder(order, count, parallel);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * LSD radix sort, one byte at a time, of keys[0, count) taken as unsigned
+   * values, moving order[] along with them. Bytes that are the same for
+   * every key are skipped, so small numbers only take a pass or two. With
+   * parallel set, each pass is split into chunks that are counted and then
+   * scattered on separate cores.
+   */
+  static void radix(final int[] order, int[] keys,
+                    final int count, boolean parallel) {
+    final int chunks = parallel ? chunkCount(count) : 1;
+    final int chunkSize = (count + chunks - 1) / chunks;
+    final int[][] offsets = new int[chunks][256];
+
+    int[] srcKeys = keys;
+    int[] srcOrder = order;
+    int[] dstKeys = new int[count];
+    int[] dstOrder = new int[count];
+
+    for (int shift = 0; shift < 32; shift += 8) {
+      final int bits = shift;
+      final int[] fromKeys = srcKeys;
+      final int[] fromOrder = srcOrder;
+      final int[] toKeys = dstKeys;
+      final int[] toOrder = dstOrder;
+
+      invoke(chunks, new Chunk() {
+        public void run(int chunk) {
+          int[] digits = offsets[chunk];
+          Arrays.fill(digits, 0);
+          int stop = Math.min(count, (chunk + 1) * chunkSize);
+          for (int i = chunk * chunkSize; i < stop; i++) {
+            digits[(fromKeys[i] >>> bits) & 0xFF]++;
+          }
+        }
+      });
+      if (!startOffsets(offsets, count)) {
+        continue;
+      }
+      invoke(chunks, new Chunk() {
+        public void run(int chunk) {
+          int[] digits = offsets[chunk];
+          int stop = Math.min(count, (chunk + 1) * chunkSize);
+          for (int i = chunk * chunkSize; i < stop; i++) {
+            int key = fromKeys[i];
+            int pos = digits[(key >>> bits) & 0xFF]++;
+            toKeys[pos] = key;
+            toOrder[pos] = fromOrder[i];
+          }
+        }
+      });
+      dstKeys = fromKeys;
+      dstOrder = fromOrder;
+      srcKeys = toKeys;
+      srcOrder = toOrder;
+    }
+    if (srcOrder != order) {
+      System.arraycopy(srcOrder, 0, order, 0, count);
+    }
+  }
+
+
+  static void radix(final int[] order, long[] keys,
+                    final int count, boolean parallel) {
+    final int chunks = parallel ? chunkCount(count) : 1;
+    final int chunkSize = (count + chunks - 1) / chunks;
+    final int[][] offsets = new int[chunks][256];
+
+    long[] srcKeys = keys;
+    int[] srcOrder = order;
+    long[] dstKeys = new long[count];
+    int[] dstOrder = new int[count];
+
+    for (int shift = 0; shift < 64; shift += 8) {
+      final int bits = shift;
+      final long[] fromKeys = srcKeys;
+      final int[] fromOrder = srcOrder;
+      final long[] toKeys = dstKeys;
+      final int[] toOrder = dstOrder;
+
+      invoke(chunks, new Chunk() {
+        public void run(int chunk) {
+          int[] digits = offsets[chunk];
+          Arrays.fill(digits, 0);
+          int stop = Math.min(count, (chunk + 1) * chunkSize);
+          for (int i = chunk * chunkSize; i < stop; i++) {
+            digits[(int) (fromKeys[i] >>> bits) & 0xFF]++;
+          }
+        }
+      });
+      if (!startOffsets(offsets, count)) {
+        continue;
+      }
+      invoke(chunks, new Chunk() {
+        public void run(int chunk) {
+          int[] digits = offsets[chunk];
+          int stop = Math.min(count, (chunk + 1) * chunkSize);
+          for (int i = chunk * chunkSize; i < stop; i++) {
+            long key = fromKeys[i];
+            int pos = digits[(int) (key >>> bits) & 0xFF]++;
+            toKeys[pos] = key;
+            toOrder[pos] = fromOrder[i];
+          }
+        }
+      });
+      dstKeys = fromKeys;
+      dstOrder = fromOrder;
+      srcKeys = toKeys;
+      srcOrder = toOrder;
+    }
+    if (srcOrder != order) {
+      System.arraycopy(srcOrder, 0, order, 0, count);
+    }
+  }
+
+
+  /**
+   * Turn the per-chunk digit counts into the position where each chunk
+   * writes its first key with that digit. Returns false if all the keys
+   * have the same digit, in which case the pass can be skipped.
+   */
+  static boolean startOffsets(int[][] offsets, int count) {
+    for (int digit = 0; digit < 256; digit++) {
+      int total = 0;
+      for (int[] digits : offsets) {
+        total += digits[digit];
+      }
+      if (total == count) {
+        return false;
+      }
+      if (total != 0) {
+        break;
+      }
+    }
+    int pos = 0;
+    for (int digit = 0; digit < 256; digit++) {
+      for (int[] digits : offsets) {
+        int n = digits[digit];
+        digits[digit] = pos;
+        pos += n;
+      }
+    }
+    return true;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** A piece of work that's split into numbered chunks. */
+  interface Chunk {
+    public void run(int chunk);
+  }
+
+
+  /** Run each chunk, on the fork-join pool if there's more than one. */
+  static void invoke(int chunks, Chunk task) {
+    if (chunks == 1) {
+      task.run(0);
+    } else if (chunks > 1) {
+      pool().invoke(new ChunkAction(task, 0, chunks));
+    }
+  }
+
+
+  static class ChunkAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    Chunk task;
+    int lo, hi;
+
+    ChunkAction(Chunk task, int lo, int hi) {
+      this.task = task;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo == 1) {
+        task.run(lo);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new ChunkAction(task, lo, mid), new ChunkAction(task, mid, hi));
+      }
+    }
+  }
+
+
+  /** How many pieces to split count items into for the parallel versions. */
+  static int chunkCount(int count) {
+    if (count < PARALLEL_THRESHOLD) {
+      return 1;
+    }
+    int most = count / (PARALLEL_THRESHOLD / 4);
+    return Math.max(1, Math.min(pool().getParallelism(), most));
+  }
+
+
+  /** The same pool used by Parallel, so there's only one per sketch. */
+  static ForkJoinPool pool() {
+    return Parallel.pool();
+  }
+}
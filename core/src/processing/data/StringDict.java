@@ -1,7 +1,6 @@
 package processing.data;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Iterator;
 
 import processing.core.PApplet;
@@ -23,7 +22,7 @@ public class StringDict {
   protected String[] values;
 
   /** Internal implementation for faster lookups */
-  private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+  private KeyIndex indices = new KeyIndex();
 
 
   public StringDict() {
@@ -66,6 +65,7 @@ public class StringDict {
         count++;
       }
     }
+    indices.rebuild(keys, count);
   }
 
   /**
@@ -78,9 +78,7 @@ public class StringDict {
     this.keys = keys;
     this.values = values;
     count = keys.length;
-    for (int i = 0; i < count; i++) {
-      indices.put(keys[i], i);
-    }
+    indices.rebuild(keys, count);
   }
 
   /**
@@ -100,7 +98,7 @@ public class StringDict {
    */
   public void clear() {
     count = 0;
-    indices = new HashMap<String, Integer>();
+    indices.clear();
   }
 
 
@@ -260,8 +258,7 @@ public class StringDict {
 
 
   public int index(String what) {
-    Integer found = indices.get(what);
-    return (found == null) ? -1 : found.intValue();
+    return indices.find(keys, what);
   }
 
   /**
@@ -275,12 +272,13 @@ public class StringDict {
 
   protected void create(String key, String value) {
     if (count == keys.length) {
-      keys = PApplet.expand(keys);
-      values = PApplet.expand(values);
+      int length = Math.max(10, count << 1);  // also when created with 0
+      keys = PApplet.expand(keys, length);
+      values = PApplet.expand(values, length);
     }
-    indices.put(key, new Integer(count));
     keys[count] = key;
     values[count] = value;
+    indices.add(keys, count);
     count++;
   }
 
@@ -303,12 +301,9 @@ public class StringDict {
     }
     //System.out.println("index is " + which + " and " + keys[which]);
     String key = keys[index];
-    indices.remove(key);
-    for (int i = index; i < count-1; i++) {
-      keys[i] = keys[i+1];
-      values[i] = values[i+1];
-      indices.put(keys[i], i);
-    }
+    indices.remove(keys, index);
+    System.arraycopy(keys, index+1, keys, index, count - index - 1);
+    System.arraycopy(values, index+1, values, index, count - index - 1);
     count--;
     keys[count] = null;
     values[count] = null;
@@ -317,15 +312,13 @@ public class StringDict {
 
 
   public void swap(int a, int b) {
+    indices.swap(keys, a, b);
     String tkey = keys[a];
     String tvalue = values[a];
     keys[a] = keys[b];
     values[a] = values[b];
     keys[b] = tkey;
     values[b] = tvalue;
-
-    indices.put(keys[a], new Integer(a));
-    indices.put(keys[b], new Integer(b));
   }
 
 
@@ -369,36 +362,27 @@ public class StringDict {
   }
 
 
-  protected void sortImpl(final boolean useKeys, final boolean reverse) {
-    Sort s = new Sort() {
-      @Override
-      public int size() {
-        return count;
-      }
-
-      @Override
-      public float compare(int a, int b) {
-        int diff = 0;
-        if (useKeys) {
-          diff = keys[a].compareToIgnoreCase(keys[b]);
-          if (diff == 0) {
-            diff = values[a].compareToIgnoreCase(values[b]);
-          }
-        } else {  // sort values
-          diff = values[a].compareToIgnoreCase(values[b]);
-          if (diff == 0) {
-            diff = keys[a].compareToIgnoreCase(keys[b]);
-          }
-        }
-        return reverse ? -diff : diff;
-      }
+  protected void sortImpl(boolean useKeys, boolean reverse) {
+    // Both sorts are stable, so sorting by the tie-breaker first
+    // and then by the main key gives the order for both.
+    int[] order = Sort.identity(count);
+    if (useKeys) {
+      Sort.sortOrder(order, count, values, true, reverse, false);
+      Sort.sortOrder(order, count, keys, true, reverse, false);
+    } else {
+      Sort.sortOrder(order, count, keys, true, reverse, false);
+      Sort.sortOrder(order, count, values, true, reverse, false);
+    }
 
-      @Override
-      public void swap(int a, int b) {
-        StringDict.this.swap(a, b);
-      }
-    };
-    s.run();
+    String[] newKeys = new String[keys.length];
+    String[] newValues = new String[values.length];
+    for (int i = 0; i < count; i++) {
+      newKeys[i] = keys[order[i]];
+      newValues[i] = values[order[i]];
+    }
+    keys = newKeys;
+    values = newValues;
+    indices.rebuild(keys, count);
   }
 
 
@@ -407,9 +391,7 @@ public class StringDict {
     StringDict outgoing = new StringDict(count);
     System.arraycopy(keys, 0, outgoing.keys, 0, count);
     System.arraycopy(values, 0, outgoing.values, 0, count);
-    for (int i = 0; i < count; i++) {
-      outgoing.indices.put(keys[i], i);
-    }
+    outgoing.indices = indices.copy();
     outgoing.count = count;
     return outgoing;
   }
@@ -30,8 +30,11 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -92,6 +95,10 @@ public class Table {
 
   protected RowIterator rowIterator;
 
+  // lookups created with createIndex(), null for columns without one
+  // (not to be confused with columnIndices, which maps titles to columns)
+  protected ColumnIndex[] columnIndexes;
+
   // 0 for doubling each time, otherwise the number of rows to increment on
   // each expansion.
   protected int expandIncrement;
@@ -139,7 +146,12 @@ public class Table {
    * <li>csv - parse the table as comma-separated values
    * <li>tsv - parse the table as tab-separated values
    * <li>newlines - this CSV file contains newlines inside individual cells
+   * <li>tbl - the columnar binary format written by saving to a .tbl file
    * <li>header - this table has a header (title) row
+   * <li>parallel - split large CSV or TSV input into blocks and parse them
+   * on all available cores
+   * <li>infer - pick a type for each column based on the first 100 rows, and
+   * parse directly into typed columns. Use infer=500 to check 500 rows.
    * </ul>
    *
    * @nowebref
@@ -273,8 +285,8 @@ public class Table {
   */
 
 
-  static final String[] loadExtensions = { "csv", "tsv", "ods", "bin" };
-  static final String[] saveExtensions = { "csv", "tsv", "html", "bin" };
+  static final String[] loadExtensions = { "csv", "tsv", "ods", "bin", "tbl" };
+  static final String[] saveExtensions = { "csv", "tsv", "html", "bin", "tbl" };
 
   static public String extensionOptions(boolean loading, String filename, String options) {
     String extension = PApplet.checkExtension(filename);
@@ -302,9 +314,12 @@ public class Table {
     boolean header = false;
     String extension = null;
     boolean binary = false;
+    boolean parallel = false;
+    int inferCount = 0;
 
     String worksheet = null;
     final String sheetParam = "worksheet=";
+    final String inferParam = "infer=";
 
     String[] opts = null;
     if (options != null) {
@@ -322,8 +337,20 @@ public class Table {
         } else if (opt.equals("bin")) {
           binary = true;
           extension = "bin";
+        } else if (opt.equals("tbl")) {
+          binary = true;
+          extension = "tbl";
         } else if (opt.equals("header")) {
           header = true;
+        } else if (opt.equals("parallel")) {
+          parallel = true;
+        } else if (opt.equals("infer")) {
+          inferCount = INFER_SAMPLE_ROWS;
+        } else if (opt.startsWith(inferParam)) {
+          inferCount = PApplet.parseInt(opt.substring(inferParam.length()), -1);
+          if (inferCount < 1) {
+            throw new IllegalArgumentException("'" + opt + "' is not a valid number of rows to check");
+          }
         } else if (opt.startsWith(sheetParam)) {
           worksheet = opt.substring(sheetParam.length());
         } else if (opt.startsWith("dictionary=")) {
@@ -338,12 +365,27 @@ public class Table {
       throw new IllegalArgumentException("No extension specified for this Table");
     }
 
+    if (inferCount != 0 && (awfulCSV || parallel || binary)) {
+      throw new IllegalArgumentException("'infer' can only be used with plain csv or tsv files");
+    }
+
     if (binary) {
-      loadBinary(input);
+      if (extension.equals("tbl")) {
+        loadColumnar(input);
+      } else {
+        loadBinary(input);
+      }
 
     } else if (extension.equals("ods")) {
       odsParse(input, worksheet);
 
+    } else if (parallel) {
+      parseParallel(input, header, "tsv".equals(extension), awfulCSV);
+
+    } else if (inferCount != 0) {
+      parseInfer(PApplet.createReader(input), header,
+                 "tsv".equals(extension), inferCount);
+
     } else {
       BufferedReader reader = PApplet.createReader(input);
       if (awfulCSV) {
@@ -419,6 +461,7 @@ public class Table {
     boolean insideQuote = false;
     int row = 0;
     int col = 0;
+    int filled = 0;  // number of rows that have actually been written
     int ch;
     while ((ch = reader.read()) != -1) {
       if (insideQuote) {
@@ -460,7 +503,12 @@ public class Table {
               reader.reset();
             }
           }
+          if (row >= getRowCount()) {
+            // double the size rather than growing one row at a time
+            setRowCount(Math.max(10, row << 1));
+          }
           setString(row, col, new String(c, 0, count));
+          filled = row + 1;
           count = 0;
           if (row == 0 && header) {
             // Use internal row removal (efficient because only one row).
@@ -468,12 +516,17 @@ public class Table {
             // Un-set the header variable so that next time around, we don't
             // just get stuck into a loop, removing the 0th row repeatedly.
             header = false;
+            filled = 0;
           }
           row++;
           col = 0;
 
         } else if (ch == ',') {
+          if (row >= getRowCount()) {
+            setRowCount(Math.max(10, row << 1));
+          }
           setString(row, col, new String(c, 0, count));
+          filled = row + 1;
           count = 0;
           // starting a new column, make sure we have room
           col++;
@@ -490,6 +543,780 @@ public class Table {
     // catch any leftovers
     if (count > 0) {
       setString(row, col, new String(c, 0, count));
+      filled = row + 1;
+    }
+    // shorten based on what was actually used
+    if (filled != getRowCount()) {
+      setRowCount(filled);
+    }
+  }
+
+
+  /** Size of each block handed to a worker by parseParallel(). */
+  static final int PARALLEL_BLOCK_SIZE = 1 << 22;
+
+
+  /**
+   * Parse CSV or TSV data by splitting the stream into blocks of roughly
+   * PARALLEL_BLOCK_SIZE bytes, parsing each block on a separate thread, and
+   * then stitching the pieces back together in their original order. Blocks
+   * only ever end on a line break that's outside of quotes, so entries that
+   * span lines ("newlines" option) are never cut in half. The stream is read
+   * as it's parsed, so it can be larger than what fits in a single array.
+   */
+  protected void parseParallel(InputStream input, final boolean header,
+                               final boolean tsv,
+                               final boolean awfulCSV) throws IOException {
+    int threadCount = Runtime.getRuntime().availableProcessors();
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+    List<Future<Table>> pieces = new ArrayList<Future<Table>>();
+
+    try {
+      byte[] buffer = new byte[PARALLEL_BLOCK_SIZE];
+      int used = 0;
+      boolean done = false;
+      while (!done) {
+        int count = input.read(buffer, used, buffer.length - used);
+        if (count != -1) {
+          used += count;
+          if (used < buffer.length) {
+            continue;  // keep filling
+          }
+        } else {
+          done = true;
+        }
+
+        int stop = done ? used : findBlockEnd(buffer, used, awfulCSV);
+        if (stop == -1) {
+          // a single line (or quoted entry) is longer than the buffer
+          buffer = PApplet.expand(buffer);
+          continue;
+        }
+        if (done && pieces.isEmpty()) {
+          // small enough that it isn't worth handing off to other threads
+          parseBlock(this, buffer, used, header, tsv, awfulCSV);
+          return;
+        }
+        if (stop > 0) {
+          final byte[] block = buffer;
+          final int length = stop;
+          final boolean first = pieces.isEmpty();
+          final Table piece = createParsePiece(!first);
+          pieces.add(pool.submit(new Callable<Table>() {
+            public Table call() throws Exception {
+              parseBlock(piece, block, length, first && header, tsv, awfulCSV);
+              return piece;
+            }
+          }));
+
+          // don't let the reader get too far ahead of the parsers
+          if (pieces.size() > threadCount * 2) {
+            pieces.get(pieces.size() - threadCount * 2 - 1).get();
+          }
+          buffer = new byte[Math.max(PARALLEL_BLOCK_SIZE, used - stop)];
+          System.arraycopy(block, stop, buffer, 0, used - stop);
+          used -= stop;
+        }
+      }
+
+      Table[] parsed = new Table[pieces.size()];
+      for (int i = 0; i < parsed.length; i++) {
+        parsed[i] = pieces.get(i).get();
+      }
+      mergePieces(parsed);
+
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Find the position just past the last line break in the buffer that can
+   * be used to end a block, or -1 if there isn't one. Blocks always start
+   * outside of quotes, so the quote state can be tracked from the start.
+   */
+  static protected int findBlockEnd(byte[] buffer, int length,
+                                    boolean awfulCSV) {
+    if (!awfulCSV) {
+      for (int i = length - 1; i >= 0; --i) {
+        if (buffer[i] == '\n') {
+          return i + 1;
+        }
+      }
+      return -1;
+    }
+    int stop = -1;
+    boolean quote = false;
+    for (int i = 0; i < length; i++) {
+      byte b = buffer[i];
+      if (b == '\"') {
+        quote = !quote;  // an escaped "" just flips twice
+      } else if (b == '\n' && !quote) {
+        stop = i + 1;
+      }
+    }
+    return stop;
+  }
+
+
+  static protected void parseBlock(Table table, byte[] block, int length,
+                                   boolean header, boolean tsv,
+                                   boolean awfulCSV) throws IOException {
+    BufferedReader reader =
+      PApplet.createReader(new ByteArrayInputStream(block, 0, length));
+    if (awfulCSV) {
+      table.parseAwfulCSV(reader, header);
+    } else {
+      table.parseBasic(reader, header, tsv);
+    }
+  }
+
+
+  /**
+   * Create an empty Table with the same column types and missing values as
+   * this one, used to parse a single block of a larger file.
+   * @param reserve true to hold category index 0 with a null placeholder
+   */
+  protected Table createParsePiece(boolean reserve) {
+    Table piece = new Table();
+    if (columnTypes.length != 0) {
+      piece.setColumnTypes(columnTypes);
+    }
+    if (reserve) {
+      // Cells that are never written (short rows) are left as 0, which the
+      // serial parser treats as the first category in the column. Hold that
+      // spot so that mergePieces() can tell these apart from real entries.
+      for (int col = 0; col < columnTypes.length; col++) {
+        if (columnTypes[col] == CATEGORY) {
+          piece.columnCategories[col].index(null);
+        }
+      }
+    }
+    piece.missingString = missingString;
+    piece.missingInt = missingInt;
+    piece.missingLong = missingLong;
+    piece.missingFloat = missingFloat;
+    piece.missingDouble = missingDouble;
+    piece.missingCategory = missingCategory;
+    return piece;
+  }
+
+
+  /**
+   * Replace the contents of this table with the rows from each of the pieces
+   * (in order). Category columns are re-indexed against this table's own
+   * categories, since each piece builds its own as it goes.
+   */
+  protected void mergePieces(Table[] pieces) {
+    int total = 0;
+    int columnCount = columns.length;
+    for (Table piece : pieces) {
+      total += piece.rowCount;
+      columnCount = Math.max(columnCount, piece.getColumnCount());
+    }
+    String[] titles = pieces[0].columnTitles;
+    if (titles != null) {
+      columnCount = Math.max(columnCount, titles.length);
+    }
+    setColumnCount(columnCount);
+    if (titles != null) {
+      setColumnTitles(PApplet.expand(titles, columnCount));
+    }
+
+    for (int col = 0; col < columnCount; col++) {
+      Object outgoing = null;
+      switch (columnTypes[col]) {
+        case INT: outgoing = new int[total]; break;
+        case LONG: outgoing = new long[total]; break;
+        case FLOAT: outgoing = new float[total]; break;
+        case DOUBLE: outgoing = new double[total]; break;
+        case STRING: outgoing = new String[total]; break;
+        case CATEGORY: outgoing = new int[total]; break;
+      }
+      int offset = 0;
+      for (Table piece : pieces) {
+        if (col < piece.getColumnCount()) {
+          if (columnTypes[col] == CATEGORY) {
+            int[] indexData = (int[]) outgoing;
+            int[] pieceData = (int[]) piece.columns[col];
+            HashMapBlows pieceCategories = piece.columnCategories[col];
+            for (int row = 0; row < piece.rowCount; row++) {
+              int index = pieceData[row];
+              if (index == missingCategory) {
+                indexData[offset + row] = missingCategory;
+              } else {
+                String key = pieceCategories.key(index);
+                indexData[offset + row] =
+                  (key == null) ? 0 : columnCategories[col].index(key);
+              }
+            }
+          } else {
+            System.arraycopy(piece.columns[col], 0, outgoing, offset, piece.rowCount);
+          }
+        }  // otherwise a String column added by a later piece, leave null
+        offset += piece.rowCount;
+      }
+      columns[col] = outgoing;
+    }
+    rowCount = total;
+  }
+
+
+  /** Number of rows examined by parseInfer() when no count is given. */
+  static final int INFER_SAMPLE_ROWS = 100;
+
+
+  /**
+   * Parse CSV or TSV data in a single pass, storing numbers directly in
+   * typed columns rather than creating a String for every entry and
+   * converting the columns afterwards. The first sampleCount rows are used
+   * to pick a type for each column: INT, LONG, FLOAT, DOUBLE, CATEGORY (text
+   * with lots of repeats) or STRING. If a later entry doesn't fit, the column
+   * is promoted to a wider type (int to long or float, long or float to
+   * double, any number to String) and parsing continues. Empty entries are
+   * treated as missing values and never cause a promotion. Note that a
+   * promotion to String uses the already-parsed values, so "1.50" that was
+   * read as a float will come back as "1.5".
+   * <p>
+   * Columns past the end of a short (ragged) row are set with setMissing().
+   * In a CATEGORY column that stores missingCategory (-1) rather than the
+   * index of a category, so anything that uses the category indices
+   * directly has to allow for it. getString() returns missingString there.
+   */
+  protected void parseInfer(Reader reader, boolean header, boolean tsv,
+                            int sampleCount) throws IOException {
+    CellScanner scanner = new CellScanner(reader, tsv);
+    if (header && scanner.next()) {
+      String[] titles = new String[scanner.cellCount];
+      for (int col = 0; col < titles.length; col++) {
+        titles[col] = scanner.getString(col);
+      }
+      setColumnTitles(titles);
+    }
+
+    // Hang onto the first few rows while deciding on the types
+    List<String[]> sample = new ArrayList<String[]>();
+    int columnCount = columns.length;
+    while (sample.size() < sampleCount && scanner.next()) {
+      String[] cells = new String[scanner.cellCount];
+      for (int col = 0; col < cells.length; col++) {
+        cells[col] = scanner.getString(col);
+      }
+      sample.add(cells);
+      columnCount = Math.max(columnCount, cells.length);
+    }
+    ensureColumn(columnCount - 1);
+
+    NumberScanner number = new NumberScanner();
+    for (int col = 0; col < columnCount; col++) {
+      int type = -1;
+      HashSet<String> unique = new HashSet<String>();
+      for (String[] cells : sample) {
+        if (col < cells.length) {
+          char[] c = cells[col].toCharArray();
+          type = widenType(type, number.scan(c, 0, c.length));
+          unique.add(cells[col]);
+        }
+      }
+      if (type == STRING && unique.size() <= sample.size() / 2) {
+        type = CATEGORY;
+      } else if (type == -1) {
+        type = STRING;  // nothing but empty entries, so no way to know
+      }
+      setColumnType(col, type);
+    }
+
+    setRowCount(Math.max(10, sample.size()));
+    int row = 0;
+    try {
+      for (String[] cells : sample) {
+        for (int col = 0; col < cells.length; col++) {
+          char[] c = cells[col].toCharArray();
+          setCell(row, col, c, 0, c.length, number);
+        }
+        for (int col = cells.length; col < columns.length; col++) {
+          setMissing(row, col);
+        }
+        row++;
+      }
+      while (scanner.next()) {
+        if (row == getRowCount()) {
+          setRowCount(row << 1);
+        }
+        char[] c = scanner.line;
+        for (int col = 0; col < scanner.cellCount; col++) {
+          setCell(row, col, c, scanner.cellStart[col], scanner.cellStop[col], number);
+        }
+        for (int col = scanner.cellCount; col < columns.length; col++) {
+          setMissing(row, col);
+        }
+        row++;
+      }
+    } catch (RuntimeException e) {
+      throw new RuntimeException("Error reading table on line " + row, e);
+    }
+    // shorten based on what's left
+    if (row != getRowCount()) {
+      setRowCount(row);
+    }
+  }
+
+
+  /**
+   * Combine the current type of a column with the kind of entry just seen,
+   * as reported by NumberScanner.scan(). Returns the narrowest type that can
+   * hold both. A type of -1 means that nothing has been seen yet.
+   */
+  static protected int widenType(int type, int kind) {
+    if (kind == -1 || kind == type || type == STRING || type == CATEGORY) {
+      return type;
+    }
+    if (type == -1 || kind == STRING) {
+      return kind;
+    }
+    if (type == DOUBLE || kind == DOUBLE) {
+      return DOUBLE;
+    }
+    if (type == INT) {
+      return kind;  // LONG or FLOAT
+    }
+    if (kind == INT) {
+      return type;
+    }
+    return DOUBLE;  // long and float together
+  }
+
+
+  /**
+   * Store an entry from a character buffer in its typed column, promoting
+   * the column to a wider type if the entry won't fit.
+   */
+  protected void setCell(int row, int col, char[] c, int start, int stop,
+                         NumberScanner number) {
+    ensureColumn(col);
+    int type = columnTypes[col];
+    if (type == STRING) {
+      ((String[]) columns[col])[row] = new String(c, start, stop - start);
+      return;
+    }
+    if (type == CATEGORY) {
+      String s = new String(c, start, stop - start);
+      ((int[]) columns[col])[row] = columnCategories[col].index(s);
+      return;
+    }
+    int kind = number.scan(c, start, stop);
+    if (kind == -1) {
+      setMissing(row, col);
+      return;
+    }
+    int wider = widenType(type, kind);
+    if (wider != type) {
+      promoteColumn(col, wider);
+      if (wider == STRING) {
+        ((String[]) columns[col])[row] = new String(c, start, stop - start);
+        return;
+      }
+      type = wider;
+    }
+    switch (type) {
+      case INT:
+        ((int[]) columns[col])[row] = (int) number.getLong();
+        break;
+      case LONG:
+        ((long[]) columns[col])[row] = number.getLong();
+        break;
+      case FLOAT:
+        ((float[]) columns[col])[row] = number.getFloat(c, start, stop);
+        break;
+      case DOUBLE:
+        ((double[]) columns[col])[row] = number.getDouble(c, start, stop);
+        break;
+    }
+  }
+
+
+  /**
+   * Set the entry at this row and column to the missing value for its type.
+   * For CATEGORY columns that's missingCategory, which is not a valid index.
+   */
+  protected void setMissing(int row, int col) {
+    switch (columnTypes[col]) {
+      case STRING: ((String[]) columns[col])[row] = missingString; break;
+      case INT: ((int[]) columns[col])[row] = missingInt; break;
+      case LONG: ((long[]) columns[col])[row] = missingLong; break;
+      case FLOAT: ((float[]) columns[col])[row] = missingFloat; break;
+      case DOUBLE: ((double[]) columns[col])[row] = missingDouble; break;
+      case CATEGORY: ((int[]) columns[col])[row] = missingCategory; break;
+    }
+  }
+
+
+  /**
+   * Change a numeric column to a wider type without going through String,
+   * used while parsing when an entry won't fit in the current type.
+   */
+  protected void promoteColumn(int col, int newType) {
+    int count = getRowCount();
+    int oldType = columnTypes[col];
+    if (newType == STRING) {
+      String[] stringData = new String[count];
+      for (int row = 0; row < count; row++) {
+        stringData[row] = String.valueOf(Array.get(columns[col], row));
+      }
+      columns[col] = stringData;
+
+    } else if (newType == LONG) {  // only from INT
+      int[] intData = (int[]) columns[col];
+      long[] longData = new long[count];
+      for (int row = 0; row < count; row++) {
+        longData[row] = intData[row];
+      }
+      columns[col] = longData;
+
+    } else if (newType == FLOAT) {  // only from INT
+      int[] intData = (int[]) columns[col];
+      float[] floatData = new float[count];
+      for (int row = 0; row < count; row++) {
+        floatData[row] = intData[row];
+      }
+      columns[col] = floatData;
+
+    } else if (newType == DOUBLE) {
+      double[] doubleData = new double[count];
+      for (int row = 0; row < count; row++) {
+        switch (oldType) {
+          case INT: doubleData[row] = ((int[]) columns[col])[row]; break;
+          case LONG: doubleData[row] = ((long[]) columns[col])[row]; break;
+          case FLOAT: doubleData[row] = ((float[]) columns[col])[row]; break;
+        }
+      }
+      columns[col] = doubleData;
+    }
+    columnTypes[col] = newType;
+  }
+
+
+  /**
+   * Reads one line at a time from CSV or TSV text, and splits it into cells
+   * without creating any Strings. After next() returns true, the characters
+   * for each cell are found between cellStart[i] and cellStop[i] in the
+   * line[] array, with the quotes already removed. Follows the same rules
+   * as splitLineCSV(), so entries cannot contain newlines, unless newlines
+   * is set, in which case a CSV line with an open quote carries on to the
+   * next one, the same as the "newlines" option for loadTable().
+   */
+  static class CellScanner {
+    Reader reader;
+    boolean tsv;
+    boolean newlines;
+
+    char[] buffer = new char[1 << 16];
+    int bufferCount;
+    int bufferIndex;
+
+    char[] line = new char[256];
+    int lineLength;
+
+    int cellCount;
+    int[] cellStart = new int[16];
+    int[] cellStop = new int[16];
+
+    CellScanner(Reader reader, boolean tsv) {
+      this.reader = reader;
+      this.tsv = tsv;
+    }
+
+    /** Read the next line, returns false once there are no more. */
+    boolean next() throws IOException {
+      lineLength = 0;
+      if (!readLine()) {
+        return false;
+      }
+      if (newlines && !tsv) {
+        boolean quote = openQuote(false, 0);
+        while (quote) {
+          if (lineLength == line.length) {
+            line = PApplet.expand(line);
+          }
+          line[lineLength++] = '\n';
+          int start = lineLength;
+          if (!readLine()) {
+            lineLength--;  // the file ended inside the quote
+            break;
+          }
+          // only scan the new line, so long entries don't get slower
+          quote = openQuote(true, start);
+        }
+      }
+      cellCount = 0;
+      if (tsv) {
+        int start = 0;
+        for (int i = 0; i < lineLength; i++) {
+          if (line[i] == '\t') {
+            addCell(start, i);
+            start = i + 1;
+          }
+        }
+        addCell(start, lineLength);
+      } else {
+        splitCSV();
+      }
+      return true;
+    }
+
+    String getString(int cell) {
+      return new String(line, cellStart[cell], cellStop[cell] - cellStart[cell]);
+    }
+
+    private void splitCSV() {
+      int offset = 0;
+      do {
+        int start = offset;
+        int stop = start;
+        boolean quote = false;
+        while (stop < lineLength && (quote || line[stop] != ',')) {
+          if (line[stop] == '\"') {
+            quote = !quote;
+          }
+          stop++;
+        }
+        offset = stop + 1;  // step over the comma
+        if (stop - start > 1 && line[start] == '\"' && line[stop-1] == '\"') {
+          start++;
+          stop--;
+        }
+        // collapse "" into a single quote, writing over the original
+        int ii = start;
+        for (int i = start; i < stop; i++) {
+          if (line[i] == '\"') {
+            i++;
+            if (i == stop) break;
+          }
+          line[ii++] = line[i];
+        }
+        addCell(start, ii);
+      } while (offset <= lineLength);
+    }
+
+    private void addCell(int start, int stop) {
+      if (cellCount == cellStart.length) {
+        cellStart = PApplet.expand(cellStart);
+        cellStop = PApplet.expand(cellStop);
+      }
+      cellStart[cellCount] = start;
+      cellStop[cellCount] = stop;
+      cellCount++;
+    }
+
+    /**
+     * Whether a quote is still open at the end of the line, given whether
+     * one was open at position start.
+     */
+    private boolean openQuote(boolean quote, int start) {
+      for (int i = start; i < lineLength; i++) {
+        if (line[i] == '\"') quote = !quote;
+      }
+      return quote;
+    }
+
+    /**
+     * Add the next line to the end of line[], with the same line endings as
+     * BufferedReader.readLine(): \n, \r, or \r\n.
+     */
+    private boolean readLine() throws IOException {
+      boolean found = false;
+      while (true) {
+        if (bufferIndex == bufferCount) {
+          bufferCount = reader.read(buffer, 0, buffer.length);
+          bufferIndex = 0;
+          if (bufferCount <= 0) {
+            bufferCount = 0;
+            return found;
+          }
+        }
+        char c = buffer[bufferIndex++];
+        if (c == '\n') {
+          return true;
+        } else if (c == '\r') {
+          if (bufferIndex == bufferCount) {
+            bufferCount = reader.read(buffer, 0, buffer.length);
+            bufferIndex = 0;
+            if (bufferCount <= 0) {
+              bufferCount = 0;
+              return true;
+            }
+          }
+          if (buffer[bufferIndex] == '\n') {
+            bufferIndex++;
+          }
+          return true;
+        }
+        if (lineLength == line.length) {
+          line = PApplet.expand(line);
+        }
+        line[lineLength++] = c;
+        found = true;
+      }
+    }
+  }
+
+
+  /**
+   * Reads a number from a range of characters without creating a String.
+   * Handles the usual cases directly, and hands anything with too many
+   * digits or a large exponent to Float.parseFloat() or Double.parseDouble()
+   * so that the result is always identical.
+   */
+  static class NumberScanner {
+    static final float[] FLOAT_POWERS = {
+      1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    static final double[] DOUBLE_POWERS = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    boolean negative;
+    long mantissa;  // digits as an integer, without the decimal point
+    int digits;     // significant digits in the mantissa
+    int exponent;   // power of ten to apply to the mantissa
+    boolean overflow;
+
+    /**
+     * Returns -1 for an empty entry (or NaN, which is how missing values are
+     * written out), INT or LONG for whole numbers, FLOAT or DOUBLE (when
+     * there are too many digits for a float) for decimals, or STRING if this
+     * isn't a number at all.
+     */
+    int scan(char[] c, int start, int stop) {
+      if (start == stop) {
+        return -1;
+      }
+      if (stop - start == 3 &&
+          c[start] == 'N' && c[start+1] == 'a' && c[start+2] == 'N') {
+        return -1;
+      }
+      negative = false;
+      mantissa = 0;
+      digits = 0;
+      exponent = 0;
+      overflow = false;
+
+      int i = start;
+      if (c[i] == '-' || c[i] == '+') {
+        negative = (c[i] == '-');
+        i++;
+      }
+      boolean decimal = false;
+      boolean anyDigits = false;
+      for (; i < stop; i++) {
+        char ch = c[i];
+        if (ch >= '0' && ch <= '9') {
+          anyDigits = true;
+          if (digits == 0 && ch == '0') {
+            if (decimal) exponent--;
+          } else if (digits < 18 || (digits == 18 && fits(ch - '0'))) {
+            mantissa = mantissa * 10 + (ch - '0');
+            digits++;
+            if (decimal) exponent--;
+          } else {
+            overflow = true;
+            if (!decimal) exponent++;
+          }
+        } else if (ch == '.' && !decimal) {
+          decimal = true;
+        } else {
+          break;
+        }
+      }
+      if (!anyDigits) {
+        return STRING;
+      }
+      if (i < stop) {
+        if (c[i] != 'e' && c[i] != 'E') {
+          return STRING;
+        }
+        decimal = true;
+        i++;
+        boolean negativeExp = false;
+        if (i < stop && (c[i] == '-' || c[i] == '+')) {
+          negativeExp = (c[i] == '-');
+          i++;
+        }
+        if (i == stop) {
+          return STRING;
+        }
+        int exp = 0;
+        for (; i < stop; i++) {
+          char ch = c[i];
+          if (ch < '0' || ch > '9') {
+            return STRING;
+          }
+          if (exp < 10000) {
+            exp = exp * 10 + (ch - '0');
+          }
+        }
+        exponent += negativeExp ? -exp : exp;
+      }
+      if (decimal) {
+        return (digits > 9 || overflow) ? DOUBLE : FLOAT;
+      }
+      if (overflow || exponent != 0) {
+        return DOUBLE;  // whole number too large for a long
+      }
+      long value = negative ? -mantissa : mantissa;
+      return (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) ? INT : LONG;
+    }
+
+    /**
+     * Whether a 19th digit can be added to the mantissa without going past
+     * Long.MAX_VALUE (or Long.MIN_VALUE when negative). In that last case
+     * the mantissa wraps around to Long.MIN_VALUE, which getLong() returns
+     * as is, and getFloat() and getDouble() leave to the slow path.
+     */
+    boolean fits(int digit) {
+      long limit = Long.MAX_VALUE / 10;
+      if (mantissa != limit) {
+        return mantissa < limit;
+      }
+      return digit <= 7 || (digit == 8 && negative);
+    }
+
+    /** The whole number most recently scanned. */
+    long getLong() {
+      return negative ? -mantissa : mantissa;
+    }
+
+    float getFloat(char[] c, int start, int stop) {
+      if (!overflow && mantissa >= 0 && mantissa < (1 << 24) && exponent >= -10 && exponent <= 10) {
+        // both are exact, so a single multiply or divide rounds correctly
+        float value = (exponent < 0) ?
+          mantissa / FLOAT_POWERS[-exponent] : mantissa * FLOAT_POWERS[exponent];
+        return negative ? -value : value;
+      }
+      return Float.parseFloat(new String(c, start, stop - start));
+    }
+
+    double getDouble(char[] c, int start, int stop) {
+      if (!overflow && mantissa >= 0 && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+        double value = (exponent < 0) ?
+          mantissa / DOUBLE_POWERS[-exponent] : mantissa * DOUBLE_POWERS[exponent];
+        return negative ? -value : value;
+      }
+      return Double.parseDouble(new String(c, start, stop - start));
     }
   }
 
@@ -945,6 +1772,13 @@ public class Table {
         e.printStackTrace();
         return false;
       }
+    } else if (extension.equals("tbl")) {
+      try {
+        saveColumnar(output);
+      } catch (IOException e) {
+        e.printStackTrace();
+        return false;
+      }
     }
     writer.flush();
     writer.close();
@@ -1275,6 +2109,215 @@ public class Table {
   }
 
 
+  /** Identifies the columnar format written by saveColumnar(). */
+  static final int COLUMNAR_MAGIC = 0x9007AB1F;
+  /** Bumped whenever the layout of the columnar format changes. */
+  static final int COLUMNAR_VERSION = 1;
+
+
+  /**
+   * Write the table in a column-oriented binary format (the .tbl extension)
+   * that can be memory-mapped by MappedTable, so that only the columns that
+   * are actually used ever get read from disk. The layout is:
+   * <ul>
+   * <li>int magic, int version
+   * <li>the data for each column, starting on an 8-byte boundary:
+   * big-endian int, long, float, or double values (category indices for
+   * CATEGORY columns), or for String columns, one long per row with the
+   * offset where its UTF-8 bytes end (stored as -(end+1) for null entries)
+   * followed by the bytes themselves.
+   * <li>a footer with the row count, titles, types, the offset and length of
+   * each column's data, the category names, and the missing values.
+   * <li>long offset of the footer, int magic
+   * </ul>
+   * Because the footer holds all the offsets, the file can be written in a
+   * single pass to any stream.
+   */
+  protected void saveColumnar(OutputStream os) throws IOException {
+    DataOutputStream output =
+      new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+    output.writeInt(COLUMNAR_MAGIC);
+    output.writeInt(COLUMNAR_VERSION);
+    long position = 8;
+
+    int columnCount = getColumnCount();
+    long[] offsets = new long[columnCount];
+    long[] lengths = new long[columnCount];
+    for (int col = 0; col < columnCount; col++) {
+      while (position % 8 != 0) {
+        output.writeByte(0);
+        position++;
+      }
+      offsets[col] = position;
+      switch (columnTypes[col]) {
+      case INT:
+      case CATEGORY:
+        for (int row = 0; row < rowCount; row++) {
+          output.writeInt(getInt(row, col));
+        }
+        lengths[col] = 4L * rowCount;
+        break;
+      case LONG:
+        for (int row = 0; row < rowCount; row++) {
+          output.writeLong(getLong(row, col));
+        }
+        lengths[col] = 8L * rowCount;
+        break;
+      case FLOAT:
+        for (int row = 0; row < rowCount; row++) {
+          output.writeFloat(getFloat(row, col));
+        }
+        lengths[col] = 4L * rowCount;
+        break;
+      case DOUBLE:
+        for (int row = 0; row < rowCount; row++) {
+          output.writeDouble(getDouble(row, col));
+        }
+        lengths[col] = 8L * rowCount;
+        break;
+      case STRING:
+        long end = 0;
+        for (int row = 0; row < rowCount; row++) {
+          String str = getString(row, col);
+          if (str == null) {
+            output.writeLong(-(end + 1));
+          } else {
+            end += utf8Length(str);
+            output.writeLong(end);
+          }
+        }
+        for (int row = 0; row < rowCount; row++) {
+          String str = getString(row, col);
+          if (str != null) {
+            output.write(str.getBytes("UTF-8"));
+          }
+        }
+        lengths[col] = 8L * rowCount + end;
+        break;
+      }
+      position += lengths[col];
+    }
+
+    long footer = position;
+    output.writeInt(rowCount);
+    output.writeInt(columnCount);
+    if (columnTitles != null) {
+      output.writeBoolean(true);
+      for (String title : columnTitles) {
+        writeNullableUTF(output, title);
+      }
+    } else {
+      output.writeBoolean(false);
+    }
+    for (int col = 0; col < columnCount; col++) {
+      output.writeInt(columnTypes[col]);
+      output.writeLong(offsets[col]);
+      output.writeLong(lengths[col]);
+    }
+    for (int col = 0; col < columnCount; col++) {
+      if (columnTypes[col] == CATEGORY) {
+        HashMapBlows categories = columnCategories[col];
+        output.writeInt(categories.size());
+        for (int i = 0; i < categories.size(); i++) {
+          writeNullableUTF(output, categories.key(i));
+        }
+      }
+    }
+    writeNullableUTF(output, missingString);
+    output.writeInt(missingInt);
+    output.writeLong(missingLong);
+    output.writeFloat(missingFloat);
+    output.writeDouble(missingDouble);
+    output.writeInt(missingCategory);
+
+    output.writeLong(footer);
+    output.writeInt(COLUMNAR_MAGIC);
+    output.flush();
+    output.close();
+  }
+
+
+  static private void writeNullableUTF(DataOutputStream output,
+                                       String str) throws IOException {
+    output.writeBoolean(str != null);
+    if (str != null) {
+      output.writeUTF(str);
+    }
+  }
+
+
+  /** Number of bytes String.getBytes("UTF-8") will return for this String. */
+  static protected long utf8Length(String str) {
+    long length = 0;
+    int count = str.length();
+    for (int i = 0; i < count; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < count &&
+                 Character.isLowSurrogate(str.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length++;  // unpaired, replaced with '?'
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+
+  /**
+   * Read a table in the columnar (.tbl) format from a stream, loading all of
+   * it into memory. The data has to be copied to a temporary file first,
+   * since the column offsets are at the end. Use MappedTable to work with
+   * the file in place.
+   */
+  protected void loadColumnar(InputStream input) throws IOException {
+    File temp = File.createTempFile("table", ".tbl");
+    try {
+      OutputStream output = new FileOutputStream(temp);
+      byte[] buffer = new byte[1 << 16];
+      int count;
+      while ((count = input.read(buffer)) != -1) {
+        output.write(buffer, 0, count);
+      }
+      output.close();
+      input.close();
+
+      MappedTable mapped = new MappedTable(temp);
+      mapped.load();
+      rowCount = mapped.rowCount;
+      columns = mapped.columns;
+      columnTypes = mapped.columnTypes;
+      columnTitles = mapped.columnTitles;
+      columnIndices = null;
+      columnCategories = new HashMapBlows[columns.length];
+      for (int col = 0; col < columns.length; col++) {
+        if (mapped.columnCategories[col] != null) {
+          // copy because HashMapBlows belongs to its enclosing Table
+          columnCategories[col] = new HashMapBlows();
+          for (int i = 0; i < mapped.columnCategories[col].size(); i++) {
+            columnCategories[col].index(mapped.columnCategories[col].key(i));
+          }
+        }
+      }
+      missingString = mapped.missingString;
+      missingInt = mapped.missingInt;
+      missingLong = mapped.missingLong;
+      missingFloat = mapped.missingFloat;
+      missingDouble = mapped.missingDouble;
+      missingCategory = mapped.missingCategory;
+
+    } finally {
+      temp.delete();
+    }
+  }
+
+
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
@@ -1337,6 +2380,13 @@ public class Table {
     }
     columnCategories = catTemp;
 
+    if (columnIndexes != null) {
+      ColumnIndex[] indexTemp = new ColumnIndex[columns.length + 1];
+      System.arraycopy(columnIndexes, 0, indexTemp, 0, index);
+      System.arraycopy(columnIndexes, index, indexTemp, index+1, columns.length - index);
+      columnIndexes = indexTemp;
+    }
+
     Object[] temp = new Object[columns.length + 1];
     System.arraycopy(columns, 0, temp, 0, index);
     System.arraycopy(columns, index, temp, index+1, columns.length - index);
@@ -1383,6 +2433,13 @@ public class Table {
     columns = columnsTemp;
     columnCategories = catTemp;
 
+    if (columnIndexes != null) {
+      ColumnIndex[] indexTemp = new ColumnIndex[newCount];
+      System.arraycopy(columnIndexes, 0, indexTemp, 0, column);
+      System.arraycopy(columnIndexes, column+1, indexTemp, column, newCount - column);
+      columnIndexes = indexTemp;
+    }
+
     if (columnTitles != null) {
       String[] titlesTemp = new String[newCount];
       for (int i = 0; i < column; i++) {
@@ -1427,6 +2484,9 @@ public class Table {
       columnTypes = PApplet.expand(columnTypes, newCount);
       columnCategories = (HashMapBlows[])
         PApplet.expand(columnCategories, newCount);
+      if (columnIndexes != null) {
+        columnIndexes = (ColumnIndex[]) PApplet.expand(columnIndexes, newCount);
+      }
     }
   }
 
@@ -1474,6 +2534,7 @@ public class Table {
    * @param newType something fresh, maybe try an int or a float for size?
    */
   public void setColumnType(int column, int newType) {
+    invalidateIndex(column);  // "1" may now be "1.0", and so on
     switch (newType) {
       case INT: {
         int[] intData = new int[rowCount];
@@ -1791,6 +2852,23 @@ public class Table {
         int ms = (int) (System.currentTimeMillis() - t);
         System.out.println(" (resize took " + PApplet.nfc(ms) + " ms)");
       }
+      if (columnIndexes != null) {
+        int oldCount = rowCount;
+        rowCount = newCount;
+        for (int col = 0; col < columnIndexes.length; col++) {
+          ColumnIndex index = columnIndexes[col];
+          if (index != null) {
+            if (newCount < oldCount) {
+              index.truncate(newCount);
+            } else if (!index.dirty) {
+              for (int row = oldCount; row < newCount; row++) {
+                index.add(row, indexKey(row, col));
+              }
+              index.sortedDirty = true;
+            }
+          }
+        }
+      }
     }
     rowCount = newCount;
   }
@@ -1853,6 +2931,7 @@ public class Table {
 
 
   public void insertRow(int insert, Object[] columnData) {
+    invalidateIndexes();  // every row after this one moves down
     for (int col = 0; col < columns.length; col++) {
       switch (columnTypes[col]) {
         case CATEGORY:
@@ -1905,6 +2984,14 @@ public class Table {
    * @see Table#clearRows()
    */
   public void removeRow(int row) {
+    if (columnIndexes != null) {
+      for (int col = 0; col < columnIndexes.length; col++) {
+        ColumnIndex index = columnIndexes[col];
+        if (index != null) {
+          index.removeRow(row, indexKey(row, col));
+        }
+      }
+    }
     for (int col = 0; col < columns.length; col++) {
       switch (columnTypes[col]) {
         case CATEGORY:
@@ -2015,7 +3102,14 @@ public class Table {
     ensureBounds(row, pieces.length - 1);
     // pieces.length may be less than columns.length, so loop over pieces
     for (int col = 0; col < pieces.length; col++) {
-      setRowCol(row, col, pieces[col]);
+      ColumnIndex index = indexFor(col);
+      if (index == null) {
+        setRowCol(row, col, pieces[col]);
+      } else {
+        String before = indexKey(row, col);
+        setRowCol(row, col, pieces[col]);
+        index.set(row, before, indexKey(row, col));
+      }
     }
   }
 
@@ -2544,8 +3638,13 @@ public class Table {
           columnTypes[column] != CATEGORY) {
         throw new IllegalArgumentException("Column " + column + " is not an int column.");
       }
+      ColumnIndex index = indexFor(column);
+      String before = (index == null) ? null : indexKey(row, column);
       int[] intData = (int[]) columns[column];
       intData[row] = value;
+      if (index != null) {
+        index.set(row, before, indexKey(row, column));
+      }
     }
   }
 
@@ -2622,8 +3721,13 @@ public class Table {
       if (columnTypes[column] != LONG) {
         throw new IllegalArgumentException("Column " + column + " is not a 'long' column.");
       }
+      ColumnIndex index = indexFor(column);
+      String before = (index == null) ? null : indexKey(row, column);
       long[] longData = (long[]) columns[column];
       longData[row] = value;
+      if (index != null) {
+        index.set(row, before, indexKey(row, column));
+      }
     }
   }
 
@@ -2724,8 +3828,13 @@ public class Table {
       if (columnTypes[column] != FLOAT) {
         throw new IllegalArgumentException("Column " + column + " is not a float column.");
       }
+      ColumnIndex index = indexFor(column);
+      String before = (index == null) ? null : indexKey(row, column);
       float[] longData = (float[]) columns[column];
       longData[row] = value;
+      if (index != null) {
+        index.set(row, before, indexKey(row, column));
+      }
     }
   }
 
@@ -2801,8 +3910,13 @@ public class Table {
       if (columnTypes[column] != DOUBLE) {
         throw new IllegalArgumentException("Column " + column + " is not a 'double' column.");
       }
+      ColumnIndex index = indexFor(column);
+      String before = (index == null) ? null : indexKey(row, column);
       double[] doubleData = (double[]) columns[column];
       doubleData[row] = value;
+      if (index != null) {
+        index.set(row, before, indexKey(row, column));
+      }
     }
   }
 
@@ -2957,6 +4071,10 @@ public class Table {
       throw new IllegalArgumentException("Column " + column + " is not a String column.");
     }
     String[] stringData = (String[]) columns[column];
+    ColumnIndex index = indexFor(column);
+    if (index != null) {
+      index.set(row, stringData[row], value);
+    }
     stringData[row] = value;
   }
 
@@ -3016,6 +4134,11 @@ public class Table {
    */
   public int findRowIndex(String value, int column) {
     checkColumn(column);
+    ColumnIndex index = updatedIndex(column);
+    if (index != null) {
+      RowSet found = indexRows(index, value, column);
+      return (found == null) ? -1 : found.rows[0];
+    }
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
       if (value == null) {
@@ -3062,10 +4185,15 @@ public class Table {
    * @param column ID number of the column to search
    */
   public int[] findRowIndices(String value, int column) {
+    checkColumn(column);
+    ColumnIndex index = updatedIndex(column);
+    if (index != null) {
+      RowSet found = indexRows(index, value, column);
+      return (found == null) ? new int[0] : found.toArray();
+    }
+
     int[] outgoing = new int[rowCount];
     int count = 0;
-
-    checkColumn(column);
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
       if (value == null) {
@@ -3185,348 +4313,807 @@ public class Table {
 
 
   /**
-   * Return the row that contains the first String that matches.
-   * @param regexp the String to match
-   * @param column ID number of the column to search
+   * Create an index for a column so that findRow(), findRows(),
+   * findRowIndex(), findRowIndices(), the match versions, and the range
+   * queries don't have to search the entire column each time. Useful when
+   * looking up rows by an id or name over and over. The index is kept up to
+   * date as the table is modified, at the cost of making those changes a
+   * little slower.
+   *
+   * @param column ID number of the column to index
    */
-  public int matchRowIndex(String regexp, int column) {
+  public void createIndex(int column) {
     checkColumn(column);
-    if (columnTypes[column] == STRING) {
-      String[] stringData = (String[]) columns[column];
-      for (int row = 0; row < rowCount; row++) {
-        if (stringData[row] != null &&
-            PApplet.match(stringData[row], regexp) != null) {
-          return row;
-        }
-      }
-    } else {  // less efficient, includes conversion as necessary
-      for (int row = 0; row < rowCount; row++) {
-        String str = getString(row, column);
-        if (str != null &&
-            PApplet.match(str, regexp) != null) {
-          return row;
-        }
-      }
+    if (columnIndexes == null) {
+      columnIndexes = new ColumnIndex[columns.length];
+    } else if (columnIndexes.length < columns.length) {
+      columnIndexes = (ColumnIndex[]) PApplet.expand(columnIndexes, columns.length);
+    }
+    if (columnIndexes[column] == null) {
+      columnIndexes[column] = new ColumnIndex();
     }
-    return -1;
   }
 
 
   /**
-   * Return the row that contains the first String that matches.
-   * @param what the String to match
-   * @param columnName title of the column to search
+   * @param columnName title of the column to index
    */
-  public int matchRowIndex(String what, String columnName) {
-    return matchRowIndex(what, getColumnIndex(columnName));
+  public void createIndex(String columnName) {
+    createIndex(getColumnIndex(columnName));
   }
 
 
-  /**
-   * Return a list of rows that contain the String passed in. If there are no
-   * matches, a zero length array will be returned (not a null array).
-   * @param what the String to match
-   * @param column ID number of the column to search
-   */
-  public int[] matchRowIndices(String regexp, int column) {
-    int[] outgoing = new int[rowCount];
-    int count = 0;
-
-    checkColumn(column);
-    if (columnTypes[column] == STRING) {
-      String[] stringData = (String[]) columns[column];
-      for (int row = 0; row < rowCount; row++) {
-        if (stringData[row] != null &&
-            PApplet.match(stringData[row], regexp) != null) {
-          outgoing[count++] = row;
-        }
-      }
-    } else {  // less efficient, includes conversion as necessary
-      for (int row = 0; row < rowCount; row++) {
-        String str = getString(row, column);
-        if (str != null &&
-            PApplet.match(str, regexp) != null) {
-          outgoing[count++] = row;
-        }
-      }
+  public void removeIndex(int column) {
+    if (columnIndexes != null && column < columnIndexes.length) {
+      columnIndexes[column] = null;
     }
-    return PApplet.subset(outgoing, 0, count);
   }
 
 
-  /**
-   * Return a list of rows that match the regex passed in. If there are no
-   * matches, a zero length array will be returned (not a null array).
-   * @param what the String to match
-   * @param columnName title of the column to search
-   */
-  public int[] matchRowIndices(String what, String columnName) {
-    return matchRowIndices(what, getColumnIndex(columnName));
+  public void removeIndex(String columnName) {
+    removeIndex(getColumnIndex(columnName));
   }
 
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
-
-  /**
-   * @webref table:method
-   * @brief Finds a row that matches the given expression
-   * @param regexp the regular expression to match
-   * @param column ID number of the column to search
-   * @see Table#getRow(int)
-   * @see Table#rows()
-   * @see Table#findRow(String, int)
-   * @see Table#findRows(String, int)
-   * @see Table#matchRows(String, int)
-   */
-  public TableRow matchRow(String regexp, int column) {
-    int row = matchRowIndex(regexp, column);
-    return (row == -1) ? null : new RowPointer(this, row);
+  public boolean hasIndex(int column) {
+    return indexFor(column) != null;
   }
 
 
-  /**
-   * @param columnName title of the column to search
-   */
-  public TableRow matchRow(String regexp, String columnName) {
-    return matchRow(regexp, getColumnIndex(columnName));
+  public boolean hasIndex(String columnName) {
+    return hasIndex(getColumnIndex(columnName));
   }
 
 
-  /**
-   * @webref table:method
-   * @brief Finds multiple rows that match the given expression
-   * @param regexp the regular expression to match
-   * @param column ID number of the column to search
-   * @see Table#getRow(int)
-   * @see Table#rows()
-   * @see Table#findRow(String, int)
-   * @see Table#findRows(String, int)
-   * @see Table#matchRow(String, int)
-   */
-  public Iterable<TableRow> matchRows(final String regexp, final int column) {
-    return new Iterable<TableRow>() {
-      public Iterator<TableRow> iterator() {
-        return matchRowIterator(regexp, column);
-      }
-    };
+  /** Returns the index for this column, or null if it doesn't have one. */
+  protected ColumnIndex indexFor(int column) {
+    if (columnIndexes != null && column < columnIndexes.length) {
+      return columnIndexes[column];
+    }
+    return null;
   }
 
 
   /**
-   * @param columnName title of the column to search
+   * What the index files an entry under: the same as getString(), except
+   * for CATEGORY columns, which use the category code. That way a code with
+   * nothing in the dictionary yet (such as the 0 in a row that was just
+   * added) can be filed without throwing, and is found under its value once
+   * the dictionary has one.
    */
-  public Iterable<TableRow> matchRows(String regexp, String columnName) {
-    return matchRows(regexp, getColumnIndex(columnName));
+  protected String indexKey(int row, int column) {
+    if (columnTypes[column] == CATEGORY) {
+      return String.valueOf(((int[]) columns[column])[row]);
+    }
+    return getString(row, column);
   }
 
 
-  /**
-   * @webref table:method
-   * @brief Finds multiple rows that match the given expression
-   * @param value the regular expression to match
-   * @param column ID number of the column to search
-   */
-  public Iterator<TableRow> matchRowIterator(String value, int column) {
-    return new RowIndexIterator(this, matchRowIndices(value, column));
+  /** The value for a key made by indexKey(), or null if it has none. */
+  protected String indexValue(String key, int column) {
+    if (columnTypes[column] == CATEGORY) {
+      int cat = Integer.parseInt(key);
+      if (cat == missingCategory) {
+        return missingString;
+      }
+      HashMapBlows categories = columnCategories[column];
+      return (cat >= 0 && cat < categories.size()) ? categories.key(cat) : null;
+    }
+    return key;
   }
 
 
   /**
-   * @param columnName title of the column to search
+   * Rows with this value in the index for a column, or null if none. For a
+   * CATEGORY column, that's the rows with its code, plus the missing ones
+   * if value is also the missing String, same as comparing getString().
    */
-  public Iterator<TableRow> matchRowIterator(String value, String columnName) {
-    return matchRowIterator(value, getColumnIndex(columnName));
+  protected RowSet indexRows(ColumnIndex index, String value, int column) {
+    if (columnTypes[column] != CATEGORY) {
+      return index.get(value);
+    }
+    RowSet found = null;
+    Integer cat = columnCategories[column].dataToIndex.get(value);
+    if (cat != null) {
+      found = index.get(String.valueOf(cat));
+    }
+    boolean missing =
+      (value == null) ? (missingString == null) : value.equals(missingString);
+    if (missing && (cat == null || cat != missingCategory)) {
+      found = RowSet.union(found, index.get(String.valueOf(missingCategory)));
+    }
+    return found;
   }
 
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+  /** Returns the index for this column, rebuilt if necessary, or null. */
+  protected ColumnIndex updatedIndex(int column) {
+    ColumnIndex index = indexFor(column);
+    if (index != null && index.dirty) {
+      index.rebuild(this, column);
+    }
+    return index;
+  }
 
 
-  /**
-   * Replace a String with another. Set empty entries null by using
-   * replace("", null) or use replace(null, "") to go the other direction.
-   * If this is a typed table, only String columns will be modified.
-   * @param orig
-   * @param replacement
-   */
-  public void replace(String orig, String replacement) {
-    for (int col = 0; col < columns.length; col++) {
-      replace(orig, replacement, col);
+  /** Mark the index for this column (if any) as needing to be rebuilt. */
+  protected void invalidateIndex(int column) {
+    ColumnIndex index = indexFor(column);
+    if (index != null) {
+      index.invalidate();
     }
   }
 
 
-  public void replace(String orig, String replacement, int col) {
-    if (columnTypes[col] == STRING) {
-      String[] stringData = (String[]) columns[col];
-      for (int row = 0; row < rowCount; row++) {
-        if (stringData[row].equals(orig)) {
-          stringData[row] = replacement;
+  /** Mark all indexes as needing to be rebuilt. */
+  protected void invalidateIndexes() {
+    if (columnIndexes != null) {
+      for (ColumnIndex index : columnIndexes) {
+        if (index != null) {
+          index.invalidate();
         }
       }
     }
   }
 
 
-  public void replace(String orig, String replacement, String colName) {
-    replace(orig, replacement, getColumnIndex(colName));
+  /**
+   * Lookup for a single column, created by createIndex(). The hash part maps
+   * each value (as a String, which is how findRowIndex() compares them) to
+   * the rows that contain it. The sorted part orders the rows by their
+   * numeric value for range queries, and is only rebuilt when it's needed
+   * after the column has changed. Single entries are updated in place, while
+   * bigger changes (sorting, inserting rows, changing the column type) just
+   * mark the index as dirty so it's rebuilt the next time it's used.
+   */
+  static class ColumnIndex {
+    HashMap<String, RowSet> lookup = new HashMap<String, RowSet>();
+    boolean dirty = true;
+
+    int[] sortedRows;
+    double[] sortedValues;
+    boolean sortedDirty = true;
+
+    void invalidate() {
+      dirty = true;
+      sortedDirty = true;
+    }
+
+    void rebuild(Table table, int column) {
+      lookup.clear();
+      for (int row = 0; row < table.rowCount; row++) {
+        add(row, table.indexKey(row, column));
+      }
+      dirty = false;
+    }
+
+    void add(int row, String value) {
+      RowSet set = lookup.get(value);
+      if (set == null) {
+        set = new RowSet();
+        lookup.put(value, set);
+      }
+      set.add(row);
+    }
+
+    void remove(int row, String value) {
+      RowSet set = lookup.get(value);
+      if (set != null) {
+        set.remove(row);
+        if (set.count == 0) {
+          lookup.remove(value);
+        }
+      }
+    }
+
+    /** A single entry has changed from one value to another. */
+    void set(int row, String before, String after) {
+      if (!dirty && (before == null ? after != null : !before.equals(after))) {
+        remove(row, before);
+        add(row, after);
+      }
+      sortedDirty = true;
+    }
+
+    /** A row has been removed, so everything after it moves up. */
+    void removeRow(int row, String value) {
+      if (!dirty) {
+        remove(row, value);
+        for (RowSet set : lookup.values()) {
+          set.shift(row, -1);
+        }
+      }
+      sortedDirty = true;
+    }
+
+    /** Remove any rows at or beyond count. */
+    void truncate(int count) {
+      if (!dirty) {
+        Iterator<RowSet> it = lookup.values().iterator();
+        while (it.hasNext()) {
+          RowSet set = it.next();
+          set.truncate(count);
+          if (set.count == 0) {
+            it.remove();
+          }
+        }
+      }
+      sortedDirty = true;
+    }
+
+    /** Rows containing value, in ascending order, or null if none. */
+    RowSet get(String value) {
+      return lookup.get(value);
+    }
+
+    void sortValues(Table table, int column) {
+      int count = 0;
+      int[] rows = new int[table.rowCount];
+      double[] values = new double[table.rowCount];
+      for (int row = 0; row < table.rowCount; row++) {
+        double value = table.getDouble(row, column);
+        if (!Double.isNaN(value)) {  // missing or not a number
+          rows[count] = row;
+          values[count] = value;
+          count++;
+        }
+      }
+      // stable, so rows with the same value stay in ascending order
+      int[] order = Sort.identity(count);
+      Sort.sortOrder(order, count, values, false, false);
+      sortedRows = new int[count];
+      sortedValues = new double[count];
+      for (int i = 0; i < count; i++) {
+        sortedRows[i] = rows[order[i]];
+        sortedValues[i] = values[order[i]];
+      }
+      sortedDirty = false;
+    }
+
+    /** Rows with values from low to high (inclusive), in ascending order. */
+    int[] range(Table table, int column, double low, double high) {
+      if (sortedDirty) {
+        sortValues(table, column);
+      }
+      int start = lowerBound(low, false);
+      int stop = lowerBound(high, true);
+      if (stop <= start) {
+        return new int[0];
+      }
+      int[] outgoing = PApplet.subset(sortedRows, start, stop - start);
+      Arrays.sort(outgoing);
+      return outgoing;
+    }
+
+    /** First position with a value >= target (or > target if after). */
+    private int lowerBound(double target, boolean after) {
+      int lo = 0;
+      int hi = sortedValues.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        double v = sortedValues[mid];
+        if (v < target || (after && v == target)) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
   }
 
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+  /** Sorted list of row numbers, used by ColumnIndex. */
+  static class RowSet {
+    int[] rows = new int[1];
+    int count;
 
+    void add(int row) {
+      if (count == rows.length) {
+        rows = PApplet.expand(rows);
+      }
+      if (count == 0 || rows[count-1] < row) {
+        rows[count++] = row;  // usual case, rows are added in order
+      } else {
+        int pos = Arrays.binarySearch(rows, 0, count, row);
+        if (pos < 0) {
+          pos = -(pos + 1);
+          System.arraycopy(rows, pos, rows, pos + 1, count - pos);
+          rows[pos] = row;
+          count++;
+        }
+      }
+    }
 
-  public void replaceAll(String orig, String replacement) {
-    for (int col = 0; col < columns.length; col++) {
-      replaceAll(orig, replacement, col);
+    /** Rows in either set, either of which may be null. */
+    static RowSet union(RowSet a, RowSet b) {
+      if (a == null || a.count == 0) return b;
+      if (b == null || b.count == 0) return a;
+      RowSet outgoing = new RowSet();
+      outgoing.rows = new int[a.count + b.count];
+      int i = 0, j = 0;
+      while (i < a.count || j < b.count) {
+        if (j == b.count || (i < a.count && a.rows[i] < b.rows[j])) {
+          outgoing.rows[outgoing.count++] = a.rows[i++];
+        } else if (i == a.count || b.rows[j] < a.rows[i]) {
+          outgoing.rows[outgoing.count++] = b.rows[j++];
+        } else {  // in both
+          outgoing.rows[outgoing.count++] = a.rows[i++];
+          j++;
+        }
+      }
+      return outgoing;
+    }
+
+    void remove(int row) {
+      int pos = Arrays.binarySearch(rows, 0, count, row);
+      if (pos >= 0) {
+        System.arraycopy(rows, pos + 1, rows, pos, count - pos - 1);
+        count--;
+      }
+    }
+
+    /** Add amount to each row after the specified row. */
+    void shift(int after, int amount) {
+      for (int i = count - 1; i >= 0 && rows[i] > after; --i) {
+        rows[i] += amount;
+      }
+    }
+
+    void truncate(int rowCount) {
+      while (count > 0 && rows[count-1] >= rowCount) {
+        count--;
+      }
+    }
+
+    int[] toArray() {
+      return PApplet.subset(rows, 0, count);
     }
   }
 
 
-  public void replaceAll(String regex, String replacement, int column) {
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Return a list of rows where the value in this column is between low and
+   * high (inclusive), in the order they appear in the table. Values that are
+   * missing or aren't numbers never match. Uses the index for this column if
+   * there is one (see createIndex), otherwise searches the entire column.
+   * @param low smallest value to match
+   * @param high largest value to match
+   * @param column ID number of the column to search
+   */
+  public int[] findRowIndicesInRange(double low, double high, int column) {
     checkColumn(column);
-    if (columnTypes[column] == STRING) {
-      String[] stringData = (String[]) columns[column];
-      for (int row = 0; row < rowCount; row++) {
-        if (stringData[row] != null) {
-          stringData[row] = stringData[row].replaceAll(regex, replacement);
-        }
+    ColumnIndex index = indexFor(column);
+    if (index != null) {
+      return index.range(this, column, low, high);
+    }
+    int[] outgoing = new int[rowCount];
+    int count = 0;
+    for (int row = 0; row < rowCount; row++) {
+      double value = getDouble(row, column);
+      if (value >= low && value <= high) {
+        outgoing[count++] = row;
       }
-    } else {
-      throw new IllegalArgumentException("replaceAll() can only be used on String columns");
     }
+    return PApplet.subset(outgoing, 0, count);
   }
 
 
   /**
-   * Run String.replaceAll() on all entries in a column.
-   * Only works with columns that are already String values.
-   * @param what the String to match
    * @param columnName title of the column to search
    */
-  public void replaceAll(String regex, String replacement, String columnName) {
-    replaceAll(regex, replacement, getColumnIndex(columnName));
+  public int[] findRowIndicesInRange(double low, double high, String columnName) {
+    return findRowIndicesInRange(low, high, getColumnIndex(columnName));
   }
 
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+  /**
+   * Finds the rows where the value in this column is between low and high
+   * (inclusive).
+   * @param low smallest value to match
+   * @param high largest value to match
+   * @param column ID number of the column to search
+   */
+  public Iterable<TableRow> findRowsInRange(final double low, final double high,
+                                            final int column) {
+    return new Iterable<TableRow>() {
+      public Iterator<TableRow> iterator() {
+        return new RowIndexIterator(Table.this, findRowIndicesInRange(low, high, column));
+      }
+    };
+  }
 
 
   /**
-   * Remove any of the specified characters from the entire table.
-   *
-   * @webref table:method
-   * @brief Removes characters from the table
-   * @param tokens a list of individual characters to be removed
-   * @see Table#trim()
+   * @param columnName title of the column to search
    */
-  public void removeTokens(String tokens) {
-    for (int col = 0; col < getColumnCount(); col++) {
-      removeTokens(tokens, col);
-    }
+  public Iterable<TableRow> findRowsInRange(double low, double high,
+                                            String columnName) {
+    return findRowsInRange(low, high, getColumnIndex(columnName));
   }
 
 
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
   /**
-   * Removed any of the specified characters from a column. For instance,
-   * the following code removes dollar signs and commas from column 2:
-   * <pre>
-   * table.removeTokens(",$", 2);
-   * </pre>
-   *
-   * @param column ID number of the column to process
+   * Return the row that contains the first String that matches.
+   * @param regexp the String to match
+   * @param column ID number of the column to search
    */
-  public void removeTokens(String tokens, int column) {
-    for (int row = 0; row < rowCount; row++) {
-      String s = getString(row, column);
-      if (s != null) {
-        char[] c = s.toCharArray();
-        int index = 0;
-        for (int j = 0; j < c.length; j++) {
-          if (tokens.indexOf(c[j]) == -1) {
-            if (index != j) {
-              c[index] = c[j];
-            }
-            index++;
+  public int matchRowIndex(String regexp, int column) {
+    checkColumn(column);
+    ColumnIndex index = updatedIndex(column);
+    if (index != null) {
+      // check each distinct value once, rather than every row
+      int first = -1;
+      for (Map.Entry<String, RowSet> entry : index.lookup.entrySet()) {
+        String value = indexValue(entry.getKey(), column);
+        if (value != null && PApplet.match(value, regexp) != null) {
+          int row = entry.getValue().rows[0];
+          if (first == -1 || row < first) {
+            first = row;
           }
         }
-        if (index != c.length) {
-          setString(row, column, new String(c, 0, index));
+      }
+      return first;
+    }
+    if (columnTypes[column] == STRING) {
+      String[] stringData = (String[]) columns[column];
+      for (int row = 0; row < rowCount; row++) {
+        if (stringData[row] != null &&
+            PApplet.match(stringData[row], regexp) != null) {
+          return row;
+        }
+      }
+    } else {  // less efficient, includes conversion as necessary
+      for (int row = 0; row < rowCount; row++) {
+        String str = getString(row, column);
+        if (str != null &&
+            PApplet.match(str, regexp) != null) {
+          return row;
         }
       }
     }
+    return -1;
   }
 
+
   /**
-   * @param columnName title of the column to process
+   * Return the row that contains the first String that matches.
+   * @param what the String to match
+   * @param columnName title of the column to search
    */
-  public void removeTokens(String tokens, String columnName) {
-    removeTokens(tokens, getColumnIndex(columnName));
+  public int matchRowIndex(String what, String columnName) {
+    return matchRowIndex(what, getColumnIndex(columnName));
   }
 
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
-
   /**
-   * @webref table:method
-   * @brief Trims whitespace from values
-   * @see Table#removeTokens(String)
+   * Return a list of rows that contain the String passed in. If there are no
+   * matches, a zero length array will be returned (not a null array).
+   * @param what the String to match
+   * @param column ID number of the column to search
    */
-  public void trim() {
-    for (int col = 0; col < getColumnCount(); col++) {
-      trim(col);
-    }
-  }
+  public int[] matchRowIndices(String regexp, int column) {
+    int[] outgoing = new int[rowCount];
+    int count = 0;
 
-  /**
-   * @param column ID number of the column to trim
-   */
-  public void trim(int column) {
+    checkColumn(column);
+    ColumnIndex index = updatedIndex(column);
+    if (index != null) {
+      for (Map.Entry<String, RowSet> entry : index.lookup.entrySet()) {
+        String value = indexValue(entry.getKey(), column);
+        if (value != null && PApplet.match(value, regexp) != null) {
+          RowSet found = entry.getValue();
+          System.arraycopy(found.rows, 0, outgoing, count, found.count);
+          count += found.count;
+        }
+      }
+      outgoing = PApplet.subset(outgoing, 0, count);
+      Arrays.sort(outgoing);
+      return outgoing;
+    }
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
       for (int row = 0; row < rowCount; row++) {
-        if (stringData[row] != null) {
-          stringData[row] = PApplet.trim(stringData[row]);
+        if (stringData[row] != null &&
+            PApplet.match(stringData[row], regexp) != null) {
+          outgoing[count++] = row;
+        }
+      }
+    } else {  // less efficient, includes conversion as necessary
+      for (int row = 0; row < rowCount; row++) {
+        String str = getString(row, column);
+        if (str != null &&
+            PApplet.match(str, regexp) != null) {
+          outgoing[count++] = row;
         }
       }
     }
+    return PApplet.subset(outgoing, 0, count);
   }
 
+
   /**
-   * @param columnName title of the column to trim
+   * Return a list of rows that match the regex passed in. If there are no
+   * matches, a zero length array will be returned (not a null array).
+   * @param what the String to match
+   * @param columnName title of the column to search
    */
-  public void trim(String columnName) {
-    trim(getColumnIndex(columnName));
+  public int[] matchRowIndices(String what, String columnName) {
+    return matchRowIndices(what, getColumnIndex(columnName));
   }
 
 
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
-
-  /** Make sure this is a legit column, and if not, expand the table. */
-  protected void ensureColumn(int col) {
-    if (col >= columns.length) {
-      setColumnCount(col + 1);
-    }
-  }
-
-
-  /** Make sure this is a legit row, and if not, expand the table. */
-  protected void ensureRow(int row) {
-    if (row >= rowCount) {
-      setRowCount(row + 1);
-    }
+  /**
+   * @webref table:method
+   * @brief Finds a row that matches the given expression
+   * @param regexp the regular expression to match
+   * @param column ID number of the column to search
+   * @see Table#getRow(int)
+   * @see Table#rows()
+   * @see Table#findRow(String, int)
+   * @see Table#findRows(String, int)
+   * @see Table#matchRows(String, int)
+   */
+  public TableRow matchRow(String regexp, int column) {
+    int row = matchRowIndex(regexp, column);
+    return (row == -1) ? null : new RowPointer(this, row);
   }
 
 
-  /** Make sure this is a legit row and column. If not, expand the table. */
-  protected void ensureBounds(int row, int col) {
-    ensureRow(row);
-    ensureColumn(col);
+  /**
+   * @param columnName title of the column to search
+   */
+  public TableRow matchRow(String regexp, String columnName) {
+    return matchRow(regexp, getColumnIndex(columnName));
   }
 
 
-  /** Throw an error if this row doesn't exist. */
+  /**
+   * @webref table:method
+   * @brief Finds multiple rows that match the given expression
+   * @param regexp the regular expression to match
+   * @param column ID number of the column to search
+   * @see Table#getRow(int)
+   * @see Table#rows()
+   * @see Table#findRow(String, int)
+   * @see Table#findRows(String, int)
+   * @see Table#matchRow(String, int)
+   */
+  public Iterable<TableRow> matchRows(final String regexp, final int column) {
+    return new Iterable<TableRow>() {
+      public Iterator<TableRow> iterator() {
+        return matchRowIterator(regexp, column);
+      }
+    };
+  }
+
+
+  /**
+   * @param columnName title of the column to search
+   */
+  public Iterable<TableRow> matchRows(String regexp, String columnName) {
+    return matchRows(regexp, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * @webref table:method
+   * @brief Finds multiple rows that match the given expression
+   * @param value the regular expression to match
+   * @param column ID number of the column to search
+   */
+  public Iterator<TableRow> matchRowIterator(String value, int column) {
+    return new RowIndexIterator(this, matchRowIndices(value, column));
+  }
+
+
+  /**
+   * @param columnName title of the column to search
+   */
+  public Iterator<TableRow> matchRowIterator(String value, String columnName) {
+    return matchRowIterator(value, getColumnIndex(columnName));
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Replace a String with another. Set empty entries null by using
+   * replace("", null) or use replace(null, "") to go the other direction.
+   * If this is a typed table, only String columns will be modified.
+   * @param orig
+   * @param replacement
+   */
+  public void replace(String orig, String replacement) {
+    for (int col = 0; col < columns.length; col++) {
+      replace(orig, replacement, col);
+    }
+  }
+
+
+  public void replace(String orig, String replacement, int col) {
+    if (columnTypes[col] == STRING) {
+      invalidateIndex(col);
+      String[] stringData = (String[]) columns[col];
+      for (int row = 0; row < rowCount; row++) {
+        if (stringData[row].equals(orig)) {
+          stringData[row] = replacement;
+        }
+      }
+    }
+  }
+
+
+  public void replace(String orig, String replacement, String colName) {
+    replace(orig, replacement, getColumnIndex(colName));
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public void replaceAll(String orig, String replacement) {
+    for (int col = 0; col < columns.length; col++) {
+      replaceAll(orig, replacement, col);
+    }
+  }
+
+
+  public void replaceAll(String regex, String replacement, int column) {
+    checkColumn(column);
+    if (columnTypes[column] == STRING) {
+      invalidateIndex(column);
+      String[] stringData = (String[]) columns[column];
+      for (int row = 0; row < rowCount; row++) {
+        if (stringData[row] != null) {
+          stringData[row] = stringData[row].replaceAll(regex, replacement);
+        }
+      }
+    } else {
+      throw new IllegalArgumentException("replaceAll() can only be used on String columns");
+    }
+  }
+
+
+  /**
+   * Run String.replaceAll() on all entries in a column.
+   * Only works with columns that are already String values.
+   * @param what the String to match
+   * @param columnName title of the column to search
+   */
+  public void replaceAll(String regex, String replacement, String columnName) {
+    replaceAll(regex, replacement, getColumnIndex(columnName));
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Remove any of the specified characters from the entire table.
+   *
+   * @webref table:method
+   * @brief Removes characters from the table
+   * @param tokens a list of individual characters to be removed
+   * @see Table#trim()
+   */
+  public void removeTokens(String tokens) {
+    for (int col = 0; col < getColumnCount(); col++) {
+      removeTokens(tokens, col);
+    }
+  }
+
+
+  /**
+   * Removed any of the specified characters from a column. For instance,
+   * the following code removes dollar signs and commas from column 2:
+   * <pre>
+   * table.removeTokens(",$", 2);
+   * </pre>
+   *
+   * @param column ID number of the column to process
+   */
+  public void removeTokens(String tokens, int column) {
+    for (int row = 0; row < rowCount; row++) {
+      String s = getString(row, column);
+      if (s != null) {
+        char[] c = s.toCharArray();
+        int index = 0;
+        for (int j = 0; j < c.length; j++) {
+          if (tokens.indexOf(c[j]) == -1) {
+            if (index != j) {
+              c[index] = c[j];
+            }
+            index++;
+          }
+        }
+        if (index != c.length) {
+          setString(row, column, new String(c, 0, index));
+        }
+      }
+    }
+  }
+
+  /**
+   * @param columnName title of the column to process
+   */
+  public void removeTokens(String tokens, String columnName) {
+    removeTokens(tokens, getColumnIndex(columnName));
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  /**
+   * @webref table:method
+   * @brief Trims whitespace from values
+   * @see Table#removeTokens(String)
+   */
+  public void trim() {
+    for (int col = 0; col < getColumnCount(); col++) {
+      trim(col);
+    }
+  }
+
+  /**
+   * @param column ID number of the column to trim
+   */
+  public void trim(int column) {
+    if (columnTypes[column] == STRING) {
+      invalidateIndex(column);
+      String[] stringData = (String[]) columns[column];
+      for (int row = 0; row < rowCount; row++) {
+        if (stringData[row] != null) {
+          stringData[row] = PApplet.trim(stringData[row]);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param columnName title of the column to trim
+   */
+  public void trim(String columnName) {
+    trim(getColumnIndex(columnName));
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Make sure this is a legit column, and if not, expand the table. */
+  protected void ensureColumn(int col) {
+    if (col >= columns.length) {
+      setColumnCount(col + 1);
+    }
+  }
+
+
+  /** Make sure this is a legit row, and if not, expand the table. */
+  protected void ensureRow(int row) {
+    if (row >= rowCount) {
+      setRowCount(row + 1);
+    }
+  }
+
+
+  /** Make sure this is a legit row and column. If not, expand the table. */
+  protected void ensureBounds(int row, int col) {
+    ensureRow(row);
+    ensureColumn(col);
+  }
+
+
+  /** Throw an error if this row doesn't exist. */
   protected void checkRow(int row) {
     if (row < 0 || row >= rowCount) {
       throw new ArrayIndexOutOfBoundsException("Row " + row + " does not exist.");
@@ -3654,97 +5241,180 @@ public class Table {
   }
 
 
-  protected void sort(final int column, final boolean reverse) {
-    final int[] order = IntList.fromRange(getRowCount()).array();
-    Sort s = new Sort() {
-
-      @Override
-      public int size() {
-        return getRowCount();
-      }
+  /**
+   * Sort on several columns at once. Rows are ordered by the first column,
+   * then rows with the same value there are ordered by the second column,
+   * and so on.
+   * <pre>
+   * // highest score first, and alphabetical by name for ties
+   * table.sort(new String[] { "score", "name" }, new boolean[] { true, false });
+   * </pre>
+   * @param columnNames titles of the columns to sort on, most important first
+   * @param reverse true for each column that should be sorted from highest
+   *                to lowest, or null to sort them all from lowest to highest
+   */
+  public void sort(String[] columnNames, boolean[] reverse) {
+    sort(getColumnIndices(columnNames), reverse, false);
+  }
 
-      @Override
-      public float compare(int index1, int index2) {
-        int a = reverse ? order[index2] : order[index1];
-        int b = reverse ? order[index1] : order[index2];
 
-        switch (getColumnType(column)) {
-        case INT:
-          return getInt(a, column) - getInt(b, column);
-        case LONG:
-          return getLong(a, column) - getLong(b, column);
-        case FLOAT:
-          return getFloat(a, column) - getFloat(b, column);
-        case DOUBLE:
-          return (float) (getDouble(a, column) - getDouble(b, column));
-        case STRING:
-          return getString(a, column).compareToIgnoreCase(getString(b, column));
-        case CATEGORY:
-          return getInt(a, column) - getInt(b, column);
-        default:
-          throw new IllegalArgumentException("Invalid column type: " + getColumnType(column));
-        }
-      }
+  /**
+   * @param columns ID numbers of the columns to sort on, most important first
+   */
+  public void sort(int[] columns, boolean[] reverse) {
+    sort(columns, reverse, false);
+  }
 
-      @Override
-      public void swap(int a, int b) {
-        int temp = order[a];
-        order[a] = order[b];
-        order[b] = temp;
-      }
 
-    };
-    s.run();
+  /**
+   * Same as sort(), but large tables are sorted using several cores.
+   * Tables with fewer rows than that are worth splitting up are just sorted
+   * normally. Don't modify the table from another thread while it's sorting.
+   */
+  public void parallelSort(String[] columnNames, boolean[] reverse) {
+    sort(getColumnIndices(columnNames), reverse, true);
+  }
 
-    //Object[] newColumns = new Object[getColumnCount()];
-    for (int col = 0; col < getColumnCount(); col++) {
-      switch (getColumnType(col)) {
-      case INT:
-      case CATEGORY:
-        int[] oldInt = (int[]) columns[col];
-        int[] newInt = new int[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newInt[row] = oldInt[order[row]];
-        }
-        columns[col] = newInt;
-        break;
-      case LONG:
-        long[] oldLong = (long[]) columns[col];
-        long[] newLong = new long[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newLong[row] = oldLong[order[row]];
-        }
-        columns[col] = newLong;
-        break;
-      case FLOAT:
-        float[] oldFloat = (float[]) columns[col];
-        float[] newFloat = new float[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newFloat[row] = oldFloat[order[row]];
-        }
-        columns[col] = newFloat;
-        break;
-      case DOUBLE:
-        double[] oldDouble = (double[]) columns[col];
-        double[] newDouble = new double[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newDouble[row] = oldDouble[order[row]];
-        }
-        columns[col] = newDouble;
-        break;
-      case STRING:
-        String[] oldString = (String[]) columns[col];
-        String[] newString = new String[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newString[row] = oldString[order[row]];
+
+  public void parallelSort(int[] columns, boolean[] reverse) {
+    sort(columns, reverse, true);
+  }
+
+
+  protected int[] getColumnIndices(String[] columnNames) {
+    int[] outgoing = new int[columnNames.length];
+    for (int i = 0; i < columnNames.length; i++) {
+      outgoing[i] = getColumnIndex(columnNames[i]);
+    }
+    return outgoing;
+  }
+
+
+  protected void sort(int column, boolean reverse) {
+    sort(new int[] { column }, new boolean[] { reverse }, false);
+  }
+
+
+  /**
+   * Stable sort, so rows that are the same in every column being sorted stay
+   * in the order they were in. Builds the new order of the rows once, using a
+   * radix sort for numbers and a merge sort for Strings (ignoring case), and
+   * then rearranges each column to match. Because each pass is stable, the
+   * columns are sorted from least to most important.
+   */
+  protected void sort(int[] columns, boolean[] reverse, boolean parallel) {
+    if (reverse != null && reverse.length != columns.length) {
+      throw new IllegalArgumentException("There are " + columns.length +
+                                         " columns but " + reverse.length +
+                                         " reverse settings");
+    }
+    for (int column : columns) {
+      checkColumn(column);
+    }
+    invalidateIndexes();
+    int[] order = Sort.identity(rowCount);
+    for (int i = columns.length - 1; i >= 0; --i) {
+      sortOrder(order, columns[i], reverse != null && reverse[i], parallel);
+    }
+    permuteRows(order, parallel);
+  }
+
+
+  /**
+   * Stable sort of the row numbers in order by the values in a column.
+   * Categories are ordered by their index, not the String they represent.
+   */
+  protected void sortOrder(int[] order, int column, boolean reverse,
+                           boolean parallel) {
+    switch (getColumnType(column)) {
+    case INT:
+    case CATEGORY:
+      Sort.sortOrder(order, rowCount, (int[]) columns[column], reverse, parallel);
+      break;
+    case LONG:
+      Sort.sortOrder(order, rowCount, (long[]) columns[column], reverse, parallel);
+      break;
+    case FLOAT:
+      Sort.sortOrder(order, rowCount, (float[]) columns[column], reverse, parallel);
+      break;
+    case DOUBLE:
+      Sort.sortOrder(order, rowCount, (double[]) columns[column], reverse, parallel);
+      break;
+    case STRING:
+      Sort.sortOrder(order, rowCount, (String[]) columns[column], true, reverse, parallel);
+      break;
+    default:
+      throw new IllegalArgumentException("Invalid column type: " + getColumnType(column));
+    }
+  }
+
+
+  /**
+   * Rearrange the rows so that the row that was at order[i] is now at i.
+   */
+  protected void permuteRows(final int[] order, boolean parallel) {
+    if (parallel && rowCount >= Sort.PARALLEL_THRESHOLD) {
+      // each column is independent, so each can be done on its own core
+      Sort.invoke(getColumnCount(), new Sort.Chunk() {
+        public void run(int col) {
+          permuteColumn(order, col);
         }
-        columns[col] = newString;
-        break;
+      });
+    } else {
+      for (int col = 0; col < getColumnCount(); col++) {
+        permuteColumn(order, col);
       }
     }
   }
 
 
+  protected void permuteColumn(int[] order, int col) {
+    switch (getColumnType(col)) {
+    case INT:
+    case CATEGORY:
+      int[] oldInt = (int[]) columns[col];
+      int[] newInt = new int[rowCount];
+      for (int row = 0; row < getRowCount(); row++) {
+        newInt[row] = oldInt[order[row]];
+      }
+      columns[col] = newInt;
+      break;
+    case LONG:
+      long[] oldLong = (long[]) columns[col];
+      long[] newLong = new long[rowCount];
+      for (int row = 0; row < getRowCount(); row++) {
+        newLong[row] = oldLong[order[row]];
+      }
+      columns[col] = newLong;
+      break;
+    case FLOAT:
+      float[] oldFloat = (float[]) columns[col];
+      float[] newFloat = new float[rowCount];
+      for (int row = 0; row < getRowCount(); row++) {
+        newFloat[row] = oldFloat[order[row]];
+      }
+      columns[col] = newFloat;
+      break;
+    case DOUBLE:
+      double[] oldDouble = (double[]) columns[col];
+      double[] newDouble = new double[rowCount];
+      for (int row = 0; row < getRowCount(); row++) {
+        newDouble[row] = oldDouble[order[row]];
+      }
+      columns[col] = newDouble;
+      break;
+    case STRING:
+      String[] oldString = (String[]) columns[col];
+      String[] newString = new String[rowCount];
+      for (int row = 0; row < getRowCount(); row++) {
+        newString[row] = oldString[order[row]];
+      }
+      columns[col] = newString;
+      break;
+    }
+  }
+
+
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
@@ -3784,6 +5454,543 @@ public class Table {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
+  /**
+   * Summarize the rows that have the same value in a column (or the same
+   * combination of values in several columns). Returns a new Table with one
+   * row for each group, in the order that each group first appears, and a
+   * column for each key, followed by a column for each aggregate:
+   * <ul>
+   * <li>"count" is the number of rows in the group
+   * <li>"sum(column)", "min(column)", "max(column)", and "mean(column)"
+   * <li>"variance(column)" is the sample variance, or NaN for groups with
+   * fewer than two values
+   * <li>"distinct(column)" is the number of different values in the column
+   * </ul>
+   * The aggregates are also used as the titles of their columns. Counts are
+   * int columns, sums of int or long columns are long, min and max are the
+   * same type as the column, and the rest are double. NaN values (missing
+   * entries in float and double columns) are skipped. Large tables are
+   * split up and summarized using several cores.
+   * <pre>
+   * Table byCountry = sales.groupBy("country", "count", "sum(amount)");
+   * </pre>
+   *
+   * @param keyColumn title of the column to group by
+   * @param aggregates what to calculate for each group
+   */
+  public Table groupBy(String keyColumn, String... aggregates) {
+    return groupBy(new int[] { getColumnIndex(keyColumn) }, aggregates);
+  }
+
+
+  /**
+   * @param keyColumns titles of the columns to group by
+   */
+  public Table groupBy(String[] keyColumns, String... aggregates) {
+    return groupBy(getColumnIndices(keyColumns), aggregates);
+  }
+
+
+  /**
+   * @param keyColumns ID numbers of the columns to group by
+   */
+  public Table groupBy(int[] keyColumns, String... aggregates) {
+    int[] function = new int[aggregates.length];
+    int[] source = new int[aggregates.length];
+    for (int i = 0; i < aggregates.length; i++) {
+      parseAggregate(aggregates[i], i, function, source);
+    }
+    for (int column : keyColumns) {
+      checkColumn(column);
+    }
+
+    // number the rows by group, one key column at a time
+    int[] groups = null;
+    int groupCount = 1;
+    for (int column : keyColumns) {
+      int[] next = new int[rowCount];
+      groupCount = groupRows(column, groups, next);
+      groups = next;
+    }
+    if (groups == null) {  // no key columns, so everything is one group
+      groups = new int[rowCount];
+      groupCount = (rowCount == 0) ? 0 : 1;
+    }
+
+    Table outgoing = new Table();
+    outgoing.setRowCount(groupCount);
+
+    // the first row of each group has its key values
+    int[] firstRow = new int[groupCount];
+    Arrays.fill(firstRow, -1);
+    int[] counts = new int[groupCount];
+    for (int row = 0; row < rowCount; row++) {
+      int group = groups[row];
+      if (firstRow[group] == -1) {
+        firstRow[group] = row;
+      }
+      counts[group]++;
+    }
+    for (int column : keyColumns) {
+      int type = getColumnType(column);
+      outgoing.addColumn(getColumnTitle(column), type);
+      int col = outgoing.getColumnCount() - 1;
+      for (int group = 0; group < groupCount; group++) {
+        int row = firstRow[group];
+        switch (type) {
+        case INT: outgoing.setInt(group, col, getInt(row, column)); break;
+        case LONG: outgoing.setLong(group, col, getLong(row, column)); break;
+        case FLOAT: outgoing.setFloat(group, col, getFloat(row, column)); break;
+        case DOUBLE: outgoing.setDouble(group, col, getDouble(row, column)); break;
+        case STRING: outgoing.setString(group, col, getString(row, column)); break;
+        case CATEGORY:
+          int cat = getInt(row, column);
+          ((int[]) outgoing.columns[col])[group] = (cat == missingCategory) ?
+            outgoing.missingCategory :
+            outgoing.columnCategories[col].index(columnCategories[column].key(cat));
+          break;
+        }
+      }
+    }
+
+    // one set of partial results for each column that's summarized
+    HashMap<Integer, Accumulator> accumulators = new HashMap<Integer, Accumulator>();
+    for (int i = 0; i < aggregates.length; i++) {
+      if (function[i] != AGG_COUNT && function[i] != AGG_DISTINCT &&
+          !accumulators.containsKey(source[i])) {
+        accumulators.put(source[i], accumulate(source[i], groups, groupCount));
+      }
+    }
+
+    for (int i = 0; i < aggregates.length; i++) {
+      String title = aggregates[i].trim();
+      int column = source[i];
+      Accumulator acc = accumulators.get(column);
+      switch (function[i]) {
+      case AGG_COUNT:
+        outgoing.addColumn(title, INT);
+        outgoing.columns[outgoing.getColumnCount() - 1] = counts.clone();
+        break;
+      case AGG_DISTINCT:
+        outgoing.addColumn(title, INT);
+        outgoing.columns[outgoing.getColumnCount() - 1] =
+          countDistinct(column, groups, groupCount);
+        break;
+      case AGG_SUM:
+        if (acc.integer) {
+          outgoing.addColumn(title, LONG);
+          outgoing.columns[outgoing.getColumnCount() - 1] = acc.longSum.clone();
+        } else {
+          outgoing.addColumn(title, DOUBLE);
+          outgoing.columns[outgoing.getColumnCount() - 1] = acc.sum.clone();
+        }
+        break;
+      case AGG_MIN:
+      case AGG_MAX:
+        boolean min = function[i] == AGG_MIN;
+        int type = getColumnType(column);
+        outgoing.addColumn(title, type);
+        int col = outgoing.getColumnCount() - 1;
+        for (int group = 0; group < groupCount; group++) {
+          switch (type) {
+          case INT: outgoing.setInt(group, col, (int) (min ? acc.longMin[group] : acc.longMax[group])); break;
+          case LONG: outgoing.setLong(group, col, min ? acc.longMin[group] : acc.longMax[group]); break;
+          case FLOAT: outgoing.setFloat(group, col, acc.count[group] == 0 ? missingFloat : (float) (min ? acc.min[group] : acc.max[group])); break;
+          case DOUBLE: outgoing.setDouble(group, col, acc.count[group] == 0 ? missingDouble : (min ? acc.min[group] : acc.max[group])); break;
+          }
+        }
+        break;
+      case AGG_MEAN:
+      case AGG_VARIANCE:
+        double[] values = new double[groupCount];
+        for (int group = 0; group < groupCount; group++) {
+          int n = acc.count[group];
+          if (function[i] == AGG_MEAN) {
+            values[group] = (n == 0) ? Double.NaN : acc.mean[group];
+          } else {
+            values[group] = (n < 2) ? Double.NaN : acc.m2[group] / (n - 1);
+          }
+        }
+        outgoing.addColumn(title, DOUBLE);
+        outgoing.columns[outgoing.getColumnCount() - 1] = values;
+        break;
+      }
+    }
+    return outgoing;
+  }
+
+
+  static final int AGG_COUNT = 0;
+  static final int AGG_SUM = 1;
+  static final int AGG_MIN = 2;
+  static final int AGG_MAX = 3;
+  static final int AGG_MEAN = 4;
+  static final int AGG_VARIANCE = 5;
+  static final int AGG_DISTINCT = 6;
+
+  static final String[] AGG_NAMES = {
+    "count", "sum", "min", "max", "mean", "variance", "distinct"
+  };
+
+
+  /** Split "sum(amount)" into its function and column. */
+  protected void parseAggregate(String aggregate, int index,
+                                int[] function, int[] source) {
+    String name = aggregate.trim();
+    String columnName = null;
+    int paren = name.indexOf('(');
+    if (paren != -1) {
+      if (!name.endsWith(")")) {
+        throw new IllegalArgumentException("Missing ) in " + aggregate);
+      }
+      columnName = name.substring(paren + 1, name.length() - 1).trim();
+      name = name.substring(0, paren).trim();
+    }
+    int found = -1;
+    for (int i = 0; i < AGG_NAMES.length; i++) {
+      if (AGG_NAMES[i].equals(name)) {
+        found = i;
+      }
+    }
+    if (found == -1) {
+      throw new IllegalArgumentException("'" + name + "' is not one of " +
+                                         PApplet.join(AGG_NAMES, ", "));
+    }
+    function[index] = found;
+    if (found == AGG_COUNT) {
+      if (columnName != null) {
+        throw new IllegalArgumentException("Use count, not " + aggregate);
+      }
+      source[index] = -1;
+      return;
+    }
+    if (columnName == null) {
+      throw new IllegalArgumentException("Use " + name + "(column) to say which column");
+    }
+    int column = getColumnIndex(columnName, false);
+    if (column == -1) {
+      // a number can be used for tables that don't have a header
+      column = PApplet.parseInt(columnName, -1);
+      if (column == -1) {
+        getColumnIndex(columnName);  // throws the exception with the details
+      }
+    }
+    checkColumn(column);
+    if (found != AGG_DISTINCT) {
+      int type = getColumnType(column);
+      if (type == STRING || type == CATEGORY) {
+        throw new IllegalArgumentException(aggregate + " needs a column of numbers");
+      }
+    }
+    source[index] = column;
+  }
+
+
+  /**
+   * Number each row by its value in this column (combined with its number
+   * from earlier key columns, if any), counting up from zero in the order
+   * the values first appear. Returns how many different numbers were used.
+   */
+  protected int groupRows(int column, int[] previous, int[] outgoing) {
+    int[] codes;
+    int type = getColumnType(column);
+    if (type == CATEGORY && previous == null) {
+      // category indices are already small numbers, so use them directly
+      // (with missing entries as a group of their own, in the last slot)
+      int[] indexData = (int[]) columns[column];
+      int[] lookup = new int[columnCategories[column].size() + 1];
+      Arrays.fill(lookup, -1);
+      int count = 0;
+      for (int row = 0; row < rowCount; row++) {
+        int index = indexData[row];
+        if (index == missingCategory) {
+          index = lookup.length - 1;
+        }
+        if (lookup[index] == -1) {
+          lookup[index] = count++;
+        }
+        outgoing[row] = lookup[index];
+      }
+      return count;
+    }
+
+    if (type == INT || type == CATEGORY) {
+      codes = (int[]) columns[column];
+    } else {
+      codes = valueCodes(column);
+    }
+    GroupMap map = new GroupMap();
+    for (int row = 0; row < rowCount; row++) {
+      long key = codes[row] & 0xFFFFFFFFL;
+      if (previous != null) {
+        key |= ((long) previous[row]) << 32;
+      }
+      outgoing[row] = map.id(key);
+    }
+    return map.count;
+  }
+
+
+  /**
+   * Give each different value in a column its own number, so that values
+   * of any type can be grouped and counted the same way.
+   */
+  protected int[] valueCodes(int column) {
+    int[] codes = new int[rowCount];
+    switch (getColumnType(column)) {
+    case INT:
+    case CATEGORY:
+      System.arraycopy(columns[column], 0, codes, 0, rowCount);
+      break;
+    case LONG: {
+      long[] longData = (long[]) columns[column];
+      GroupMap map = new GroupMap();
+      for (int row = 0; row < rowCount; row++) {
+        codes[row] = map.id(longData[row]);
+      }
+      break;
+    }
+    case FLOAT: {
+      float[] floatData = (float[]) columns[column];
+      GroupMap map = new GroupMap();
+      for (int row = 0; row < rowCount; row++) {
+        // adding zero turns -0 into 0, and floatToIntBits() makes NaN unique
+        codes[row] = map.id(Float.floatToIntBits(floatData[row] + 0f));
+      }
+      break;
+    }
+    case DOUBLE: {
+      double[] doubleData = (double[]) columns[column];
+      GroupMap map = new GroupMap();
+      for (int row = 0; row < rowCount; row++) {
+        codes[row] = map.id(Double.doubleToLongBits(doubleData[row] + 0d));
+      }
+      break;
+    }
+    case STRING: {
+      String[] stringData = (String[]) columns[column];
+      HashMap<String, Integer> map = new HashMap<String, Integer>();
+      for (int row = 0; row < rowCount; row++) {
+        Integer code = map.get(stringData[row]);
+        if (code == null) {
+          code = map.size();
+          map.put(stringData[row], code);
+        }
+        codes[row] = code;
+      }
+      break;
+    }
+    }
+    return codes;
+  }
+
+
+  protected int[] countDistinct(int column, int[] groups, int groupCount) {
+    int[] codes = valueCodes(column);
+    int[] outgoing = new int[groupCount];
+    GroupMap seen = new GroupMap();
+    for (int row = 0; row < rowCount; row++) {
+      int before = seen.count;
+      seen.id(((long) groups[row] << 32) | (codes[row] & 0xFFFFFFFFL));
+      if (seen.count != before) {  // first time for this value in this group
+        outgoing[groups[row]]++;
+      }
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Calculate the totals for each group in a column of numbers. Large tables
+   * are split into chunks that are each added up on their own core, and
+   * then combined.
+   */
+  protected Accumulator accumulate(final int column, final int[] groups,
+                                   final int groupCount) {
+    final int chunks = Sort.chunkCount(rowCount);
+    final int chunkSize = (rowCount + chunks - 1) / chunks;
+    final boolean integer =
+      getColumnType(column) == INT || getColumnType(column) == LONG;
+    final Accumulator[] partial = new Accumulator[chunks];
+    Sort.invoke(chunks, new Sort.Chunk() {
+      public void run(int chunk) {
+        Accumulator acc = new Accumulator(groupCount, integer);
+        int start = chunk * chunkSize;
+        int stop = Math.min(rowCount, start + chunkSize);
+        switch (getColumnType(column)) {
+        case INT:
+          int[] intData = (int[]) columns[column];
+          for (int row = start; row < stop; row++) {
+            acc.add(groups[row], intData[row]);
+          }
+          break;
+        case LONG:
+          long[] longData = (long[]) columns[column];
+          for (int row = start; row < stop; row++) {
+            acc.add(groups[row], longData[row]);
+          }
+          break;
+        case FLOAT:
+          float[] floatData = (float[]) columns[column];
+          for (int row = start; row < stop; row++) {
+            acc.add(groups[row], (double) floatData[row]);
+          }
+          break;
+        case DOUBLE:
+          double[] doubleData = (double[]) columns[column];
+          for (int row = start; row < stop; row++) {
+            acc.add(groups[row], doubleData[row]);
+          }
+          break;
+        }
+        partial[chunk] = acc;
+      }
+    });
+    for (int chunk = 1; chunk < chunks; chunk++) {
+      partial[0].merge(partial[chunk]);
+    }
+    return partial[0];
+  }
+
+
+  /**
+   * Running count, sum, min, max, mean, and variance for each group.
+   * The mean and variance use Welford's method so that they're accurate
+   * even when the values are large compared to their differences.
+   */
+  static class Accumulator {
+    boolean integer;
+    int[] count;
+    double[] mean;
+    double[] m2;  // sum of the squared differences from the mean
+
+    long[] longSum, longMin, longMax;  // int and long columns
+    double[] sum, min, max;  // float and double columns
+
+    Accumulator(int groupCount, boolean integer) {
+      this.integer = integer;
+      count = new int[groupCount];
+      mean = new double[groupCount];
+      m2 = new double[groupCount];
+      if (integer) {
+        longSum = new long[groupCount];
+        longMin = new long[groupCount];
+        longMax = new long[groupCount];
+        Arrays.fill(longMin, Long.MAX_VALUE);
+        Arrays.fill(longMax, Long.MIN_VALUE);
+      } else {
+        sum = new double[groupCount];
+        min = new double[groupCount];
+        max = new double[groupCount];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+      }
+    }
+
+    void add(int group, long value) {
+      longSum[group] += value;
+      if (value < longMin[group]) longMin[group] = value;
+      if (value > longMax[group]) longMax[group] = value;
+      addMoment(group, value);
+    }
+
+    void add(int group, double value) {
+      if (value == value) {  // skip NaN
+        sum[group] += value;
+        if (value < min[group]) min[group] = value;
+        if (value > max[group]) max[group] = value;
+        addMoment(group, value);
+      }
+    }
+
+    private void addMoment(int group, double value) {
+      int n = ++count[group];
+      double delta = value - mean[group];
+      mean[group] += delta / n;
+      m2[group] += delta * (value - mean[group]);
+    }
+
+    /** Add in the results from another chunk of rows. */
+    void merge(Accumulator other) {
+      for (int group = 0; group < count.length; group++) {
+        int nb = other.count[group];
+        if (nb != 0) {
+          int na = count[group];
+          int n = na + nb;
+          double delta = other.mean[group] - mean[group];
+          mean[group] += delta * nb / n;
+          m2[group] += other.m2[group] + delta * delta * ((double) na * nb / n);
+          count[group] = n;
+          if (integer) {
+            longSum[group] += other.longSum[group];
+            longMin[group] = Math.min(longMin[group], other.longMin[group]);
+            longMax[group] = Math.max(longMax[group], other.longMax[group]);
+          } else {
+            sum[group] += other.sum[group];
+            min[group] = Math.min(min[group], other.min[group]);
+            max[group] = Math.max(max[group], other.max[group]);
+          }
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Hash table (open addressing) from long keys to ids that count up from
+   * zero in the order the keys are added. Avoids boxing each key when
+   * grouping millions of rows.
+   */
+  static class GroupMap {
+    long[] keys = new long[16];
+    int[] ids = new int[16];  // id + 1, so that 0 means empty
+    int count;
+
+    int id(long key) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (ids[slot] != 0) {
+        if (keys[slot] == key) {
+          return ids[slot] - 1;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      ids[slot] = ++count;
+      if (count * 2 > keys.length) {
+        grow();
+      }
+      return count - 1;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      int[] oldIds = ids;
+      keys = new long[oldKeys.length << 1];
+      ids = new int[oldIds.length << 1];
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldIds[i] != 0) {
+          int slot = hash(oldKeys[i]) & mask;
+          while (ids[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          ids[slot] = oldIds[i];
+        }
+      }
+    }
+
+    static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
   public IntList getIntList(String columnName) {
     return new IntList(getIntColumn(columnName));
   }
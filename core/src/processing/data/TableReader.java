@@ -0,0 +1,392 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License version 2.1 as published by the Free Software Foundation.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package processing.data;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import processing.core.PApplet;
+
+
+/**
+ * Reads the rows of a CSV or TSV file one at a time, rather than loading
+ * the entire file into a Table. Memory use stays the same no matter how
+ * large the file is, which is useful for files that are only looked at
+ * once, for instance to count things or make a histogram.
+ * <pre>
+ * for (TableRow row : loadTableRows("huge.csv", "header")) {
+ *   histogram[row.getInt("age")]++;
+ * }
+ * </pre>
+ * The same TableRow object is used for every row, and its contents are
+ * replaced each time the next row is read, so copy out any values that are
+ * needed later. Numbers are read straight from the text without creating
+ * a String for each entry. Empty entries, and entries that aren't numbers,
+ * return the same missing values as an empty entry in a Table would. The
+ * rows can only be read once, and the file is closed after the last row.
+ *
+ * @nowebref
+ * @see processing.core.PApplet#loadTableRows(String, String)
+ */
+public class TableReader implements Iterable<TableRow>, Iterator<TableRow> {
+  Table.CellScanner scanner;
+  Table.NumberScanner number = new Table.NumberScanner();
+  Reader reader;
+
+  String[] columnTitles;
+  HashMap<String, Integer> columnIndices;
+
+  boolean fetched;
+  boolean available;
+  boolean started;
+  int rowIndex = -1;
+
+  Row row = new Row();
+
+  protected String missingString = null;
+  protected int missingInt = 0;
+  protected long missingLong = 0;
+  protected float missingFloat = Float.NaN;
+  protected double missingDouble = Double.NaN;
+
+
+  public TableReader(File file, String options) throws IOException {
+    this(PApplet.createInput(file),
+         Table.extensionOptions(true, file.getName(), options));
+  }
+
+
+  /**
+   * Takes the same options as loadTable(), with these differences:
+   * <ul>
+   * <li>"ods", "bin", and "tbl" aren't text, so they can't be read a row
+   * at a time, and throw an IllegalArgumentException.
+   * <li>"parallel" is ignored, since rows are read one after another.
+   * <li>"infer" and "infer=N" are ignored, since entries are converted
+   * when they're asked for, with getInt(), getFloat(), and so on.
+   * <li>"worksheet=" and "dictionary=" are ignored.
+   * </ul>
+   * "newlines" allows quoted CSV entries that go on over several lines,
+   * the same as for loadTable().
+   *
+   * @param options "header", plus "csv" or "tsv" (CSV is used if neither)
+   */
+  public TableReader(InputStream input, String options) throws IOException {
+    if (input == null) {
+      throw new IllegalArgumentException("The input stream for TableReader cannot be null");
+    }
+    boolean header = false;
+    boolean tsv = false;
+    boolean newlines = false;
+    if (options != null) {
+      for (String opt : PApplet.trim(PApplet.split(options, ','))) {
+        if (opt.equals("tsv")) {
+          tsv = true;
+        } else if (opt.equals("csv")) {
+          tsv = false;
+        } else if (opt.equals("header")) {
+          header = true;
+        } else if (opt.equals("newlines")) {
+          newlines = true;
+          tsv = false;
+        } else if (opt.equals("ods") || opt.equals("bin") || opt.equals("tbl")) {
+          throw new IllegalArgumentException("TableReader can only read csv and tsv files, not " + opt);
+        } else if (opt.equals("parallel") || opt.equals("infer") ||
+                   opt.startsWith("infer=") || opt.startsWith("worksheet=") ||
+                   opt.startsWith("dictionary=")) {
+          // nothing to do when reading one row at a time
+        } else {
+          throw new IllegalArgumentException("'" + opt + "' is not a valid option for TableReader");
+        }
+      }
+    }
+    reader = PApplet.createReader(input);
+    scanner = new Table.CellScanner(reader, tsv);
+    scanner.newlines = newlines;
+
+    if (header && scanner.next()) {
+      columnTitles = new String[scanner.cellCount];
+      columnIndices = new HashMap<String, Integer>();
+      for (int col = 0; col < columnTitles.length; col++) {
+        columnTitles[col] = scanner.getString(col);
+        columnIndices.put(columnTitles[col], col);
+      }
+    }
+  }
+
+
+  public String[] getColumnTitles() {
+    return columnTitles;
+  }
+
+
+  public int getColumnIndex(String columnName) {
+    Integer index = (columnIndices == null) ? null : columnIndices.get(columnName);
+    if (index == null) {
+      if (columnTitles == null) {
+        throw new IllegalArgumentException("This table has no header, so no column titles are set.");
+      }
+      throw new IllegalArgumentException("This table has no column named '" + columnName + "'");
+    }
+    return index;
+  }
+
+
+  /** Number of the row most recently read, starting from 0. */
+  public int getRowIndex() {
+    return rowIndex;
+  }
+
+
+  public void setMissingString(String value) {
+    missingString = value;
+  }
+
+
+  public void setMissingInt(int value) {
+    missingInt = value;
+  }
+
+
+  public void setMissingLong(long value) {
+    missingLong = value;
+  }
+
+
+  public void setMissingFloat(float value) {
+    missingFloat = value;
+  }
+
+
+  public void setMissingDouble(double value) {
+    missingDouble = value;
+  }
+
+
+  public void close() {
+    available = false;
+    fetched = true;
+    try {
+      reader.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public Iterator<TableRow> iterator() {
+    if (started) {
+      throw new IllegalStateException("The rows of a TableReader can only be read once");
+    }
+    started = true;
+    return this;
+  }
+
+
+  public boolean hasNext() {
+    if (!fetched) {
+      try {
+        available = scanner.next();
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading table on line " + (rowIndex + 2), e);
+      }
+      fetched = true;
+      if (!available) {
+        close();
+      }
+    }
+    return available;
+  }
+
+
+  public TableRow next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    fetched = false;
+    rowIndex++;
+    return row;
+  }
+
+
+  public void remove() {
+    throw new UnsupportedOperationException("remove() is not supported by TableReader");
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * View of the current line. Entries past the end of a short line are
+   * treated as missing.
+   */
+  class Row implements TableRow {
+
+    /**
+     * Scan the entry as a number, returns Table.INT or LONG for whole
+     * numbers, FLOAT or DOUBLE for decimals, or -1 if it's empty or not one.
+     */
+    private int scan(int column) {
+      if (column >= scanner.cellCount) {
+        return -1;
+      }
+      int kind = number.scan(scanner.line, scanner.cellStart[column],
+                             scanner.cellStop[column]);
+      return (kind == Table.STRING) ? -1 : kind;
+    }
+
+    public String getString(int column) {
+      if (column >= scanner.cellCount) {
+        return missingString;
+      }
+      return scanner.getString(column);
+    }
+
+    public String getString(String columnName) {
+      return getString(getColumnIndex(columnName));
+    }
+
+    public int getInt(int column) {
+      int kind = scan(column);
+      if (kind == -1) {
+        return missingInt;
+      }
+      if (kind == Table.INT) {
+        return (int) number.getLong();
+      }
+      // rare, so just do the same as Table does for a String column
+      return PApplet.parseInt(getString(column), missingInt);
+    }
+
+    public int getInt(String columnName) {
+      return getInt(getColumnIndex(columnName));
+    }
+
+    public long getLong(int column) {
+      int kind = scan(column);
+      if (kind == -1) {
+        return missingLong;
+      }
+      if (kind == Table.INT || kind == Table.LONG) {
+        return number.getLong();
+      }
+      return missingLong;  // not a whole number
+    }
+
+    public long getLong(String columnName) {
+      return getLong(getColumnIndex(columnName));
+    }
+
+    public float getFloat(int column) {
+      if (scan(column) == -1) {
+        return missingFloat;
+      }
+      return number.getFloat(scanner.line, scanner.cellStart[column],
+                             scanner.cellStop[column]);
+    }
+
+    public float getFloat(String columnName) {
+      return getFloat(getColumnIndex(columnName));
+    }
+
+    public double getDouble(int column) {
+      if (scan(column) == -1) {
+        return missingDouble;
+      }
+      return number.getDouble(scanner.line, scanner.cellStart[column],
+                              scanner.cellStop[column]);
+    }
+
+    public double getDouble(String columnName) {
+      return getDouble(getColumnIndex(columnName));
+    }
+
+    public void setString(int column, String value) {
+      readOnly();
+    }
+
+    public void setString(String columnName, String value) {
+      readOnly();
+    }
+
+    public void setInt(int column, int value) {
+      readOnly();
+    }
+
+    public void setInt(String columnName, int value) {
+      readOnly();
+    }
+
+    public void setLong(int column, long value) {
+      readOnly();
+    }
+
+    public void setLong(String columnName, long value) {
+      readOnly();
+    }
+
+    public void setFloat(int column, float value) {
+      readOnly();
+    }
+
+    public void setFloat(String columnName, float value) {
+      readOnly();
+    }
+
+    public void setDouble(int column, double value) {
+      readOnly();
+    }
+
+    public void setDouble(String columnName, double value) {
+      readOnly();
+    }
+
+    private void readOnly() {
+      throw new UnsupportedOperationException("Rows from a TableReader cannot be modified");
+    }
+
+    public int getColumnCount() {
+      if (columnTitles != null) {
+        return Math.max(columnTitles.length, scanner.cellCount);
+      }
+      return scanner.cellCount;
+    }
+
+    public int getColumnType(String columnName) {
+      return getColumnType(getColumnIndex(columnName));
+    }
+
+    /** Everything is text until it's read with getInt(), getFloat(), etc. */
+    public int getColumnType(int column) {
+      return Table.STRING;
+    }
+
+    public int[] getColumnTypes() {
+      return new int[getColumnCount()];  // all STRING
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2013 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import processing.core.PMatrix3D;
+import processing.core.Parallel;
+import processing.opengl.PGraphicsOpenGL.IndexCache;
+import processing.opengl.PGraphicsOpenGL.TessGeometry;
+import processing.opengl.PGraphicsOpenGL.TexCache;
+
+
+/**
+ * Sorts the tessellated triangles of a flush from back to front, for
+ * hint(ENABLE_DEPTH_SORT) and for recording with beginRaw(). The depth of
+ * a triangle is the squared distance from the eye to its center. The keys
+ * and the order are kept in plain int arrays that are reused from one
+ * flush to the next, and sorted with a stable radix sort, one byte at a
+ * time, that splits each pass across the worker pool when there are
+ * enough triangles. Triangles at the same depth keep the order they were
+ * drawn in.
+ * <P>
+ * After sort(), triangles[i] is where the i-th triangle (from the back)
+ * starts in the index array, divided by 3, and textures[i] and blocks[i]
+ * are the items of the texture and index caches it belongs to.
+ */
+class DepthSorter {
+  int count;
+  int[] triangles = new int[0];
+  int[] textures = new int[0];
+  int[] blocks = new int[0];
+
+  // Depth keys and the positions they belong to, and room for a pass
+  protected int[] keys = new int[0];
+  protected int[] order = new int[0];
+  protected int[] keys2 = new int[0];
+  protected int[] order2 = new int[0];
+
+  // Per-triangle lists in drawing order, indexed by the entries of order
+  protected int[] drawTriangles = new int[0];
+  protected int[] drawTextures = new int[0];
+  protected int[] drawBlocks = new int[0];
+
+  protected int[] counts = new int[0];
+  protected short[] sortedIndices = new short[0];
+
+
+  void sort(TessGeometry tess, TexCache texCache, PMatrix3D modelview) {
+    collect(tess, texCache);
+    if (count == 0) return;
+    calcKeys(tess, modelview);
+
+    int bands = Parallel.bandCount(count, count);
+    if (counts.length < 256 * bands) {
+      counts = new int[256 * bands];
+    }
+    for (int shift = 0; shift < 32; shift += 8) {
+      if (radixPass(shift, bands)) {
+        int[] temp = keys; keys = keys2; keys2 = temp;
+        temp = order; order = order2; order2 = temp;
+      }
+    }
+
+    if (triangles.length < count) {
+      triangles = new int[drawTriangles.length];
+      textures = new int[drawTriangles.length];
+      blocks = new int[drawTriangles.length];
+    }
+    for (int i = 0; i < count; i++) {
+      int j = order[i];
+      triangles[i] = drawTriangles[j];
+      textures[i] = drawTextures[j];
+      blocks[i] = drawBlocks[j];
+    }
+  }
+
+
+  /**
+   * Puts the indices of the sorted triangles at the start of the index
+   * array, in sorted order, so that triangles[i] becomes i.
+   */
+  void reorder(TessGeometry tess) {
+    short[] indices = tess.polyIndices;
+    if (sortedIndices.length < 3 * count) {
+      sortedIndices = new short[3 * drawTriangles.length];
+    }
+    short[] sorted = sortedIndices;
+    for (int i = 0; i < count; i++) {
+      int from = 3 * triangles[i];
+      sorted[3 * i + 0] = indices[from + 0];
+      sorted[3 * i + 1] = indices[from + 1];
+      sorted[3 * i + 2] = indices[from + 2];
+      triangles[i] = i;
+    }
+    System.arraycopy(sorted, 0, indices, 0, 3 * count);
+  }
+
+
+  // Lists the triangles of each texture and index block, in drawing order.
+  protected void collect(TessGeometry tess, TexCache texCache) {
+    count = 0;
+    IndexCache cache = tess.polyIndexCache;
+    for (int i = 0; i < texCache.size; i++) {
+      int first = texCache.firstCache[i];
+      int last = texCache.lastCache[i];
+      for (int n = first; n <= last; n++) {
+        int ioffset = n == first ? texCache.firstIndex[i] :
+                                   cache.indexOffset[n];
+        int icount = n == last ? texCache.lastIndex[i] - ioffset + 1 :
+                                 cache.indexOffset[n] + cache.indexCount[n] -
+                                 ioffset;
+        int tr0 = ioffset / 3;
+        int tr1 = (ioffset + icount) / 3;
+        if (drawTriangles.length < count + tr1 - tr0) {
+          expand(count + tr1 - tr0);
+        }
+        for (int tr = tr0; tr < tr1; tr++) {
+          drawTriangles[count] = tr;
+          drawTextures[count] = i;
+          drawBlocks[count] = n;
+          count++;
+        }
+      }
+    }
+  }
+
+
+  protected void expand(int n) {
+    int size = PGraphicsOpenGL.expandArraySize(Math.max(512,
+                                               drawTriangles.length), n);
+    drawTriangles = copyOf(drawTriangles, size);
+    drawTextures = copyOf(drawTextures, size);
+    drawBlocks = copyOf(drawBlocks, size);
+    keys = new int[size];
+    order = new int[size];
+    keys2 = new int[size];
+    order2 = new int[size];
+  }
+
+
+  static protected int[] copyOf(int[] array, int size) {
+    int[] temp = new int[size];
+    System.arraycopy(array, 0, temp, 0, Math.min(array.length, size));
+    return temp;
+  }
+
+
+  // The center of a triangle in eye coordinates is the modelview times
+  // the center of its vertices, so only one point is transformed. The
+  // squared distance orders the same as the distance. Since it's never
+  // negative, its float bits order the same way as ints, and they are
+  // flipped so that the farthest triangles sort first.
+  protected void calcKeys(final TessGeometry tess, final PMatrix3D mm) {
+    final IndexCache cache = tess.polyIndexCache;
+    Parallel.run(count, 32L * count, new Parallel.Band() {
+      public void run(int start, int stop) {
+        float[] vertices = tess.polyVertices;
+        short[] indices = tess.polyIndices;
+        for (int t = start; t < stop; t++) {
+          int voffset = cache.vertexOffset[drawBlocks[t]];
+          int tr = 3 * drawTriangles[t];
+          int i0 = 4 * (voffset + indices[tr + 0]);
+          int i1 = 4 * (voffset + indices[tr + 1]);
+          int i2 = 4 * (voffset + indices[tr + 2]);
+          float x = (vertices[i0 + 0] + vertices[i1 + 0] + vertices[i2 + 0]) / 3;
+          float y = (vertices[i0 + 1] + vertices[i1 + 1] + vertices[i2 + 1]) / 3;
+          float z = (vertices[i0 + 2] + vertices[i1 + 2] + vertices[i2 + 2]) / 3;
+          float w = (vertices[i0 + 3] + vertices[i1 + 3] + vertices[i2 + 3]) / 3;
+          float ex = mm.m00 * x + mm.m01 * y + mm.m02 * z + mm.m03 * w;
+          float ey = mm.m10 * x + mm.m11 * y + mm.m12 * z + mm.m13 * w;
+          float ez = mm.m20 * x + mm.m21 * y + mm.m22 * z + mm.m23 * w;
+          keys[t] = ~Float.floatToIntBits(ex * ex + ey * ey + ez * ez);
+          order[t] = t;
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Stable counting pass on one byte of the keys, from keys/order into
+   * keys2/order2. Each band counts its own part of the array first, so
+   * that it knows where each of its entries go. Returns false (and leaves
+   * everything where it was) if all the keys have the same byte.
+   */
+  protected boolean radixPass(final int shift, final int bands) {
+    java.util.Arrays.fill(counts, 0, 256 * bands, 0);
+    Parallel.run(bands, Long.MAX_VALUE, new Parallel.Band() {
+      public void run(int start, int stop) {
+        for (int b = start; b < stop; b++) {
+          int base = 256 * b;
+          int stop1 = (int) ((long) count * (b + 1) / bands);
+          for (int i = (int) ((long) count * b / bands); i < stop1; i++) {
+            counts[base + ((keys[i] >>> shift) & 0xFF)]++;
+          }
+        }
+      }
+    });
+
+    // Offsets go through each digit, and within it, each band in turn.
+    int total = 0;
+    for (int digit = 0; digit < 256; digit++) {
+      int start = total;
+      for (int b = 0; b < bands; b++) {
+        int c = counts[256 * b + digit];
+        counts[256 * b + digit] = total;
+        total += c;
+      }
+      if (total - start == count) return false;
+    }
+
+    Parallel.run(bands, Long.MAX_VALUE, new Parallel.Band() {
+      public void run(int start, int stop) {
+        for (int b = start; b < stop; b++) {
+          int base = 256 * b;
+          int stop1 = (int) ((long) count * (b + 1) / bands);
+          for (int i = (int) ((long) count * b / bands); i < stop1; i++) {
+            int key = keys[i];
+            int dest = counts[base + ((key >>> shift) & 0xFF)]++;
+            keys2[dest] = key;
+            order2[dest] = order[i];
+          }
+        }
+      }
+    });
+    return true;
+  }
+}
@@ -122,7 +122,7 @@ public class PGraphics3D extends PGraphicsOpenGL {
         // data folder, cannot be inside the gzip.
         InputStream input =
           new GZIPInputStream(pg.parent.createInput(filename));
-        obj = new PShapeOBJ(pg.parent, PApplet.createReader(input));
+        obj = new PShapeOBJ(pg.parent, PApplet.loadBytes(input), "");
       } catch (Exception e) {
         e.printStackTrace();
       }
@@ -256,6 +256,7 @@ public class PGraphicsOpenGL extends PGraphics {
   protected TessGeometry tessGeo;
   static protected Tessellator tessellator;
   protected TexCache texCache;
+  protected DepthSorter depthSorter;
 
   // ........................................................
 
@@ -1977,6 +1978,12 @@ public class PGraphicsOpenGL extends PGraphics {
   @Override
   public void hint(int which) {
     boolean oldValue = hints[PApplet.abs(which)];
+    if ((which == ENABLE_DEPTH_SORT || which == DISABLE_DEPTH_SORT) &&
+        oldValue != (which > 0)) {
+      // Draw what's pending with the setting it was made under, so that
+      // shapes between ENABLE_DEPTH_SORT and DISABLE_DEPTH_SORT are sorted.
+      flush();
+    }
     super.hint(which);
     boolean newValue = hints[PApplet.abs(which)];
 
@@ -2361,6 +2368,11 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   protected void flushPolys() {
+    if (depthSortPolys()) {
+      flushSortedPolys();
+      return;
+    }
+
     boolean customShader = polyShader != null;
     boolean needNormals = customShader ? polyShader.accessNormals() : false;
     boolean needTexCoords = customShader ? polyShader.accessTexCoords() : false;
@@ -2385,36 +2397,8 @@ public class PGraphicsOpenGL extends PGraphics {
                                  cache.indexOffset[n] + cache.indexCount[n] - ioffset;
         int voffset = cache.vertexOffset[n];
 
-        shader.setVertexAttribute(glPolyVertex, 4, PGL.FLOAT, 0,
-                                  4 * voffset * PGL.SIZEOF_FLOAT);
-        shader.setColorAttribute(glPolyColor, 4, PGL.UNSIGNED_BYTE, 0,
-                                 4 * voffset * PGL.SIZEOF_BYTE);
-
-        if (lights) {
-          shader.setNormalAttribute(glPolyNormal, 3, PGL.FLOAT, 0,
-                                    3 * voffset * PGL.SIZEOF_FLOAT);
-          shader.setAmbientAttribute(glPolyAmbient, 4, PGL.UNSIGNED_BYTE, 0,
-                                     4 * voffset * PGL.SIZEOF_BYTE);
-          shader.setSpecularAttribute(glPolySpecular, 4, PGL.UNSIGNED_BYTE, 0,
-                                      4 * voffset * PGL.SIZEOF_BYTE);
-          shader.setEmissiveAttribute(glPolyEmissive, 4, PGL.UNSIGNED_BYTE, 0,
-                                      4 * voffset * PGL.SIZEOF_BYTE);
-          shader.setShininessAttribute(glPolyShininess, 1, PGL.FLOAT, 0,
-                                       voffset * PGL.SIZEOF_FLOAT);
-        }
-
-        if (lights || needNormals) {
-          shader.setNormalAttribute(glPolyNormal, 3, PGL.FLOAT, 0,
-                                    3 * voffset * PGL.SIZEOF_FLOAT);
-        }
-
-        if (tex != null || needTexCoords) {
-          shader.setTexcoordAttribute(glPolyTexcoord, 2, PGL.FLOAT, 0,
-                                      2 * voffset * PGL.SIZEOF_FLOAT);
-          shader.setTexture(tex);
-        }
-
-        shader.draw(glPolyIndex, icount, ioffset);
+        drawPolys(shader, tex, ioffset, icount, voffset,
+                  needNormals, needTexCoords);
       }
 
       shader.unbind();
@@ -2423,155 +2407,131 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
-  class Triangle {
-    int i0, i1, i2;
-    PImage tex;
-    float dist;
-    Triangle(int i0, int i1, int i2, PImage tex, float dist) {
-      this.i0 = i0;
-      this.i1 = i1;
-      this.i2 = i2;
-      this.tex = tex;
-      this.dist = dist;
-    }
-  }
-  // Adapted from Ben Van Citters code:
-  // http://openprocessing.org/sketch/100912
-  Triangle[] sortedPolyTriangles = null;
-  int sortedTriangleCount = 0;
-  void sortTriangles() {
-    if (sortedPolyTriangles == null) {
-      sortedPolyTriangles = new Triangle[512];
+  // Draws the triangles back to front, in runs that share a texture and
+  // an index block (see DepthSorter).
+  protected void flushSortedPolys() {
+    boolean customShader = polyShader != null;
+    boolean needNormals = customShader ? polyShader.accessNormals() : false;
+    boolean needTexCoords = customShader ? polyShader.accessTexCoords() : false;
+
+    if (depthSorter == null) {
+      depthSorter = new DepthSorter();
     }
+    depthSorter.sort(tessGeo, texCache, modelview);
+    depthSorter.reorder(tessGeo);
 
-    float[] vertices = tessGeo.polyVertices;
-    short[] indices = tessGeo.polyIndices;
-    float[] src0 = {0, 0, 0, 0};
-    float[] src1 = {0, 0, 0, 0};
-    float[] src2 = {0, 0, 0, 0};
-    float[] pt0 = {0, 0, 0, 0};
-    float[] pt1 = {0, 0, 0, 0};
-    float[] pt2 = {0, 0, 0, 0};
+    updatePolyBuffers(lights, texCache.hasTextures, needNormals, needTexCoords);
 
-    sortedTriangleCount = 0;
-    for (int i = 0; i < texCache.size; i++) {
-      PImage textureImage = texCache.getTextureImage(i);
-      int first = texCache.firstCache[i];
-      int last = texCache.lastCache[i];
-      IndexCache cache = tessGeo.polyIndexCache;
-      for (int n = first; n <= last; n++) {
-        int ioffset = n == first ? texCache.firstIndex[i] :
-                                   cache.indexOffset[n];
-        int icount = n == last ? texCache.lastIndex[i] - ioffset + 1 :
-                                 cache.indexOffset[n] + cache.indexCount[n] -
-                                 ioffset;
-        int voffset = cache.vertexOffset[n];
-        for (int tr = ioffset / 3; tr < (ioffset + icount) / 3; tr++) {
-          if (sortedPolyTriangles.length == sortedTriangleCount) {
-            // expand array
-            int newSize = sortedTriangleCount << 1;
-            Triangle[] temp = new Triangle[newSize];
-            PApplet.arrayCopy(sortedPolyTriangles, 0, temp, 0, newSize);
-            sortedPolyTriangles = temp;
-          }
+    int count = depthSorter.count;
+    int[] textures = depthSorter.textures;
+    int[] blocks = depthSorter.blocks;
+    IndexCache cache = tessGeo.polyIndexCache;
+    PShader shader = null;
+    int i = 0;
+    while (i < count) {
+      int first = i;
+      int t = textures[i];
+      int n = blocks[i];
+      do {
+        i++;
+      } while (i < count && textures[i] == t && blocks[i] == n);
+
+      Texture tex = texCache.getTexture(t);
+      PShader next = getPolyShader(lights, tex != null);
+      if (next != shader) {
+        if (shader != null) shader.unbind();
+        shader = next;
+        shader.bind();
+      }
+      drawPolys(shader, tex, 3 * first, 3 * (i - first),
+                cache.vertexOffset[n], needNormals, needTexCoords);
+    }
+    if (shader != null) shader.unbind();
+    unbindPolyBuffers();
+  }
 
-          int i0 = voffset + indices[3 * tr + 0];
-          int i1 = voffset + indices[3 * tr + 1];
-          int i2 = voffset + indices[3 * tr + 2];
-          PApplet.arrayCopy(vertices, 4 * i0, src0, 0, 4);
-          PApplet.arrayCopy(vertices, 4 * i1, src1, 0, 4);
-          PApplet.arrayCopy(vertices, 4 * i2, src2, 0, 4);
-          modelview.mult(src0, pt0);
-          modelview.mult(src1, pt1);
-          modelview.mult(src2, pt2);
-          // add all three verts together and divide...  could use another determination
-          // of the 'depth' of the triangle such as min or max vert dist...
-          float[] pos = new float[]{(pt0[X] + pt1[X] + pt2[X]) /3,
-                                    (pt0[Y] + pt1[Y] + pt2[Y]) /3,
-                                    (pt0[Z] + pt1[Z] + pt2[Z]) /3};
 
-          // pt0, pt1 and pt2 are in eye coordinates since they have been
-          // multiplied by the modelview matrix.
-          float d = PApplet.dist(0f, 0f, 0f, pos[0], pos[1], pos[2]);
+  protected void drawPolys(PShader shader, Texture tex,
+                           int ioffset, int icount, int voffset,
+                           boolean needNormals, boolean needTexCoords) {
+    shader.setVertexAttribute(glPolyVertex, 4, PGL.FLOAT, 0,
+                              4 * voffset * PGL.SIZEOF_FLOAT);
+    shader.setColorAttribute(glPolyColor, 4, PGL.UNSIGNED_BYTE, 0,
+                             4 * voffset * PGL.SIZEOF_BYTE);
 
-          Triangle tri = new Triangle(i0, i1, i2, textureImage, d);
-          sortedPolyTriangles[sortedTriangleCount] = tri;
-          sortedTriangleCount++;
-        }
-      }
+    if (lights) {
+      shader.setNormalAttribute(glPolyNormal, 3, PGL.FLOAT, 0,
+                                3 * voffset * PGL.SIZEOF_FLOAT);
+      shader.setAmbientAttribute(glPolyAmbient, 4, PGL.UNSIGNED_BYTE, 0,
+                                 4 * voffset * PGL.SIZEOF_BYTE);
+      shader.setSpecularAttribute(glPolySpecular, 4, PGL.UNSIGNED_BYTE, 0,
+                                  4 * voffset * PGL.SIZEOF_BYTE);
+      shader.setEmissiveAttribute(glPolyEmissive, 4, PGL.UNSIGNED_BYTE, 0,
+                                  4 * voffset * PGL.SIZEOF_BYTE);
+      shader.setShininessAttribute(glPolyShininess, 1, PGL.FLOAT, 0,
+                                   voffset * PGL.SIZEOF_FLOAT);
     }
-    quickSortTris(0, sortedTriangleCount - 1);
-  }
 
-  // an 'in-place' implementation of quick I whipped together late at night
-  // based off of the algorithm found on wikipedia: http://en.wikipedia.org/wiki/Quicksort
-  private void quickSortTris(int leftI, int rightI) {
-    if(leftI < rightI) {
-      int pivotIndex = (leftI + rightI)/2;
-      int newPivotIndex = partition(leftI,rightI,pivotIndex);
-      quickSortTris(leftI, newPivotIndex-1);
-      quickSortTris(newPivotIndex+1, rightI);
+    if (lights || needNormals) {
+      shader.setNormalAttribute(glPolyNormal, 3, PGL.FLOAT, 0,
+                                3 * voffset * PGL.SIZEOF_FLOAT);
     }
-  }
 
-  //part of quicksort
-  private int partition(int leftIndex, int rightIndex, int pivotIndex) {
-    float pivotVal = sortedPolyTriangles[pivotIndex].dist;
-    swapTris(pivotIndex,rightIndex);
-    int storeIndex = leftIndex;
-    for(int i = leftIndex; i < rightIndex; i++)
-    {
-      if(sortedPolyTriangles[i].dist > pivotVal)
-      {
-        swapTris(i,storeIndex);
-        storeIndex++;
-      }
+    if (tex != null || needTexCoords) {
+      shader.setTexcoordAttribute(glPolyTexcoord, 2, PGL.FLOAT, 0,
+                                  2 * voffset * PGL.SIZEOF_FLOAT);
+      shader.setTexture(tex);
     }
-    swapTris(rightIndex,storeIndex);
-    return storeIndex;
-  }
 
-  //part of quicksort
-  private void swapTris(int a, int b) {
-    Triangle tmp = sortedPolyTriangles[a];
-    sortedPolyTriangles[a] = sortedPolyTriangles[b];
-    sortedPolyTriangles[b] = tmp;
+    shader.draw(glPolyIndex, icount, ioffset);
   }
 
 
+  // With hint(ENABLE_DEPTH_SORT), triangles in 3D are drawn back to front.
+  protected boolean depthSortPolys() {
+    return hints[ENABLE_DEPTH_SORT] && is3D();
+  }
+
 
   void rawPolys() {
     raw.colorMode(RGB);
     raw.noStroke();
     raw.beginShape(TRIANGLES);
 
-    sortTriangles();
+    // The triangles were sorted already if they were drawn sorted.
+    if (depthSorter == null) {
+      depthSorter = new DepthSorter();
+    }
+    if (!depthSortPolys()) {
+      depthSorter.sort(tessGeo, texCache, modelview);
+    }
 
     float[] vertices = tessGeo.polyVertices;
     int[] color = tessGeo.polyColors;
     float[] uv = tessGeo.polyTexCoords;
     short[] indices = tessGeo.polyIndices;
+    int[] vertexOffset = tessGeo.polyIndexCache.vertexOffset;
 
+    float[] pt0 = {0, 0, 0, 0};
+    float[] pt1 = {0, 0, 0, 0};
+    float[] pt2 = {0, 0, 0, 0};
+    float[] src0 = {0, 0, 0, 0};
+    float[] src1 = {0, 0, 0, 0};
+    float[] src2 = {0, 0, 0, 0};
 
-    sortTriangles();
-    for (int i = 0; i < sortedTriangleCount; i++) {
-      Triangle tri = sortedPolyTriangles[i];
-      int i0 = tri.i0;
-      int i1 = tri.i1;
-      int i2 = tri.i2;
-      PImage tex = tri.tex;
+    for (int i = 0; i < depthSorter.count; i++) {
+      int tr = 3 * depthSorter.triangles[i];
+      int voffset = vertexOffset[depthSorter.blocks[i]];
+      int i0 = voffset + indices[tr + 0];
+      int i1 = voffset + indices[tr + 1];
+      int i2 = voffset + indices[tr + 2];
+      PImage tex = texCache.getTextureImage(depthSorter.textures[i]);
 
-      float[] pt0 = {0, 0, 0, 0};
-      float[] pt1 = {0, 0, 0, 0};
-      float[] pt2 = {0, 0, 0, 0};
       int argb0 = PGL.nativeToJavaARGB(color[i0]);
       int argb1 = PGL.nativeToJavaARGB(color[i1]);
       int argb2 = PGL.nativeToJavaARGB(color[i2]);
 
       if (flushMode == FLUSH_CONTINUOUSLY) {
-        float[] src0 = {0, 0, 0, 0};
-        float[] src1 = {0, 0, 0, 0};
-        float[] src2 = {0, 0, 0, 0};
         PApplet.arrayCopy(vertices, 4 * i0, src0, 0, 4);
         PApplet.arrayCopy(vertices, 4 * i1, src1, 0, 4);
         PApplet.arrayCopy(vertices, 4 * i2, src2, 0, 4);
@@ -6167,6 +6127,12 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  @Override
+  public void resize(int wide, int high, int filter) {
+    PGraphics.showMethodWarning("resize");
+  }
+
+
   //////////////////////////////////////////////////////////////
 
   // INITIALIZATION ROUTINES
@@ -6895,6 +6861,19 @@ public class PGraphicsOpenGL extends PGraphics {
       return size - 1;
     }
 
+    // Adds all the items in cache at the end, with their index and
+    // vertex offsets moved by the given amounts.
+    void append(IndexCache cache, int ioffset, int voffset) {
+      for (int n = 0; n < cache.size; n++) {
+        arrayCheck();
+        indexCount[size] = cache.indexCount[n];
+        indexOffset[size] = cache.indexOffset[n] + ioffset;
+        vertexCount[size] = cache.vertexCount[n];
+        vertexOffset[size] = cache.vertexOffset[n] + voffset;
+        size++;
+      }
+    }
+
     void incCounts(int index, int icount, int vcount) {
       indexCount[index] += icount;
       vertexCount[index] += vcount;
@@ -9073,6 +9052,42 @@ public class PGraphicsOpenGL extends PGraphics {
       polyNormals[index  ] = nz;
     }
 
+    // -----------------------------------------------------------------
+    //
+    // Copy geometry
+
+    // Copies all the vertices and indices in tess to the given positions
+    // in these arrays, which must have room for them already. The index
+    // caches are not touched.
+    void copyGeometry(TessGeometry tess, int polyVert, int polyInd,
+                      int lineVert, int lineInd, int pointVert, int pointInd) {
+      int n = tess.polyVertexCount;
+      PApplet.arrayCopy(tess.polyVertices, 0, polyVertices, 4 * polyVert, 4 * n);
+      PApplet.arrayCopy(tess.polyColors, 0, polyColors, polyVert, n);
+      PApplet.arrayCopy(tess.polyNormals, 0, polyNormals, 3 * polyVert, 3 * n);
+      PApplet.arrayCopy(tess.polyTexCoords, 0, polyTexCoords, 2 * polyVert, 2 * n);
+      PApplet.arrayCopy(tess.polyAmbient, 0, polyAmbient, polyVert, n);
+      PApplet.arrayCopy(tess.polySpecular, 0, polySpecular, polyVert, n);
+      PApplet.arrayCopy(tess.polyEmissive, 0, polyEmissive, polyVert, n);
+      PApplet.arrayCopy(tess.polyShininess, 0, polyShininess, polyVert, n);
+      PApplet.arrayCopy(tess.polyIndices, 0, polyIndices, polyInd,
+                        tess.polyIndexCount);
+
+      n = tess.lineVertexCount;
+      PApplet.arrayCopy(tess.lineVertices, 0, lineVertices, 4 * lineVert, 4 * n);
+      PApplet.arrayCopy(tess.lineColors, 0, lineColors, lineVert, n);
+      PApplet.arrayCopy(tess.lineDirections, 0, lineDirections, 4 * lineVert, 4 * n);
+      PApplet.arrayCopy(tess.lineIndices, 0, lineIndices, lineInd,
+                        tess.lineIndexCount);
+
+      n = tess.pointVertexCount;
+      PApplet.arrayCopy(tess.pointVertices, 0, pointVertices, 4 * pointVert, 4 * n);
+      PApplet.arrayCopy(tess.pointColors, 0, pointColors, pointVert, n);
+      PApplet.arrayCopy(tess.pointOffsets, 0, pointOffsets, 2 * pointVert, 2 * n);
+      PApplet.arrayCopy(tess.pointIndices, 0, pointIndices, pointInd,
+                        tess.pointIndexCount);
+    }
+
     // -----------------------------------------------------------------
     //
     // Add point geometry
@@ -9595,6 +9610,7 @@ public class PGraphicsOpenGL extends PGraphics {
     int firstTexCache;
 
     PGL.Tessellator gluTess;
+    PolygonTessellator polyTess;
     TessellatorCallback callback;
 
     boolean fill;
@@ -9640,6 +9656,8 @@ public class PGraphicsOpenGL extends PGraphics {
     public Tessellator() {
       callback = new TessellatorCallback();
       gluTess = pgl.createTessellator(callback);
+      // GLU is only needed when edges cross
+      polyTess = new PolygonTessellator(callback, gluTess);
       rawIndices = new int[512];
       accurate2DStrokes = true;
       transform = null;
@@ -11182,15 +11200,15 @@ public class PGraphicsOpenGL extends PGraphics {
         callback.init(in.renderMode == RETAINED, false, calcNormals, clamp);
 
         if (fill) {
-          gluTess.beginPolygon();
+          polyTess.beginPolygon();
           if (solid) {
             // Using NONZERO winding rule for solid polygons.
-            gluTess.setWindingRule(PGL.TESS_WINDING_NONZERO);
+            polyTess.setWindingRule(PGL.TESS_WINDING_NONZERO);
           } else {
             // Using ODD winding rule to generate polygon with holes.
-            gluTess.setWindingRule(PGL.TESS_WINDING_ODD);
+            polyTess.setWindingRule(PGL.TESS_WINDING_ODD);
           }
-          gluTess.beginContour();
+          polyTess.beginContour();
         }
 
         if (stroke) {
@@ -11217,8 +11235,8 @@ public class PGraphicsOpenGL extends PGraphics {
               beginStrokePath();
             }
             if (fill) {
-              gluTess.endContour();
-              gluTess.beginContour();
+              polyTess.endContour();
+              polyTess.beginContour();
             }
           }
 
@@ -11241,8 +11259,8 @@ public class PGraphicsOpenGL extends PGraphics {
           endPolygonStroke();
         }
         if (fill) {
-          gluTess.endContour();
-          gluTess.endPolygon();
+          polyTess.endContour();
+          polyTess.endPolygon();
         }
       }
       endTex();
@@ -11340,7 +11358,7 @@ public class PGraphicsOpenGL extends PGraphics {
             nx, ny, nz,
             u, v,
             aa, ar, ag, ab, sa, sr, sg, sb, ea, er, eg, eb, sh};
-          gluTess.addVertex(vertex);
+          polyTess.addVertex(vertex);
         }
         if (stroke) addStrokeVertex(x1, y1, z1, strokeColor, strokeWeight);
       }
@@ -11443,7 +11461,7 @@ public class PGraphicsOpenGL extends PGraphics {
             nx, ny, nz,
             u, v,
             aa, ar, ag, ab, sa, sr, sg, sb, ea, er, eg, eb, sh};
-          gluTess.addVertex(vertex);
+          polyTess.addVertex(vertex);
         }
         if (stroke) addStrokeVertex(x1, y1, z1, strokeColor, strokeWeight);
       }
@@ -11545,7 +11563,7 @@ public class PGraphicsOpenGL extends PGraphics {
           nx, ny, nz,
           u, v,
           aa, ar, ag, ab, sa, sr, sg, sb, ea, er, eg, eb, sh};
-        gluTess.addVertex(vertex0);
+        polyTess.addVertex(vertex0);
       }
       if (stroke) addStrokeVertex(x, y, z, strokeColor, strokeWeight);
 
@@ -11560,7 +11578,7 @@ public class PGraphicsOpenGL extends PGraphics {
             nx, ny, nz,
             u, v,
             aa, ar, ag, ab, sa, sr, sg, sb, ea, er, eg, eb, sh};
-          gluTess.addVertex(vertex1);
+          polyTess.addVertex(vertex1);
         }
         if (stroke) addStrokeVertex(x, y, z, strokeColor, strokeWeight);
       }
@@ -11619,7 +11637,7 @@ public class PGraphicsOpenGL extends PGraphics {
           nx, ny, nz,
           u, v,
           aa, ar, ag, ab, sa, sr, sg, sb, ea, er, eg, eb, sh};
-        gluTess.addVertex(vertex);
+        polyTess.addVertex(vertex);
       }
       if (stroke) addStrokeVertex(x, y, z, strokeColor, strokeWeight);
     }
@@ -11787,7 +11805,8 @@ public class PGraphicsOpenGL extends PGraphics {
     // This C implementation of GLU could be useful:
     // http://code.google.com/p/glues/
     // to eventually come up with an optimized GLU tessellator in native code.
-    protected class TessellatorCallback implements PGL.TessellatorCallback {
+    protected class TessellatorCallback
+      implements PGL.TessellatorCallback, PolygonTessellator.TriangleCallback {
       boolean calcNormals;
       boolean strokeTess;
       boolean clampXY;
@@ -11796,6 +11815,7 @@ public class PGraphicsOpenGL extends PGraphics {
       int vertFirst;
       int vertCount;
       int primitive;
+      int[] tessIndex = new int[0];
 
       public void init(boolean addCache, boolean strokeTess, boolean calcNorm,
                        boolean clampXY) {
@@ -11895,8 +11915,10 @@ public class PGraphicsOpenGL extends PGraphics {
       }
 
       protected void calcTriNormal(int tessIdx0, int tessIdx1, int tessIdx2) {
-        tess.calcPolyNormal(vertFirst + tessIdx0, vertFirst + tessIdx1,
-                            vertFirst + tessIdx2);
+        // The normals array is not relative to the index block.
+        int first = cache.vertexOffset[cacheIndex] + vertFirst;
+        tess.calcPolyNormal(first + tessIdx0, first + tessIdx1,
+                            first + tessIdx2);
       }
 
       public void vertex(Object data) {
@@ -11909,23 +11931,7 @@ public class PGraphicsOpenGL extends PGraphics {
           }
 
           if (vertCount < PGL.MAX_VERTEX_INDEX1) {
-            // Combining individual rgba components back into int color values
-            int fcolor =
-             ((int)d[ 3]<<24) | ((int)d[ 4]<<16) | ((int)d[ 5]<<8) | (int)d[ 6];
-            int acolor =
-             ((int)d[12]<<24) | ((int)d[13]<<16) | ((int)d[14]<<8) | (int)d[15];
-            int scolor =
-             ((int)d[16]<<24) | ((int)d[17]<<16) | ((int)d[18]<<8) | (int)d[19];
-            int ecolor =
-             ((int)d[20]<<24) | ((int)d[21]<<16) | ((int)d[22]<<8) | (int)d[23];
-
-            tess.addPolyVertex((float) d[ 0],  (float) d[ 1], (float) d[ 2],
-                               fcolor,
-                               (float) d[ 7],  (float) d[ 8], (float) d[ 9],
-                               (float) d[10], (float) d[11],
-                               acolor, scolor, ecolor,
-                               (float) d[24], clampXY);
-
+            addVertex(d);
             vertCount++;
           } else {
             throw new RuntimeException("The tessellator is generating too " +
@@ -11939,6 +11945,80 @@ public class PGraphicsOpenGL extends PGraphics {
         }
       }
 
+      protected void addVertex(double[] d) {
+        // Combining individual rgba components back into int color values
+        int fcolor =
+         ((int)d[ 3]<<24) | ((int)d[ 4]<<16) | ((int)d[ 5]<<8) | (int)d[ 6];
+        int acolor =
+         ((int)d[12]<<24) | ((int)d[13]<<16) | ((int)d[14]<<8) | (int)d[15];
+        int scolor =
+         ((int)d[16]<<24) | ((int)d[17]<<16) | ((int)d[18]<<8) | (int)d[19];
+        int ecolor =
+         ((int)d[20]<<24) | ((int)d[21]<<16) | ((int)d[22]<<8) | (int)d[23];
+
+        tess.addPolyVertex((float) d[ 0],  (float) d[ 1], (float) d[ 2],
+                           fcolor,
+                           (float) d[ 7],  (float) d[ 8], (float) d[ 9],
+                           (float) d[10], (float) d[11],
+                           acolor, scolor, ecolor,
+                           (float) d[24], clampXY);
+      }
+
+      /**
+       * Triangles from the PolygonTessellator, all at once. Each vertex is
+       * added once, the first time a triangle uses it, and then shared by
+       * index. When the index block runs out of room, a new one is started
+       * and the vertices that are still needed are added again.
+       */
+      public void triangles(double[][] vertices, int vertexCount,
+                            int[] indices, int indexCount) {
+        if (tessIndex.length < vertexCount) {
+          tessIndex = new int[vertices.length];
+        }
+        Arrays.fill(tessIndex, 0, vertexCount, -1);
+
+        cacheIndex = cache.getLast();
+        if (firstPolyIndexCache == -1) {
+          firstPolyIndexCache = cacheIndex;
+        }
+        if (strokeTess && firstLineIndexCache == -1) {
+          firstLineIndexCache = cacheIndex;
+        }
+        vertFirst = cache.vertexCount[cacheIndex];
+        vertCount = 0;
+        int indCount = 0;
+
+        for (int t = 0; t < indexCount; t += 3) {
+          if (PGL.MAX_VERTEX_INDEX1 <= vertFirst + vertCount + 3) {
+            cache.incCounts(cacheIndex, indCount, vertCount);
+            cacheIndex = cache.addNew();
+            vertFirst = 0;
+            vertCount = 0;
+            indCount = 0;
+            Arrays.fill(tessIndex, 0, vertexCount, -1);
+          }
+          for (int k = t; k < t + 3; k++) {
+            int i = indices[k];
+            if (tessIndex[i] == -1) {
+              addVertex(vertices[i]);
+              tessIndex[i] = vertCount++;
+            }
+            addIndex(tessIndex[i]);
+          }
+          if (calcNormals) {
+            calcTriNormal(tessIndex[indices[t]], tessIndex[indices[t + 1]],
+                          tessIndex[indices[t + 2]]);
+          }
+          indCount += 3;
+        }
+
+        cache.incCounts(cacheIndex, indCount, vertCount);
+        lastPolyIndexCache = cacheIndex;
+        if (strokeTess) {
+          lastLineIndexCache = cacheIndex;
+        }
+      }
+
       public void error(int errnum) {
         String estring = pgl.tessError(errnum);
         PGraphics.showWarning(TESSELLATION_ERROR, estring);
@@ -31,11 +31,13 @@ import processing.core.PMatrix2D;
 import processing.core.PMatrix3D;
 import processing.core.PShape;
 import processing.core.PVector;
+import processing.core.Parallel;
 import processing.opengl.PGraphicsOpenGL.IndexCache;
 import processing.opengl.PGraphicsOpenGL.InGeometry;
 import processing.opengl.PGraphicsOpenGL.TessGeometry;
 import processing.opengl.PGraphicsOpenGL.Tessellator;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Stack;
@@ -63,6 +65,14 @@ public class PShapeOpenGL extends PShape {
   static protected final int SCALE     = 2;
   static protected final int MATRIX    = 3;
 
+  // Groups with at least this many shapes in them are tessellated on
+  // the worker pool, see tessellateGroup().
+  static public int PARALLEL_TESS_COUNT = 1000;
+  static protected final int MIN_TESS_CHUNK = 64;
+
+  static protected ThreadLocal<Tessellator> workerTessellator =
+    new ThreadLocal<Tessellator>();
+
   protected PGraphicsOpenGL pg;
   protected PGL pgl;
   protected int context;      // The context that created this shape.
@@ -2607,7 +2617,11 @@ public class PShapeOpenGL extends PShape {
       }
       tessGeo.clear();
 
-      tessellateImpl();
+      if (family == GROUP) {
+        tessellateGroup();
+      } else {
+        tessellateImpl();
+      }
 
       // Tessellated arrays are trimmed since they are expanded
       // by doubling their old size, which might lead to arrays
@@ -2634,108 +2648,11 @@ public class PShapeOpenGL extends PShape {
       }
     } else {
       if (shapeCreated) {
-        // If the geometry was tessellated previously, then
-        // the edges information will still be stored in the
-        // input object, so it needs to be removed to avoid
-        // duplication.
-        inGeo.clearEdges();
-
-        tessellator.setInGeometry(inGeo);
-        tessellator.setTessGeometry(tessGeo);
-        tessellator.setFill(fill || image != null);
-        tessellator.setTexCache(null, null, null);
-        tessellator.setStroke(stroke);
-        tessellator.setStrokeColor(strokeColor);
-        tessellator.setStrokeWeight(strokeWeight);
-        tessellator.setStrokeCap(strokeCap);
-        tessellator.setStrokeJoin(strokeJoin);
-        tessellator.setRenderer(pg);
-        tessellator.setTransform(matrix);
-        tessellator.set3D(is3D());
-
-        if (family == GEOMETRY) {
-          if (kind == POINTS) {
-            tessellator.tessellatePoints();
-          } else if (kind == LINES) {
-            tessellator.tessellateLines();
-          } else if (kind == LINE_STRIP) {
-            tessellator.tessellateLineStrip();
-          } else if (kind == LINE_LOOP) {
-            tessellator.tessellateLineLoop();
-          } else if (kind == TRIANGLE || kind == TRIANGLES) {
-            if (stroke) inGeo.addTrianglesEdges();
-            if (normalMode == NORMAL_MODE_AUTO) inGeo.calcTrianglesNormals();
-            tessellator.tessellateTriangles();
-          } else if (kind == TRIANGLE_FAN) {
-            if (stroke) inGeo.addTriangleFanEdges();
-            if (normalMode == NORMAL_MODE_AUTO) inGeo.calcTriangleFanNormals();
-            tessellator.tessellateTriangleFan();
-          } else if (kind == TRIANGLE_STRIP) {
-            if (stroke) inGeo.addTriangleStripEdges();
-            if (normalMode == NORMAL_MODE_AUTO) inGeo.calcTriangleStripNormals();
-            tessellator.tessellateTriangleStrip();
-          } else if (kind == QUAD || kind == QUADS) {
-            if (stroke) inGeo.addQuadsEdges();
-            if (normalMode == NORMAL_MODE_AUTO) inGeo.calcQuadsNormals();
-            tessellator.tessellateQuads();
-          } else if (kind == QUAD_STRIP) {
-            if (stroke) inGeo.addQuadStripEdges();
-            if (normalMode == NORMAL_MODE_AUTO) inGeo.calcQuadStripNormals();
-            tessellator.tessellateQuadStrip();
-          } else if (kind == POLYGON) {
-            boolean bez = inGeo.hasBezierVertex();
-            boolean quad = inGeo.hasQuadraticVertex();
-            boolean curv = inGeo.hasCurveVertex();
-            if (bez || quad) saveBezierVertexSettings();
-            if (curv) {
-              saveCurveVertexSettings();
-              tessellator.resetCurveVertexCount();
-            }
-            tessellator.tessellatePolygon(solid, close,
-                                          normalMode == NORMAL_MODE_AUTO);
-            if (bez ||quad) restoreBezierVertexSettings();
-            if (curv) restoreCurveVertexSettings();
-          }
-        } else if (family == PRIMITIVE) {
-          // The input geometry needs to be cleared because the geometry
-          // generation methods in InGeometry add the vertices of the
-          // new primitive to what is already stored.
-          inGeo.clear();
-
-          if (kind == POINT) {
-            tessellatePoint();
-          } else if (kind == LINE) {
-            tessellateLine();
-          } else if (kind == TRIANGLE) {
-            tessellateTriangle();
-          } else if (kind == QUAD) {
-            tessellateQuad();
-          } else if (kind == RECT) {
-            tessellateRect();
-          } else if (kind == ELLIPSE) {
-            tessellateEllipse();
-          } else if (kind == ARC) {
-            tessellateArc();
-          } else if (kind == BOX) {
-            tessellateBox();
-          } else if (kind == SPHERE) {
-            tessellateSphere();
-          }
-        } else if (family == PATH) {
-          inGeo.clear();
-          tessellatePath();
-        }
+        tessellateGeometry();
 
         if (image != null && parent != null) {
           ((PShapeOpenGL)parent).addTexture(image);
         }
-
-        firstPolyIndexCache = tessellator.firstPolyIndexCache;
-        lastPolyIndexCache = tessellator.lastPolyIndexCache;
-        firstLineIndexCache = tessellator.firstLineIndexCache;
-        lastLineIndexCache = tessellator.lastLineIndexCache;
-        firstPointIndexCache = tessellator.firstPointIndexCache;
-        lastPointIndexCache = tessellator.lastPointIndexCache;
       }
     }
 
@@ -2747,6 +2664,315 @@ public class PShapeOpenGL extends PShape {
   }
 
 
+  /**
+   * Tessellates the shapes in a root group. Large groups are split into runs
+   * of consecutive shapes, and each run is tessellated into a TessGeometry of
+   * its own, on the worker pool when possible. In retained mode every shape
+   * starts new index cache items, so the runs are then copied one after the
+   * other into tessGeo, and their index caches are moved by the sizes of the
+   * runs before them. The result is the same as tessellating one by one.
+   */
+  protected void tessellateGroup() {
+    final ArrayList<PShapeOpenGL> shapes = new ArrayList<PShapeOpenGL>();
+    collectTessShapes(shapes);
+    if (shapes.size() < PARALLEL_TESS_COUNT) {
+      tessellateImpl();
+      return;
+    }
+
+    int most = Math.max(MIN_TESS_CHUNK,
+                        shapes.size() / (4 * Parallel.pool().getParallelism()));
+    final ArrayList<TessChunk> chunks = new ArrayList<TessChunk>();
+    TessChunk chunk = null;
+    for (int i = 0; i < shapes.size(); i++) {
+      boolean worker = shapes.get(i).tessellatesOffThread();
+      if (chunk == null || chunk.worker != worker || chunk.count == most) {
+        chunk = new TessChunk(i, worker);
+        chunks.add(chunk);
+      }
+      chunk.count++;
+    }
+
+    // Shapes that change settings in the renderer stay on this thread.
+    for (TessChunk c : chunks) {
+      if (!c.worker) c.tessellate(shapes, tessellator);
+    }
+    // Splitting is already known to be worth it, hence the work estimate.
+    Parallel.run(chunks.size(), Long.MAX_VALUE, new Parallel.Band() {
+      public void run(int start, int stop) {
+        Tessellator tess = workerTessellator.get();
+        if (tess == null) {
+          tess = new Tessellator();
+          workerTessellator.set(tess);
+        }
+        for (int i = start; i < stop; i++) {
+          TessChunk c = chunks.get(i);
+          if (c.worker) c.tessellate(shapes, tess);
+        }
+      }
+    });
+
+    // Prefix sums of the vertex and index counts give where each run goes.
+    long work = 0;
+    for (TessChunk c : chunks) {
+      c.polyVertex = tessGeo.polyVertexCount;
+      c.polyIndex = tessGeo.polyIndexCount;
+      c.lineVertex = tessGeo.lineVertexCount;
+      c.lineIndex = tessGeo.lineIndexCount;
+      c.pointVertex = tessGeo.pointVertexCount;
+      c.pointIndex = tessGeo.pointIndexCount;
+      tessGeo.polyVertexCheck(c.tess.polyVertexCount);
+      tessGeo.polyIndexCheck(c.tess.polyIndexCount);
+      tessGeo.lineVertexCheck(c.tess.lineVertexCount);
+      tessGeo.lineIndexCheck(c.tess.lineIndexCount);
+      tessGeo.pointVertexCheck(c.tess.pointVertexCount);
+      tessGeo.pointIndexCheck(c.tess.pointIndexCount);
+      work += 16 * (c.tess.polyVertexCount + c.tess.lineVertexCount +
+                    c.tess.pointVertexCount);
+    }
+    Parallel.run(chunks.size(), work, new Parallel.Band() {
+      public void run(int start, int stop) {
+        for (int i = start; i < stop; i++) {
+          TessChunk c = chunks.get(i);
+          tessGeo.copyGeometry(c.tess, c.polyVertex, c.polyIndex,
+                               c.lineVertex, c.lineIndex,
+                               c.pointVertex, c.pointIndex);
+        }
+      }
+    });
+
+    for (TessChunk c : chunks) {
+      int polyCache = tessGeo.polyIndexCache.size;
+      int lineCache = tessGeo.lineIndexCache.size;
+      int pointCache = tessGeo.pointIndexCache.size;
+      tessGeo.polyIndexCache.append(c.tess.polyIndexCache,
+                                    c.polyIndex, c.polyVertex);
+      tessGeo.lineIndexCache.append(c.tess.lineIndexCache,
+                                    c.lineIndex, c.lineVertex);
+      tessGeo.pointIndexCache.append(c.tess.pointIndexCache,
+                                     c.pointIndex, c.pointVertex);
+      for (int i = c.first; i < c.first + c.count; i++) {
+        PShapeOpenGL shape = shapes.get(i);
+        // In 2D, lines and points are tessellated as polygons.
+        boolean is3D = shape.is3D();
+        shape.moveIndexCaches(polyCache, is3D ? lineCache : polyCache,
+                              is3D ? pointCache : polyCache);
+        shape.tessGeo = tessGeo;
+        if (shape.shapeCreated && shape.image != null) {
+          ((PShapeOpenGL)shape.parent).addTexture(shape.image);
+        }
+      }
+    }
+  }
+
+
+  // Sets up the groups under this one the way tessellateImpl() does, and
+  // collects the other shapes in drawing order.
+  protected void collectTessShapes(ArrayList<PShapeOpenGL> shapes) {
+    if (family == GROUP) {
+      tessGeo = root.tessGeo;
+      firstPolyIndexCache = lastPolyIndexCache = -1;
+      firstLineIndexCache = lastLineIndexCache = -1;
+      firstPointIndexCache = lastPointIndexCache = -1;
+      firstPolyVertex = lastPolyVertex = -1;
+      firstLineVertex = lastLineVertex = -1;
+      firstPointVertex = lastPointVertex = -1;
+      tessellated = true;
+      for (int i = 0; i < childCount; i++) {
+        PShapeOpenGL child = (PShapeOpenGL) children[i];
+        child.collectTessShapes(shapes);
+      }
+    } else {
+      shapes.add(this);
+    }
+  }
+
+
+  // Whether this shape can be tessellated on another thread. Curves,
+  // rounded corners and spheres change the detail settings of the renderer
+  // while they are tessellated, so they have to stay on the animation thread.
+  protected boolean tessellatesOffThread() {
+    if (!shapeCreated) {
+      return true;
+    } else if (family == GEOMETRY) {
+      return kind != POLYGON || !(inGeo.hasBezierVertex() ||
+                                  inGeo.hasQuadraticVertex() ||
+                                  inGeo.hasCurveVertex());
+    } else if (family == PRIMITIVE) {
+      return kind != SPHERE && (kind != RECT || params.length < 8);
+    } else if (family == PATH) {
+      for (int i = 0; i < vertexCodeCount; i++) {
+        int code = vertexCodes[i];
+        if (code == BEZIER_VERTEX || code == QUADRATIC_VERTEX ||
+            code == CURVE_VERTEX) return false;
+      }
+    }
+    return true;
+  }
+
+
+  // Tessellates this (non-group) shape into tess, like tessellateImpl()
+  // but with the given tessellator, and without adding its texture to
+  // the parent, so it can run on a worker thread.
+  protected void tessellateInto(TessGeometry tess, Tessellator tessellator) {
+    Tessellator saved = this.tessellator;
+    this.tessGeo = tess;
+    this.tessellator = tessellator;
+
+    firstPolyIndexCache = lastPolyIndexCache = -1;
+    firstLineIndexCache = lastLineIndexCache = -1;
+    firstPointIndexCache = lastPointIndexCache = -1;
+    if (shapeCreated) {
+      tessellateGeometry();
+    }
+    firstPolyVertex = lastPolyVertex = -1;
+    firstLineVertex = lastLineVertex = -1;
+    firstPointVertex = lastPointVertex = -1;
+    tessellated = true;
+
+    this.tessellator = saved;
+  }
+
+
+  protected void moveIndexCaches(int poly, int line, int point) {
+    if (-1 < firstPolyIndexCache) firstPolyIndexCache += poly;
+    if (-1 < lastPolyIndexCache) lastPolyIndexCache += poly;
+    if (-1 < firstLineIndexCache) firstLineIndexCache += line;
+    if (-1 < lastLineIndexCache) lastLineIndexCache += line;
+    if (-1 < firstPointIndexCache) firstPointIndexCache += point;
+    if (-1 < lastPointIndexCache) lastPointIndexCache += point;
+  }
+
+
+  // A run of consecutive shapes from tessellateGroup(), with the
+  // TessGeometry they are tessellated into and where that goes in the root.
+  protected class TessChunk {
+    int first, count;
+    boolean worker;
+    TessGeometry tess;
+
+    int polyVertex, polyIndex;
+    int lineVertex, lineIndex;
+    int pointVertex, pointIndex;
+
+    TessChunk(int first, boolean worker) {
+      this.first = first;
+      this.worker = worker;
+      tess = PGraphicsOpenGL.newTessGeometry(pg, PGraphicsOpenGL.RETAINED);
+    }
+
+    void tessellate(ArrayList<PShapeOpenGL> shapes, Tessellator tessellator) {
+      for (int i = first; i < first + count; i++) {
+        shapes.get(i).tessellateInto(tess, tessellator);
+      }
+    }
+  }
+
+
+  // Tessellates the input geometry of this (non-group) shape into tessGeo,
+  // using the tessellator currently assigned to the shape.
+  protected void tessellateGeometry() {
+    // If the geometry was tessellated previously, then
+    // the edges information will still be stored in the
+    // input object, so it needs to be removed to avoid
+    // duplication.
+    inGeo.clearEdges();
+
+    tessellator.setInGeometry(inGeo);
+    tessellator.setTessGeometry(tessGeo);
+    tessellator.setFill(fill || image != null);
+    tessellator.setTexCache(null, null, null);
+    tessellator.setStroke(stroke);
+    tessellator.setStrokeColor(strokeColor);
+    tessellator.setStrokeWeight(strokeWeight);
+    tessellator.setStrokeCap(strokeCap);
+    tessellator.setStrokeJoin(strokeJoin);
+    tessellator.setRenderer(pg);
+    tessellator.setTransform(matrix);
+    tessellator.set3D(is3D());
+
+    if (family == GEOMETRY) {
+      if (kind == POINTS) {
+        tessellator.tessellatePoints();
+      } else if (kind == LINES) {
+        tessellator.tessellateLines();
+      } else if (kind == LINE_STRIP) {
+        tessellator.tessellateLineStrip();
+      } else if (kind == LINE_LOOP) {
+        tessellator.tessellateLineLoop();
+      } else if (kind == TRIANGLE || kind == TRIANGLES) {
+        if (stroke) inGeo.addTrianglesEdges();
+        if (normalMode == NORMAL_MODE_AUTO) inGeo.calcTrianglesNormals();
+        tessellator.tessellateTriangles();
+      } else if (kind == TRIANGLE_FAN) {
+        if (stroke) inGeo.addTriangleFanEdges();
+        if (normalMode == NORMAL_MODE_AUTO) inGeo.calcTriangleFanNormals();
+        tessellator.tessellateTriangleFan();
+      } else if (kind == TRIANGLE_STRIP) {
+        if (stroke) inGeo.addTriangleStripEdges();
+        if (normalMode == NORMAL_MODE_AUTO) inGeo.calcTriangleStripNormals();
+        tessellator.tessellateTriangleStrip();
+      } else if (kind == QUAD || kind == QUADS) {
+        if (stroke) inGeo.addQuadsEdges();
+        if (normalMode == NORMAL_MODE_AUTO) inGeo.calcQuadsNormals();
+        tessellator.tessellateQuads();
+      } else if (kind == QUAD_STRIP) {
+        if (stroke) inGeo.addQuadStripEdges();
+        if (normalMode == NORMAL_MODE_AUTO) inGeo.calcQuadStripNormals();
+        tessellator.tessellateQuadStrip();
+      } else if (kind == POLYGON) {
+        boolean bez = inGeo.hasBezierVertex();
+        boolean quad = inGeo.hasQuadraticVertex();
+        boolean curv = inGeo.hasCurveVertex();
+        if (bez || quad) saveBezierVertexSettings();
+        if (curv) {
+          saveCurveVertexSettings();
+          tessellator.resetCurveVertexCount();
+        }
+        tessellator.tessellatePolygon(solid, close,
+                                      normalMode == NORMAL_MODE_AUTO);
+        if (bez ||quad) restoreBezierVertexSettings();
+        if (curv) restoreCurveVertexSettings();
+      }
+    } else if (family == PRIMITIVE) {
+      // The input geometry needs to be cleared because the geometry
+      // generation methods in InGeometry add the vertices of the
+      // new primitive to what is already stored.
+      inGeo.clear();
+
+      if (kind == POINT) {
+        tessellatePoint();
+      } else if (kind == LINE) {
+        tessellateLine();
+      } else if (kind == TRIANGLE) {
+        tessellateTriangle();
+      } else if (kind == QUAD) {
+        tessellateQuad();
+      } else if (kind == RECT) {
+        tessellateRect();
+      } else if (kind == ELLIPSE) {
+        tessellateEllipse();
+      } else if (kind == ARC) {
+        tessellateArc();
+      } else if (kind == BOX) {
+        tessellateBox();
+      } else if (kind == SPHERE) {
+        tessellateSphere();
+      }
+    } else if (family == PATH) {
+      inGeo.clear();
+      tessellatePath();
+    }
+
+    firstPolyIndexCache = tessellator.firstPolyIndexCache;
+    lastPolyIndexCache = tessellator.lastPolyIndexCache;
+    firstLineIndexCache = tessellator.firstLineIndexCache;
+    lastLineIndexCache = tessellator.lastLineIndexCache;
+    firstPointIndexCache = tessellator.firstPointIndexCache;
+    lastPointIndexCache = tessellator.lastPointIndexCache;
+  }
+
+
   protected void tessellatePoint() {
     float x = 0, y = 0, z = 0;
     if (params.length == 2) {
@@ -0,0 +1,1136 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2013 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import java.util.Arrays;
+
+
+/**
+ * Triangulates filled polygons in plain Java, without a GL context. Takes
+ * the same calls as the GLU tessellator (contours of vertices, each one a
+ * double[] with the position first), and when the polygon is done, hands
+ * all of its triangles to the TriangleCallback at once, as indices into the
+ * list of vertices. No vertices are added, and those that aren't needed
+ * (repeated points, some collinear ones) are left out.
+ * <P>
+ * The polygon is projected onto the plane it mostly faces, and the contours
+ * are sorted into outlines and holes using the winding rule, by checking
+ * which contours are inside of which. Each outline is joined with its holes
+ * through bridges into a single ring, and cut into triangles by clipping
+ * ears. Large rings are indexed along a z-order curve so that the points
+ * near each ear can be found quickly. This is the approach used by earcut
+ * (https://github.com/mapbox/earcut), which does well on the kind of
+ * shapes found in SVG files and maps.
+ * <P>
+ * Ear clipping doesn't know what to do with edges that cross, so when
+ * contours intersect (or touch) each other, the polygon is passed along to
+ * the fallback tessellator instead, if there is one. Without one, it's
+ * triangulated anyway, and the result is as close as ear clipping gets.
+ * Triangles face the same way as the polygon, the same as GLU.
+ */
+class PolygonTessellator implements PGL.Tessellator {
+  /** Rings with more points than this are indexed by z-order. */
+  static final int HASH_THRESHOLD = 80;
+
+  /** Cells across the grid used to find edges that cross, at most. */
+  static final int MAX_GRID_SIDE = 1 << 19;
+
+  static final int NONE = 0;
+  static final int OUTLINE = 1;
+  static final int HOLE = 2;
+
+
+  interface TriangleCallback {
+    /**
+     * Called at the end of each polygon that has anything to fill. Each
+     * triangle is three entries in indices, pointing into vertices.
+     */
+    public void triangles(double[][] vertices, int vertexCount,
+                          int[] indices, int indexCount);
+  }
+
+
+  protected TriangleCallback callback;
+  protected PGL.Tessellator fallback;
+
+  protected int windingRule;
+  protected boolean oddRule;
+
+  // The polygon as it was given
+  protected double[][] vertices = new double[64][];
+  protected int vertexCount;
+  protected int[] contourStart = new int[8];
+  protected int contourCount;
+
+  // Position of each vertex on the projection plane
+  protected double[] vertexX = new double[64];
+  protected double[] vertexY = new double[64];
+
+  // Contours without repeated points, as lists of vertex indices. Ring r
+  // goes from ringStart[r] to ringStart[r + 1] in ringVertex.
+  protected int[] ringVertex = new int[64];
+  protected int[] ringStart = new int[9];
+  protected int ringCount;
+  protected double[] ringArea = new double[8];
+  protected double[] ringBounds = new double[4 * 8];
+  protected int[] ringKind = new int[8];
+  protected int[] ringParent = new int[8];
+
+  // Nodes of the doubly-linked rings that ears are clipped from, -1 is null
+  protected int nodeCount;
+  protected int[] nodeVertex = new int[64];
+  protected double[] nodeX = new double[64];
+  protected double[] nodeY = new double[64];
+  protected int[] prev = new int[64];
+  protected int[] next = new int[64];
+  protected int[] prevZ = new int[64];
+  protected int[] nextZ = new int[64];
+  protected int[] zOrder = new int[64];
+
+  // For indexing by z-order, invSize is 0 when not in use
+  protected double minX, minY, invSize;
+
+  protected long[] sortKeys = new long[64];
+
+  // Grid for finding edges that cross: the cell and edge of each entry,
+  // and the next entry in the same slot of the table
+  protected int[] edgeNext = new int[64];
+  protected long[] cellKey = new long[128];
+  protected int[] cellEdge = new int[128];
+  protected int[] cellNext = new int[128];
+  protected int[] cellTable = new int[256];
+  protected int[] holes = new int[8];
+
+  protected int[] indices = new int[192];
+  protected int indexCount;
+
+
+  /**
+   * @param fallback tessellator for polygons with intersecting edges,
+   * can be null
+   */
+  PolygonTessellator(TriangleCallback callback, PGL.Tessellator fallback) {
+    this.callback = callback;
+    this.fallback = fallback;
+  }
+
+
+  public void beginPolygon() {
+    vertexCount = 0;
+    contourCount = 0;
+  }
+
+
+  public void setWindingRule(int rule) {
+    windingRule = rule;
+    oddRule = rule == PGL.TESS_WINDING_ODD;
+  }
+
+
+  public void beginContour() {
+    if (contourCount == contourStart.length) {
+      contourStart = Arrays.copyOf(contourStart, contourCount << 1);
+    }
+    contourStart[contourCount++] = vertexCount;
+  }
+
+
+  public void endContour() {
+  }
+
+
+  public void addVertex(double[] v) {
+    if (vertexCount == vertices.length) {
+      vertices = Arrays.copyOf(vertices, vertexCount << 1);
+    }
+    vertices[vertexCount++] = v;
+  }
+
+
+  public void endPolygon() {
+    if (!project()) {
+      // no area, or crossing edges where the parts cancel out (a bow tie)
+      if (fallback != null) replay();
+    } else {
+      makeRings();
+      if (fallback != null && intersecting()) {
+        replay();
+      } else {
+        triangulate();
+      }
+    }
+    // don't hang on to the vertex data
+    Arrays.fill(vertices, 0, vertexCount, null);
+  }
+
+
+  protected void triangulate() {
+    classify();
+    indexCount = 0;
+    for (int r = 0; r < ringCount; r++) {
+      if (ringKind[r] == OUTLINE) {
+        int holeCount = 0;
+        for (int h = 0; h < ringCount; h++) {
+          if (ringKind[h] == HOLE && ringParent[h] == r) {
+            if (holeCount == holes.length) {
+              holes = Arrays.copyOf(holes, holeCount << 1);
+            }
+            holes[holeCount++] = h;
+          }
+        }
+        triangulate(r, holeCount);
+      }
+    }
+    if (0 < indexCount) {
+      callback.triangles(vertices, vertexCount, indices, indexCount);
+    }
+  }
+
+
+  /** Send the polygon to the fallback tessellator, just as it came in. */
+  protected void replay() {
+    fallback.beginPolygon();
+    fallback.setWindingRule(windingRule);
+    for (int c = 0; c < contourCount; c++) {
+      fallback.beginContour();
+      int end = contourEnd(c);
+      for (int i = contourStart[c]; i < end; i++) {
+        fallback.addVertex(vertices[i]);
+      }
+      fallback.endContour();
+    }
+    fallback.endPolygon();
+  }
+
+
+  protected int contourEnd(int c) {
+    return c + 1 < contourCount ? contourStart[c + 1] : vertexCount;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // Projection and contours
+
+
+  /**
+   * Find the normal of the polygon (Newell's method for each contour, which
+   * works for concave ones as well), and drop the coordinate that it points
+   * along the most. The other two are swapped if needed so that the polygon
+   * goes counter-clockwise around the normal, which then also holds on the
+   * plane. Contours that go the other way still count toward finding the
+   * plane, so that a polygon made of two that cancel out has one. Returns
+   * false if the polygon has no area.
+   */
+  protected boolean project() {
+    double nx = 0, ny = 0, nz = 0;  // the sum
+    double px = 0, py = 0, pz = 0;  // with each contour facing the same way
+    for (int c = 0; c < contourCount; c++) {
+      int start = contourStart[c];
+      int end = contourEnd(c);
+      if (end - start < 3) continue;
+      double cx = 0, cy = 0, cz = 0;
+      double[] p = vertices[end - 1];
+      for (int i = start; i < end; i++) {
+        double[] q = vertices[i];
+        cx += (p[1] - q[1]) * (p[2] + q[2]);
+        cy += (p[2] - q[2]) * (p[0] + q[0]);
+        cz += (p[0] - q[0]) * (p[1] + q[1]);
+        p = q;
+      }
+      nx += cx;
+      ny += cy;
+      nz += cz;
+      if (px * cx + py * cy + pz * cz < 0) {
+        px -= cx;
+        py -= cy;
+        pz -= cz;
+      } else {
+        px += cx;
+        py += cy;
+        pz += cz;
+      }
+    }
+    double ax = Math.abs(px), ay = Math.abs(py), az = Math.abs(pz);
+    int u, v;
+    if (az >= ax && az >= ay) {
+      if (az == 0) return false;
+      u = nz >= 0 ? 0 : 1;
+      v = nz >= 0 ? 1 : 0;
+    } else if (ax >= ay) {
+      u = nx >= 0 ? 1 : 2;
+      v = nx >= 0 ? 2 : 1;
+    } else {
+      u = ny >= 0 ? 2 : 0;
+      v = ny >= 0 ? 0 : 2;
+    }
+
+    if (vertexX.length < vertexCount) {
+      vertexX = new double[vertices.length];
+      vertexY = new double[vertices.length];
+    }
+    for (int i = 0; i < vertexCount; i++) {
+      vertexX[i] = vertices[i][u];
+      vertexY[i] = vertices[i][v];
+    }
+    return true;
+  }
+
+
+  /**
+   * Build the rings from the contours, leaving out repeated points and
+   * contours with less than three left. Also finds the signed area of each
+   * ring (positive when counter-clockwise) and its bounding box.
+   */
+  protected void makeRings() {
+    if (ringVertex.length < vertexCount) {
+      ringVertex = new int[vertices.length];
+    }
+    int count = 0;
+    ringCount = 0;
+    for (int c = 0; c < contourCount; c++) {
+      int first = count;
+      int end = contourEnd(c);
+      for (int i = contourStart[c]; i < end; i++) {
+        if (count == first || !samePoint(ringVertex[count - 1], i)) {
+          ringVertex[count++] = i;
+        }
+      }
+      while (count - first > 1 &&
+             samePoint(ringVertex[count - 1], ringVertex[first])) {
+        count--;
+      }
+      if (count - first < 3) {
+        count = first;
+        continue;
+      }
+
+      if (ringCount + 1 == ringStart.length) {
+        int size = ringCount << 1;
+        ringStart = Arrays.copyOf(ringStart, size + 1);
+        ringArea = Arrays.copyOf(ringArea, size);
+        ringBounds = Arrays.copyOf(ringBounds, 4 * size);
+        ringKind = Arrays.copyOf(ringKind, size);
+        ringParent = Arrays.copyOf(ringParent, size);
+      }
+      double area = 0;
+      double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+      double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+      int j = ringVertex[count - 1];
+      for (int k = first; k < count; k++) {
+        int i = ringVertex[k];
+        double x = vertexX[i], y = vertexY[i];
+        area += vertexX[j] * y - x * vertexY[j];
+        if (x < x0) x0 = x;
+        if (x > x1) x1 = x;
+        if (y < y0) y0 = y;
+        if (y > y1) y1 = y;
+        j = i;
+      }
+      ringStart[ringCount] = first;
+      ringArea[ringCount] = area / 2;
+      ringBounds[4 * ringCount + 0] = x0;
+      ringBounds[4 * ringCount + 1] = y0;
+      ringBounds[4 * ringCount + 2] = x1;
+      ringBounds[4 * ringCount + 3] = y1;
+      ringCount++;
+    }
+    ringStart[ringCount] = count;
+  }
+
+
+  protected boolean samePoint(int i, int j) {
+    return vertexX[i] == vertexX[j] && vertexY[i] == vertexY[j];
+  }
+
+
+  /**
+   * True if any two edges that aren't next to each other in the same ring
+   * cross or touch. Each edge is listed under the cells of a grid that it
+   * passes through, with the cells about twice as big as the average edge,
+   * and only checked against the others listed in the same cells. Only the
+   * cells that have something in them take up any room, since they're kept
+   * in a hash table rather than an array for the whole grid.
+   */
+  protected boolean intersecting() {
+    int edgeCount = ringStart[ringCount];
+    if (edgeNext.length < edgeCount) {
+      edgeNext = new int[ringVertex.length];
+    }
+    double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+    double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+    double length = 0;
+    for (int r = 0; r < ringCount; r++) {
+      int start = ringStart[r], end = ringStart[r + 1];
+      for (int e = start; e < end; e++) {
+        int f = e + 1 < end ? e + 1 : start;
+        edgeNext[e] = f;
+        int i = ringVertex[e], j = ringVertex[f];
+        length += Math.max(Math.abs(vertexX[j] - vertexX[i]),
+                           Math.abs(vertexY[j] - vertexY[i]));
+      }
+      x0 = Math.min(x0, ringBounds[4 * r + 0]);
+      y0 = Math.min(y0, ringBounds[4 * r + 1]);
+      x1 = Math.max(x1, ringBounds[4 * r + 2]);
+      y1 = Math.max(y1, ringBounds[4 * r + 3]);
+    }
+    double extent = Math.max(x1 - x0, y1 - y0);
+    double size = Math.max(2 * length / edgeCount, extent / MAX_GRID_SIDE);
+    double scale = 1 / size;
+    // so that a point on the line between two cells is in both
+    double pad = size * 1e-6;
+
+    int count = 0;
+    for (int e = 0; e < edgeCount; e++) {
+      int i = ringVertex[e], j = ringVertex[edgeNext[e]];
+      if (vertexX[j] < vertexX[i]) {
+        int k = i; i = j; j = k;
+      }
+      double ax = vertexX[i], ay = vertexY[i];
+      double bx = vertexX[j], by = vertexY[j];
+      int cx0 = (int) ((ax - pad - x0) * scale);
+      int cx1 = (int) ((bx + pad - x0) * scale);
+      for (int cx = Math.max(cx0, 0); cx <= cx1; cx++) {
+        // the part of the edge that's inside this column, or all of it
+        // for a vertical edge, which can be in two columns when it's on
+        // the line between them
+        double ya = ay, yb = by;
+        if (cx0 < cx1 && bx != ax) {
+          double left = Math.max(ax, x0 + cx * size);
+          double right = Math.min(bx, x0 + (cx + 1) * size);
+          double slope = (by - ay) / (bx - ax);
+          ya = ay + (left - ax) * slope;
+          yb = ay + (right - ax) * slope;
+        }
+        int cy0 = (int) ((Math.min(ya, yb) - pad - y0) * scale);
+        int cy1 = (int) ((Math.max(ya, yb) + pad - y0) * scale);
+        for (int cy = Math.max(cy0, 0); cy <= cy1; cy++) {
+          if (count == cellKey.length) {
+            cellKey = Arrays.copyOf(cellKey, count << 1);
+            cellEdge = Arrays.copyOf(cellEdge, count << 1);
+            cellNext = Arrays.copyOf(cellNext, count << 1);
+          }
+          cellKey[count] = ((long) cx << 32) | cy;
+          cellEdge[count] = e;
+          count++;
+        }
+      }
+    }
+
+    // chain together the entries that land in the same slot of the table
+    int bits = 32 - Integer.numberOfLeadingZeros(count);
+    int slots = 2 << bits;
+    if (cellTable.length < slots) {
+      cellTable = new int[slots];
+    }
+    Arrays.fill(cellTable, 0, slots, -1);
+    for (int a = 0; a < count; a++) {
+      long key = cellKey[a];
+      int h = ((int) (key >>> 32) * 0x9E3779B1 + (int) key) * 0x85EBCA6B;
+      h >>>= 32 - (bits + 1);
+      cellNext[a] = cellTable[h];
+      cellTable[h] = a;
+    }
+
+    for (int h = 0; h < slots; h++) {
+      for (int a = cellTable[h]; a != -1; a = cellNext[a]) {
+        int e = cellEdge[a];
+        int e1 = edgeNext[e];
+        int i = ringVertex[e], j = ringVertex[e1];
+        for (int b = cellNext[a]; b != -1; b = cellNext[b]) {
+          if (cellKey[b] != cellKey[a]) {
+            continue;  // a different cell
+          }
+          int f = cellEdge[b];
+          int f1 = edgeNext[f];
+          if (f1 == e || e1 == f) {
+            continue;  // neighbors, sharing a point
+          }
+          int k = ringVertex[f], l = ringVertex[f1];
+          if (Math.max(vertexX[k], vertexX[l]) >= Math.min(vertexX[i], vertexX[j]) &&
+              Math.min(vertexX[k], vertexX[l]) <= Math.max(vertexX[i], vertexX[j]) &&
+              Math.max(vertexY[k], vertexY[l]) >= Math.min(vertexY[i], vertexY[j]) &&
+              Math.min(vertexY[k], vertexY[l]) <= Math.max(vertexY[i], vertexY[j]) &&
+              segmentsIntersect(vertexX[i], vertexY[i], vertexX[j], vertexY[j],
+                                vertexX[k], vertexY[k], vertexX[l], vertexY[l])) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+
+  /** Turns a float into an int that sorts the same way. */
+  static protected int sortable(double value) {
+    int bits = Float.floatToIntBits((float) value);
+    return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+  }
+
+
+  /**
+   * Decide which rings are outlines (filled on the inside but not outside),
+   * which are holes (the other way around), and which don't matter (the
+   * same on both sides, such as a ring inside another one that goes the
+   * same way, with the nonzero rule). Each hole is assigned to the smallest
+   * outline around it.
+   */
+  protected void classify() {
+    for (int r = 0; r < ringCount; r++) {
+      int i = ringVertex[ringStart[r]];
+      double x = vertexX[i], y = vertexY[i];
+      int outside = 0;
+      for (int o = 0; o < ringCount; o++) {
+        if (o != r && inBounds(o, x, y)) {
+          outside += winding(o, x, y);
+        }
+      }
+      int inside = outside + (ringArea[r] > 0 ? 1 : -1);
+      boolean filledIn = filled(inside);
+      boolean filledOut = filled(outside);
+      if (filledIn && !filledOut) {
+        ringKind[r] = OUTLINE;
+      } else if (!filledIn && filledOut) {
+        ringKind[r] = HOLE;
+      } else {
+        ringKind[r] = NONE;
+      }
+    }
+
+    for (int h = 0; h < ringCount; h++) {
+      if (ringKind[h] != HOLE) continue;
+      int i = ringVertex[ringStart[h]];
+      double x = vertexX[i], y = vertexY[i];
+      int parent = -1;
+      double parentArea = Double.MAX_VALUE;
+      for (int o = 0; o < ringCount; o++) {
+        if (ringKind[o] == OUTLINE && inBounds(o, x, y)) {
+          double area = Math.abs(ringArea[o]);
+          if (area < parentArea && winding(o, x, y) != 0) {
+            parent = o;
+            parentArea = area;
+          }
+        }
+      }
+      ringParent[h] = parent;
+    }
+  }
+
+
+  protected boolean filled(int winding) {
+    return oddRule ? (winding & 1) != 0 : winding != 0;
+  }
+
+
+  protected boolean inBounds(int r, double x, double y) {
+    int b = 4 * r;
+    return ringBounds[b] <= x && x <= ringBounds[b + 2] &&
+           ringBounds[b + 1] <= y && y <= ringBounds[b + 3];
+  }
+
+
+  /** Winding number of ring r around the point x, y. */
+  protected int winding(int r, double x, double y) {
+    int w = 0;
+    int end = ringStart[r + 1];
+    int j = ringVertex[end - 1];
+    for (int k = ringStart[r]; k < end; k++) {
+      int i = ringVertex[k];
+      double x0 = vertexX[j], y0 = vertexY[j];
+      double x1 = vertexX[i], y1 = vertexY[i];
+      if (y0 <= y) {
+        if (y1 > y && (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0) > 0) w++;
+      } else {
+        if (y1 <= y && (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0) < 0) w--;
+      }
+      j = i;
+    }
+    return w;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // Ear clipping
+
+
+  /** Triangulate an outline along with the first holeCount in holes. */
+  protected void triangulate(int outline, int holeCount) {
+    nodeCount = 0;
+    int outer = linkRing(outline, true);
+    if (outer == -1 || next[outer] == prev[outer]) return;
+
+    if (0 < holeCount) {
+      outer = eliminateHoles(holeCount, outer);
+    }
+
+    invSize = 0;
+    if (HASH_THRESHOLD < nodeCount) {
+      int b = 4 * outline;
+      minX = ringBounds[b];
+      minY = ringBounds[b + 1];
+      double size = Math.max(ringBounds[b + 2] - minX, ringBounds[b + 3] - minY);
+      invSize = size != 0 ? 32767 / size : 0;
+    }
+    clipEars(outer, 0);
+  }
+
+
+  /**
+   * Make a linked ring out of ring r, counter-clockwise for an outline,
+   * clockwise for a hole. Returns its last node.
+   */
+  protected int linkRing(int r, boolean outline) {
+    int start = ringStart[r], end = ringStart[r + 1];
+    int last = -1;
+    if (outline == (ringArea[r] > 0)) {
+      for (int k = start; k < end; k++) {
+        last = insertNode(ringVertex[k], last);
+      }
+    } else {
+      for (int k = end - 1; k >= start; k--) {
+        last = insertNode(ringVertex[k], last);
+      }
+    }
+    return last;
+  }
+
+
+  protected int eliminateHoles(int holeCount, int outer) {
+    if (sortKeys.length < holeCount) {
+      sortKeys = new long[holeCount];
+    }
+    for (int h = 0; h < holeCount; h++) {
+      int left = leftmost(linkRing(holes[h], false));
+      sortKeys[h] = ((long) sortable(nodeX[left]) << 32) | left;
+    }
+    // from left to right, so that holes are bridged to the ones before them
+    Arrays.sort(sortKeys, 0, holeCount);
+    for (int h = 0; h < holeCount; h++) {
+      outer = eliminateHole((int) sortKeys[h], outer);
+    }
+    return outer;
+  }
+
+
+  protected int eliminateHole(int hole, int outer) {
+    int bridge = findHoleBridge(hole, outer);
+    if (bridge == -1) return outer;
+    int bridgeReverse = splitPolygon(bridge, hole);
+    // filter collinear points around the cuts
+    int filtered = filterPoints(bridge, next[bridge]);
+    filterPoints(bridgeReverse, next[bridgeReverse]);
+    return outer == bridge ? filtered : outer;
+  }
+
+
+  /**
+   * Find a point on the outline that the leftmost point of the hole can be
+   * connected to. Looks to the left for the nearest edge, then picks its
+   * endpoint, unless other points are in the way, in which case the one
+   * closest in angle to the ray to the left is used.
+   */
+  protected int findHoleBridge(int hole, int outer) {
+    double hx = nodeX[hole], hy = nodeY[hole];
+    double qx = -Double.MAX_VALUE;
+    int m = -1;
+    int p = outer;
+    do {
+      int n = next[p];
+      if (hy <= nodeY[p] && hy >= nodeY[n] && nodeY[n] != nodeY[p]) {
+        double x = nodeX[p] + (hy - nodeY[p]) * (nodeX[n] - nodeX[p]) /
+                   (nodeY[n] - nodeY[p]);
+        if (x <= hx && x > qx) {
+          qx = x;
+          m = nodeX[p] < nodeX[n] ? p : n;
+          if (x == hx) return m;  // touches the edge, use its left end
+        }
+      }
+      p = n;
+    } while (p != outer);
+    if (m == -1) return -1;
+
+    int stop = m;
+    double mx = nodeX[m], my = nodeY[m];
+    double tanMin = Double.MAX_VALUE;
+    p = m;
+    do {
+      double px = nodeX[p], py = nodeY[p];
+      if (hx >= px && px >= mx && hx != px &&
+          pointInTriangle(hy < my ? hx : qx, hy, mx, my,
+                          hy < my ? qx : hx, hy, px, py)) {
+        double tan = Math.abs(hy - py) / (hx - px);
+        if (locallyInside(p, hole) &&
+            (tan < tanMin ||
+             (tan == tanMin &&
+              (px > nodeX[m] ||
+               (px == nodeX[m] && sectorContainsSector(m, p)))))) {
+          m = p;
+          tanMin = tan;
+        }
+      }
+      p = next[p];
+    } while (p != stop);
+    return m;
+  }
+
+
+  protected boolean sectorContainsSector(int m, int p) {
+    return area(prev[m], m, prev[p]) < 0 && area(next[p], m, next[m]) < 0;
+  }
+
+
+  protected int leftmost(int start) {
+    int p = start, left = start;
+    do {
+      if (nodeX[p] < nodeX[left] ||
+          (nodeX[p] == nodeX[left] && nodeY[p] < nodeY[left])) {
+        left = p;
+      }
+      p = next[p];
+    } while (p != start);
+    return left;
+  }
+
+
+  /**
+   * The main loop. Clips an ear whenever there is one, and when it has gone
+   * all the way around without finding any, first removes repeated and
+   * collinear points, then fixes up small self-intersections, and finally
+   * splits the ring in two and does each half.
+   */
+  protected void clipEars(int ear, int pass) {
+    if (ear == -1) return;
+    if (pass == 0 && invSize != 0) indexCurve(ear);
+
+    int stop = ear;
+    while (prev[ear] != next[ear]) {
+      int p = prev[ear], n = next[ear];
+      if (invSize != 0 ? isEarHashed(ear) : isEar(ear)) {
+        addTriangle(nodeVertex[p], nodeVertex[ear], nodeVertex[n]);
+        removeNode(ear);
+        // skipping the next vertex makes for fewer thin triangles
+        ear = next[n];
+        stop = next[n];
+        continue;
+      }
+      ear = n;
+      if (ear == stop) {
+        if (pass == 0) {
+          clipEars(filterPoints(ear, -1), 1);
+        } else if (pass == 1) {
+          ear = cureLocalIntersections(filterPoints(ear, -1));
+          clipEars(ear, 2);
+        } else if (pass == 2) {
+          splitEars(ear);
+        }
+        break;
+      }
+    }
+  }
+
+
+  protected boolean isEar(int ear) {
+    int a = prev[ear], c = next[ear];
+    if (area(a, ear, c) >= 0) return false;  // reflex
+
+    double ax = nodeX[a], bx = nodeX[ear], cx = nodeX[c];
+    double ay = nodeY[a], by = nodeY[ear], cy = nodeY[c];
+    double x0 = Math.min(ax, Math.min(bx, cx));
+    double y0 = Math.min(ay, Math.min(by, cy));
+    double x1 = Math.max(ax, Math.max(bx, cx));
+    double y1 = Math.max(ay, Math.max(by, cy));
+
+    // only reflex points can be inside
+    int p = next[c];
+    while (p != a) {
+      double px = nodeX[p], py = nodeY[p];
+      if (px >= x0 && px <= x1 && py >= y0 && py <= y1 &&
+          pointInTriangle(ax, ay, bx, by, cx, cy, px, py) &&
+          area(prev[p], p, next[p]) >= 0) return false;
+      p = next[p];
+    }
+    return true;
+  }
+
+
+  /** Same as isEar(), but only looks at points in the z-order range. */
+  protected boolean isEarHashed(int ear) {
+    int a = prev[ear], c = next[ear];
+    if (area(a, ear, c) >= 0) return false;
+
+    double ax = nodeX[a], bx = nodeX[ear], cx = nodeX[c];
+    double ay = nodeY[a], by = nodeY[ear], cy = nodeY[c];
+    double x0 = Math.min(ax, Math.min(bx, cx));
+    double y0 = Math.min(ay, Math.min(by, cy));
+    double x1 = Math.max(ax, Math.max(bx, cx));
+    double y1 = Math.max(ay, Math.max(by, cy));
+    int minZ = zOrder(x0, y0);
+    int maxZ = zOrder(x1, y1);
+
+    // look in both directions at once
+    int p = prevZ[ear], n = nextZ[ear];
+    while (p != -1 && zOrder[p] >= minZ && n != -1 && zOrder[n] <= maxZ) {
+      if (blocksEar(p, a, c, x0, y0, x1, y1)) return false;
+      p = prevZ[p];
+      if (blocksEar(n, a, c, x0, y0, x1, y1)) return false;
+      n = nextZ[n];
+    }
+    while (p != -1 && zOrder[p] >= minZ) {
+      if (blocksEar(p, a, c, x0, y0, x1, y1)) return false;
+      p = prevZ[p];
+    }
+    while (n != -1 && zOrder[n] <= maxZ) {
+      if (blocksEar(n, a, c, x0, y0, x1, y1)) return false;
+      n = nextZ[n];
+    }
+    return true;
+  }
+
+
+  protected boolean blocksEar(int p, int a, int c,
+                              double x0, double y0, double x1, double y1) {
+    double px = nodeX[p], py = nodeY[p];
+    int b = next[a];
+    return p != a && p != c &&
+      px >= x0 && px <= x1 && py >= y0 && py <= y1 &&
+      pointInTriangle(nodeX[a], nodeY[a], nodeX[b], nodeY[b],
+                      nodeX[c], nodeY[c], px, py) &&
+      area(prev[p], p, next[p]) >= 0;
+  }
+
+
+  /** Remove repeated points and points between two collinear edges. */
+  protected int filterPoints(int start, int end) {
+    if (start == -1) return start;
+    if (end == -1) end = start;
+
+    int p = start;
+    boolean again;
+    do {
+      again = false;
+      if (equals(p, next[p]) || area(prev[p], p, next[p]) == 0) {
+        removeNode(p);
+        p = end = prev[p];
+        if (p == next[p]) break;
+        again = true;
+      } else {
+        p = next[p];
+      }
+    } while (again || p != end);
+    return end;
+  }
+
+
+  /** Clip off a triangle where two edges next to each other cross. */
+  protected int cureLocalIntersections(int start) {
+    int p = start;
+    do {
+      int a = prev[p], b = next[next[p]];
+      if (!equals(a, b) && intersects(a, p, next[p], b) &&
+          locallyInside(a, b) && locallyInside(b, a)) {
+        addTriangle(nodeVertex[a], nodeVertex[p], nodeVertex[b]);
+        removeNode(p);
+        removeNode(next[p]);
+        p = start = b;
+      }
+      p = next[p];
+    } while (p != start);
+    return filterPoints(p, -1);
+  }
+
+
+  /** Split the ring in two along a diagonal, and triangulate both. */
+  protected void splitEars(int start) {
+    int a = start;
+    do {
+      int b = next[next[a]];
+      while (b != prev[a]) {
+        if (nodeVertex[a] != nodeVertex[b] && isValidDiagonal(a, b)) {
+          int c = splitPolygon(a, b);
+          a = filterPoints(a, next[a]);
+          c = filterPoints(c, next[c]);
+          clipEars(a, 0);
+          clipEars(c, 0);
+          return;
+        }
+        b = next[b];
+      }
+      a = next[a];
+    } while (a != start);
+  }
+
+
+  protected boolean isValidDiagonal(int a, int b) {
+    return nodeVertex[next[a]] != nodeVertex[b] &&
+      nodeVertex[prev[a]] != nodeVertex[b] &&
+      !intersectsPolygon(a, b) &&
+      ((locallyInside(a, b) && locallyInside(b, a) && middleInside(a, b) &&
+        // doesn't make sectors that face opposite ways
+        (area(prev[a], a, prev[b]) != 0 || area(a, prev[b], b) != 0)) ||
+       // zero length
+       (equals(a, b) && area(prev[a], a, next[a]) > 0 &&
+        area(prev[b], b, next[b]) > 0));
+  }
+
+
+  protected boolean intersectsPolygon(int a, int b) {
+    int p = a;
+    do {
+      int n = next[p];
+      if (nodeVertex[p] != nodeVertex[a] && nodeVertex[n] != nodeVertex[a] &&
+          nodeVertex[p] != nodeVertex[b] && nodeVertex[n] != nodeVertex[b] &&
+          intersects(p, n, a, b)) return true;
+      p = n;
+    } while (p != a);
+    return false;
+  }
+
+
+  /** Whether the diagonal from a to b starts out inside the ring. */
+  protected boolean locallyInside(int a, int b) {
+    return area(prev[a], a, next[a]) < 0 ?
+      area(a, b, next[a]) >= 0 && area(a, prev[a], b) >= 0 :
+      area(a, b, prev[a]) < 0 || area(a, next[a], b) < 0;
+  }
+
+
+  /** Whether the middle of the diagonal from a to b is inside the ring. */
+  protected boolean middleInside(int a, int b) {
+    int p = a;
+    boolean inside = false;
+    double px = (nodeX[a] + nodeX[b]) / 2;
+    double py = (nodeY[a] + nodeY[b]) / 2;
+    do {
+      int n = next[p];
+      if ((nodeY[p] > py) != (nodeY[n] > py) && nodeY[n] != nodeY[p] &&
+          px < (nodeX[n] - nodeX[p]) * (py - nodeY[p]) /
+               (nodeY[n] - nodeY[p]) + nodeX[p]) {
+        inside = !inside;
+      }
+      p = n;
+    } while (p != a);
+    return inside;
+  }
+
+
+  /**
+   * Connect a to b with a bridge. This splits a ring in two, or joins two
+   * rings into one. a and b are copied, so that each side gets its own.
+   * Returns the copy of b.
+   */
+  protected int splitPolygon(int a, int b) {
+    int a2 = newNode(nodeVertex[a]);
+    int b2 = newNode(nodeVertex[b]);
+    int an = next[a];
+    int bp = prev[b];
+
+    next[a] = b;
+    prev[b] = a;
+    next[a2] = an;
+    prev[an] = a2;
+    next[b2] = a2;
+    prev[a2] = b2;
+    next[bp] = b2;
+    prev[b2] = bp;
+    return b2;
+  }
+
+
+  protected int newNode(int vertex) {
+    if (nodeCount == nodeVertex.length) {
+      int size = nodeCount << 1;
+      nodeVertex = Arrays.copyOf(nodeVertex, size);
+      nodeX = Arrays.copyOf(nodeX, size);
+      nodeY = Arrays.copyOf(nodeY, size);
+      prev = Arrays.copyOf(prev, size);
+      next = Arrays.copyOf(next, size);
+      prevZ = Arrays.copyOf(prevZ, size);
+      nextZ = Arrays.copyOf(nextZ, size);
+      zOrder = Arrays.copyOf(zOrder, size);
+    }
+    int p = nodeCount++;
+    nodeVertex[p] = vertex;
+    nodeX[p] = vertexX[vertex];
+    nodeY[p] = vertexY[vertex];
+    prev[p] = next[p] = p;
+    prevZ[p] = nextZ[p] = -1;
+    zOrder[p] = 0;
+    return p;
+  }
+
+
+  protected int insertNode(int vertex, int last) {
+    int p = newNode(vertex);
+    if (last != -1) {
+      next[p] = next[last];
+      prev[p] = last;
+      prev[next[last]] = p;
+      next[last] = p;
+    }
+    return p;
+  }
+
+
+  protected void removeNode(int p) {
+    next[prev[p]] = next[p];
+    prev[next[p]] = prev[p];
+    if (prevZ[p] != -1) nextZ[prevZ[p]] = nextZ[p];
+    if (nextZ[p] != -1) prevZ[nextZ[p]] = prevZ[p];
+  }
+
+
+  protected void addTriangle(int i0, int i1, int i2) {
+    if (indices.length < indexCount + 3) {
+      indices = Arrays.copyOf(indices, indices.length << 1);
+    }
+    indices[indexCount++] = i0;
+    indices[indexCount++] = i1;
+    indices[indexCount++] = i2;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // Z-order index
+
+
+  /** Link the nodes of the ring in z-order, through prevZ and nextZ. */
+  protected void indexCurve(int start) {
+    int count = 0;
+    int p = start;
+    do {
+      zOrder[p] = zOrder(nodeX[p], nodeY[p]);
+      if (sortKeys.length == count) {
+        sortKeys = Arrays.copyOf(sortKeys, count << 1);
+      }
+      sortKeys[count++] = ((long) zOrder[p] << 32) | p;
+      p = next[p];
+    } while (p != start);
+    Arrays.sort(sortKeys, 0, count);
+
+    int last = -1;
+    for (int k = 0; k < count; k++) {
+      p = (int) sortKeys[k];
+      prevZ[p] = last;
+      nextZ[p] = -1;
+      if (last != -1) nextZ[last] = p;
+      last = p;
+    }
+  }
+
+
+  /** Interleave the bits of x and y, scaled to 15 bits each. */
+  protected int zOrder(double x, double y) {
+    int ix = (int) ((x - minX) * invSize);
+    int iy = (int) ((y - minY) * invSize);
+
+    ix = (ix | (ix << 8)) & 0x00FF00FF;
+    ix = (ix | (ix << 4)) & 0x0F0F0F0F;
+    ix = (ix | (ix << 2)) & 0x33333333;
+    ix = (ix | (ix << 1)) & 0x55555555;
+
+    iy = (iy | (iy << 8)) & 0x00FF00FF;
+    iy = (iy | (iy << 4)) & 0x0F0F0F0F;
+    iy = (iy | (iy << 2)) & 0x33333333;
+    iy = (iy | (iy << 1)) & 0x55555555;
+
+    return ix | (iy << 1);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // Geometry
+
+
+  /** Twice the signed area of the triangle, negative if counter-clockwise. */
+  protected double area(int p, int q, int r) {
+    return (nodeY[q] - nodeY[p]) * (nodeX[r] - nodeX[q]) -
+           (nodeX[q] - nodeX[p]) * (nodeY[r] - nodeY[q]);
+  }
+
+
+  protected boolean equals(int p, int q) {
+    return nodeX[p] == nodeX[q] && nodeY[p] == nodeY[q];
+  }
+
+
+  protected boolean intersects(int p1, int q1, int p2, int q2) {
+    return segmentsIntersect(nodeX[p1], nodeY[p1], nodeX[q1], nodeY[q1],
+                             nodeX[p2], nodeY[p2], nodeX[q2], nodeY[q2]);
+  }
+
+
+  /** Whether the point is inside the counter-clockwise triangle abc. */
+  static protected boolean pointInTriangle(double ax, double ay,
+                                           double bx, double by,
+                                           double cx, double cy,
+                                           double px, double py) {
+    return (cx - px) * (ay - py) >= (ax - px) * (cy - py) &&
+           (ax - px) * (by - py) >= (bx - px) * (ay - py) &&
+           (bx - px) * (cy - py) >= (cx - px) * (by - py);
+  }
+
+
+  /** Whether segments p1-q1 and p2-q2 cross or touch. */
+  static protected boolean segmentsIntersect(double p1x, double p1y,
+                                             double q1x, double q1y,
+                                             double p2x, double p2y,
+                                             double q2x, double q2y) {
+    int o1 = sign(orient(p1x, p1y, q1x, q1y, p2x, p2y));
+    int o2 = sign(orient(p1x, p1y, q1x, q1y, q2x, q2y));
+    if (o1 == o2 && o1 != 0) return false;  // both on the same side
+    int o3 = sign(orient(p2x, p2y, q2x, q2y, p1x, p1y));
+    int o4 = sign(orient(p2x, p2y, q2x, q2y, q1x, q1y));
+
+    if (o1 != o2 && o3 != o4) return true;
+    // collinear, and one of them ends on the other
+    if (o1 == 0 && onSegment(p1x, p1y, p2x, p2y, q1x, q1y)) return true;
+    if (o2 == 0 && onSegment(p1x, p1y, q2x, q2y, q1x, q1y)) return true;
+    if (o3 == 0 && onSegment(p2x, p2y, p1x, p1y, q2x, q2y)) return true;
+    if (o4 == 0 && onSegment(p2x, p2y, q1x, q1y, q2x, q2y)) return true;
+    return false;
+  }
+
+
+  static protected double orient(double px, double py, double qx, double qy,
+                                 double rx, double ry) {
+    return (qy - py) * (rx - qx) - (qx - px) * (ry - qy);
+  }
+
+
+  static protected int sign(double value) {
+    return value > 0 ? 1 : (value < 0 ? -1 : 0);
+  }
+
+
+  /** For collinear p, q, r, whether q is between p and r. */
+  static protected boolean onSegment(double px, double py, double qx,
+                                     double qy, double rx, double ry) {
+    return qx <= Math.max(px, rx) && qx >= Math.min(px, rx) &&
+           qy <= Math.max(py, ry) && qy >= Math.min(py, ry);
+  }
+}
@@ -23,6 +23,7 @@
 package processing.dxf;
 
 import java.io.*;
+import java.util.Arrays;
 
 import processing.core.*;
 
@@ -105,6 +106,11 @@ import processing.core.*;
  * Note that even though this class is a subclass of PGraphics, it only
  * implements the parts of the API that are necessary for beginRaw/endRaw.
  * <P/>
+ * If the file name ends with .gz, the file will be compressed. For large
+ * meshes, call dxf.setMesh(true) to write the triangles as polyface meshes,
+ * where vertices that are shared between triangles are only written once,
+ * instead of as a separate 3DFACE for each triangle.
+ * <P/>
  * Based on the original DXF writer from Simon Greenwold, February 2004.
  * Updated for Processing 0070 by Ben Fry in September 2004,
  * and again for Processing beta in April 2005.
@@ -118,6 +124,34 @@ public class RawDXF extends PGraphics {
   PrintWriter writer;
   int currentLayer;
 
+  /** Size of the buffer in front of the file, in chars. */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Most vertices and faces in a polyface mesh, since a lot of programs
+   * read their counts and indices as 16-bit numbers.
+   */
+  static final int MESH_MAX = 32767;
+
+  static final double[] POWERS_OF_TEN = new double[19];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+    }
+  }
+
+  /** Numbers are formatted here, rather than through Strings. */
+  char[] numberBuffer = new char[32];
+
+  boolean mesh;
+  int meshVertexCount;
+  float[] meshVertices;
+  int meshFaceCount;
+  int[] meshFaces;
+  /** Open addressing hash from vertex coordinates to (index + 1). */
+  int[] meshTable;
+
 
   public RawDXF() { }
 
@@ -149,6 +183,7 @@ public class RawDXF extends PGraphics {
 
 
   public void dispose() {
+    writeMesh();
     writeFooter();
 
     writer.flush();
@@ -180,7 +215,12 @@ public class RawDXF extends PGraphics {
     // available in allocate()
     if (writer == null) {
       try {
-        writer = new PrintWriter(new FileWriter(file));
+        OutputStream output = PApplet.createOutput(file);
+        if (output == null) {
+          throw new IOException("Couldn't create " + file.getAbsolutePath());
+        }
+        Writer osw = new OutputStreamWriter(output, "UTF-8");
+        writer = new PrintWriter(new BufferedWriter(osw, BUFFER_SIZE));
       } catch (IOException e) {
         throw new RuntimeException(e);  // java 1.4+
       }
@@ -202,10 +242,28 @@ public class RawDXF extends PGraphics {
    * The default is zero.
    */
   public void setLayer(int layer) {
+    if (layer != currentLayer) {
+      writeMesh();  // a mesh goes on a single layer
+    }
     currentLayer = layer;
   }
 
 
+  /**
+   * Write triangles as polyface meshes, so that vertices shared between
+   * triangles are only written once, instead of writing each triangle as
+   * its own 3DFACE. The default is false. Vertices are shared when their
+   * coordinates are exactly the same. A new mesh is started whenever the
+   * layer changes, or a mesh reaches 32767 vertices or faces.
+   */
+  public void setMesh(boolean mesh) {
+    if (!mesh) {
+      writeMesh();
+    }
+    this.mesh = mesh;
+  }
+
+
   // ..............................................................
 
 
@@ -232,9 +290,117 @@ public class RawDXF extends PGraphics {
    */
   public void write(String cmd, float val) {
     writer.println(cmd);
-    // don't format, will cause trouble on systems that aren't en-us
+    // don't use String.format() or NumberFormat, will cause trouble on
+    // systems that aren't en-us
     // http://dev.processing.org/bugs/show_bug.cgi?id=495
-    writer.println(val);
+    int length = formatFloat(val);
+    if (length == -1) {
+      writer.println(val);
+    } else {
+      writer.write(numberBuffer, 0, length);
+      writer.println();
+    }
+  }
+
+
+  /**
+   * Write a command on one line (as a String), then start a new line
+   * and write out an integer.
+   */
+  public void write(String cmd, int val) {
+    writer.println(cmd);
+    writer.write(numberBuffer, 0, formatLong(val, numberBuffer, 0, 1));
+    writer.println();
+  }
+
+
+  /**
+   * Put the shortest decimal that reads back as the same float into
+   * numberBuffer, and return its length. Returns -1 for values too large
+   * or small to write without an exponent (and for NaN and infinity),
+   * which are written with Float.toString() instead.
+   */
+  protected int formatFloat(float val) {
+    char[] buffer = numberBuffer;
+    if (val == 0) {
+      buffer[0] = '0';
+      return 1;
+    }
+    float f = Math.abs(val);
+    if (!(f >= 1e-5f && f < 1e9f)) {
+      return -1;
+    }
+    double d = f;
+    // Any decimal strictly between these reads back as f. The halfway
+    // points are exact as doubles, and the comparisons below stay correct
+    // even though the decimal itself is rounded to a double.
+    double low = (d + Math.nextAfter(f, 0)) / 2;
+    double high = (d + Math.nextUp(f)) / 2;
+    int exp = (int) Math.floor(Math.log10(d));
+
+    // 9 significant digits always works for a float, but most values
+    // need fewer, and trailing zeros are dropped below.
+    for (int digits = 6; digits <= 9; digits++) {
+      int decimals = digits - 1 - exp;
+      long scaled;
+      double back;
+      if (decimals >= 0) {
+        double power = POWERS_OF_TEN[decimals];
+        scaled = Math.round(d * power);
+        back = scaled / power;
+      } else {
+        double power = POWERS_OF_TEN[-decimals];
+        scaled = Math.round(d / power);
+        back = scaled * power;
+      }
+      if (back > low && back < high) {
+        int pos = 0;
+        if (val < 0) buffer[pos++] = '-';
+        if (decimals <= 0) {
+          pos = formatLong(scaled, buffer, pos, 1);
+          for (int i = decimals; i < 0; i++) {
+            buffer[pos++] = '0';
+          }
+        } else {
+          long power = (long) POWERS_OF_TEN[decimals];
+          pos = formatLong(scaled / power, buffer, pos, 1);
+          long fraction = scaled % power;
+          if (fraction != 0) {
+            buffer[pos++] = '.';
+            pos = formatLong(fraction, buffer, pos, decimals);
+            while (buffer[pos-1] == '0') pos--;
+          }
+        }
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+
+  /**
+   * Write the digits of a number into buffer starting at pos, padded with
+   * zeros to at least width digits, and return the position after them.
+   */
+  static protected int formatLong(long val, char[] buffer, int pos, int width) {
+    if (val < 0) {
+      if (val == Long.MIN_VALUE) {
+        String s = String.valueOf(val);
+        s.getChars(0, s.length(), buffer, pos);
+        return pos + s.length();
+      }
+      buffer[pos++] = '-';
+      val = -val;
+    }
+    int count = 1;
+    for (long v = val / 10; v != 0; v /= 10) count++;
+    if (count < width) count = width;
+    int end = pos + count;
+    for (int i = end - 1; i >= pos; i--) {
+      buffer[i] = (char) ('0' + (val % 10));
+      val /= 10;
+    }
+    return end;
   }
 
 
@@ -252,8 +418,7 @@ public class RawDXF extends PGraphics {
     writer.println("LINE");
 
     // write out the layer
-    writer.println("8");
-    writer.println(String.valueOf(currentLayer));
+    write("8", currentLayer);
 
     write("10", vertices[index1][X]);
     write("20", vertices[index1][Y]);
@@ -276,11 +441,16 @@ public class RawDXF extends PGraphics {
 
 
   protected void writeTriangle() {
+    if (mesh) {
+      addMeshTriangle();
+      vertexCount = 0;
+      return;
+    }
+
     writer.println("0");
     writer.println("3DFACE");
 
     // write out the layer
-    writer.println("8");
     /*
     if (i < MAX_TRI_LAYERS) {
       if (layerList[i] >= 0) {
@@ -288,7 +458,7 @@ public class RawDXF extends PGraphics {
       }
     }
     */
-    writer.println(String.valueOf(currentLayer));
+    write("8", currentLayer);
 
     write("10", vertices[0][X]);
     write("20", vertices[0][Y]);
@@ -313,6 +483,114 @@ public class RawDXF extends PGraphics {
   }
 
 
+  protected void addMeshTriangle() {
+    if (meshTable == null) {
+      meshVertices = new float[3 * MESH_MAX];
+      meshFaces = new int[3 * 1024];
+      meshTable = new int[2 * (MESH_MAX + 1)];
+    }
+    if (meshVertexCount + 3 > MESH_MAX || meshFaceCount == MESH_MAX) {
+      writeMesh();
+    }
+    if (meshFaces.length < 3 * (meshFaceCount + 1)) {
+      meshFaces = PApplet.expand(meshFaces);
+    }
+    int face = 3 * meshFaceCount;
+    for (int i = 0; i < 3; i++) {
+      meshFaces[face + i] = addMeshVertex(vertices[i][X],
+                                          vertices[i][Y],
+                                          vertices[i][Z]);
+    }
+    meshFaceCount++;
+  }
+
+
+  /**
+   * Returns the index of the vertex in the current mesh, counting from 1
+   * like the face records do, adding the vertex if it's a new one.
+   */
+  protected int addMeshVertex(float x, float y, float z) {
+    // adding zero turns -0 into 0, so that they're the same vertex
+    x += 0; y += 0; z += 0;
+    int bx = Float.floatToIntBits(x);
+    int by = Float.floatToIntBits(y);
+    int bz = Float.floatToIntBits(z);
+    int hash = bx * 0x9E3779B1 ^ by * 0x85EBCA77 ^ bz * 0xC2B2AE3D;
+    hash ^= hash >>> 16;
+
+    int mask = meshTable.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      int index = meshTable[slot];
+      if (index == 0) {
+        int v = 3 * meshVertexCount;
+        meshVertices[v + 0] = x;
+        meshVertices[v + 1] = y;
+        meshVertices[v + 2] = z;
+        meshTable[slot] = ++meshVertexCount;
+        return meshVertexCount;
+      }
+      int v = 3 * (index - 1);
+      if (Float.floatToIntBits(meshVertices[v + 0]) == bx &&
+          Float.floatToIntBits(meshVertices[v + 1]) == by &&
+          Float.floatToIntBits(meshVertices[v + 2]) == bz) {
+        return index;
+      }
+    }
+  }
+
+
+  /**
+   * Write out the triangles collected since the last mesh as a polyface
+   * mesh: a POLYLINE followed by a VERTEX for each point, a VERTEX for
+   * each face (holding the indices of its points), and a SEQEND.
+   */
+  protected void writeMesh() {
+    if (meshFaceCount == 0) return;
+
+    writer.println("0");
+    writer.println("POLYLINE");
+    write("8", currentLayer);
+    write("66", 1);  // vertices follow
+    write("10", 0f);
+    write("20", 0f);
+    write("30", 0f);
+    write("70", 64);  // polyface mesh
+    write("71", meshVertexCount);
+    write("72", meshFaceCount);
+
+    for (int i = 0; i < meshVertexCount; i++) {
+      writer.println("0");
+      writer.println("VERTEX");
+      write("8", currentLayer);
+      write("10", meshVertices[3*i + 0]);
+      write("20", meshVertices[3*i + 1]);
+      write("30", meshVertices[3*i + 2]);
+      write("70", 192);  // polyface mesh vertex
+    }
+
+    for (int i = 0; i < meshFaceCount; i++) {
+      writer.println("0");
+      writer.println("VERTEX");
+      write("8", currentLayer);
+      write("10", 0f);
+      write("20", 0f);
+      write("30", 0f);
+      write("70", 128);  // polyface mesh face
+      write("71", meshFaces[3*i + 0]);
+      write("72", meshFaces[3*i + 1]);
+      write("73", meshFaces[3*i + 2]);
+    }
+
+    writer.println("0");
+    writer.println("SEQEND");
+    write("8", currentLayer);
+
+    meshVertexCount = 0;
+    meshFaceCount = 0;
+    Arrays.fill(meshTable, 0);
+  }
+
+
   // ..............................................................
 
 
@@ -29,6 +29,9 @@ import processing.core.*;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
 
 /**
    * ( begin auto-generated from Client.xml )
@@ -55,12 +58,35 @@ public class Client implements Runnable {
   int port;
   String host;
 
+  /**
+   * Set when the socket has a channel, in which case the shared selector
+   * thread does the reading and writing, instead of a thread of our own.
+   */
+  SocketChannel channel;
+  SelectionKey key;
+  SelectorThread selector;
+
+  /** Reads from the buffer, blocking until data arrives. */
   public InputStream input;
+  /** Writes to the server, same as write(). */
   public OutputStream output;
 
+  // streams of the socket itself, when there's no channel
+  InputStream socketInput;
+  OutputStream socketOutput;
+
   byte buffer[] = new byte[32768];
   int bufferIndex;
   int bufferLast;
+  final Object bufferLock = new Object();
+
+  /** Bytes the channel couldn't take right away, flushed by the selector. */
+  ArrayList<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+  int pendingBytes;
+  /** Set while a request for OP_WRITE is on its way to the selector. */
+  boolean writeRequested;
+  /** write() waits once this much is queued for a slow connection. */
+  static final int MAX_PENDING = 1 << 20;
 
   
   /**
@@ -74,12 +100,10 @@ public class Client implements Runnable {
     this.port = port;
 
     try {
-      socket = new Socket(this.host, this.port);
-      input = socket.getInputStream();
-      output = socket.getOutputStream();
-
-      thread = new Thread(this);
-      thread.start();
+      InetAddress address = InetAddress.getByName(this.host);
+      SocketChannel connection =
+        SocketChannel.open(new InetSocketAddress(address, this.port));
+      start(connection.socket());
 
       parent.registerMethod("dispose", this);
 
@@ -118,13 +142,33 @@ public class Client implements Runnable {
    * @throws IOException
    */
   public Client(PApplet parent, Socket socket) throws IOException {
-    this.socket = socket;
+    this.parent = parent;
+    start(socket);
+  }
 
-    input = socket.getInputStream();
-    output = socket.getOutputStream();
 
-    thread = new Thread(this);
-    thread.start();
+  /**
+   * Sockets that come from a channel (including all of those accepted by
+   * a Server) are handled by the shared selector thread. A Socket created
+   * on its own has to use a blocking read, so it gets its own thread.
+   */
+  protected void start(Socket socket) throws IOException {
+    this.socket = socket;
+    input = new BufferInput();
+    output = new ClientOutput();
+
+    channel = socket.getChannel();
+    if (channel != null) {
+      channel.configureBlocking(false);
+      selector = SelectorThread.get();
+      selector.register(channel, SelectionKey.OP_READ, this);
+
+    } else {
+      socketInput = socket.getInputStream();
+      socketOutput = socket.getOutputStream();
+      thread = new Thread(this);
+      thread.start();
+    }
   }
 
 
@@ -140,6 +184,21 @@ public class Client implements Runnable {
    * @usage application
    */
   public void stop() {    
+    if (selector != null && selector.isCurrent()) {
+      // closed by the other end, the sketch hears about it from elsewhere
+      selector.post(new Runnable() {
+        public void run() {
+          disconnectEvent();
+        }
+      });
+    } else {
+      disconnectEvent();
+    }
+    dispose();
+  }
+
+
+  protected void disconnectEvent() {
     if (disconnectEventMethod != null) {
       try {
         disconnectEventMethod.invoke(parent, new Object[] { this });
@@ -148,7 +207,6 @@ public class Client implements Runnable {
         disconnectEventMethod = null;
       }
     }
-    dispose();
   }
 
 
@@ -161,83 +219,170 @@ public class Client implements Runnable {
   public void dispose() {
     thread = null;
     try {
-      if (input != null) {
-        input.close();
-        input = null;
+      if (socketInput != null) {
+        socketInput.close();
+        socketInput = null;
       }
     } catch (Exception e) {
       e.printStackTrace();
     }
 
     try {
-      if (output != null) {
-        output.close();
-        output = null;
+      if (socketOutput != null) {
+        socketOutput.close();
+        socketOutput = null;
       }
     } catch (Exception e) {
       e.printStackTrace();
     }
-    
+
     try {
       if (socket != null) {
-        socket.close();
+        socket.close();  // also closes the channel, and cancels its key
         socket = null;
       }
     } catch (Exception e) {
       e.printStackTrace();
     }
+    if (selector != null) {
+      selector.selector.wakeup();  // so that the key is actually removed
+    }
+
+    // let go of anyone waiting to read or write
+    synchronized (bufferLock) {
+      bufferLock.notifyAll();
+    }
+    synchronized (pending) {
+      pending.clear();
+      pendingBytes = 0;
+      pending.notifyAll();
+    }
   }
 
 
+  /**
+   * Reads from a Socket that doesn't have a channel, in chunks rather than
+   * one byte at a time.
+   */
   public void run() {
+    byte[] chunk = new byte[SelectorThread.READ_SIZE];
     while (Thread.currentThread() == thread) {
+      int count;
       try {
-        while (input != null) {
-          int value;
-
-          // try to read a byte using a blocking read. 
-          // An exception will occur when the sketch is exits.
-          try {
-            value = input.read();
-          } catch (SocketException e) {
-             System.err.println("Client SocketException: " + e.getMessage());
-             // the socket had a problem reading so don't try to read from it again.
-             stop();
-             return;
-          }
-        
-          // read returns -1 if end-of-stream occurs (for example if the host disappears)
-          if (value == -1) {
-            System.err.println("Client got end-of-stream.");
-            stop();
-            return;
-          }
+        // blocking read, an exception will occur when the sketch exits
+        count = socketInput.read(chunk);
+      } catch (IOException e) {
+        if (thread != null) {
+          System.err.println("Client SocketException: " + e.getMessage());
+          // the socket had a problem reading so don't try to read from it again.
+          stop();
+        }
+        return;
+      } catch (NullPointerException e) {
+        return;  // disposed
+      }
 
-          synchronized (buffer) {
-            // todo: at some point buffer should stop increasing in size, 
-            // otherwise it could use up all the memory.
-            if (bufferLast == buffer.length) {
-              byte temp[] = new byte[bufferLast << 1];
-              System.arraycopy(buffer, 0, temp, 0, bufferLast);
-              buffer = temp;
-            }
-            buffer[bufferLast++] = (byte)value;
-          }
+      // read returns -1 if end-of-stream occurs (for example if the host disappears)
+      if (count == -1) {
+        System.err.println("Client got end-of-stream.");
+        stop();
+        return;
+      }
+      append(ByteBuffer.wrap(chunk, 0, count));
+    }
+  }
 
-          // now post an event
-          if (clientEventMethod != null) {
-            try {
-              clientEventMethod.invoke(parent, new Object[] { this });
-             } catch (Exception e) {
-               System.err.println("error, disabling clientEvent() for " + host);
-               e.printStackTrace();
-               clientEventMethod = null;
-            }
+
+  /**
+   * Called by the selector thread once the channel has been registered.
+   * Anything written before then is still waiting to go out.
+   */
+  void registered(SelectionKey key) {
+    synchronized (pending) {
+      this.key = key;
+      if (!pending.isEmpty()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+  }
+
+
+  /** Called by the selector thread when the channel has data waiting. */
+  void receive(ByteBuffer incoming) {
+    incoming.clear();
+    int count;
+    try {
+      count = channel.read(incoming);
+    } catch (IOException e) {
+      if (socket != null) {  // otherwise just closed by dispose()
+        System.err.println("Client SocketException: " + e.getMessage());
+        stop();
+      }
+      return;
+    }
+    if (count == -1) {
+      System.err.println("Client got end-of-stream.");
+      stop();
+      return;
+    }
+    if (count > 0) {
+      incoming.flip();
+      append(incoming);
+    }
+  }
+
+
+  /**
+   * Add newly read data to the buffer, then post a clientEvent(). Data that
+   * has already been read is shifted out of the way before the buffer is
+   * made any larger.
+   */
+  protected void append(ByteBuffer incoming) {
+    int length = incoming.remaining();
+    synchronized (bufferLock) {
+      if (bufferLast + length > buffer.length) {
+        int waiting = bufferLast - bufferIndex;
+        byte[] target = buffer;
+        if (waiting + length > buffer.length) {
+          int size = buffer.length << 1;
+          while (size < waiting + length) {
+            size <<= 1;
           }
+          target = new byte[size];
         }
-      } catch (IOException e) {
-        //errorMessage("run", e);
+        System.arraycopy(buffer, bufferIndex, target, 0, waiting);
+        buffer = target;
+        bufferIndex = 0;
+        bufferLast = waiting;
+      }
+      incoming.get(buffer, bufferLast, length);
+      bufferLast += length;
+      bufferLock.notifyAll();
+    }
+
+    // now post an event
+    if (clientEventMethod != null) {
+      if (selector != null) {
+        selector.post(new Runnable() {
+          public void run() {
+            clientEvent();
+          }
+        });
+      } else {
+        clientEvent();
+      }
+    }
+  }
+
+
+  protected void clientEvent() {
+    if (clientEventMethod != null) {
+      try {
+        clientEventMethod.invoke(parent, new Object[] { this });
+      } catch (Exception e) {
+        System.err.println("error, disabling clientEvent() for " + host);
         e.printStackTrace();
+        clientEventMethod = null;
       }
     }
   }
@@ -248,7 +393,7 @@ public class Client implements Runnable {
    * into any trouble.
    */
   public boolean active() {
-    return (thread != null);
+    return (socket != null);
   }
 
 
@@ -314,7 +459,7 @@ public class Client implements Runnable {
   public int read() {
     if (bufferIndex == bufferLast) return -1;
 
-    synchronized (buffer) {
+    synchronized (bufferLock) {
       int outgoing = buffer[bufferIndex++] & 0xff;
       if (bufferIndex == bufferLast) {  // rewind
         bufferIndex = 0;
@@ -367,7 +512,7 @@ public class Client implements Runnable {
   public byte[] readBytes() {
     if (bufferIndex == bufferLast) return null;
 
-    synchronized (buffer) {
+    synchronized (bufferLock) {
       int length = bufferLast - bufferIndex;
       byte outgoing[] = new byte[length];
       System.arraycopy(buffer, bufferIndex, outgoing, 0, length);
@@ -394,7 +539,7 @@ public class Client implements Runnable {
   public int readBytes(byte bytebuffer[]) {
     if (bufferIndex == bufferLast) return 0;
 
-    synchronized (buffer) {
+    synchronized (bufferLock) {
       int length = bufferLast - bufferIndex;
       if (length > bytebuffer.length) length = bytebuffer.length;
       System.arraycopy(buffer, bufferIndex, bytebuffer, 0, length);
@@ -433,7 +578,7 @@ public class Client implements Runnable {
     if (bufferIndex == bufferLast) return null;
     byte what = (byte)interesting;
 
-    synchronized (buffer) {
+    synchronized (bufferLock) {
       int found = -1;
       for (int k = bufferIndex; k < bufferLast; k++) {
         if (buffer[k] == what) {
@@ -474,7 +619,7 @@ public class Client implements Runnable {
     if (bufferIndex == bufferLast) return 0;
     byte what = (byte)interesting;
 
-    synchronized (buffer) {
+    synchronized (bufferLock) {
       int found = -1;
       for (int k = bufferIndex; k < bufferLast; k++) {
         if (buffer[k] == what) {
@@ -562,8 +707,7 @@ public class Client implements Runnable {
    */
   public void write(int data) {  // will also cover char
     try {
-      output.write(data & 0xff);  // for good measure do the &
-      output.flush();   // hmm, not sure if a good idea
+      send(new byte[] { (byte) data }, 0, 1);  // only the low 8 bits
 
     } catch (Exception e) { // null pointer or serial port dead
       //errorMessage("write", e);
@@ -578,8 +722,7 @@ public class Client implements Runnable {
 
   public void write(byte data[]) {
     try {
-      output.write(data);
-      output.flush();   // hmm, not sure if a good idea
+      send(data, 0, data.length);
 
     } catch (Exception e) { // null pointer or serial port dead
       //errorMessage("write", e);
@@ -609,6 +752,140 @@ public class Client implements Runnable {
   }
 
 
+  /**
+   * Write as much as the channel will take right away, and queue the rest
+   * for the selector thread to send when the connection is ready for it.
+   * If a lot of data is already waiting, this blocks until it goes out,
+   * same as a write to a slow socket would. The selector thread itself
+   * never waits, since it's the one that sends the queue.
+   */
+  protected void send(byte[] data, int offset, int length) throws IOException {
+    if (channel == null) {
+      socketOutput.write(data, offset, length);
+      socketOutput.flush();   // hmm, not sure if a good idea
+      return;
+    }
+    ByteBuffer source = ByteBuffer.wrap(data, offset, length);
+    synchronized (pending) {
+      while (pendingBytes > MAX_PENDING && active() &&
+             !selector.isCurrent()) {
+        try {
+          pending.wait();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+      if (!active()) {
+        throw new IOException("Client has been stopped");
+      }
+      if (pending.isEmpty()) {
+        channel.write(source);
+        if (!source.hasRemaining()) {
+          return;
+        }
+      }
+      ByteBuffer rest = ByteBuffer.allocate(source.remaining());
+      rest.put(source);
+      rest.flip();
+      pending.add(rest);
+      pendingBytes += rest.remaining();
+      // before registration, registered() takes care of it instead
+      if (!writeRequested && key != null) {
+        writeRequested = true;
+        selector.invoke(new Runnable() {
+          public void run() {
+            synchronized (pending) {
+              writeRequested = false;
+              if (!pending.isEmpty() && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+              }
+            }
+          }
+        });
+      }
+    }
+  }
+
+
+  /** Called by the selector thread when queued data can be written. */
+  void flush(SelectionKey key) {
+    synchronized (pending) {
+      try {
+        while (!pending.isEmpty()) {
+          ByteBuffer next = pending.get(0);
+          pendingBytes -= channel.write(next);
+          if (next.hasRemaining()) {
+            break;
+          }
+          pending.remove(0);
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+        stop();
+        return;
+      }
+      if (pending.isEmpty()) {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+      pending.notifyAll();
+    }
+  }
+
+
+  /** Reads come out of the same buffer as read() and readBytes(). */
+  class BufferInput extends InputStream {
+    public int read() throws IOException {
+      synchronized (bufferLock) {
+        if (!await()) return -1;
+        return Client.this.read();
+      }
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      synchronized (bufferLock) {
+        if (!await()) return -1;
+        len = Math.min(len, bufferLast - bufferIndex);
+        System.arraycopy(buffer, bufferIndex, b, off, len);
+        bufferIndex += len;
+        if (bufferIndex == bufferLast) {
+          bufferIndex = 0;  // rewind
+          bufferLast = 0;
+        }
+        return len;
+      }
+    }
+
+    public int available() {
+      return Client.this.available();
+    }
+
+    /** Wait for data, returns false if the connection closed first. */
+    private boolean await() throws IOException {
+      while (bufferIndex == bufferLast) {
+        if (!active()) return false;
+        try {
+          bufferLock.wait();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+      return true;
+    }
+  }
+
+
+  class ClientOutput extends OutputStream {
+    public void write(int b) throws IOException {
+      send(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      send(b, off, len);
+    }
+  }
+
+
   /**
    * Handle disconnect due to an Exception being thrown.
    */
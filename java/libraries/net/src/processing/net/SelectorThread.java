@@ -0,0 +1,172 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.net;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.*;
+
+
+/**
+ * A single thread that accepts, reads, and writes for every Server and
+ * Client in the sketch, using a java.nio Selector instead of a thread (and
+ * a blocking read of one byte at a time) for each connection. Data that
+ * comes in is read in bulk into a buffer owned by this thread, then handed
+ * to the Client all at once. clientEvent(), serverEvent() and
+ * disconnectEvent() are called from a separate thread, one at a time, so
+ * that a slow callback (or one that writes a lot) never holds up the
+ * other connections. Internal use only.
+ */
+class SelectorThread implements Runnable {
+  static final int READ_SIZE = 65536;
+
+  static SelectorThread instance;
+
+  Selector selector;
+  Thread thread;
+
+  /** Only used from this thread, so it's shared by all the clients. */
+  ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_SIZE);
+
+  /** Work that has to happen on this thread, like registering a channel. */
+  ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+
+  /** Calls the sketch's event methods, in the order the events came in. */
+  ExecutorService events =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "Processing Network Events");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+
+  static synchronized SelectorThread get() throws IOException {
+    if (instance == null) {
+      instance = new SelectorThread();
+    }
+    return instance;
+  }
+
+
+  SelectorThread() throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this, "Processing Network");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+  /**
+   * Run a task on the selector thread. Channels and their keys can't be
+   * changed while another thread is blocked in select(), so anything that
+   * touches them goes through here.
+   */
+  void invoke(Runnable task) {
+    synchronized (tasks) {
+      tasks.add(task);
+    }
+    selector.wakeup();
+  }
+
+
+  /** Call one of the sketch's event methods, away from this thread. */
+  void post(Runnable event) {
+    events.execute(event);
+  }
+
+
+  /** True when called from the selector thread itself. */
+  boolean isCurrent() {
+    return Thread.currentThread() == thread;
+  }
+
+
+  /**
+   * Register a (non-blocking) channel for a Server or Client, the handler
+   * is called back when there's something to accept or read.
+   */
+  void register(final SelectableChannel channel, final int ops,
+                final Object handler) {
+    invoke(new Runnable() {
+      public void run() {
+        try {
+          SelectionKey key = channel.register(selector, ops, handler);
+          if (handler instanceof Client) {
+            ((Client) handler).registered(key);
+          }
+        } catch (ClosedChannelException e) {
+          // already stopped before it was registered
+        }
+      }
+    });
+  }
+
+
+  public void run() {
+    while (true) {
+      try {
+        selector.select();
+      } catch (IOException e) {
+        e.printStackTrace();
+        return;
+      }
+
+      Runnable[] waiting;
+      synchronized (tasks) {
+        waiting = tasks.toArray(new Runnable[tasks.size()]);
+        tasks.clear();
+      }
+      for (Runnable task : waiting) {
+        task.run();
+      }
+
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+      while (it.hasNext()) {
+        SelectionKey key = it.next();
+        it.remove();
+        try {
+          Object handler = key.attachment();
+          if (handler instanceof Server) {
+            if (key.isAcceptable()) {
+              ((Server) handler).accept();
+            }
+          } else {
+            Client client = (Client) handler;
+            if (key.isWritable()) {
+              client.flush(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+              client.receive(readBuffer);
+            }
+          }
+        } catch (CancelledKeyException e) {
+          // the channel was closed from another thread
+        }
+      }
+    }
+  }
+}
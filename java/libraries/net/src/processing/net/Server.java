@@ -29,6 +29,7 @@ import processing.core.*;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.channels.*;
 
 /**
  * ( begin auto-generated from Server.xml )
@@ -46,12 +47,16 @@ import java.net.*;
  * @brief The server class is used to create server objects which send and receives data to and from its associated clients (other programs connected to it). 
  * @instanceName server  	any variable of type Server
  */
-public class Server implements Runnable {
+public class Server {
   PApplet parent;
   Method serverEventMethod;
 
-  Thread thread;
-  ServerSocket server;
+  /**
+   * Connections are accepted (and their data read) by the selector
+   * thread that's shared with all the other Server and Client objects.
+   */
+  SelectorThread selector;
+  ServerSocketChannel server;
   int port;
   
   /** Number of clients currently connected. */
@@ -69,13 +74,12 @@ public class Server implements Runnable {
     this.port = port;
 
     try {
-      server = new ServerSocket(this.port);
+      server = ServerSocketChannel.open();
+      server.socket().bind(new InetSocketAddress(this.port));
+      server.configureBlocking(false);
       //clients = new Vector();
       clients = new Client[10];
 
-      thread = new Thread(this);
-      thread.start();
-
       parent.registerMethod("dispose", this);
 
       // reflection to check whether host applet has a call for
@@ -90,9 +94,12 @@ public class Server implements Runnable {
         // no such method, or an error.. which is fine, just ignore
       }
 
+      // start accepting only once serverEvent() has been found
+      selector = SelectorThread.get();
+      selector.register(server, SelectionKey.OP_ACCEPT, this);
+
     } catch (IOException e) {
       e.printStackTrace();
-      thread = null;
       //errorMessage("<init>", e);
     }
   }
@@ -213,52 +220,69 @@ public class Server implements Runnable {
    * Disconnect all clients and stop the server: internal use only.
    */
   public void dispose() {
-    thread = null;
+    try {
+      if (server != null) {
+        server.close();  // also cancels its key with the selector
+        server = null;
+        selector.selector.wakeup();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
 
     if (clients != null) {
-      for (int i = 0; i < clientCount; i++) {
-        disconnect(clients[i]);
+      synchronized (clients) {
+        // disconnect() shifts the list down, so always take the first
+        while (clientCount > 0) {
+          disconnect(clients[0]);
+        }
       }
-      clientCount = 0;
       clients = null;
     }
+  }
+
 
+  /**
+   * Called by the selector thread when a connection is waiting, instead
+   * of polling accept() from a thread of our own.
+   */
+  void accept() {
     try {
-      if (server != null) {
-        server.close();
-        server = null;
+      SocketChannel socket;
+      while (server != null && (socket = server.accept()) != null) {
+        final Client client = new Client(parent, socket.socket());
+        Client[] list = clients;
+        if (list == null) {  // stopped in the meantime
+          client.dispose();
+          return;
+        }
+        synchronized (list) {
+          addClient(client);
+        }
+        if (serverEventMethod != null) {
+          selector.post(new Runnable() {
+            public void run() {
+              serverEvent(client);
+            }
+          });
+        }
       }
     } catch (IOException e) {
+      //errorMessage("run", e);
       e.printStackTrace();
     }
   }
 
 
-  public void run() {
-    while (Thread.currentThread() == thread) {
+  protected void serverEvent(Client client) {
+    if (serverEventMethod != null) {
       try {
-        Socket socket = server.accept();
-        Client client = new Client(parent, socket);
-        synchronized (clients) {
-          addClient(client);
-          if (serverEventMethod != null) {
-            try {
-              serverEventMethod.invoke(parent, new Object[] { this, client });
-            } catch (Exception e) {
-              System.err.println("Disabling serverEvent() for port " + port);
-              e.printStackTrace();
-              serverEventMethod = null;
-            }
-          }
-        }
-      } catch (IOException e) {
-        //errorMessage("run", e);
+        serverEventMethod.invoke(parent, new Object[] { this, client });
+      } catch (Exception e) {
+        System.err.println("Disabling serverEvent() for port " + port);
         e.printStackTrace();
-        thread = null;
+        serverEventMethod = null;
       }
-      try {
-        Thread.sleep(8);
-      } catch (InterruptedException ex) { }
     }
   }
 
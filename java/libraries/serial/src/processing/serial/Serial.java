@@ -39,9 +39,15 @@ public class Serial implements SerialPortEventListener {
   Method serialAvailableMethod;
   Method serialEventMethod;
 
-  byte[] buffer = new byte[32768];
-  int inBuffer = 0;
-  int readOffset = 0;
+  // Incoming bytes go into a ring, which is filled by the serial thread
+  // without waiting on whoever is reading from it. Positions are counted
+  // in bytes since the port was opened, and wrapped with (buffer.length-1).
+  // Readers take readLock among themselves. The serial thread only takes
+  // it to swap in a larger buffer, if the readers fall too far behind.
+  byte[] buffer = new byte[32768];  // always a power of 2
+  volatile long received = 0;       // end of what can be read
+  volatile long consumed = 0;       // start of what hasn't been read yet
+  final Object readLock = new Object();
 
   int bufferUntilSize = 1;
   byte bufferUntilByte = 0;
@@ -53,21 +59,16 @@ public class Serial implements SerialPortEventListener {
   int countEvents = 0;      // number of event handler invocations
   int countFuncs = 0;       // number of SerialEvent invocations
   int countReads = 0;       // number of read operations
-  int countSyncs = 0;       // number of synchronizations
   int countWrites = 0;      // number of write operations
   long firstEvent = 0;      // timestamp of first event handler invocation
   int maxBufferLength = 0;  // maximum size of input buffer
   long maxFuncTime = 0;     // maximum time spend invoking SerialEvent
   int maxRead = 0;          // maximum number of bytes read
   long maxReadTime = 0;     // maximum time spent on read operations
-  long maxReadSyncTime = 0; // maximum time spent on a synchronization in the event handler
-  long maxSyncTime = 0;     // maximum time spent on a synchronization elsewhere
   long maxWriteTime = 0;    // maximum time spent on a write operation
   long sumFuncTime = 0;     // sum of time spent in SerialEvent
-  int sumRead = 0;          // sum of bytes read
-  long sumReadSyncTime = 0; // sum of time spent on synchonizations in the event handler
+  long sumRead = 0;         // sum of bytes read
   long sumReadTime = 0;     // sum of time spent on read operations
-  long sumSyncTime = 0;     // sum of time spent on synchonizations elsewhere
   long sumWriteTime = 0;    // sum of time spent on write operations
 
   // Things we are currently not exposing:
@@ -168,7 +169,7 @@ public class Serial implements SerialPortEventListener {
 
 
   public int available() {
-    return (inBuffer-readOffset);
+    return (int) (received-consumed);
   }
 
   
@@ -184,16 +185,8 @@ public class Serial implements SerialPortEventListener {
 
   
   public void clear() {
-    long start = System.nanoTime();
-    synchronized (buffer) {
-      long len = System.nanoTime()-start;
-      if (maxSyncTime < len) {
-        maxSyncTime = len;
-      }
-      sumSyncTime += len;
-      countSyncs++;
-      inBuffer = 0;
-      readOffset = 0;
+    synchronized (readLock) {
+      consumed = received;
     }
   }
 
@@ -207,10 +200,8 @@ public class Serial implements SerialPortEventListener {
     System.out.println(countReads+" reads, "+(countReads/secs)+" per sec, "+(sumReadTime/(float)countReads)+" ns avg, "+maxReadTime+" ns max");
     System.out.println((sumRead/(float)countReads)+" bytes avg per read, "+(sumRead/secs)+" per sec, "+maxRead+" bytes max");
     System.out.println("Max buffer length: "+maxBufferLength);
-    System.out.println(sumReadSyncTime/(float)countReads+" ns avg read synchronizations, "+maxReadSyncTime+" ns max");
     System.out.println(countFuncs+" callbacks, "+(sumFuncTime/(float)countFuncs)+" ns avg, "+maxFuncTime+" ns max");
     System.out.println(countWrites+" writes, "+(sumWriteTime/(float)countWrites)+" ns avg, "+maxWriteTime+" ns max");
-    System.out.println(countSyncs+" synchonizations, "+(sumSyncTime/(float)countSyncs)+" ns avg, "+maxSyncTime+" ns max");
     port.debug();
   }
 
@@ -239,21 +230,17 @@ public class Serial implements SerialPortEventListener {
 
 
   public int last() {
-    if (inBuffer == readOffset) {
+    if (available() == 0) {
       return -1;
     }
 
-    long start = System.nanoTime();
-    synchronized (buffer) {
-      long len = System.nanoTime()-start;
-      if (maxSyncTime < len) {
-        maxSyncTime = len;
+    synchronized (readLock) {
+      long end = received;
+      if (end == consumed) {
+        return -1;  // another thread got to it first
       }
-      sumSyncTime += len;
-      countSyncs++;
-      int ret = buffer[inBuffer-1] & 0xFF;
-      inBuffer = 0;
-      readOffset = 0;
+      int ret = buffer[(int) (end-1) & (buffer.length-1)] & 0xFF;
+      consumed = end;
       return ret;
     }
   }
@@ -272,159 +259,143 @@ public class Serial implements SerialPortEventListener {
 
   
   public int read() {
-    if (inBuffer == readOffset) {
+    if (available() == 0) {
       return -1;
     }
 
-    long start = System.nanoTime();
-    synchronized (buffer) {
-      long len = System.nanoTime()-start;
-      if (maxSyncTime < len) {
-        maxSyncTime = len;
-      }
-      sumSyncTime += len;
-      countSyncs++;
-      int ret = buffer[readOffset++] & 0xFF;
-      if (inBuffer == readOffset) {
-        inBuffer = 0;
-        readOffset = 0;
+    synchronized (readLock) {
+      long start = consumed;
+      if (start == received) {
+        return -1;
       }
+      int ret = buffer[(int) start & (buffer.length-1)] & 0xFF;
+      consumed = start+1;
       return ret;
     }
   }
 
   
   public byte[] readBytes() {
-    if (inBuffer == readOffset) {
+    if (available() == 0) {
       return null;
     }
 
-    long start = System.nanoTime();
-    synchronized (buffer) {
-      long len = System.nanoTime()-start;
-      if (maxSyncTime < len) {
-        maxSyncTime = len;
+    synchronized (readLock) {
+      if (available() == 0) {
+        return null;
       }
-      sumSyncTime += len;
-      countSyncs++;
-      byte[] ret = new byte[inBuffer-readOffset];
-      System.arraycopy(buffer, readOffset, ret, 0, ret.length);
-      inBuffer = 0;
-      readOffset = 0;
+      byte[] ret = new byte[available()];
+      take(ret, ret.length);
       return ret;
     }
   }
   
 
   public int readBytes(byte[] dest) {
-    if (inBuffer == readOffset) {
+    if (available() == 0) {
       return 0;
     }
 
-    long start = System.nanoTime();
-    synchronized (buffer) {
-      long len = System.nanoTime()-start;
-      if (maxSyncTime < len) {
-        maxSyncTime = len;
-      }
-      sumSyncTime += len;
-      countSyncs++;
-      int toCopy = inBuffer-readOffset;
+    synchronized (readLock) {
+      int toCopy = available();
       if (dest.length < toCopy) {
         toCopy = dest.length;
       }
-      System.arraycopy(buffer, readOffset, dest, 0, toCopy);
-      readOffset += toCopy;
-      if (inBuffer == readOffset) {
-        inBuffer = 0;
-        readOffset = 0;
-      }
+      take(dest, toCopy);
       return toCopy;
     }
   }
   
 
   public byte[] readBytesUntil(int inByte) {
-    if (inBuffer == readOffset) {
+    if (available() == 0) {
       return null;
     }
 
-    long start = System.nanoTime();
-    synchronized (buffer) {
-      long len = System.nanoTime()-start;
-      if (maxSyncTime < len) {
-        maxSyncTime = len;
-      }
-      sumSyncTime += len;
-      countSyncs++;
-      // look for needle in buffer
-      int found = -1;
-      for (int i=readOffset; i < inBuffer; i++) {
-        if (buffer[i] == (byte)inByte) {
-          found = i;
-          break;
-        }
-      }
-      if (found == -1) {
+    synchronized (readLock) {
+      int toCopy = find((byte)inByte);
+      if (toCopy == -1) {
         return null;
       }
-
-      int toCopy = found-readOffset+1;
       byte[] dest = new byte[toCopy];
-      System.arraycopy(buffer, readOffset, dest, 0, toCopy);
-      readOffset += toCopy;
-      if (inBuffer == readOffset) {
-        inBuffer = 0;
-        readOffset = 0;
-      }
+      take(dest, toCopy);
       return dest;
     }
   }
 
   
   public int readBytesUntil(int inByte, byte[] dest) {
-    if (inBuffer == readOffset) {
+    if (available() == 0) {
       return 0;
     }
 
-    long start = System.nanoTime();
-    synchronized (buffer) {
-      long len = System.nanoTime()-start;
-      if (maxSyncTime < len) {
-        maxSyncTime = len;
-      }
-      sumSyncTime += len;
-      countSyncs++;
-      // look for needle in buffer
-      int found = -1;
-      for (int i=readOffset; i < inBuffer; i++) {
-        if (buffer[i] == (byte)inByte) {
-          found = i;
-          break;
-        }
-      }
-      if (found == -1) {
+    synchronized (readLock) {
+      int toCopy = find((byte)inByte);
+      if (toCopy == -1) {
         return 0;
       }
 
       // check if bytes to copy fit in dest
-      int toCopy = found-readOffset+1;
       if (dest.length < toCopy) {
         System.err.println( "The buffer passed to readBytesUntil() is to small " +
                   "to contain " + toCopy + " bytes up to and including " +
                   "char " + (byte)inByte);
         return -1;
       }
-      System.arraycopy(buffer, readOffset, dest, 0, toCopy);
-      readOffset += toCopy;
-      if (inBuffer == readOffset) {
-        inBuffer = 0;
-        readOffset = 0;
-      }
+      take(dest, toCopy);
       return toCopy;
     }
   }
 
+
+  /**
+   * Number of bytes up to and including the first inByte that hasn't been
+   * read yet, or -1 if it hasn't come in. Call while holding readLock.
+   */
+  int find(byte inByte) {
+    long start = consumed;
+    int count = (int) (received-start);
+    int mask = buffer.length-1;
+    int offset = (int) start & mask;
+    // the ring might wrap around, so look in (at most) two pieces
+    int first = Math.min(count, buffer.length-offset);
+    for (int i = 0; i < first; i++) {
+      if (buffer[offset+i] == inByte) {
+        return i+1;
+      }
+    }
+    for (int i = first; i < count; i++) {
+      if (buffer[i-first] == inByte) {
+        return i+1;
+      }
+    }
+    return -1;
+  }
+
+
+  /** Copy the next count bytes into dest. Call while holding readLock. */
+  void take(byte[] dest, int count) {
+    long start = consumed;
+    copyFromRing(buffer, (int) start & (buffer.length-1), dest, count);
+    consumed = start+count;
+  }
+
+
+  /** Copy count bytes out of the ring, starting at offset, to dest. */
+  static void copyFromRing(byte[] ring, int offset, byte[] dest, int count) {
+    int first = Math.min(count, ring.length-offset);
+    System.arraycopy(ring, offset, dest, 0, first);
+    System.arraycopy(ring, 0, dest, first, count-first);
+  }
+
+
+  /** Copy count bytes from src into the ring, starting at offset. */
+  static void copyToRing(byte[] src, int count, byte[] ring, int offset) {
+    int first = Math.min(count, ring.length-offset);
+    System.arraycopy(src, 0, ring, offset, first);
+    System.arraycopy(src, first, ring, 0, count-first);
+  }
+
   
   public char readChar() {
     return (char) read();
@@ -432,7 +403,7 @@ public class Serial implements SerialPortEventListener {
 
   
   public String readString() {
-    if (inBuffer == readOffset) {
+    if (available() == 0) {
       return null;
     }
     return new String(readBytes());
@@ -457,67 +428,24 @@ public class Serial implements SerialPortEventListener {
         firstEvent = System.nanoTime();
       }
       try {
+        // read everything that's waiting at once, rather than byte by byte
         while (0 < (toRead = port.getInputBufferBytesCount())) {
           long start = System.nanoTime();
-          // this method can be called from the context of another thread
-          synchronized (buffer) {
-            toRead = 1;
-            long len = System.nanoTime()-start;
-            if (maxReadSyncTime < len) {
-              maxReadSyncTime = len;
-            }
-            sumReadSyncTime += len;
-            // enlarge buffer if necessary
-            if (buffer.length < inBuffer+toRead) {
-              byte temp[] = new byte[buffer.length<<1];
-              System.arraycopy(buffer, 0, temp, 0, inBuffer);
-              buffer = temp;
-            }
-            if (maxBufferLength < buffer.length) {
-              maxBufferLength = buffer.length;
-            }
-            // read an array of bytes and copy it into our buffer
-            start = System.nanoTime();
-            byte[] read = port.readBytes(toRead);
-            len = System.nanoTime()-start;
-            if (maxReadTime < len) {
-              maxReadTime = len;
-            }
-            sumReadTime += len;
-            if (maxRead < read.length) {
-              maxRead = read.length;
-            }
-            sumRead += read.length;
-            countReads++;
-            System.arraycopy(read, 0, buffer, inBuffer, read.length);
-            inBuffer += read.length;
+          byte[] read = port.readBytes(toRead);
+          long len = System.nanoTime()-start;
+          if (maxReadTime < len) {
+            maxReadTime = len;
           }
-          if (serialEventMethod != null) {
-            if ((0 < bufferUntilSize && bufferUntilSize <= inBuffer-readOffset) ||
-              (0 == bufferUntilSize && bufferUntilByte == buffer[inBuffer-1])) {
-              try {
-                // serialEvent() is invoked in the context of the current (serial) thread
-                // which means that serialization and atomic variables need to be used to
-                // guarantee reliable operation (and better not draw() etc..)
-                // serialAvailable() does not provide any real benefits over using
-                // available() and read() inside draw - but this function has no
-                // thread-safety issues since it's being invoked during pre in the context
-                // of the Processing applet
-                start = System.nanoTime();
-                serialEventMethod.invoke(parent, new Object[] { this });
-                long len = System.nanoTime()-start;
-                if (maxFuncTime < len) {
-                  maxFuncTime = len;
-                }
-                sumFuncTime += len;
-                countFuncs++;
-              } catch (Exception e) {
-                System.err.println("Error, disabling serialEvent() for "+port.getPortName());
-                System.err.println(e.getLocalizedMessage());
-                serialEventMethod = null;
-              }
-            }
+          sumReadTime += len;
+          if (maxRead < read.length) {
+            maxRead = read.length;
           }
+          sumRead += read.length;
+          countReads++;
+          if (maxBufferLength < buffer.length) {
+            maxBufferLength = buffer.length;
+          }
+          receive(read);
           invokeSerialAvailable = true;
         }
       } catch (SerialPortException e) {
@@ -526,6 +454,91 @@ public class Serial implements SerialPortEventListener {
     }
   }
 
+
+  /**
+   * Add bytes from the port to the ring, and make them available to be read.
+   * With bufferUntil(), serialEvent() is called for each delimiter, after
+   * the bytes up to (and including) it can be read, but not the rest. With
+   * buffer(), it's called once there are enough bytes, and then again for as
+   * long as it takes bytes out and there are still enough left. Only called
+   * on the serial thread.
+   */
+  void receive(byte[] read) {
+    int count = read.length;
+    long start = received;
+    if (buffer.length < (int) (start-consumed)+count) {
+      grow((int) (start-consumed)+count);
+    }
+    copyToRing(read, count, buffer, (int) start & (buffer.length-1));
+
+    if (serialEventMethod != null && bufferUntilSize == 0) {
+      byte until = bufferUntilByte;
+      for (int i = 0; i < count && serialEventMethod != null; i++) {
+        if (read[i] == until) {
+          received = start+i+1;
+          invokeSerialEvent();
+        }
+      }
+    }
+    received = start+count;
+
+    if (serialEventMethod != null && 0 < bufferUntilSize) {
+      while (serialEventMethod != null && bufferUntilSize <= available()) {
+        long before = consumed;
+        invokeSerialEvent();
+        if (consumed == before) {
+          break;  // nothing was read, wait until more comes in
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Swap in a buffer that can hold at least size bytes, keeping what hasn't
+   * been read yet. Readers have to wait while this happens.
+   */
+  void grow(int size) {
+    synchronized (readLock) {
+      int length = buffer.length;
+      while (length < size) {
+        length <<= 1;
+      }
+      long start = consumed;
+      int count = (int) (received-start);
+      byte[] unread = new byte[count];
+      copyFromRing(buffer, (int) start & (buffer.length-1), unread, count);
+      byte[] temp = new byte[length];
+      copyToRing(unread, count, temp, (int) start & (length-1));
+      buffer = temp;
+    }
+  }
+
+
+  void invokeSerialEvent() {
+    try {
+      // serialEvent() is invoked in the context of the current (serial) thread
+      // which means that serialization and atomic variables need to be used to
+      // guarantee reliable operation (and better not draw() etc..)
+      // serialAvailable() does not provide any real benefits over using
+      // available() and read() inside draw - but this function has no
+      // thread-safety issues since it's being invoked during pre in the context
+      // of the Processing applet
+      long start = System.nanoTime();
+      serialEventMethod.invoke(parent, new Object[] { this });
+      long len = System.nanoTime()-start;
+      if (maxFuncTime < len) {
+        maxFuncTime = len;
+      }
+      sumFuncTime += len;
+      countFuncs++;
+    } catch (Exception e) {
+      System.err.println("Error, disabling serialEvent() for "+port.getPortName());
+      System.err.println(e.getLocalizedMessage());
+      serialEventMethod = null;
+    }
+  }
+
   
   public void setDTR(boolean state) {
     // there is no way to influence the behavior of the DTR line when opening the serial port
@@ -553,8 +566,7 @@ public class Serial implements SerialPortEventListener {
     } catch (SerialPortException e) {
       // ignored
     }
-    inBuffer = 0;
-    readOffset = 0;
+    consumed = received;
   }
 
   
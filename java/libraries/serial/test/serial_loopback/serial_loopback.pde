@@ -0,0 +1,104 @@
+// Throughput and latency without any hardware: two pseudo terminals are
+// connected back to back with socat (Linux, OS X), and whatever is written
+// to one comes out the other, the same as running
+// socat pty,raw,echo=0,link=/tmp/serial_a pty,raw,echo=0,link=/tmp/serial_b
+// For the first ten seconds, lines are sent as fast as they can be written,
+// and counted as they come in. After that, a single line with a timestamp
+// goes back and forth to measure the latency.
+
+import processing.serial.*;
+Process socat;
+Serial sender;
+Serial receiver;
+int start;
+byte[] block;
+int linesPerBlock = 1024;
+volatile long num_recv = 0;
+volatile long num_lines = 0;
+volatile long num_fail = 0;
+volatile long next_line = 0;
+volatile long num_pings = 0;
+volatile long sum_latency = 0;
+volatile long max_latency = 0;
+float throughput;
+boolean pinging = false;
+
+void setup() {
+  size(400, 200);
+  String a = "/tmp/serial_a";
+  String b = "/tmp/serial_b";
+  new File(a).delete();
+  new File(b).delete();
+  socat = exec(new String[] { "socat", "pty,raw,echo=0,link=" + a, "pty,raw,echo=0,link=" + b });
+  while (!new File(a).exists() || !new File(b).exists()) {
+    delay(10);
+  }
+  // the baud rate doesn't matter to a pseudo terminal
+  sender = new Serial(this, a, 2000000);
+  receiver = new Serial(this, b, 2000000);
+  sender.bufferUntil('\n');
+  receiver.bufferUntil('\n');
+
+  // each line is a number, some padding, and a newline (64 bytes)
+  StringBuilder sb = new StringBuilder();
+  for (int i=0; i < linesPerBlock; i++) {
+    sb.append(nf(i, 8) + " abcdefghijklmnopqrstuvwxyz0123456789ABCDEFGHIJKLMNOPQR\n");
+  }
+  block = sb.toString().getBytes();
+  start = millis();
+}
+
+void draw() {
+  background(255);
+  fill(0);
+  int elapsed = millis()-start;
+  if (elapsed < 10000) {
+    // keep writing for most of the frame (this waits when the other end is full)
+    int frameStart = millis();
+    while (millis()-frameStart < 15) {
+      sender.write(block);
+    }
+    throughput = num_recv/(elapsed/1000.0);
+  } else if (!pinging) {
+    pinging = true;
+    sendPing(sender);
+  }
+  text((throughput/1000000)+" MB/s, "+num_lines+" lines, "+num_fail+" out of order", 10, height/2);
+  if (0 < num_pings) {
+    text((sum_latency/num_pings/1000.0)+" us avg, "+(max_latency/1000.0)+" us max latency", 10, height/2+20);
+  }
+}
+
+void sendPing(Serial port) {
+  port.write("P"+System.nanoTime()+"\n");
+}
+
+// called on the serial thread, once for every line
+void serialEvent(Serial port) {
+  String line = port.readStringUntil('\n');
+  if (line == null) {
+    return;
+  }
+  if (line.charAt(0) == 'P') {
+    long latency = System.nanoTime()-Long.parseLong(line.substring(1).trim());
+    sum_latency += latency;
+    if (max_latency < latency) {
+      max_latency = latency;
+    }
+    num_pings++;
+    // and send it back where it came from
+    sendPing(port);
+    return;
+  }
+  num_recv += line.length();
+  num_lines++;
+  if (int(line.substring(0, 8)) != next_line) {
+    num_fail++;
+  }
+  next_line = (next_line+1) % linesPerBlock;
+}
+
+void exit() {
+  socat.destroy();
+  super.exit();
+}